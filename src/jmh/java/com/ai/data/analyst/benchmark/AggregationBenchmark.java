@@ -0,0 +1,63 @@
+package com.ai.data.analyst.benchmark;
+
+import com.ai.data.analyst.service.AggregationExecutor;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end cost of {@link AggregationExecutor#execute} with the result cache off: the guard
+ * rewrite and either the MongoDB aggregation or the in-memory column store. The monthly rollup
+ * pipeline answers the same question from {@code superStoreMonthly}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AggregationBenchmark {
+
+    private static final String MONTHLY_PIPELINE = """
+            [{"$match": {"category": "Technology", "region": {"$in": ["East", "West"]}}},
+             {"$group": {"_id": {"year": {"$year": "$orderMonth"}, "month": {"$month": "$orderMonth"}},
+                         "sales": {"$sum": "$sales"}, "profit": {"$sum": "$profit"}, "orders": {"$sum": "$orderLines"}}},
+             {"$sort": {"_id.year": 1, "_id.month": 1}}]""";
+
+    @Param({"false", "true"})
+    private boolean columnar;
+
+    private AggregationExecutor aggregationExecutor;
+    private List<Document> pipeline;
+    private List<Document> monthlyPipeline;
+
+    @Setup
+    public void setUp(MongoState mongo) throws IOException {
+        aggregationExecutor = BenchmarkFixtures.aggregationExecutor(mongo.mongoTemplate, mongo.datasetGeneration, columnar);
+        pipeline = BenchmarkFixtures.parse(BenchmarkFixtures.PIPELINE);
+        monthlyPipeline = BenchmarkFixtures.parse(MONTHLY_PIPELINE);
+    }
+
+    @Benchmark
+    public List<Document> superStore() {
+        return aggregationExecutor.execute("superStore", pipeline);
+    }
+
+    @Benchmark
+    public List<Document> monthlyRollup() {
+        return aggregationExecutor.execute("superStoreMonthly", monthlyPipeline);
+    }
+}
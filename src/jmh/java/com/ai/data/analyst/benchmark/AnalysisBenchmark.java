@@ -0,0 +1,77 @@
+package com.ai.data.analyst.benchmark;
+
+import com.ai.data.analyst.cache.AnalysisCoalescer;
+import com.ai.data.analyst.cache.PipelineCache;
+import com.ai.data.analyst.prompt.PromptBuilder;
+import com.ai.data.analyst.service.AggregationExecutor;
+import com.ai.data.analyst.service.DataAnalystService;
+import com.ai.data.analyst.service.PipelineRetryEngine;
+import com.ai.data.analyst.service.PipelineSpeculator;
+import com.ai.data.analyst.service.PipelineValidator;
+import com.ai.data.analyst.service.ResultCompactor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The full analysis path of {@link DataAnalystService#generateAnalysis} against a stubbed model,
+ * so the measurement covers prompt formatting, pipeline parsing and validation, the guard, the
+ * aggregation and result compaction but not the model itself. Both caches are off unless {@code pipelineCache}
+ * is set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalysisBenchmark {
+
+    private static final String PROMPT = "How did Technology sales and profit develop per month in the East and West?";
+
+    @Param({"false", "true"})
+    private boolean pipelineCache;
+
+    private DataAnalystService dataAnalystService;
+
+    @Setup
+    public void setUp(MongoState mongo) {
+        StubGeminiHandler geminiHandler = new StubGeminiHandler();
+        AggregationExecutor aggregationExecutor = BenchmarkFixtures.aggregationExecutor(mongo.mongoTemplate, mongo.datasetGeneration, false);
+        PipelineValidator pipelineValidator = new PipelineValidator();
+        PromptBuilder promptBuilder = BenchmarkFixtures.promptBuilder(geminiHandler);
+        PipelineRetryEngine retryEngine = new PipelineRetryEngine(geminiHandler, pipelineValidator, aggregationExecutor,
+                BenchmarkFixtures.METRICS, promptBuilder);
+        ReflectionTestUtils.setField(retryEngine, "maxAttempts", 3);
+        ReflectionTestUtils.setField(retryEngine, "budget", Duration.ofSeconds(45));
+        PipelineSpeculator speculator = new PipelineSpeculator(geminiHandler, retryEngine, BenchmarkFixtures.METRICS, 0);
+        dataAnalystService = new DataAnalystService(
+                geminiHandler,
+                aggregationExecutor,
+                pipelineValidator,
+                retryEngine,
+                speculator,
+                new PipelineCache(pipelineCache, 500, Duration.ofHours(6)),
+                new ResultCompactor(50, 8000, 5),
+                BenchmarkFixtures.METRICS,
+                new AnalysisCoalescer(Runnable::run, false, Duration.ofSeconds(110)),
+                promptBuilder);
+    }
+
+    @Benchmark
+    public String generateAnalysis() {
+        return dataAnalystService.generateAnalysis(PROMPT);
+    }
+}
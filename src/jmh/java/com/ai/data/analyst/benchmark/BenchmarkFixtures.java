@@ -0,0 +1,142 @@
+package com.ai.data.analyst.benchmark;
+
+import com.ai.data.analyst.cache.AggregationResultCache;
+import com.ai.data.analyst.cache.DatasetGeneration;
+import com.ai.data.analyst.columnar.ColumnarEngine;
+import com.ai.data.analyst.entity.SuperStore;
+import com.ai.data.analyst.handler.GeminiHandler;
+import com.ai.data.analyst.metrics.AnalysisMetrics;
+import com.ai.data.analyst.prompt.ContextCache;
+import com.ai.data.analyst.prompt.PromptBuilder;
+import com.ai.data.analyst.prompt.SchemaFieldSelector;
+import com.ai.data.analyst.service.AggregationExecutor;
+import com.ai.data.analyst.service.CsvDateParser;
+import com.ai.data.analyst.service.CsvIngestService;
+import com.ai.data.analyst.service.IndexAdvisor;
+import com.ai.data.analyst.service.PipelineGuard;
+import com.ai.data.analyst.service.SuperStoreBatchWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Wires the services the benchmarks exercise by hand, with the same settings application.yml
+ * applies, so no Spring context has to start inside the forked benchmark JVMs.
+ */
+final class BenchmarkFixtures {
+
+    static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    static final AnalysisMetrics METRICS = new AnalysisMetrics(new SimpleMeterRegistry());
+
+    /**
+     * A representative generated pipeline: a filter on two dimensions, a group by month and a
+     * sort, the shape most analyst questions take.
+     */
+    static final String PIPELINE = """
+            [{"$match": {"category": "Technology", "region": {"$in": ["East", "West"]}}},
+             {"$group": {"_id": {"year": {"$year": "$orderDate"}, "month": {"$month": "$orderDate"}},
+                         "sales": {"$sum": "$sales"}, "profit": {"$sum": "$profit"}, "orders": {"$sum": 1}}},
+             {"$sort": {"_id.year": 1, "_id.month": 1}}]""";
+
+    private BenchmarkFixtures() {
+    }
+
+    static CsvIngestService ingestService(SuperStoreBatchWriter batchWriter, int threads) {
+        CsvIngestService ingestService = new CsvIngestService(batchWriter);
+        ReflectionTestUtils.setField(ingestService, "batchSize", 1000);
+        ReflectionTestUtils.setField(ingestService, "dateOrder", CsvDateParser.DateOrder.AUTO);
+        ReflectionTestUtils.setField(ingestService, "ambiguousDateOrder", CsvDateParser.DateOrder.DMY);
+        ReflectionTestUtils.setField(ingestService, "dateSampleSize", 1000);
+        ReflectionTestUtils.setField(ingestService, "parallelThreads", threads);
+        ReflectionTestUtils.setField(ingestService, "parallelChunkLines", 5000);
+        ReflectionTestUtils.setField(ingestService, "parallelOrdered", false);
+        return ingestService;
+    }
+
+    static PipelineGuard pipelineGuard(MongoTemplate mongoTemplate) {
+        PipelineGuard pipelineGuard = new PipelineGuard(mongoTemplate);
+        ReflectionTestUtils.setField(pipelineGuard, "maxResultRows", 1000);
+        ReflectionTestUtils.setField(pipelineGuard, "maxJoins", 2);
+        ReflectionTestUtils.setField(pipelineGuard, "maxTime", Duration.ofSeconds(30));
+        ReflectionTestUtils.setField(pipelineGuard, "allowDiskUse", false);
+        ReflectionTestUtils.setField(pipelineGuard, "explainEnabled", false);
+        ReflectionTestUtils.setField(pipelineGuard, "maxCollectionScanDocuments", 5_000_000L);
+        ReflectionTestUtils.setField(pipelineGuard, "allowedCollections", Set.of("superStore", "superStoreDaily", "superStoreMonthly"));
+        return pipelineGuard;
+    }
+
+    /**
+     * Builds an executor without a result cache, so every invocation reaches the engine.
+     *
+     * @param columnar whether pipelines the column store supports run in memory
+     */
+    static AggregationExecutor aggregationExecutor(MongoTemplate mongoTemplate, DatasetGeneration datasetGeneration, boolean columnar) {
+        AggregationResultCache resultCache = new AggregationResultCache(datasetGeneration, false, DataSize.ofMegabytes(64), Duration.ofHours(1));
+        IndexAdvisor indexAdvisor = new IndexAdvisor(mongoTemplate);
+        ColumnarEngine columnarEngine = new ColumnarEngine(mongoTemplate, datasetGeneration);
+        ReflectionTestUtils.setField(columnarEngine, "enabled", columnar);
+        ReflectionTestUtils.setField(columnarEngine, "maxRows", 10_000_000L);
+        if (columnar) {
+            awaitColumnarLoad(columnarEngine);
+        }
+        return new AggregationExecutor(mongoTemplate, resultCache, datasetGeneration, pipelineGuard(mongoTemplate),
+                indexAdvisor, columnarEngine, METRICS);
+    }
+
+    /**
+     * Builds the prompt builder with schema trimming on and no context cache.
+     */
+    static PromptBuilder promptBuilder(GeminiHandler geminiHandler) {
+        return new PromptBuilder(new SchemaFieldSelector(List.of("orderDate", "sales", "quantity", "profit")),
+                new ContextCache(geminiHandler), METRICS);
+    }
+
+    static List<Document> parse(String json) throws IOException {
+        return OBJECT_MAPPER.readValue(json, OBJECT_MAPPER.getTypeFactory().constructCollectionType(List.class, Document.class));
+    }
+
+    /**
+     * The column store loads in the background on first use; wait for it so the measurement
+     * does not include Mongo fallbacks.
+     */
+    private static void awaitColumnarLoad(ColumnarEngine columnarEngine) {
+        try {
+            List<Document> pipeline = parse(PIPELINE);
+            long deadline = System.nanoTime() + Duration.ofMinutes(5).toNanos();
+            while (columnarEngine.execute("superStore", pipeline).isEmpty()) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("Column store did not load");
+                }
+                Thread.sleep(100);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Accepts batches without writing them, so only parsing and mapping are measured.
+     */
+    static class DiscardingBatchWriter extends SuperStoreBatchWriter {
+
+        DiscardingBatchWriter() {
+            super(null, null, null);
+        }
+
+        @Override
+        public int write(List<SuperStore> batch) {
+            return batch.size();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.ai.data.analyst.benchmark;
+
+import com.ai.data.analyst.service.CsvDateParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-value cost of {@link CsvDateParser#parse}, which runs twice for every ingested row, and of
+ * the order detection that runs once per file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateParserBenchmark {
+
+    private static final List<String> SAMPLES = List.of(
+            "11-08-2016", "6/16/2016", "10-11-2015", "6/9/2014", "4/15/2017", "12/8/2016", "11/22/2015", "2014-11-11");
+
+    private CsvDateParser parser;
+
+    @Setup
+    public void setUp() {
+        parser = CsvDateParser.detect(SAMPLES, CsvDateParser.DateOrder.DMY);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void parseDate(Blackhole blackhole) {
+        for (String sample : SAMPLES) {
+            LocalDate date = parser.parse(sample);
+            blackhole.consume(date);
+        }
+    }
+
+    @Benchmark
+    public CsvDateParser detectOrder() {
+        return CsvDateParser.detect(SAMPLES, CsvDateParser.DateOrder.DMY);
+    }
+}
@@ -0,0 +1,74 @@
+package com.ai.data.analyst.benchmark;
+
+import com.ai.data.analyst.loadtest.SampleCsv;
+import com.ai.data.analyst.model.IngestResult;
+import com.ai.data.analyst.service.CsvIngestService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CSV parse and mapping cost of {@link CsvIngestService} for growing files, in sequential and
+ * parallel mode. Batches are discarded, so the database is not part of the measurement.
+ *
+ * <p>Parallel mode uses every core by default; to see how it scales, sweep the thread count,
+ * e.g. {@code -Djmh.args="IngestBenchmark -p parallel=true -p threads=1,2,4,8"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class IngestBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    private int rows;
+
+    @Param({"false", "true"})
+    private boolean parallel;
+
+    /**
+     * Parse threads in parallel mode, 0 for one per core.
+     */
+    @Param({"0"})
+    private int threads;
+
+    private Path csv;
+    private CsvIngestService ingestService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        csv = SampleCsv.replicate(rows);
+        ingestService = BenchmarkFixtures.ingestService(new BenchmarkFixtures.DiscardingBatchWriter(),
+                threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(csv);
+    }
+
+    @Benchmark
+    public IngestResult parseCsvFile() throws IOException {
+        try (InputStream in = Files.newInputStream(csv)) {
+            return ingestService.ingest(in, parallel);
+        }
+    }
+}
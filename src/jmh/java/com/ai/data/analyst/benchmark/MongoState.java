@@ -0,0 +1,80 @@
+package com.ai.data.analyst.benchmark;
+
+import com.ai.data.analyst.cache.DatasetGeneration;
+import com.ai.data.analyst.loadtest.SampleCsv;
+import com.ai.data.analyst.service.RollupService;
+import com.ai.data.analyst.service.SuperStoreBatchWriter;
+import com.ai.data.analyst.storage.CompactStorage;
+import com.ai.data.analyst.storage.DimensionDictionary;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.MongoDBContainer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A MongoDB loaded with the replicated sample data and its rollups. Uses the server given by
+ * {@code -Dbenchmark.mongodb.uri} if set, otherwise starts a throwaway container; the row count
+ * comes from {@code -Dbenchmark.rows} (default 100,000).
+ */
+@State(Scope.Benchmark)
+public class MongoState {
+
+    private static final String DATABASE = "benchmark";
+
+    private MongoDBContainer container;
+    private MongoClient client;
+
+    MongoTemplate mongoTemplate;
+    DatasetGeneration datasetGeneration;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        String uri = System.getProperty("benchmark.mongodb.uri");
+        if (uri == null) {
+            container = new MongoDBContainer("mongo:7.0");
+            container.start();
+            uri = container.getConnectionString();
+        }
+        client = MongoClients.create(uri);
+        mongoTemplate = new MongoTemplate(client, DATABASE);
+        datasetGeneration = new DatasetGeneration();
+        mongoTemplate.getDb().drop();
+        seed(Integer.getInteger("benchmark.rows", 100_000));
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        if (client != null) {
+            client.getDatabase(DATABASE).drop();
+            client.close();
+        }
+        if (container != null) {
+            container.stop();
+        }
+    }
+
+    private void seed(int rows) throws IOException {
+        RollupService rollupService = new RollupService(mongoTemplate, datasetGeneration);
+        ReflectionTestUtils.setField(rollupService, "enabled", true);
+        SuperStoreBatchWriter batchWriter = new SuperStoreBatchWriter(mongoTemplate, rollupService,
+                new CompactStorage(mongoTemplate, new DimensionDictionary(mongoTemplate), datasetGeneration));
+        Path csv = SampleCsv.replicate(rows);
+        try (InputStream in = Files.newInputStream(csv)) {
+            BenchmarkFixtures.ingestService(batchWriter, Runtime.getRuntime().availableProcessors()).ingest(in, true);
+        } finally {
+            Files.deleteIfExists(csv);
+        }
+        datasetGeneration.bump();
+    }
+}
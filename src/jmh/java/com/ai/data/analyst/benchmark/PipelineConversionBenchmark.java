@@ -0,0 +1,74 @@
+package com.ai.data.analyst.benchmark;
+
+import com.ai.data.analyst.model.GeneratedPipeline;
+import com.ai.data.analyst.service.PipelineGuard;
+import com.ai.data.analyst.service.PipelineValidator;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning the model's JSON answer into a pipeline MongoDB can run: Jackson parsing into
+ * documents, the local validation, the guard rewrite and the conversion to aggregation
+ * operations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineConversionBenchmark {
+
+    private PipelineGuard pipelineGuard;
+    private PipelineValidator pipelineValidator;
+    private List<Document> parsed;
+    private GeneratedPipeline generated;
+
+    @Setup
+    public void setUp() throws IOException {
+        pipelineGuard = BenchmarkFixtures.pipelineGuard(null);
+        parsed = BenchmarkFixtures.parse(BenchmarkFixtures.PIPELINE);
+        pipelineValidator = new PipelineValidator();
+        generated = pipelineValidator.parse(BenchmarkFixtures.PIPELINE);
+    }
+
+    @Benchmark
+    public List<Document> parseJson() throws IOException {
+        return BenchmarkFixtures.parse(BenchmarkFixtures.PIPELINE);
+    }
+
+    @Benchmark
+    public GeneratedPipeline validate() {
+        pipelineValidator.validate(generated);
+        return generated;
+    }
+
+    @Benchmark
+    public List<Document> guardRewrite() {
+        return pipelineGuard.rewrite("superStore", parsed);
+    }
+
+    @Benchmark
+    public List<Document> toAggregation() throws IOException {
+        List<AggregationOperation> operations = pipelineGuard.rewrite("superStore", BenchmarkFixtures.parse(BenchmarkFixtures.PIPELINE))
+                .stream()
+                .map(document -> (AggregationOperation) context -> document)
+                .toList();
+        return Aggregation.newAggregation(operations).toPipeline(Aggregation.DEFAULT_CONTEXT);
+    }
+}
@@ -0,0 +1,53 @@
+package com.ai.data.analyst.benchmark;
+
+import com.ai.data.analyst.handler.GeminiHandler;
+import com.ai.data.analyst.prompt.Prompt;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Deterministic stand-in for Gemini that answers without network or model latency: pipeline
+ * prompts get {@link BenchmarkFixtures#PIPELINE}, every other prompt a fixed narrative.
+ */
+class StubGeminiHandler extends GeminiHandler {
+
+    private static final String NARRATIVE = "1. Executive Summary\nTechnology sales in the East and West grow every year.";
+
+    @Override
+    public String generateContent(CallType type, String prompt) {
+        return prompt.contains("aggregation pipeline") ? BenchmarkFixtures.PIPELINE : NARRATIVE;
+    }
+
+    @Override
+    public String generateContent(CallType type, Prompt prompt) {
+        return generateContent(type, prompt.text());
+    }
+
+    @Override
+    public CompletableFuture<String> generateContentAsync(CallType type, String prompt) {
+        return CompletableFuture.completedFuture(generateContent(type, prompt));
+    }
+
+    @Override
+    public CompletableFuture<String> generateContentAsync(CallType type, String prompt, Double temperature) {
+        return generateContentAsync(type, prompt);
+    }
+
+    @Override
+    public CompletableFuture<String> generateContentAsync(CallType type, Prompt prompt, Double temperature) {
+        return generateContentAsync(type, prompt.text());
+    }
+
+    @Override
+    public CompletableFuture<String> streamContent(CallType type, String prompt, Consumer<String> onChunk) {
+        String text = generateContent(type, prompt);
+        onChunk.accept(text);
+        return CompletableFuture.completedFuture(text);
+    }
+
+    @Override
+    public CompletableFuture<String> streamContent(CallType type, Prompt prompt, Consumer<String> onChunk) {
+        return streamContent(type, prompt.text(), onChunk);
+    }
+}
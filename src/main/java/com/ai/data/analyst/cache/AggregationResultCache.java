@@ -0,0 +1,117 @@
+package com.ai.data.analyst.cache;
+
+import com.ai.data.analyst.model.CacheStats;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Caches aggregation results by a canonical hash of the pipeline. Entries are tagged with the
+ * dataset generation they were computed from and are discarded once an ingest has advanced it,
+ * so results are never stale. The cache is bounded by the estimated size of the results.
+ */
+@Component
+public class AggregationResultCache {
+
+    private static final JsonWriterSettings CANONICAL_JSON = JsonWriterSettings.builder()
+            .outputMode(JsonMode.EXTENDED)
+            .build();
+
+    private static final List<String> NON_DETERMINISTIC = List.of("$$NOW", "$$CLUSTER_TIME", "$rand", "$sample");
+
+    private final boolean enabled;
+    private final DatasetGeneration datasetGeneration;
+    private final BoundedCache<String, CachedResult> cache;
+
+    @Autowired
+    public AggregationResultCache(DatasetGeneration datasetGeneration,
+                                  @Value("${cache.result.enabled:true}") boolean enabled,
+                                  @Value("${cache.result.max-size:64MB}") DataSize maxSize,
+                                  @Value("${cache.result.ttl:1h}") Duration ttl) {
+        this.datasetGeneration = datasetGeneration;
+        this.enabled = enabled;
+        this.cache = new BoundedCache<>("result", maxSize.toBytes(), ttl, (key, value) -> value.estimatedBytes());
+    }
+
+    /**
+     * Computes the cache key of a pipeline, or null if the pipeline must not be cached because
+     * its output depends on more than the stored data.
+     *
+     * @param collection the collection the pipeline runs against
+     * @param pipeline   the pipeline stages
+     * @return the hex SHA-256 of the canonical pipeline, or null
+     */
+    public String key(String collection, List<Document> pipeline) {
+        if (!enabled) {
+            return null;
+        }
+        StringBuilder canonical = new StringBuilder(collection);
+        for (Document stage : pipeline) {
+            canonical.append('\n').append(stage.toJson(CANONICAL_JSON));
+        }
+        String json = canonical.toString();
+        if (NON_DETERMINISTIC.stream().anyMatch(json::contains)) {
+            return null;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Optional<List<Document>> get(String key) {
+        if (key == null) {
+            return Optional.empty();
+        }
+        Optional<CachedResult> cached = cache.get(key);
+        if (cached.isPresent() && cached.get().generation() != datasetGeneration.current()) {
+            cache.invalidate(key);
+            return Optional.empty();
+        }
+        return cached.map(CachedResult::results);
+    }
+
+    /**
+     * Stores results computed from the given dataset generation. Results computed while an ingest
+     * was running are dropped because the generation has moved on by the time they are stored.
+     *
+     * @param key        the pipeline key
+     * @param generation the dataset generation read before the aggregation started
+     * @param results    the aggregation results
+     */
+    public void put(String key, long generation, List<Document> results) {
+        if (key == null || generation != datasetGeneration.current()) {
+            return;
+        }
+        long bytes = 64;
+        for (Document result : results) {
+            bytes += 2L * result.toJson().length();
+        }
+        cache.put(key, new CachedResult(generation, List.copyOf(results), bytes));
+    }
+
+    public int invalidateAll() {
+        return cache.invalidateAll();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private record CachedResult(long generation, List<Document> results, long estimatedBytes) {
+    }
+}
@@ -0,0 +1,65 @@
+package com.ai.data.analyst.cache;
+
+import com.ai.data.analyst.config.AsyncConfig;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Lets concurrent analyse requests for the same prompt share one computation, so a burst of
+ * identical questions, e.g. from a dashboard loading for many users at once, costs one set of
+ * Gemini calls and one aggregation. Requests are matched on the trimmed, lower-cased prompt rather
+ * than on the {@link PromptNormalizer} key: a shared narrative answers the exact question, and a
+ * looser match would hand one user the answer to another user's question.
+ */
+@Component
+public class AnalysisCoalescer {
+
+    private final boolean enabled;
+    private final Executor executor;
+    private final SingleFlight<String, String> flights;
+
+    public AnalysisCoalescer(@Qualifier(AsyncConfig.ANALYSIS_EXECUTOR) Executor executor,
+                             @Value("${analysis.single-flight.enabled:true}") boolean enabled,
+                             @Value("${analysis.single-flight.timeout:110s}") Duration timeout) {
+        this.enabled = enabled;
+        this.executor = executor;
+        this.flights = new SingleFlight<>(executor, timeout);
+    }
+
+    /**
+     * Runs the analysis for the prompt on the analysis executor, joining an identical one that
+     * is already running.
+     *
+     * @param prompt   the analyst question
+     * @param analysis computes the narrative
+     * @return a future completed with the narrative
+     */
+    public CompletableFuture<String> execute(String prompt, Callable<String> analysis) {
+        if (!enabled) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return analysis.call();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+        return flights.execute(key(prompt), analysis);
+    }
+
+    static String key(String prompt) {
+        return prompt == null ? "" : prompt.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public SingleFlight<String, String> flights() {
+        return flights;
+    }
+}
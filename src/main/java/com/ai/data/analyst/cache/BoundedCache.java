@@ -0,0 +1,140 @@
+package com.ai.data.analyst.cache;
+
+import com.ai.data.analyst.model.CacheStats;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Small thread-safe LRU cache with a time-to-live and a weight budget. Each entry is weighed when
+ * it is stored and the least recently used entries are evicted until the total weight fits the
+ * budget, so the same class serves count-bounded and memory-bounded caches.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class BoundedCache<K, V> {
+
+    private final String name;
+    private final long maxWeight;
+    private final long ttlNanos;
+    private final ToLongBiFunction<K, V> weigher;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalWeight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * Creates a cache bounded by the number of entries.
+     *
+     * @param name       the cache name reported in the statistics
+     * @param maxEntries the maximum number of entries
+     * @param ttl        how long an entry stays valid after it is stored
+     */
+    public BoundedCache(String name, long maxEntries, Duration ttl) {
+        this(name, maxEntries, ttl, (key, value) -> 1);
+    }
+
+    /**
+     * Creates a cache bounded by the total weight of its entries.
+     *
+     * @param name      the cache name reported in the statistics
+     * @param maxWeight the maximum total weight
+     * @param ttl       how long an entry stays valid after it is stored
+     * @param weigher   computes the weight of an entry when it is stored
+     */
+    public BoundedCache(String name, long maxWeight, Duration ttl, ToLongBiFunction<K, V> weigher) {
+        this.name = name;
+        this.maxWeight = maxWeight;
+        this.ttlNanos = ttl.toNanos();
+        this.weigher = weigher;
+    }
+
+    public Optional<V> get(K key) {
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.isExpired(System.nanoTime())) {
+                removeEntry(key);
+                expirations.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return Optional.empty();
+            }
+            hits.incrementAndGet();
+            return Optional.of(entry.value);
+        }
+    }
+
+    public void put(K key, V value) {
+        long weight = weigher.applyAsLong(key, value);
+        if (weight > maxWeight) {
+            return;
+        }
+        synchronized (entries) {
+            removeEntry(key);
+            entries.put(key, new Entry<>(value, weight, System.nanoTime() + ttlNanos));
+            totalWeight += weight;
+            Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+            while (totalWeight > maxWeight && eldest.hasNext()) {
+                totalWeight -= eldest.next().getValue().weight;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public boolean invalidate(K key) {
+        synchronized (entries) {
+            return removeEntry(key) != null;
+        }
+    }
+
+    public int invalidateAll() {
+        synchronized (entries) {
+            int size = entries.size();
+            entries.clear();
+            totalWeight = 0;
+            return size;
+        }
+    }
+
+    public CacheStats stats() {
+        synchronized (entries) {
+            return CacheStats.builder()
+                    .name(name)
+                    .size(entries.size())
+                    .weight(totalWeight)
+                    .maxWeight(maxWeight)
+                    .hits(hits.get())
+                    .misses(misses.get())
+                    .evictions(evictions.get())
+                    .expirations(expirations.get())
+                    .build();
+        }
+    }
+
+    private Entry<V> removeEntry(K key) {
+        Entry<V> removed = entries.remove(key);
+        if (removed != null) {
+            totalWeight -= removed.weight;
+        }
+        return removed;
+    }
+
+    private record Entry<V>(V value, long weight, long expiresAtNanos) {
+
+        boolean isExpired(long now) {
+            return now - expiresAtNanos > 0;
+        }
+    }
+}
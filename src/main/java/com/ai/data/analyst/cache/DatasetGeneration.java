@@ -0,0 +1,27 @@
+package com.ai.data.analyst.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonic counter of dataset changes. Every ingest bumps it, and cached aggregation results
+ * tagged with an older generation are never served.
+ */
+@Component
+@Slf4j
+public class DatasetGeneration {
+
+    private final AtomicLong generation = new AtomicLong();
+
+    public long current() {
+        return generation.get();
+    }
+
+    public long bump() {
+        long next = generation.incrementAndGet();
+        log.info("Dataset generation advanced to {}", next);
+        return next;
+    }
+}
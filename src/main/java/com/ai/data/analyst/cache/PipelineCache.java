@@ -0,0 +1,57 @@
+package com.ai.data.analyst.cache;
+
+import com.ai.data.analyst.model.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Caches generated aggregation pipelines by normalized prompt, so repeated questions skip the
+ * pipeline-generation round trip to Gemini. Only pipelines that executed successfully are stored.
+ */
+@Component
+@Slf4j
+public class PipelineCache {
+
+    private final boolean enabled;
+    private final BoundedCache<String, String> cache;
+
+    public PipelineCache(@Value("${cache.pipeline.enabled:true}") boolean enabled,
+                         @Value("${cache.pipeline.max-entries:500}") long maxEntries,
+                         @Value("${cache.pipeline.ttl:6h}") Duration ttl) {
+        this.enabled = enabled;
+        this.cache = new BoundedCache<>("pipeline", maxEntries, ttl);
+    }
+
+    public Optional<String> get(String prompt) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        return cache.get(PromptNormalizer.normalize(prompt));
+    }
+
+    public void put(String prompt, String jsonPipeline) {
+        if (enabled) {
+            cache.put(PromptNormalizer.normalize(prompt), jsonPipeline);
+        }
+    }
+
+    public boolean invalidate(String prompt) {
+        boolean removed = cache.invalidate(PromptNormalizer.normalize(prompt));
+        log.info("Invalidated cached pipeline for prompt '{}': {}", prompt, removed);
+        return removed;
+    }
+
+    public int invalidateAll() {
+        int removed = cache.invalidateAll();
+        log.info("Invalidated {} cached pipelines", removed);
+        return removed;
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+}
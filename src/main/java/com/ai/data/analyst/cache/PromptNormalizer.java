@@ -0,0 +1,73 @@
+package com.ai.data.analyst.cache;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reduces an analyst question to a canonical key, so that trivially different phrasings of the
+ * same question ("Top 5 states by profit?" and "please show the top five   states by profit")
+ * share a key. Case, punctuation, whitespace and filler words are dropped and numeric literals
+ * are rewritten to a single canonical form; the numbers themselves stay part of the key because
+ * they change the generated pipeline. Only words that never change what is asked count as
+ * filler: connectives such as "to", "or", "by" and quantifiers such as "all" are kept, since
+ * "2015 to 2017" and "2015 or 2017" need different pipelines.
+ */
+public final class PromptNormalizer {
+
+    private static final Set<String> FILLER_WORDS = Set.of(
+            "a", "an", "the", "please", "show", "give", "tell", "me", "can", "could", "would", "you");
+
+    private static final Map<String, String> NUMBER_WORDS = Map.ofEntries(
+            Map.entry("one", "1"), Map.entry("two", "2"), Map.entry("three", "3"),
+            Map.entry("four", "4"), Map.entry("five", "5"), Map.entry("six", "6"),
+            Map.entry("seven", "7"), Map.entry("eight", "8"), Map.entry("nine", "9"),
+            Map.entry("ten", "10"), Map.entry("twenty", "20"), Map.entry("fifty", "50"),
+            Map.entry("hundred", "100"));
+
+    private PromptNormalizer() {
+    }
+
+    /**
+     * Normalizes a prompt into a cache key.
+     *
+     * @param prompt the analyst question
+     * @return the normalized key, empty for a blank prompt
+     */
+    public static String normalize(String prompt) {
+        if (prompt == null) {
+            return "";
+        }
+        StringBuilder key = new StringBuilder(prompt.length());
+        for (String token : prompt.toLowerCase().split("[^\\p{L}\\p{N}.%$]+")) {
+            token = stripTrailingDots(token);
+            if (token.isEmpty() || FILLER_WORDS.contains(token)) {
+                continue;
+            }
+            if (key.length() > 0) {
+                key.append(' ');
+            }
+            key.append(canonicalNumber(NUMBER_WORDS.getOrDefault(token, token)));
+        }
+        return key.toString();
+    }
+
+    private static String stripTrailingDots(String token) {
+        int end = token.length();
+        while (end > 0 && token.charAt(end - 1) == '.') {
+            end--;
+        }
+        return token.substring(0, end);
+    }
+
+    private static String canonicalNumber(String token) {
+        if (token.isEmpty() || !Character.isDigit(token.charAt(0))) {
+            return token;
+        }
+        try {
+            return new BigDecimal(token).stripTrailingZeros().toPlainString();
+        } catch (NumberFormatException e) {
+            return token;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.ai.data.analyst.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent computations of the same key: the first caller starts the computation on
+ * the executor and every caller that arrives while it runs shares its result instead of starting
+ * another one. Nothing is remembered once a computation finishes.
+ *
+ * <p>Callers never block; each gets its own future, which fails with a {@code TimeoutException}
+ * after the configured timeout. A caller that gives up, by timing out or cancelling its future,
+ * leaves the computation, and when the last caller has left the computation is cancelled and its
+ * thread interrupted. In-flight computations are tracked in a concurrent map and callers are
+ * counted with compare-and-set, so no lock is held at any point.
+ *
+ * @param <K> the key type
+ * @param <V> the result type
+ */
+@Slf4j
+public class SingleFlight<K, V> {
+
+    private final Executor executor;
+    private final Duration timeout;
+    private final ConcurrentHashMap<K, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    /**
+     * @param executor runs the computations
+     * @param timeout  how long a caller waits for the result
+     */
+    public SingleFlight(Executor executor, Duration timeout) {
+        this.executor = executor;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the result of the computation for the key, joining one that is already running.
+     *
+     * @param key         the key identifying equivalent computations
+     * @param computation computes the result if no computation for the key is running
+     * @return a future completed with the shared result
+     */
+    public CompletableFuture<V> execute(K key, Callable<V> computation) {
+        while (true) {
+            Flight flight = flights.get(key);
+            if (flight == null) {
+                Flight created = new Flight(key);
+                flight = flights.putIfAbsent(key, created);
+                if (flight == null) {
+                    started.incrementAndGet();
+                    created.start(computation);
+                    return created.waiter();
+                }
+            }
+            if (flight.join()) {
+                coalesced.incrementAndGet();
+                log.debug("Joined the in-flight computation for '{}'", key);
+                return flight.waiter();
+            }
+            // the flight was abandoned by all its callers but is still registered
+            flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * @return the number of computations currently running
+     */
+    public int inFlight() {
+        return flights.size();
+    }
+
+    /**
+     * @return the number of computations started
+     */
+    public long started() {
+        return started.get();
+    }
+
+    /**
+     * @return the number of callers that joined a running computation instead of starting one
+     */
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return the number of computations cancelled because every caller left
+     */
+    public long cancelled() {
+        return cancelled.get();
+    }
+
+    private final class Flight {
+        private final K key;
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        // the creating caller counts from the start; -1 marks a flight abandoned by all callers
+        private final AtomicInteger waiters = new AtomicInteger(1);
+        private volatile FutureTask<V> task;
+
+        Flight(K key) {
+            this.key = key;
+        }
+
+        void start(Callable<V> computation) {
+            FutureTask<V> futureTask = new FutureTask<>(computation) {
+                @Override
+                protected void done() {
+                    flights.remove(key, Flight.this);
+                    try {
+                        result.complete(get());
+                    } catch (ExecutionException e) {
+                        result.completeExceptionally(e.getCause());
+                    } catch (CancellationException | InterruptedException e) {
+                        result.cancel(false);
+                    }
+                }
+            };
+            task = futureTask;
+            try {
+                executor.execute(futureTask);
+            } catch (RejectedExecutionException e) {
+                flights.remove(key, this);
+                result.completeExceptionally(e);
+            }
+        }
+
+        boolean join() {
+            while (true) {
+                int current = waiters.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (waiters.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        CompletableFuture<V> waiter() {
+            CompletableFuture<V> waiter = new CompletableFuture<>();
+            result.whenComplete((value, error) -> {
+                if (error == null) {
+                    waiter.complete(value);
+                } else {
+                    waiter.completeExceptionally(error);
+                }
+            });
+            waiter.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            waiter.whenComplete((value, error) -> {
+                if (!result.isDone()) {
+                    leave();
+                }
+            });
+            return waiter;
+        }
+
+        private void leave() {
+            if (waiters.decrementAndGet() == 0 && waiters.compareAndSet(0, -1)) {
+                flights.remove(key, this);
+                task.cancel(true);
+                cancelled.incrementAndGet();
+                log.info("Cancelled the computation for '{}', all callers left", key);
+            }
+        }
+    }
+}
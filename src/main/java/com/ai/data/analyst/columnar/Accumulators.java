@@ -0,0 +1,171 @@
+package com.ai.data.analyst.columnar;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The supported {@code $group} accumulators with MongoDB's result types: {@code $sum} keeps ints
+ * as ints until they overflow, {@code $avg} is always a double and every accumulator ignores
+ * values it cannot use instead of failing.
+ */
+final class Accumulators {
+
+    static final Set<String> OPERATORS = Set.of("$sum", "$avg", "$min", "$max", "$count");
+
+    private Accumulators() {
+    }
+
+    /**
+     * A parsed accumulator field; {@code $count} is normalized to {@code $sum: 1}.
+     */
+    record Spec(String name, String operator, Object argument) {
+
+        static Spec parse(String name, Object spec) {
+            if (name.contains(".") || name.startsWith("$")) {
+                throw new UnsupportedPipelineException("Group field " + name + " is not supported");
+            }
+            if (!(spec instanceof Map<?, ?> map) || map.size() != 1) {
+                throw new UnsupportedPipelineException("Group field " + name + " must be a single accumulator");
+            }
+            Map.Entry<?, ?> accumulator = map.entrySet().iterator().next();
+            String operator = String.valueOf(accumulator.getKey());
+            if (!OPERATORS.contains(operator)) {
+                throw new UnsupportedPipelineException("Accumulator " + operator + " is not supported");
+            }
+            if (operator.equals("$count")) {
+                if (!(accumulator.getValue() instanceof Map<?, ?> arguments) || !arguments.isEmpty()) {
+                    throw new UnsupportedPipelineException("$count takes no arguments");
+                }
+                return new Spec(name, "$sum", 1);
+            }
+            return new Spec(name, operator, accumulator.getValue());
+        }
+
+        Accumulator create() {
+            return switch (operator) {
+                case "$sum" -> new Sum();
+                case "$avg" -> new Avg();
+                case "$min" -> new Extreme(false);
+                default -> new Extreme(true);
+            };
+        }
+    }
+
+    abstract static class Accumulator {
+
+        abstract void add(Object value);
+
+        abstract Object result();
+    }
+
+    /**
+     * Sums numbers, compensating the rounding error of doubles like MongoDB's double-double
+     * summation does.
+     */
+    static final class Sum extends Accumulator {
+        private long longSum;
+        private double doubleSum;
+        private double compensation;
+        private boolean sawLong;
+        private boolean sawDouble;
+        private long count;
+
+        @Override
+        void add(Object value) {
+            if (!(value instanceof Integer || value instanceof Long || value instanceof Double)) {
+                return;
+            }
+            count++;
+            if (value instanceof Double d) {
+                toDouble();
+                addDouble(d);
+                return;
+            }
+            sawLong |= value instanceof Long;
+            long l = ((Number) value).longValue();
+            if (sawDouble) {
+                addDouble(l);
+                return;
+            }
+            try {
+                longSum = Math.addExact(longSum, l);
+            } catch (ArithmeticException overflow) {
+                toDouble();
+                addDouble(l);
+            }
+        }
+
+        @Override
+        Object result() {
+            if (sawDouble) {
+                return compensated(doubleSum, compensation);
+            }
+            return Values.integral(longSum, sawLong);
+        }
+
+        long count() {
+            return count;
+        }
+
+        private void toDouble() {
+            if (!sawDouble) {
+                sawDouble = true;
+                doubleSum = longSum;
+            }
+        }
+
+        private void addDouble(double value) {
+            double sum = doubleSum + value;
+            compensation += Math.abs(doubleSum) >= Math.abs(value) ? (doubleSum - sum) + value : (value - sum) + doubleSum;
+            doubleSum = sum;
+        }
+    }
+
+    static final class Avg extends Accumulator {
+        private final Sum sum = new Sum();
+
+        @Override
+        void add(Object value) {
+            sum.add(value);
+        }
+
+        @Override
+        Object result() {
+            return sum.count() == 0 ? null : ((Number) sum.result()).doubleValue() / sum.count();
+        }
+    }
+
+    /**
+     * {@code $min} or {@code $max} in BSON order, ignoring nulls and missing values.
+     */
+    static final class Extreme extends Accumulator {
+        private final boolean max;
+        private Object best = Values.MISSING;
+
+        Extreme(boolean max) {
+            this.max = max;
+        }
+
+        @Override
+        void add(Object value) {
+            if (Values.isNullish(value)) {
+                return;
+            }
+            if (best == Values.MISSING || (max ? Values.compare(value, best) > 0 : Values.compare(value, best) < 0)) {
+                best = value;
+            }
+        }
+
+        @Override
+        Object result() {
+            return best == Values.MISSING ? null : best;
+        }
+    }
+
+    /**
+     * The Neumaier-compensated total of a sum, unless the sum overflowed to an infinity.
+     */
+    static double compensated(double sum, double compensation) {
+        return Double.isFinite(sum) ? sum + compensation : sum;
+    }
+}
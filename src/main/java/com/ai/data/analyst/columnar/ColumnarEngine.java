@@ -0,0 +1,117 @@
+package com.ai.data.analyst.columnar;
+
+import com.ai.data.analyst.cache.DatasetGeneration;
+import com.ai.data.analyst.service.DataAnalystService;
+import com.mongodb.client.MongoCollection;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Answers pipelines on the superStore collection from an in-memory {@link ColumnarStore} when
+ * the collection is small enough to hold. The store is loaded in the background for the current
+ * dataset generation; until it is ready, and for pipelines the interpreter does not support, the
+ * caller runs the pipeline on MongoDB.
+ */
+@Component
+@Slf4j
+public class ColumnarEngine {
+
+    private final MongoTemplate mongoTemplate;
+    private final DatasetGeneration datasetGeneration;
+    private final AtomicBoolean loading = new AtomicBoolean();
+    private volatile Snapshot snapshot;
+
+    @Value("${columnar.enabled:false}")
+    private boolean enabled;
+
+    @Value("${columnar.max-rows:1000000}")
+    private long maxRows;
+
+    @Autowired
+    public ColumnarEngine(MongoTemplate mongoTemplate, DatasetGeneration datasetGeneration) {
+        this.mongoTemplate = mongoTemplate;
+        this.datasetGeneration = datasetGeneration;
+    }
+
+    /**
+     * Runs the pipeline in memory if possible.
+     *
+     * @param collection the collection the pipeline runs against
+     * @param pipeline   the guarded pipeline stages
+     * @return the results, or empty if the pipeline has to run on MongoDB
+     */
+    public Optional<List<Document>> execute(String collection, List<Document> pipeline) {
+        if (!enabled || !DataAnalystService.SUPER_STORE.equals(collection)) {
+            return Optional.empty();
+        }
+        ColumnarStore store = current();
+        if (store == null) {
+            return Optional.empty();
+        }
+        try {
+            List<Document> results = new PipelineInterpreter(store).execute(pipeline);
+            log.info("Executed aggregation in memory over {} rows, {} results", store.size(), results.size());
+            return Optional.of(results);
+        } catch (UnsupportedPipelineException e) {
+            log.debug("Running pipeline on MongoDB: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return the store for the current dataset generation, or null while it is loading or if
+     * the collection cannot be held in memory
+     */
+    private ColumnarStore current() {
+        long generation = datasetGeneration.current();
+        Snapshot current = snapshot;
+        if (current != null && current.generation() == generation) {
+            return current.store();
+        }
+        if (loading.compareAndSet(false, true)) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    snapshot = new Snapshot(generation, load());
+                } finally {
+                    loading.set(false);
+                }
+            });
+        }
+        return null;
+    }
+
+    private ColumnarStore load() {
+        MongoCollection<Document> collection = mongoTemplate.getCollection(DataAnalystService.SUPER_STORE);
+        try {
+            long documents = collection.estimatedDocumentCount();
+            if (documents > maxRows) {
+                log.info("Not loading {} documents into the column store, the limit is {}", documents, maxRows);
+                return null;
+            }
+            long start = System.currentTimeMillis();
+            ColumnarStore.Builder builder = new ColumnarStore.Builder(ZoneId.systemDefault());
+            for (Document document : collection.find()) {
+                builder.add(document);
+            }
+            ColumnarStore store = builder.build();
+            log.info("Loaded {} rows into the column store in {} ms", store.size(), System.currentTimeMillis() - start);
+            return store;
+        } catch (RuntimeException e) {
+            log.warn("Could not load the column store, aggregations run on MongoDB: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private record Snapshot(long generation, ColumnarStore store) {
+    }
+}
@@ -0,0 +1,426 @@
+package com.ai.data.analyst.columnar;
+
+import org.bson.Document;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable column-oriented copy of the superStore collection. Measures are held in primitive
+ * arrays, string fields as dictionary codes and dates as epoch days, so a filter or group stage
+ * is a tight loop over one array instead of a walk over materialized documents.
+ */
+final class ColumnarStore {
+
+    enum Type {INT, DOUBLE, DATE, STRING}
+
+    /**
+     * The stored superStore document, in field order. Any other field makes a document
+     * unloadable, so the store never silently drops data the collection has.
+     */
+    static final Map<String, Type> SCHEMA;
+
+    static {
+        Map<String, Type> schema = new LinkedHashMap<>();
+        schema.put("_id", Type.INT);
+        schema.put("orderId", Type.STRING);
+        schema.put("orderDate", Type.DATE);
+        schema.put("shipDate", Type.DATE);
+        for (String field : new String[]{"shipMode", "customerId", "customerName", "segment", "country", "city", "state",
+                "postalCode", "region", "productId", "category", "subCategory", "productName"}) {
+            schema.put(field, Type.STRING);
+        }
+        schema.put("sales", Type.DOUBLE);
+        schema.put("quantity", Type.INT);
+        schema.put("discount", Type.DOUBLE);
+        schema.put("profit", Type.DOUBLE);
+        schema.put("_class", Type.STRING);
+        SCHEMA = Collections.unmodifiableMap(schema);
+    }
+
+    private final int size;
+    private final Map<String, Column> columns;
+
+    private ColumnarStore(int size, Map<String, Column> columns) {
+        this.size = size;
+        this.columns = columns;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the column, or null if documents never have the field
+     */
+    Column column(String path) {
+        return columns.get(path);
+    }
+
+    Document row(int row) {
+        Document document = new Document();
+        columns.forEach((name, column) -> {
+            Object value = column.value(row);
+            if (value != Values.MISSING) {
+                document.put(name, value);
+            }
+        });
+        return document;
+    }
+
+    /**
+     * One field of every row.
+     */
+    sealed interface Column permits DoubleColumn, IntColumn, DateColumn, StringColumn {
+
+        /**
+         * @return the boxed BSON value of the row, or {@link Values#MISSING}
+         */
+        Object value(int row);
+
+        /**
+         * Sets {@code out[row]} to whether each row satisfies the condition.
+         */
+        void match(Filters.Field condition, boolean[] out);
+
+        /**
+         * Compares two rows in BSON sort order.
+         */
+        int compare(int a, int b);
+    }
+
+    static final class DoubleColumn implements Column {
+        final double[] values;
+        final boolean hasNaN;
+
+        DoubleColumn(double[] values) {
+            this.values = values;
+            this.hasNaN = Arrays.stream(values).anyMatch(Double::isNaN);
+        }
+
+        @Override
+        public Object value(int row) {
+            return values[row];
+        }
+
+        @Override
+        public void match(Filters.Field condition, boolean[] out) {
+            if (hasNaN || !numericComparisons(condition)) {
+                for (int i = 0; i < values.length; i++) {
+                    out[i] = condition.test(values[i]);
+                }
+                return;
+            }
+            Arrays.fill(out, true);
+            for (Filters.Comparison comparison : condition.comparisons()) {
+                narrow(values, comparison.operator(), ((Number) comparison.operand()).doubleValue(), out);
+            }
+        }
+
+        @Override
+        public int compare(int a, int b) {
+            return Values.compareDoubles(values[a], values[b]);
+        }
+    }
+
+    static final class IntColumn implements Column {
+        final int[] values;
+
+        IntColumn(int[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public Object value(int row) {
+            return values[row];
+        }
+
+        @Override
+        public void match(Filters.Field condition, boolean[] out) {
+            if (!numericComparisons(condition)) {
+                for (int i = 0; i < values.length; i++) {
+                    out[i] = condition.test(values[i]);
+                }
+                return;
+            }
+            Arrays.fill(out, true);
+            for (Filters.Comparison comparison : condition.comparisons()) {
+                narrow(values, comparison.operator(), ((Number) comparison.operand()).doubleValue(), out);
+            }
+        }
+
+        @Override
+        public int compare(int a, int b) {
+            return Integer.compare(values[a], values[b]);
+        }
+    }
+
+    static final class DateColumn implements Column {
+        static final int MISSING_DAY = Integer.MIN_VALUE;
+        private static final int MAX_TABLE_DAYS = 1 << 20;
+
+        final int[] days;
+        final int minDay;
+        final int maxDay;
+        private final ZoneId zone;
+
+        DateColumn(int[] days, ZoneId zone) {
+            this.days = days;
+            this.zone = zone;
+            this.minDay = Arrays.stream(days).filter(day -> day != MISSING_DAY).min().orElse(0);
+            this.maxDay = Arrays.stream(days).filter(day -> day != MISSING_DAY).max().orElse(0);
+        }
+
+        /**
+         * The stored date of an epoch day: midnight in the zone the rows were written from.
+         */
+        Date toDate(int day) {
+            return Date.from(LocalDate.ofEpochDay(day).atStartOfDay(zone).toInstant());
+        }
+
+        boolean tabulable() {
+            return (long) maxDay - minDay < MAX_TABLE_DAYS;
+        }
+
+        @Override
+        public Object value(int row) {
+            return days[row] == MISSING_DAY ? Values.MISSING : toDate(days[row]);
+        }
+
+        @Override
+        public void match(Filters.Field condition, boolean[] out) {
+            if (!tabulable()) {
+                for (int i = 0; i < days.length; i++) {
+                    out[i] = condition.test(value(i));
+                }
+                return;
+            }
+            boolean missing = condition.test(Values.MISSING);
+            boolean[] table = new boolean[maxDay - minDay + 1];
+            for (int day = minDay; day <= maxDay; day++) {
+                table[day - minDay] = condition.test(toDate(day));
+            }
+            for (int i = 0; i < days.length; i++) {
+                out[i] = days[i] == MISSING_DAY ? missing : table[days[i] - minDay];
+            }
+        }
+
+        @Override
+        public int compare(int a, int b) {
+            return Integer.compare(days[a], days[b]);
+        }
+    }
+
+    static final class StringColumn implements Column {
+        /**
+         * Codes of the rows, -1 for a missing field.
+         */
+        final int[] codes;
+        final String[] dictionary;
+        private final int[] order;
+
+        StringColumn(int[] codes, String[] dictionary) {
+            this.codes = codes;
+            this.dictionary = dictionary;
+            this.order = new int[dictionary.length];
+            Integer[] sorted = IntStream.range(0, dictionary.length).boxed().toArray(Integer[]::new);
+            Arrays.sort(sorted, (a, b) -> Values.compareStrings(dictionary[a], dictionary[b]));
+            for (int rank = 0; rank < sorted.length; rank++) {
+                order[sorted[rank]] = rank;
+            }
+        }
+
+        @Override
+        public Object value(int row) {
+            return codes[row] < 0 ? Values.MISSING : dictionary[codes[row]];
+        }
+
+        @Override
+        public void match(Filters.Field condition, boolean[] out) {
+            boolean[] table = new boolean[dictionary.length + 1];
+            table[0] = condition.test(Values.MISSING);
+            for (int code = 0; code < dictionary.length; code++) {
+                table[code + 1] = condition.test(dictionary[code]);
+            }
+            for (int i = 0; i < codes.length; i++) {
+                out[i] = table[codes[i] + 1];
+            }
+        }
+
+        @Override
+        public int compare(int a, int b) {
+            return Integer.compare(codes[a] < 0 ? -1 : order[codes[a]], codes[b] < 0 ? -1 : order[codes[b]]);
+        }
+    }
+
+    /**
+     * Clears {@code out[row]} for every row that fails the numeric comparison.
+     */
+    private static void narrow(double[] values, String operator, double operand, boolean[] out) {
+        switch (operator) {
+            case "$eq" -> {
+                for (int i = 0; i < values.length; i++) {
+                    out[i] &= values[i] == operand;
+                }
+            }
+            case "$ne" -> {
+                for (int i = 0; i < values.length; i++) {
+                    out[i] &= values[i] != operand;
+                }
+            }
+            case "$gt" -> {
+                for (int i = 0; i < values.length; i++) {
+                    out[i] &= values[i] > operand;
+                }
+            }
+            case "$gte" -> {
+                for (int i = 0; i < values.length; i++) {
+                    out[i] &= values[i] >= operand;
+                }
+            }
+            case "$lt" -> {
+                for (int i = 0; i < values.length; i++) {
+                    out[i] &= values[i] < operand;
+                }
+            }
+            default -> {
+                for (int i = 0; i < values.length; i++) {
+                    out[i] &= values[i] <= operand;
+                }
+            }
+        }
+    }
+
+    private static void narrow(int[] values, String operator, double operand, boolean[] out) {
+        switch (operator) {
+            case "$eq" -> {
+                for (int i = 0; i < values.length; i++) {
+                    out[i] &= values[i] == operand;
+                }
+            }
+            case "$ne" -> {
+                for (int i = 0; i < values.length; i++) {
+                    out[i] &= values[i] != operand;
+                }
+            }
+            case "$gt" -> {
+                for (int i = 0; i < values.length; i++) {
+                    out[i] &= values[i] > operand;
+                }
+            }
+            case "$gte" -> {
+                for (int i = 0; i < values.length; i++) {
+                    out[i] &= values[i] >= operand;
+                }
+            }
+            case "$lt" -> {
+                for (int i = 0; i < values.length; i++) {
+                    out[i] &= values[i] < operand;
+                }
+            }
+            default -> {
+                for (int i = 0; i < values.length; i++) {
+                    out[i] &= values[i] <= operand;
+                }
+            }
+        }
+    }
+
+    private static boolean numericComparisons(Filters.Field condition) {
+        return condition.comparisons().stream().allMatch(comparison -> comparison.operand() instanceof Number number
+                && Values.rank(number) == 2 && !Double.isNaN(number.doubleValue())
+                && (comparison.isRange() || comparison.operator().equals("$eq") || comparison.operator().equals("$ne")));
+    }
+
+    /**
+     * Loads raw superStore documents into columns.
+     */
+    static final class Builder {
+        private final ZoneId zone;
+        private final Map<String, Object> arrays = new LinkedHashMap<>();
+        private final Map<String, Map<String, Integer>> dictionaries = new HashMap<>();
+        private int size;
+
+        /**
+         * @param zone the zone the rows' dates were converted from, the JVM default for rows
+         *             written by this application
+         */
+        Builder(ZoneId zone) {
+            this.zone = zone;
+            SCHEMA.forEach((name, type) -> {
+                arrays.put(name, type == Type.DOUBLE ? new double[1024] : new int[1024]);
+                if (type == Type.STRING) {
+                    dictionaries.put(name, new LinkedHashMap<>());
+                }
+            });
+        }
+
+        /**
+         * @throws IllegalArgumentException if the document does not fit the superStore schema
+         */
+        Builder add(Document document) {
+            for (String name : document.keySet()) {
+                if (!SCHEMA.containsKey(name)) {
+                    throw new IllegalArgumentException("Field " + name + " has no column");
+                }
+            }
+            if (size == ((int[]) arrays.get("_id")).length) {
+                arrays.replaceAll((name, array) -> array instanceof double[] doubles
+                        ? Arrays.copyOf(doubles, size * 2) : Arrays.copyOf((int[]) array, size * 2));
+            }
+            SCHEMA.forEach((name, type) -> {
+                Object value = document.containsKey(name) ? document.get(name) : Values.MISSING;
+                switch (type) {
+                    case DOUBLE -> ((double[]) arrays.get(name))[size] = require(name, value, Double.class);
+                    case INT -> ((int[]) arrays.get(name))[size] = require(name, value, Integer.class);
+                    case DATE -> ((int[]) arrays.get(name))[size] = value == Values.MISSING
+                            ? DateColumn.MISSING_DAY : epochDay(name, require(name, value, Date.class));
+                    case STRING -> {
+                        Map<String, Integer> dictionary = dictionaries.get(name);
+                        ((int[]) arrays.get(name))[size] = value == Values.MISSING
+                                ? -1 : dictionary.computeIfAbsent(require(name, value, String.class), key -> dictionary.size());
+                    }
+                }
+            });
+            size++;
+            return this;
+        }
+
+        ColumnarStore build() {
+            Map<String, Column> columns = new LinkedHashMap<>();
+            SCHEMA.forEach((name, type) -> {
+                Object array = arrays.get(name);
+                columns.put(name, switch (type) {
+                    case DOUBLE -> new DoubleColumn(Arrays.copyOf((double[]) array, size));
+                    case INT -> new IntColumn(Arrays.copyOf((int[]) array, size));
+                    case DATE -> new DateColumn(Arrays.copyOf((int[]) array, size), zone);
+                    case STRING -> new StringColumn(Arrays.copyOf((int[]) array, size),
+                            dictionaries.get(name).keySet().toArray(String[]::new));
+                });
+            });
+            return new ColumnarStore(size, columns);
+        }
+
+        private int epochDay(String name, Date date) {
+            LocalDate day = LocalDate.ofInstant(date.toInstant(), zone);
+            if (day.atStartOfDay(zone).toInstant().toEpochMilli() != date.getTime()) {
+                throw new IllegalArgumentException("Field " + name + " holds " + date.toInstant() + ", which is not a day in " + zone);
+            }
+            return (int) day.toEpochDay();
+        }
+
+        private static <T> T require(String name, Object value, Class<T> type) {
+            if (!type.isInstance(value)) {
+                throw new IllegalArgumentException("Field " + name + " holds " + value + ", expected a " + type.getSimpleName());
+            }
+            return type.cast(value);
+        }
+    }
+}
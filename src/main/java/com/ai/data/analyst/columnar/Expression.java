@@ -0,0 +1,16 @@
+package com.ai.data.analyst.columnar;
+
+/**
+ * A compiled aggregation expression. Rows are either row numbers of the column store or
+ * documents produced by an earlier stage.
+ *
+ * @param <R> the row type
+ */
+@FunctionalInterface
+interface Expression<R> {
+
+    /**
+     * @return the value, or {@link Values#MISSING} if the expression refers to a missing field
+     */
+    Object evaluate(R row);
+}
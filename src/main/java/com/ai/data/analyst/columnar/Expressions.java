@@ -0,0 +1,263 @@
+package com.ai.data.analyst.columnar;
+
+import org.bson.Document;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Compiles the supported subset of aggregation expressions: field paths, literals, object
+ * expressions, arithmetic and date parts. Anything else is rejected with an
+ * {@link UnsupportedPipelineException} at compile time.
+ */
+final class Expressions {
+
+    static final Set<String> DATE_PARTS = Set.of("$year", "$month", "$dayOfMonth", "$dayOfWeek", "$dayOfYear");
+
+    private Expressions() {
+    }
+
+    /**
+     * Compiles an expression.
+     *
+     * @param spec   the expression as it appears in the pipeline
+     * @param fields resolves a field path (without the leading {@code $}) to an expression
+     */
+    static <R> Expression<R> compile(Object spec, Function<String, Expression<R>> fields) {
+        if (spec instanceof String path && path.startsWith("$")) {
+            if (path.startsWith("$$")) {
+                throw new UnsupportedPipelineException("Variables like " + path + " are not supported");
+            }
+            return fields.apply(path.substring(1));
+        }
+        if (spec == null || spec instanceof String || spec instanceof Boolean
+                || spec instanceof Integer || spec instanceof Long || spec instanceof Double) {
+            return row -> spec;
+        }
+        if (spec instanceof Map<?, ?> map) {
+            if (map.size() == 1 && String.valueOf(map.keySet().iterator().next()).startsWith("$")) {
+                Map.Entry<?, ?> operator = map.entrySet().iterator().next();
+                return operator(String.valueOf(operator.getKey()), operator.getValue(), fields);
+            }
+            return object(map, fields);
+        }
+        throw new UnsupportedPipelineException("Expression " + spec + " is not supported");
+    }
+
+    /**
+     * The date part operator and the field path it applies to, if the expression is a plain
+     * date part of a field, e.g. {@code {$year: "$orderDate"}}.
+     */
+    static String[] datePartOfField(Object spec) {
+        if (spec instanceof Map<?, ?> map && map.size() == 1) {
+            String operator = String.valueOf(map.keySet().iterator().next());
+            if (DATE_PARTS.contains(operator) && dateArgument(map.get(operator)) instanceof String path
+                    && path.startsWith("$") && !path.startsWith("$$")) {
+                return new String[]{operator, path.substring(1)};
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes a date part in UTC, which is what MongoDB does without a timezone argument.
+     */
+    static int datePart(String operator, Date date) {
+        ZonedDateTime utc = date.toInstant().atZone(ZoneOffset.UTC);
+        return switch (operator) {
+            case "$year" -> utc.getYear();
+            case "$month" -> utc.getMonthValue();
+            case "$dayOfMonth" -> utc.getDayOfMonth();
+            case "$dayOfWeek" -> utc.getDayOfWeek().getValue() % 7 + 1;
+            case "$dayOfYear" -> utc.getDayOfYear();
+            default -> throw new UnsupportedPipelineException(operator + " is not supported");
+        };
+    }
+
+    private static <R> Expression<R> object(Map<?, ?> map, Function<String, Expression<R>> fields) {
+        List<String> names = new ArrayList<>(map.size());
+        List<Expression<R>> values = new ArrayList<>(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            String name = String.valueOf(entry.getKey());
+            if (name.startsWith("$") || name.contains(".")) {
+                throw new UnsupportedPipelineException("Field name " + name + " is not supported in an object expression");
+            }
+            names.add(name);
+            values.add(compile(entry.getValue(), fields));
+        }
+        return row -> {
+            Document document = new Document();
+            for (int i = 0; i < names.size(); i++) {
+                Object value = values.get(i).evaluate(row);
+                if (value != Values.MISSING) {
+                    document.put(names.get(i), value);
+                }
+            }
+            return document;
+        };
+    }
+
+    private static <R> Expression<R> operator(String operator, Object argument, Function<String, Expression<R>> fields) {
+        if (operator.equals("$literal")) {
+            if (argument instanceof Map || argument instanceof List) {
+                throw new UnsupportedPipelineException("$literal documents and arrays are not supported");
+            }
+            return row -> argument;
+        }
+        if (DATE_PARTS.contains(operator)) {
+            Expression<R> date = compile(dateArgument(argument), fields);
+            return row -> {
+                Object value = date.evaluate(row);
+                if (Values.isNullish(value)) {
+                    return null;
+                }
+                if (!(value instanceof Date dateValue)) {
+                    throw new UnsupportedPipelineException(operator + " of a non-date value");
+                }
+                return datePart(operator, dateValue);
+            };
+        }
+        if (operator.equals("$dateToString")) {
+            return dateToString(argument, fields);
+        }
+        List<Expression<R>> operands = operands(operator, argument, fields);
+        return switch (operator) {
+            case "$add", "$multiply" -> row -> arithmetic(operator, evaluateAll(operands, row));
+            case "$subtract", "$divide" -> {
+                if (operands.size() != 2) {
+                    throw new UnsupportedPipelineException(operator + " takes exactly two arguments");
+                }
+                yield row -> arithmetic(operator, evaluateAll(operands, row));
+            }
+            default -> throw new UnsupportedPipelineException("Operator " + operator + " is not supported");
+        };
+    }
+
+    private static Object dateArgument(Object argument) {
+        if (argument instanceof List<?> list && list.size() == 1) {
+            return list.get(0);
+        }
+        if (argument instanceof Map<?, ?> map && map.containsKey("date")) {
+            if (map.size() != 1) {
+                throw new UnsupportedPipelineException("Date operators with a timezone are not supported");
+            }
+            return map.get("date");
+        }
+        return argument;
+    }
+
+    private static <R> Expression<R> dateToString(Object argument, Function<String, Expression<R>> fields) {
+        if (!(argument instanceof Map<?, ?> spec) || !(spec.get("format") instanceof String format)
+                || !spec.containsKey("date") || spec.size() != 2) {
+            throw new UnsupportedPipelineException("$dateToString needs exactly a format and a date");
+        }
+        for (int i = format.indexOf('%'); i >= 0; i = format.indexOf('%', i + 2)) {
+            if (i + 1 == format.length() || "Ymd%".indexOf(format.charAt(i + 1)) < 0) {
+                throw new UnsupportedPipelineException("$dateToString format " + format + " is not supported");
+            }
+        }
+        Expression<R> date = compile(spec.get("date"), fields);
+        return row -> {
+            Object value = date.evaluate(row);
+            if (Values.isNullish(value)) {
+                return null;
+            }
+            if (!(value instanceof Date dateValue)) {
+                throw new UnsupportedPipelineException("$dateToString of a non-date value");
+            }
+            ZonedDateTime utc = dateValue.toInstant().atZone(ZoneOffset.UTC);
+            StringBuilder out = new StringBuilder(format.length() + 4);
+            for (int i = 0; i < format.length(); i++) {
+                char c = format.charAt(i);
+                if (c != '%') {
+                    out.append(c);
+                    continue;
+                }
+                switch (format.charAt(++i)) {
+                    case 'Y' -> out.append(String.format("%04d", utc.getYear()));
+                    case 'm' -> out.append(String.format("%02d", utc.getMonthValue()));
+                    case 'd' -> out.append(String.format("%02d", utc.getDayOfMonth()));
+                    default -> out.append('%');
+                }
+            }
+            return out.toString();
+        };
+    }
+
+    private static <R> List<Expression<R>> operands(String operator, Object argument, Function<String, Expression<R>> fields) {
+        if (!(argument instanceof List<?> list)) {
+            throw new UnsupportedPipelineException(operator + " needs an array of arguments");
+        }
+        List<Expression<R>> operands = new ArrayList<>(list.size());
+        for (Object operand : list) {
+            operands.add(compile(operand, fields));
+        }
+        return operands;
+    }
+
+    private static <R> List<Object> evaluateAll(List<Expression<R>> operands, R row) {
+        List<Object> values = new ArrayList<>(operands.size());
+        for (Expression<R> operand : operands) {
+            values.add(operand.evaluate(row));
+        }
+        return values;
+    }
+
+    /**
+     * Arithmetic with MongoDB's type rules: null if any operand is null or missing, double if any
+     * operand is a double, otherwise int or long depending on the operands and overflow.
+     */
+    private static Object arithmetic(String operator, List<Object> values) {
+        boolean sawDouble = false;
+        boolean sawLong = false;
+        for (Object value : values) {
+            if (Values.isNullish(value)) {
+                return null;
+            }
+            if (!(value instanceof Number) || Values.rank(value) != 2) {
+                throw new UnsupportedPipelineException(operator + " of a non-numeric value");
+            }
+            sawDouble |= value instanceof Double;
+            sawLong |= value instanceof Long;
+        }
+        if (operator.equals("$divide")) {
+            double divisor = ((Number) values.get(1)).doubleValue();
+            if (divisor == 0) {
+                throw new UnsupportedPipelineException("$divide by zero");
+            }
+            return ((Number) values.get(0)).doubleValue() / divisor;
+        }
+        if (!sawDouble) {
+            try {
+                long result = operator.equals("$multiply") ? 1 : 0;
+                for (int i = 0; i < values.size(); i++) {
+                    long value = ((Number) values.get(i)).longValue();
+                    result = switch (operator) {
+                        case "$multiply" -> Math.multiplyExact(result, value);
+                        case "$subtract" -> i == 0 ? value : Math.subtractExact(result, value);
+                        default -> Math.addExact(result, value);
+                    };
+                }
+                return Values.integral(result, sawLong);
+            } catch (ArithmeticException overflow) {
+                // MongoDB falls back to a double when a long overflows
+            }
+        }
+        double result = operator.equals("$multiply") ? 1 : 0;
+        for (int i = 0; i < values.size(); i++) {
+            double value = ((Number) values.get(i)).doubleValue();
+            result = switch (operator) {
+                case "$multiply" -> result * value;
+                case "$subtract" -> i == 0 ? value : result - value;
+                default -> result + value;
+            };
+        }
+        return result;
+    }
+}
@@ -0,0 +1,193 @@
+package com.ai.data.analyst.columnar;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Compiles {@code $match} filters with MongoDB query semantics: comparisons only match values of
+ * the same canonical type, {@code null} matches missing fields and {@code $ne}/{@code $nin} match
+ * everything the positive operator does not. Only comparison, {@code $in}/{@code $nin},
+ * {@code $exists} and the logical operators are supported.
+ */
+final class Filters {
+
+    private static final Set<String> RANGE_OPERATORS = Set.of("$gt", "$gte", "$lt", "$lte");
+
+    private Filters() {
+    }
+
+    /**
+     * A parsed filter. Leaves test the value of a single field path.
+     */
+    sealed interface Node permits And, Or, Nor, Field {
+    }
+
+    record And(List<Node> children) implements Node {
+    }
+
+    record Or(List<Node> children) implements Node {
+    }
+
+    record Nor(List<Node> children) implements Node {
+    }
+
+    record Field(String path, List<Comparison> comparisons) implements Node {
+
+        boolean test(Object value) {
+            for (Comparison comparison : comparisons) {
+                if (!comparison.test(value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    record Comparison(String operator, Object operand) {
+
+        boolean test(Object value) {
+            if (value instanceof List) {
+                throw new UnsupportedPipelineException("Matching array fields is not supported");
+            }
+            return switch (operator) {
+                case "$eq" -> Values.queryEquals(value, operand);
+                case "$ne" -> !Values.queryEquals(value, operand);
+                case "$in" -> in(value);
+                case "$nin" -> !in(value);
+                case "$exists" -> (value != Values.MISSING) == truthy(operand);
+                default -> !Values.isNullish(value) && Values.rank(value) == Values.rank(operand)
+                        && holds(Values.compare(value, operand));
+            };
+        }
+
+        /**
+         * Whether a comparison result satisfies this range operator.
+         */
+        boolean holds(int comparison) {
+            return switch (operator) {
+                case "$gt" -> comparison > 0;
+                case "$gte" -> comparison >= 0;
+                case "$lt" -> comparison < 0;
+                default -> comparison <= 0;
+            };
+        }
+
+        boolean isRange() {
+            return RANGE_OPERATORS.contains(operator);
+        }
+
+        private boolean in(Object value) {
+            for (Object candidate : (List<?>) operand) {
+                if (Values.queryEquals(value, candidate)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean truthy(Object operand) {
+            return operand != null && !Boolean.FALSE.equals(operand)
+                    && !(operand instanceof Number number && number.doubleValue() == 0);
+        }
+    }
+
+    static Node parse(Map<?, ?> filter) {
+        List<Node> children = new ArrayList<>(filter.size());
+        for (Map.Entry<?, ?> entry : filter.entrySet()) {
+            String key = String.valueOf(entry.getKey());
+            switch (key) {
+                case "$and" -> children.add(new And(parseAll(key, entry.getValue())));
+                case "$or" -> children.add(new Or(parseAll(key, entry.getValue())));
+                case "$nor" -> children.add(new Nor(parseAll(key, entry.getValue())));
+                default -> {
+                    if (key.startsWith("$")) {
+                        throw new UnsupportedPipelineException("Query operator " + key + " is not supported");
+                    }
+                    children.add(new Field(key, comparisons(key, entry.getValue())));
+                }
+            }
+        }
+        return children.size() == 1 ? children.get(0) : new And(children);
+    }
+
+    /**
+     * Compiles a filter for documents produced by earlier stages.
+     *
+     * @param fields resolves a field path to the value of a row
+     */
+    static <R> Predicate<R> compile(Node node, Function<String, Expression<R>> fields) {
+        if (node instanceof Field field) {
+            Expression<R> value = fields.apply(field.path());
+            return row -> field.test(value.evaluate(row));
+        }
+        List<Predicate<R>> children = new ArrayList<>();
+        List<Node> nodes = node instanceof And and ? and.children() : node instanceof Or or ? or.children() : ((Nor) node).children();
+        for (Node child : nodes) {
+            children.add(compile(child, fields));
+        }
+        if (node instanceof And) {
+            return row -> children.stream().allMatch(child -> child.test(row));
+        }
+        if (node instanceof Or) {
+            return row -> children.stream().anyMatch(child -> child.test(row));
+        }
+        return row -> children.stream().noneMatch(child -> child.test(row));
+    }
+
+    private static List<Node> parseAll(String operator, Object clauses) {
+        if (!(clauses instanceof List<?> list) || list.isEmpty()) {
+            throw new UnsupportedPipelineException(operator + " needs a non-empty array");
+        }
+        List<Node> nodes = new ArrayList<>(list.size());
+        for (Object clause : list) {
+            if (!(clause instanceof Map<?, ?> map)) {
+                throw new UnsupportedPipelineException(operator + " clauses must be documents");
+            }
+            nodes.add(parse(map));
+        }
+        return nodes;
+    }
+
+    private static List<Comparison> comparisons(String path, Object condition) {
+        if (!(condition instanceof Map<?, ?> operators)
+                || operators.keySet().stream().noneMatch(key -> String.valueOf(key).startsWith("$"))) {
+            return List.of(new Comparison("$eq", scalar(path, condition)));
+        }
+        List<Comparison> comparisons = new ArrayList<>(operators.size());
+        for (Map.Entry<?, ?> entry : operators.entrySet()) {
+            String operator = String.valueOf(entry.getKey());
+            Object operand = entry.getValue();
+            switch (operator) {
+                case "$eq", "$ne" -> comparisons.add(new Comparison(operator, scalar(path, operand)));
+                case "$gt", "$gte", "$lt", "$lte" -> {
+                    if (scalar(path, operand) == null) {
+                        throw new UnsupportedPipelineException("Range comparisons with null are not supported");
+                    }
+                    comparisons.add(new Comparison(operator, operand));
+                }
+                case "$in", "$nin" -> {
+                    if (!(operand instanceof List<?> list)) {
+                        throw new UnsupportedPipelineException(operator + " needs an array");
+                    }
+                    list.forEach(candidate -> scalar(path, candidate));
+                    comparisons.add(new Comparison(operator, operand));
+                }
+                case "$exists" -> comparisons.add(new Comparison(operator, operand));
+                default -> throw new UnsupportedPipelineException("Query operator " + operator + " on " + path + " is not supported");
+            }
+        }
+        return comparisons;
+    }
+
+    private static Object scalar(String path, Object operand) {
+        if (operand instanceof Map || operand instanceof List) {
+            throw new UnsupportedPipelineException("Matching " + path + " against documents or arrays is not supported");
+        }
+        Values.rank(operand);
+        return operand;
+    }
+}
@@ -0,0 +1,620 @@
+package com.ai.data.analyst.columnar;
+
+import com.ai.data.analyst.columnar.ColumnarStore.Column;
+import com.ai.data.analyst.columnar.ColumnarStore.DateColumn;
+import com.ai.data.analyst.columnar.ColumnarStore.DoubleColumn;
+import com.ai.data.analyst.columnar.ColumnarStore.IntColumn;
+import com.ai.data.analyst.columnar.ColumnarStore.StringColumn;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Runs the supported subset of a generated pipeline against a {@link ColumnarStore}. Leading
+ * {@code $match} stages become column scans that select rows, and a {@code $group} right after
+ * them aggregates the selected rows column by column. Without a group, {@code $sort},
+ * {@code $skip} and {@code $limit} are applied to the selection before rows are turned into
+ * documents. Every later {@code $match}, {@code $group}, {@code $sort}, {@code $skip},
+ * {@code $limit} and {@code $project} stage runs over the documents the previous stage produced.
+ */
+final class PipelineInterpreter {
+
+    private static final Set<String> STAGES = Set.of("$match", "$group", "$sort", "$skip", "$limit", "$project");
+
+    /**
+     * Group keys are combined into one slot array while the product of the key cardinalities
+     * stays below this, and into a hash map above it.
+     */
+    private static final long MAX_DENSE_SLOTS = 1 << 22;
+
+    private final ColumnarStore store;
+    private final Function<String, Expression<Integer>> rowFields;
+
+    PipelineInterpreter(ColumnarStore store) {
+        this.store = store;
+        this.rowFields = path -> {
+            Column column = store.column(path);
+            return column == null ? row -> Values.MISSING : column::value;
+        };
+    }
+
+    /**
+     * Executes the pipeline.
+     *
+     * @param pipeline the pipeline stages
+     * @return the results, equal to what MongoDB returns up to the order of unsorted results
+     * @throws UnsupportedPipelineException if the pipeline uses anything the interpreter does not support
+     */
+    List<Document> execute(List<Document> pipeline) {
+        List<Map.Entry<String, Object>> stages = new ArrayList<>(pipeline.size());
+        for (Document stage : pipeline) {
+            if (stage.size() != 1 || !STAGES.contains(stage.keySet().iterator().next())) {
+                throw new UnsupportedPipelineException("Stage " + stage.keySet() + " is not supported");
+            }
+            stages.add(stage.entrySet().iterator().next());
+        }
+
+        int next = 0;
+        boolean[] mask = null;
+        for (; next < stages.size() && stages.get(next).getKey().equals("$match"); next++) {
+            boolean[] matched = matchRows(Filters.parse(asDocument("$match", stages.get(next).getValue())));
+            if (mask != null) {
+                for (int i = 0; i < mask.length; i++) {
+                    matched[i] &= mask[i];
+                }
+            }
+            mask = matched;
+        }
+        int[] selection = select(mask);
+
+        List<Document> documents;
+        if (next < stages.size() && stages.get(next).getKey().equals("$group")) {
+            documents = groupRows(asDocument("$group", stages.get(next++).getValue()), selection);
+        } else {
+            for (; next < stages.size(); next++) {
+                String operator = stages.get(next).getKey();
+                Object spec = stages.get(next).getValue();
+                if (operator.equals("$sort")) {
+                    selection = sortRows(asDocument(operator, spec), selection);
+                } else if (operator.equals("$skip")) {
+                    selection = Arrays.copyOfRange(selection, Math.min(count(operator, spec, 0), selection.length), selection.length);
+                } else if (operator.equals("$limit")) {
+                    selection = Arrays.copyOf(selection, Math.min(count(operator, spec, 1), selection.length));
+                } else {
+                    break;
+                }
+            }
+            documents = new ArrayList<>(selection.length);
+            for (int row : selection) {
+                documents.add(store.row(row));
+            }
+        }
+
+        for (; next < stages.size(); next++) {
+            documents = apply(stages.get(next).getKey(), stages.get(next).getValue(), documents);
+        }
+        return documents;
+    }
+
+    private List<Document> apply(String operator, Object spec, List<Document> documents) {
+        return switch (operator) {
+            case "$match" -> {
+                Predicate<Document> filter = Filters.compile(Filters.parse(asDocument(operator, spec)), PipelineInterpreter::documentField);
+                yield documents.stream().filter(filter).toList();
+            }
+            case "$group" -> groupDocuments(asDocument(operator, spec), documents);
+            case "$sort" -> {
+                List<Document> sorted = new ArrayList<>(documents);
+                sorted.sort(documentOrder(asDocument(operator, spec)));
+                yield sorted;
+            }
+            case "$skip" -> documents.subList(Math.min(count(operator, spec, 0), documents.size()), documents.size());
+            case "$limit" -> documents.subList(0, Math.min(count(operator, spec, 1), documents.size()));
+            default -> project(asDocument(operator, spec), documents);
+        };
+    }
+
+    private boolean[] matchRows(Filters.Node node) {
+        boolean[] out = new boolean[store.size()];
+        if (node instanceof Filters.Field field) {
+            Column column = store.column(field.path());
+            if (column == null) {
+                Arrays.fill(out, field.test(Values.MISSING));
+            } else {
+                column.match(field, out);
+            }
+            return out;
+        }
+        List<Filters.Node> children = node instanceof Filters.And and ? and.children()
+                : node instanceof Filters.Or or ? or.children() : ((Filters.Nor) node).children();
+        boolean and = node instanceof Filters.And;
+        Arrays.fill(out, and);
+        for (Filters.Node child : children) {
+            boolean[] matched = matchRows(child);
+            for (int i = 0; i < out.length; i++) {
+                out[i] = and ? out[i] & matched[i] : out[i] | matched[i];
+            }
+        }
+        if (node instanceof Filters.Nor) {
+            for (int i = 0; i < out.length; i++) {
+                out[i] = !out[i];
+            }
+        }
+        return out;
+    }
+
+    private int[] select(boolean[] mask) {
+        if (mask == null) {
+            int[] all = new int[store.size()];
+            Arrays.setAll(all, i -> i);
+            return all;
+        }
+        int count = 0;
+        for (boolean selected : mask) {
+            count += selected ? 1 : 0;
+        }
+        int[] selection = new int[count];
+        for (int i = 0, j = 0; i < mask.length; i++) {
+            if (mask[i]) {
+                selection[j++] = i;
+            }
+        }
+        return selection;
+    }
+
+    private int[] sortRows(Map<?, ?> spec, int[] selection) {
+        Comparator<Integer> order = null;
+        for (Map.Entry<?, ?> entry : spec.entrySet()) {
+            int direction = direction(entry.getValue());
+            Column column = store.column(String.valueOf(entry.getKey()));
+            if (column == null) {
+                continue;
+            }
+            Comparator<Integer> byColumn = direction > 0 ? column::compare : (a, b) -> column.compare(b, a);
+            order = order == null ? byColumn : order.thenComparing(byColumn);
+        }
+        if (order == null) {
+            return selection;
+        }
+        Integer[] rows = Arrays.stream(selection).boxed().toArray(Integer[]::new);
+        Arrays.sort(rows, order);
+        return Arrays.stream(rows).mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Groups the selected rows. Each key component is encoded to a small int per row, using the
+     * dictionary codes or a per-day table where possible, and the components are combined into
+     * a group number that indexes the accumulator arrays.
+     */
+    private List<Document> groupRows(Map<?, ?> spec, int[] selection) {
+        GroupSpec group = GroupSpec.parse(spec);
+        List<KeyComponent> components = new ArrayList<>(group.keySpecs().size());
+        long slots = 1;
+        for (Object keySpec : group.keySpecs()) {
+            KeyComponent component = encode(keySpec, selection, group.objectKey());
+            components.add(component);
+            slots = Math.multiplyExact(slots, Math.max(1, component.values().size()));
+        }
+
+        int[] groupOf = new int[selection.length];
+        List<Integer> firstPosition = new ArrayList<>();
+        int[] denseSlots = slots <= MAX_DENSE_SLOTS ? new int[(int) slots] : null;
+        Map<Long, Integer> sparseSlots = denseSlots == null ? new HashMap<>() : null;
+        if (denseSlots != null) {
+            Arrays.fill(denseSlots, -1);
+        }
+        for (int i = 0; i < selection.length; i++) {
+            long slot = 0;
+            for (KeyComponent component : components) {
+                slot = slot * component.values().size() + component.codes()[i];
+            }
+            int groupNumber = denseSlots != null ? denseSlots[(int) slot] : sparseSlots.getOrDefault(slot, -1);
+            if (groupNumber < 0) {
+                groupNumber = firstPosition.size();
+                firstPosition.add(i);
+                if (denseSlots != null) {
+                    denseSlots[(int) slot] = groupNumber;
+                } else {
+                    sparseSlots.put(slot, groupNumber);
+                }
+            }
+            groupOf[i] = groupNumber;
+        }
+
+        int groups = firstPosition.size();
+        List<Object[]> accumulated = new ArrayList<>(group.accumulators().size());
+        for (Accumulators.Spec accumulator : group.accumulators()) {
+            accumulated.add(accumulateRows(accumulator, selection, groupOf, groups));
+        }
+
+        List<Document> documents = new ArrayList<>(groups);
+        for (int g = 0; g < groups; g++) {
+            int position = firstPosition.get(g);
+            Object id;
+            if (group.objectKey()) {
+                Document key = new Document();
+                for (int c = 0; c < components.size(); c++) {
+                    Object value = components.get(c).values().get(components.get(c).codes()[position]);
+                    if (value != Values.MISSING) {
+                        key.put(group.keyNames().get(c), value);
+                    }
+                }
+                id = key;
+            } else {
+                Object value = components.get(0).values().get(components.get(0).codes()[position]);
+                id = value == Values.MISSING ? null : value;
+            }
+            Document document = new Document("_id", id);
+            for (int a = 0; a < accumulated.size(); a++) {
+                document.put(group.accumulators().get(a).name(), accumulated.get(a)[g]);
+            }
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    private KeyComponent encode(Object keySpec, int[] selection, boolean objectKey) {
+        int[] codes = new int[selection.length];
+        if (keySpec instanceof String path && path.startsWith("$") && store.column(path.substring(1)) instanceof StringColumn column) {
+            List<Object> values = new ArrayList<>(column.dictionary.length + 1);
+            values.add(Values.MISSING);
+            values.addAll(Arrays.asList(column.dictionary));
+            for (int i = 0; i < selection.length; i++) {
+                codes[i] = column.codes[selection[i]] + 1;
+            }
+            return new KeyComponent(codes, values);
+        }
+
+        KeyInterner interner = new KeyInterner(objectKey);
+        String[] datePart = Expressions.datePartOfField(keySpec);
+        String datePath = datePart != null ? datePart[1]
+                : keySpec instanceof String path && path.startsWith("$") ? path.substring(1) : null;
+        if (datePath != null && store.column(datePath) instanceof DateColumn column && column.tabulable()) {
+            int missingCode = interner.intern(datePart == null ? Values.MISSING : null);
+            int[] table = new int[column.maxDay - column.minDay + 1];
+            for (int day = column.minDay; day <= column.maxDay; day++) {
+                Date date = column.toDate(day);
+                table[day - column.minDay] = interner.intern(datePart == null ? date : Expressions.datePart(datePart[0], date));
+            }
+            for (int i = 0; i < selection.length; i++) {
+                int day = column.days[selection[i]];
+                codes[i] = day == DateColumn.MISSING_DAY ? missingCode : table[day - column.minDay];
+            }
+            return new KeyComponent(codes, interner.values);
+        }
+
+        Expression<Integer> expression = Expressions.compile(keySpec, rowFields);
+        for (int i = 0; i < selection.length; i++) {
+            codes[i] = interner.intern(expression.evaluate(selection[i]));
+        }
+        return new KeyComponent(codes, interner.values);
+    }
+
+    /**
+     * Accumulates one group field over the selected rows. Sums, averages and extremes of plain
+     * numeric columns and constant sums run as loops over the primitive arrays; everything else
+     * evaluates the argument per row.
+     */
+    private Object[] accumulateRows(Accumulators.Spec spec, int[] selection, int[] groupOf, int groups) {
+        Object[] results = new Object[groups];
+        long[] counts = new long[groups];
+        for (int g : groupOf) {
+            counts[g]++;
+        }
+        Object argument = spec.argument();
+        Column column = argument instanceof String path && path.startsWith("$") ? store.column(path.substring(1)) : null;
+
+        if (spec.operator().equals("$sum") && (argument instanceof Integer || argument instanceof Long || argument instanceof Double)) {
+            for (int g = 0; g < groups; g++) {
+                Accumulators.Sum sum = new Accumulators.Sum();
+                sum.add(argument);
+                results[g] = scale(sum.result(), counts[g]);
+            }
+            return results;
+        }
+        if (column instanceof DoubleColumn doubles && !doubles.hasNaN) {
+            double[] values = doubles.values;
+            if (spec.operator().equals("$sum") || spec.operator().equals("$avg")) {
+                double[] sums = new double[groups];
+                double[] compensations = new double[groups];
+                for (int i = 0; i < selection.length; i++) {
+                    int g = groupOf[i];
+                    double value = values[selection[i]];
+                    double sum = sums[g] + value;
+                    compensations[g] += Math.abs(sums[g]) >= Math.abs(value) ? (sums[g] - sum) + value : (value - sum) + sums[g];
+                    sums[g] = sum;
+                }
+                for (int g = 0; g < groups; g++) {
+                    double sum = Accumulators.compensated(sums[g], compensations[g]);
+                    results[g] = spec.operator().equals("$sum") ? sum : sum / counts[g];
+                }
+                return results;
+            }
+            boolean max = spec.operator().equals("$max");
+            double[] extremes = new double[groups];
+            Arrays.fill(extremes, max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+            for (int i = 0; i < selection.length; i++) {
+                int g = groupOf[i];
+                double value = values[selection[i]];
+                if (max ? value > extremes[g] : value < extremes[g]) {
+                    extremes[g] = value;
+                }
+            }
+            for (int g = 0; g < groups; g++) {
+                results[g] = extremes[g];
+            }
+            return results;
+        }
+        if (column instanceof IntColumn ints) {
+            int[] values = ints.values;
+            if (spec.operator().equals("$sum") || spec.operator().equals("$avg")) {
+                long[] sums = new long[groups];
+                for (int i = 0; i < selection.length; i++) {
+                    sums[groupOf[i]] += values[selection[i]];
+                }
+                for (int g = 0; g < groups; g++) {
+                    results[g] = spec.operator().equals("$sum") ? Values.integral(sums[g], false) : (double) sums[g] / counts[g];
+                }
+                return results;
+            }
+            boolean max = spec.operator().equals("$max");
+            int[] extremes = new int[groups];
+            Arrays.fill(extremes, max ? Integer.MIN_VALUE : Integer.MAX_VALUE);
+            for (int i = 0; i < selection.length; i++) {
+                int g = groupOf[i];
+                extremes[g] = max ? Math.max(extremes[g], values[selection[i]]) : Math.min(extremes[g], values[selection[i]]);
+            }
+            for (int g = 0; g < groups; g++) {
+                results[g] = extremes[g];
+            }
+            return results;
+        }
+
+        Expression<Integer> expression = Expressions.compile(argument, rowFields);
+        Accumulators.Accumulator[] accumulators = new Accumulators.Accumulator[groups];
+        for (int g = 0; g < groups; g++) {
+            accumulators[g] = spec.create();
+        }
+        for (int i = 0; i < selection.length; i++) {
+            accumulators[groupOf[i]].add(expression.evaluate(selection[i]));
+        }
+        for (int g = 0; g < groups; g++) {
+            results[g] = accumulators[g].result();
+        }
+        return results;
+    }
+
+    /**
+     * The sum of a constant over {@code count} rows.
+     */
+    private static Object scale(Object constant, long count) {
+        if (constant instanceof Double d) {
+            return d * count;
+        }
+        try {
+            return Values.integral(Math.multiplyExact(((Number) constant).longValue(), count), constant instanceof Long);
+        } catch (ArithmeticException overflow) {
+            return ((Number) constant).doubleValue() * count;
+        }
+    }
+
+    private List<Document> groupDocuments(Map<?, ?> spec, List<Document> documents) {
+        GroupSpec group = GroupSpec.parse(spec);
+        Expression<Document> key = Expressions.compile(spec.get("_id"), PipelineInterpreter::documentField);
+        List<Expression<Document>> arguments = new ArrayList<>();
+        for (Accumulators.Spec accumulator : group.accumulators()) {
+            arguments.add(Expressions.compile(accumulator.argument(), PipelineInterpreter::documentField));
+        }
+        Map<Object, Object[]> groups = new LinkedHashMap<>();
+        for (Document document : documents) {
+            Object id = key.evaluate(document);
+            Object[] state = groups.computeIfAbsent(Values.groupKey(id), k -> {
+                Object[] created = new Object[group.accumulators().size() + 1];
+                created[0] = id == Values.MISSING ? null : id;
+                for (int a = 0; a < group.accumulators().size(); a++) {
+                    created[a + 1] = group.accumulators().get(a).create();
+                }
+                return created;
+            });
+            for (int a = 0; a < arguments.size(); a++) {
+                ((Accumulators.Accumulator) state[a + 1]).add(arguments.get(a).evaluate(document));
+            }
+        }
+        List<Document> grouped = new ArrayList<>(groups.size());
+        for (Object[] state : groups.values()) {
+            Document document = new Document("_id", state[0]);
+            for (int a = 0; a < group.accumulators().size(); a++) {
+                document.put(group.accumulators().get(a).name(), ((Accumulators.Accumulator) state[a + 1]).result());
+            }
+            grouped.add(document);
+        }
+        return grouped;
+    }
+
+    private static Comparator<Document> documentOrder(Map<?, ?> spec) {
+        Comparator<Document> order = null;
+        for (Map.Entry<?, ?> entry : spec.entrySet()) {
+            String path = String.valueOf(entry.getKey());
+            int direction = direction(entry.getValue());
+            Comparator<Document> byField = (a, b) -> direction * Values.compare(documentField(a, path), documentField(b, path));
+            order = order == null ? byField : order.thenComparing(byField);
+        }
+        if (order == null) {
+            throw new UnsupportedPipelineException("$sort needs at least one field");
+        }
+        return order;
+    }
+
+    /**
+     * Applies a {@code $project} stage: either an exclusion of fields, or an inclusion of fields
+     * plus computed fields. Nested and dotted projections are not supported.
+     */
+    private static List<Document> project(Map<?, ?> spec, List<Document> documents) {
+        boolean excludeId = false;
+        Set<String> included = new LinkedHashSet<>();
+        Set<String> excluded = new LinkedHashSet<>();
+        Map<String, Expression<Document>> computed = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> entry : spec.entrySet()) {
+            String name = String.valueOf(entry.getKey());
+            Object value = entry.getValue();
+            if (name.contains(".") || name.startsWith("$")) {
+                throw new UnsupportedPipelineException("Projecting " + name + " is not supported");
+            }
+            if (value instanceof Boolean || value instanceof Number) {
+                boolean include = !(Boolean.FALSE.equals(value) || (value instanceof Number number && number.doubleValue() == 0));
+                if (name.equals("_id")) {
+                    excludeId = !include;
+                } else {
+                    (include ? included : excluded).add(name);
+                }
+            } else if (value instanceof Map<?, ?> expression && expression.keySet().stream().noneMatch(key -> String.valueOf(key).startsWith("$"))) {
+                throw new UnsupportedPipelineException("Nested projection of " + name + " is not supported");
+            } else {
+                computed.put(name, Expressions.compile(value, PipelineInterpreter::documentField));
+            }
+        }
+        if (!excluded.isEmpty() && (!included.isEmpty() || !computed.isEmpty())) {
+            throw new UnsupportedPipelineException("$project cannot mix inclusions and exclusions");
+        }
+        if (included.isEmpty() && computed.isEmpty() && excluded.isEmpty() && !excludeId) {
+            throw new UnsupportedPipelineException("$project needs at least one field");
+        }
+
+        List<Document> projected = new ArrayList<>(documents.size());
+        boolean exclusion = included.isEmpty() && computed.isEmpty();
+        for (Document document : documents) {
+            Document out = new Document();
+            for (Map.Entry<String, Object> field : document.entrySet()) {
+                String name = field.getKey();
+                boolean keep = name.equals("_id") ? !excludeId && !computed.containsKey("_id")
+                        : exclusion ? !excluded.contains(name) : included.contains(name);
+                if (keep) {
+                    out.put(name, field.getValue());
+                }
+            }
+            for (Map.Entry<String, Expression<Document>> field : computed.entrySet()) {
+                Object value = field.getValue().evaluate(document);
+                if (value != Values.MISSING) {
+                    out.put(field.getKey(), value);
+                }
+            }
+            projected.add(out);
+        }
+        return projected;
+    }
+
+    private static Expression<Document> documentField(String path) {
+        return document -> documentField(document, path);
+    }
+
+    private static Object documentField(Document document, String path) {
+        Object current = document;
+        for (String part : path.split("\\.")) {
+            if (current instanceof List) {
+                throw new UnsupportedPipelineException("Paths through arrays are not supported");
+            }
+            if (!(current instanceof Map<?, ?> map) || !map.containsKey(part)) {
+                return Values.MISSING;
+            }
+            current = map.get(part);
+        }
+        return current;
+    }
+
+    private static int direction(Object value) {
+        if (value instanceof Number number && Math.abs(number.doubleValue()) == 1) {
+            return (int) number.doubleValue();
+        }
+        throw new UnsupportedPipelineException("Sort direction " + value + " is not supported");
+    }
+
+    private static int count(String operator, Object value, int minimum) {
+        if (!(value instanceof Integer || value instanceof Long) || ((Number) value).longValue() < minimum) {
+            throw new UnsupportedPipelineException(operator + " " + value + " is not supported");
+        }
+        return (int) Math.min(Integer.MAX_VALUE, ((Number) value).longValue());
+    }
+
+    private static Map<?, ?> asDocument(String operator, Object spec) {
+        if (!(spec instanceof Map<?, ?> map)) {
+            throw new UnsupportedPipelineException(operator + " needs a document");
+        }
+        return map;
+    }
+
+    /**
+     * A parsed {@code $group} stage. An {@code _id} that is a document of field names is split
+     * into one key component per field so each can be encoded on its own.
+     */
+    private record GroupSpec(boolean objectKey, List<String> keyNames, List<Object> keySpecs,
+                             List<Accumulators.Spec> accumulators) {
+
+        static GroupSpec parse(Map<?, ?> spec) {
+            if (!spec.containsKey("_id")) {
+                throw new UnsupportedPipelineException("$group needs an _id");
+            }
+            Object id = spec.get("_id");
+            boolean objectKey = id instanceof Map<?, ?> map && !map.isEmpty()
+                    && map.keySet().stream().noneMatch(key -> String.valueOf(key).startsWith("$"));
+            List<String> keyNames = new ArrayList<>();
+            List<Object> keySpecs = new ArrayList<>();
+            if (objectKey) {
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) id).entrySet()) {
+                    if (String.valueOf(entry.getKey()).contains(".")) {
+                        throw new UnsupportedPipelineException("Group key " + entry.getKey() + " is not supported");
+                    }
+                    keyNames.add(String.valueOf(entry.getKey()));
+                    keySpecs.add(entry.getValue());
+                }
+            } else {
+                keySpecs.add(id);
+            }
+            List<Accumulators.Spec> accumulators = new ArrayList<>();
+            for (Map.Entry<?, ?> entry : spec.entrySet()) {
+                if (!"_id".equals(entry.getKey())) {
+                    accumulators.add(Accumulators.Spec.parse(String.valueOf(entry.getKey()), entry.getValue()));
+                }
+            }
+            return new GroupSpec(objectKey, keyNames, keySpecs, accumulators);
+        }
+    }
+
+    /**
+     * The per-row codes of one group key component and the value of each code.
+     */
+    private record KeyComponent(int[] codes, List<Object> values) {
+    }
+
+    /**
+     * Assigns codes to key values with MongoDB's group key equality. Inside a document key a
+     * missing value is dropped rather than null, so it gets its own code there.
+     */
+    private static final class KeyInterner {
+        private final boolean objectKey;
+        private final Map<Object, Integer> codes = new HashMap<>();
+        private final List<Object> values = new ArrayList<>();
+
+        KeyInterner(boolean objectKey) {
+            this.objectKey = objectKey;
+        }
+
+        int intern(Object value) {
+            Object key = objectKey && value == Values.MISSING ? Values.MISSING : Values.groupKey(value);
+            return codes.computeIfAbsent(key, k -> {
+                values.add(value);
+                return values.size() - 1;
+            });
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.ai.data.analyst.columnar;
+
+/**
+ * Thrown when a pipeline uses a stage, operator or value the columnar interpreter does not
+ * evaluate exactly like MongoDB. The caller runs the pipeline on MongoDB instead.
+ */
+class UnsupportedPipelineException extends RuntimeException {
+
+    UnsupportedPipelineException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,201 @@
+package com.ai.data.analyst.columnar;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parts of the BSON value semantics the interpreter relies on: the missing-field marker,
+ * the canonical type order used by comparisons and sorts, and numeric type promotion.
+ */
+final class Values {
+
+    /**
+     * Marks a field that does not exist. MongoDB treats it differently from an explicit null,
+     * e.g. computed fields that evaluate to it are left out of the output.
+     */
+    static final Object MISSING = new Object() {
+        @Override
+        public String toString() {
+            return "MISSING";
+        }
+    };
+
+    private Values() {
+    }
+
+    static boolean isNullish(Object value) {
+        return value == null || value == MISSING;
+    }
+
+    /**
+     * The canonical BSON type order; values of different ranks compare by rank and never match
+     * each other in query comparisons.
+     */
+    static int rank(Object value) {
+        if (isNullish(value)) {
+            return 1;
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Double) {
+            return 2;
+        }
+        if (value instanceof String) {
+            return 3;
+        }
+        if (value instanceof Map) {
+            return 4;
+        }
+        if (value instanceof List) {
+            return 5;
+        }
+        if (value instanceof Boolean) {
+            return 8;
+        }
+        if (value instanceof Date) {
+            return 9;
+        }
+        throw new UnsupportedPipelineException("Values of type " + value.getClass().getSimpleName() + " are not supported");
+    }
+
+    static int compare(Object a, Object b) {
+        int byRank = Integer.compare(rank(a), rank(b));
+        if (byRank != 0) {
+            return byRank;
+        }
+        if (isNullish(a)) {
+            return 0;
+        }
+        if (a instanceof Number x && b instanceof Number y) {
+            return compareNumbers(x, y);
+        }
+        if (a instanceof String x && b instanceof String y) {
+            return compareStrings(x, y);
+        }
+        if (a instanceof Boolean x && b instanceof Boolean y) {
+            return Boolean.compare(x, y);
+        }
+        if (a instanceof Date x && b instanceof Date y) {
+            return x.compareTo(y);
+        }
+        if (a instanceof Map<?, ?> x && b instanceof Map<?, ?> y) {
+            return compareDocuments(x, y);
+        }
+        throw new UnsupportedPipelineException("Comparing arrays is not supported");
+    }
+
+    /**
+     * Compares numbers across types by value. NaN sorts before every other number and equals
+     * itself, and negative zero equals zero.
+     */
+    static int compareNumbers(Number a, Number b) {
+        if (a instanceof Double || b instanceof Double) {
+            return compareDoubles(a.doubleValue(), b.doubleValue());
+        }
+        return Long.compare(a.longValue(), b.longValue());
+    }
+
+    static int compareDoubles(double a, double b) {
+        if (a < b) {
+            return -1;
+        }
+        if (a > b) {
+            return 1;
+        }
+        if (a == b) {
+            return 0;
+        }
+        return Boolean.compare(!Double.isNaN(a), !Double.isNaN(b));
+    }
+
+    /**
+     * Compares strings by code point, which is the UTF-8 byte order MongoDB uses without a
+     * collation.
+     */
+    static int compareStrings(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int x = a.codePointAt(i);
+            int y = b.codePointAt(j);
+            if (x != y) {
+                return Integer.compare(x, y);
+            }
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+        }
+        return Boolean.compare(i < a.length(), j < b.length());
+    }
+
+    private static int compareDocuments(Map<?, ?> a, Map<?, ?> b) {
+        Iterator<? extends Map.Entry<?, ?>> left = a.entrySet().iterator();
+        Iterator<? extends Map.Entry<?, ?>> right = b.entrySet().iterator();
+        while (left.hasNext() && right.hasNext()) {
+            Map.Entry<?, ?> x = left.next();
+            Map.Entry<?, ?> y = right.next();
+            int result = Integer.compare(rank(x.getValue()), rank(y.getValue()));
+            if (result == 0) {
+                result = compareStrings(String.valueOf(x.getKey()), String.valueOf(y.getKey()));
+            }
+            if (result == 0) {
+                result = compare(x.getValue(), y.getValue());
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Boolean.compare(left.hasNext(), right.hasNext());
+    }
+
+    /**
+     * Equality as used by query predicates: a null operand matches null and missing values,
+     * otherwise both values must have the same canonical type and compare equal.
+     */
+    static boolean queryEquals(Object value, Object operand) {
+        if (operand == null) {
+            return isNullish(value);
+        }
+        return !isNullish(value) && rank(value) == rank(operand) && compare(value, operand) == 0;
+    }
+
+    /**
+     * A key with the same equality as MongoDB's group keys: numbers equal by value regardless
+     * of their type and documents equal field by field in order.
+     */
+    static Object groupKey(Object value) {
+        if (value == MISSING) {
+            return null;
+        }
+        if (value instanceof Double d) {
+            return Double.isNaN(d) ? "NaN" : d == 0 ? BigDecimal.ZERO : new BigDecimal(d).stripTrailingZeros();
+        }
+        if (value instanceof Integer || value instanceof Long) {
+            return BigDecimal.valueOf(((Number) value).longValue()).stripTrailingZeros();
+        }
+        if (value instanceof Map<?, ?> document) {
+            List<Object> fields = new ArrayList<>(document.size() * 2);
+            document.forEach((name, fieldValue) -> {
+                fields.add(name);
+                fields.add(groupKey(fieldValue));
+            });
+            return fields;
+        }
+        if (value instanceof List) {
+            throw new UnsupportedPipelineException("Grouping by arrays is not supported");
+        }
+        return value;
+    }
+
+    /**
+     * Narrows an integral result the way MongoDB does: int when all inputs were ints and the
+     * result fits, long otherwise.
+     */
+    static Number integral(long value, boolean sawLong) {
+        if (!sawLong && value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return (int) value;
+        }
+        return value;
+    }
+}
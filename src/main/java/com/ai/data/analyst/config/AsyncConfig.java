@@ -0,0 +1,86 @@
+package com.ai.data.analyst.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.Map;
+
+@Configuration
+@EnableScheduling
+@Slf4j
+public class AsyncConfig {
+
+    public static final String ANALYSIS_EXECUTOR = "analysisExecutor";
+    public static final String INGEST_EXECUTOR = "ingestExecutor";
+
+    /**
+     * Executor running the analyse pipeline off the servlet container thread. With
+     * {@code spring.threads.virtual.enabled} every request gets its own virtual thread, so requests
+     * blocked on Gemini or Mongo no longer hold a platform thread; otherwise a bounded
+     * platform-thread pool is used. Tasks inherit the logging MDC of the
+     * submitting thread, so the request's trace id follows it.
+     */
+    @Bean(name = ANALYSIS_EXECUTOR)
+    public AsyncTaskExecutor analysisExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                                              @Value("${analysis.executor.max-concurrent:10000}") int maxConcurrent,
+                                              @Value("${analysis.executor.pool-size:200}") int poolSize,
+                                              @Value("${analysis.executor.queue-capacity:1000}") int queueCapacity) {
+        if (virtualThreads) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("analyse-");
+            executor.setVirtualThreads(true);
+            executor.setConcurrencyLimit(maxConcurrent);
+            executor.setTaskDecorator(AsyncConfig::copyMdc);
+            log.info("Analyse requests run on virtual threads (limit {})", maxConcurrent);
+            return executor;
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("analyse-");
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setTaskDecorator(AsyncConfig::copyMdc);
+        executor.initialize();
+        log.info("Analyse requests run on a platform thread pool of {} threads", poolSize);
+        return executor;
+    }
+
+    /**
+     * Executor running upload jobs. Ingest is CPU and write heavy, so only a few jobs run at a
+     * time; further uploads wait in a bounded queue and are rejected once it is full.
+     */
+    @Bean(name = INGEST_EXECUTOR)
+    public ThreadPoolTaskExecutor ingestExecutor(@Value("${ingest.jobs.concurrency:2}") int concurrency,
+                                                 @Value("${ingest.jobs.queue-capacity:16}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("ingest-");
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setTaskDecorator(AsyncConfig::copyMdc);
+        executor.initialize();
+        return executor;
+    }
+
+    private static Runnable copyMdc(Runnable task) {
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        return () -> {
+            if (context == null) {
+                MDC.clear();
+            } else {
+                MDC.setContextMap(context);
+            }
+            try {
+                task.run();
+            } finally {
+                MDC.clear();
+            }
+        };
+    }
+}
@@ -0,0 +1,107 @@
+package com.ai.data.analyst.controller;
+
+import com.ai.data.analyst.cache.AggregationResultCache;
+import com.ai.data.analyst.cache.PipelineCache;
+import com.ai.data.analyst.model.CacheStats;
+import com.ai.data.analyst.model.IndexRecommendation;
+import com.ai.data.analyst.model.IndexUsageStats;
+import com.ai.data.analyst.model.RepairStats;
+import com.ai.data.analyst.model.StorageStats;
+import com.ai.data.analyst.service.IndexAdvisor;
+import com.ai.data.analyst.service.PipelineRetryEngine;
+import com.ai.data.analyst.service.RollupService;
+import com.ai.data.analyst.storage.CompactStorage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin")
+@Slf4j
+public class AdminController {
+
+    private final PipelineCache pipelineCache;
+    private final AggregationResultCache resultCache;
+    private final IndexAdvisor indexAdvisor;
+    private final RollupService rollupService;
+    private final PipelineRetryEngine pipelineRetryEngine;
+    private final CompactStorage compactStorage;
+
+    @Autowired
+    public AdminController(PipelineCache pipelineCache, AggregationResultCache resultCache, IndexAdvisor indexAdvisor,
+                           RollupService rollupService, PipelineRetryEngine pipelineRetryEngine, CompactStorage compactStorage) {
+        this.pipelineCache = pipelineCache;
+        this.resultCache = resultCache;
+        this.indexAdvisor = indexAdvisor;
+        this.rollupService = rollupService;
+        this.pipelineRetryEngine = pipelineRetryEngine;
+        this.compactStorage = compactStorage;
+    }
+
+    @GetMapping("/cache/pipelines")
+    public ResponseEntity<CacheStats> pipelineCacheStats() {
+        return ResponseEntity.ok(pipelineCache.stats());
+    }
+
+    @DeleteMapping("/cache/pipelines")
+    public ResponseEntity<Map<String, Object>> invalidatePipelines(@RequestParam(value = "prompt", required = false) String prompt) {
+        if (prompt != null) {
+            return ResponseEntity.ok(Map.of("prompt", prompt, "invalidated", pipelineCache.invalidate(prompt) ? 1 : 0));
+        }
+        return ResponseEntity.ok(Map.of("invalidated", pipelineCache.invalidateAll()));
+    }
+
+    @GetMapping("/cache/results")
+    public ResponseEntity<CacheStats> resultCacheStats() {
+        return ResponseEntity.ok(resultCache.stats());
+    }
+
+    @DeleteMapping("/cache/results")
+    public ResponseEntity<Map<String, Object>> invalidateResults() {
+        return ResponseEntity.ok(Map.of("invalidated", resultCache.invalidateAll()));
+    }
+
+    @GetMapping("/indexes/recommendations")
+    public ResponseEntity<List<IndexRecommendation>> indexRecommendations() {
+        return ResponseEntity.ok(indexAdvisor.recommendations());
+    }
+
+    @GetMapping("/indexes/stats")
+    public ResponseEntity<IndexUsageStats> indexStats() {
+        return ResponseEntity.ok(indexAdvisor.stats());
+    }
+
+    @PostMapping("/indexes/apply")
+    public ResponseEntity<List<IndexRecommendation>> applyIndexes(@RequestParam(value = "top", defaultValue = "3") int top) {
+        List<IndexRecommendation> applied = indexAdvisor.apply(top);
+        log.info("Applied {} recommended indexes", applied.size());
+        return ResponseEntity.ok(applied);
+    }
+
+    @GetMapping("/pipelines/repairs")
+    public ResponseEntity<List<RepairStats>> pipelineRepairs() {
+        return ResponseEntity.ok(pipelineRetryEngine.stats());
+    }
+
+    @PostMapping("/rollups/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildRollups() {
+        return ResponseEntity.ok(Map.of("rows", rollupService.rebuild()));
+    }
+
+    @GetMapping("/storage")
+    public ResponseEntity<StorageStats> storageStats() {
+        return ResponseEntity.ok(compactStorage.stats());
+    }
+
+    @PostMapping("/storage/compact")
+    public ResponseEntity<Map<String, Object>> compactStorage() {
+        if (!compactStorage.isEnabled()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Compact storage is not enabled"));
+        }
+        return ResponseEntity.ok(Map.of("rows", compactStorage.migrate()));
+    }
+}
@@ -1,15 +1,38 @@
 package com.ai.data.analyst.controller;
 
+import com.ai.data.analyst.config.AsyncConfig;
+import com.ai.data.analyst.entity.IngestJob;
+import com.ai.data.analyst.entity.UploadSession;
+import com.ai.data.analyst.model.BatchAnalysis;
+import com.ai.data.analyst.service.AnalysisStreamListener;
+import com.ai.data.analyst.service.BatchAnalysisService;
+import com.ai.data.analyst.service.ChunkedUploadService;
+import com.ai.data.analyst.service.CsvIngestService;
 import com.ai.data.analyst.service.DataAnalystService;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.ai.data.analyst.service.IngestJobService;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 @CrossOrigin(origins = "*")
 @RestController
@@ -17,38 +40,231 @@ import java.util.Map;
 @Slf4j
 public class DataAnalystController {
 
+    private static final Set<String> UPLOAD_CONTENT_TYPES = Set.of("text/csv", "application/gzip", "application/x-gzip");
+
     private final DataAnalystService dataAnalystService;
+    private final BatchAnalysisService batchAnalysisService;
+    private final IngestJobService ingestJobService;
+    private final ChunkedUploadService chunkedUploadService;
+    private final Executor analysisExecutor;
+
+    /**
+     * How long a streamed analysis may run, the same limit Spring MVC puts on other async requests.
+     */
+    @Value("${spring.mvc.async.request-timeout:120s}")
+    private Duration streamTimeout;
 
     @Autowired
-    public DataAnalystController(DataAnalystService dataAnalystService) {
+    public DataAnalystController(DataAnalystService dataAnalystService,
+                                 BatchAnalysisService batchAnalysisService,
+                                 IngestJobService ingestJobService,
+                                 ChunkedUploadService chunkedUploadService,
+                                 @Qualifier(AsyncConfig.ANALYSIS_EXECUTOR) Executor analysisExecutor) {
         this.dataAnalystService = dataAnalystService;
+        this.batchAnalysisService = batchAnalysisService;
+        this.ingestJobService = ingestJobService;
+        this.chunkedUploadService = chunkedUploadService;
+        this.analysisExecutor = analysisExecutor;
     }
 
+    /**
+     * Accepts a CSV upload as a background job and answers immediately with the queued job;
+     * its progress is available from {@code GET /jobs/{id}}. With {@code mode=DELTA} only new
+     * and changed rows are written, and {@code mode=SYNC} also deletes rows missing from the file.
+     */
     @PostMapping("/upload")
-    public ResponseEntity<String> uploadData(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<?> uploadData(@RequestParam("file") MultipartFile file,
+                                        @RequestParam(value = "parallel", required = false) Boolean parallel,
+                                        @RequestParam(value = "mode", required = false) CsvIngestService.Mode mode) {
         if (file.isEmpty()) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("File is empty");
         }
-        if (!file.getContentType().equals("text/csv")) {
-            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).body("Unsupported file type. Please upload a CSV file.");
+        if (!UPLOAD_CONTENT_TYPES.contains(file.getContentType())) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).body("Unsupported file type. Please upload a CSV or gzipped CSV file.");
         }
         log.info("Received file: {}", file.getOriginalFilename());
+        IngestJob job;
         try {
-            dataAnalystService.processData(file);
+            job = ingestJobService.submit(file, parallel, mode);
+        } catch (TaskRejectedException e) {
+            log.warn("Rejected upload of {}: {}", file.getOriginalFilename(), e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Too many uploads in progress, please retry later");
         } catch (Exception e) {
             log.error("Error processing file: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error processing file: " + e.getMessage());
         }
-        return ResponseEntity.ok("File uploaded successfully: " + file.getOriginalFilename());
+        return ResponseEntity.accepted().location(URI.create("/api/dataAnalyst/jobs/" + job.getId())).body(job);
+    }
+
+    /**
+     * Opens a chunked upload for files too large for a single request. Chunks are then sent with
+     * {@code PUT /uploads/{id}/chunks/{n}} and the upload finished with
+     * {@code POST /uploads/{id}/complete}.
+     */
+    @PostMapping("/uploads")
+    public ResponseEntity<?> openUpload(@RequestParam("fileName") String fileName,
+                                        @RequestParam("size") long size,
+                                        @RequestParam(value = "chunkSize", required = false) Long chunkSize,
+                                        @RequestParam(value = "parallel", required = false) Boolean parallel,
+                                        @RequestParam(value = "mode", required = false) CsvIngestService.Mode mode) throws IOException {
+        try {
+            UploadSession session = chunkedUploadService.open(fileName, size, chunkSize, parallel, mode);
+            return ResponseEntity.created(URI.create("/api/dataAnalyst/uploads/" + session.getId())).body(session);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/uploads/{id}")
+    public ResponseEntity<UploadSession> upload(@PathVariable String id) {
+        return ResponseEntity.of(chunkedUploadService.get(id));
+    }
+
+    @PutMapping(value = "/uploads/{id}/chunks/{index}", consumes = MediaType.ALL_VALUE)
+    public ResponseEntity<?> uploadChunk(@PathVariable String id,
+                                         @PathVariable int index,
+                                         @RequestHeader(value = "X-Chunk-SHA256", required = false) String sha256,
+                                         InputStream body) throws IOException {
+        try {
+            return ResponseEntity.of(chunkedUploadService.writeChunk(id, index, sha256, body));
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected chunk {} of upload {}: {}", index, id, e.getMessage());
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+
+    @PostMapping("/uploads/{id}/complete")
+    public ResponseEntity<?> completeUpload(@PathVariable String id) {
+        try {
+            return chunkedUploadService.complete(id)
+                    .<ResponseEntity<?>>map(job -> ResponseEntity.accepted()
+                            .location(URI.create("/api/dataAnalyst/jobs/" + job.getId())).body(job))
+                    .orElse(ResponseEntity.notFound().build());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (TaskRejectedException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Too many uploads in progress, please retry later");
+        }
+    }
+
+    @DeleteMapping("/uploads/{id}")
+    public ResponseEntity<?> abortUpload(@PathVariable String id) throws IOException {
+        try {
+            return chunkedUploadService.abort(id) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/jobs")
+    public ResponseEntity<List<IngestJob>> ingestJobs() {
+        return ResponseEntity.ok(ingestJobService.recent());
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<IngestJob> ingestJob(@PathVariable String id) {
+        return ResponseEntity.of(ingestJobService.get(id));
+    }
+
+    @PostMapping("/jobs/{id}/resume")
+    public ResponseEntity<?> resumeIngestJob(@PathVariable String id) {
+        try {
+            return ResponseEntity.of(ingestJobService.resume(id));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (TaskRejectedException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Too many uploads in progress, please retry later");
+        }
     }
 
     @PostMapping("/analyse")
-    public ResponseEntity<String> analyseData (@RequestBody Map<String, String> request) throws JsonProcessingException {
+    public CompletableFuture<ResponseEntity<String>> analyseData (@RequestBody Map<String, String> request) {
         String prompt = request.get("prompt");
         log.info("Received prompt: {}", prompt);
-        String response = dataAnalystService.generateAnalysis(prompt);
-        log.info("Generated response: {}", response);
-        return ResponseEntity.ok(response);
+        return dataAnalystService.analyse(prompt).thenApply(response -> {
+            log.info("Generated response: {}", response);
+            return ResponseEntity.ok(response);
+        });
+    }
+
+    /**
+     * Analyses several related questions, e.g. for one report, with batched model calls. The
+     * response holds an analysis or an error for every question in request order.
+     */
+    @PostMapping("/analyse/batch")
+    public CompletableFuture<ResponseEntity<?>> analyseBatch(@RequestBody Map<String, List<String>> request) {
+        List<String> prompts = request.get("prompts");
+        log.info("Received batch of {} prompts", prompts == null ? 0 : prompts.size());
+        CompletableFuture<BatchAnalysis> analysis;
+        try {
+            analysis = batchAnalysisService.analyse(prompts);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(e.getMessage()));
+        } catch (TaskRejectedException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body("Too many analyses in progress, please retry later"));
+        }
+        return analysis.thenApply(ResponseEntity::ok);
+    }
+
+    @PostMapping(value = "/analyse/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamAnalysis(@RequestBody Map<String, String> request) {
+        String prompt = request.get("prompt");
+        log.info("Received streaming prompt: {}", prompt);
+        SseEmitter emitter = new SseEmitter(streamTimeout.toMillis());
+        analysisExecutor.execute(() -> {
+            try {
+                dataAnalystService.streamAnalysis(prompt, new SseAnalysisListener(emitter))
+                        .whenComplete((narrative, error) -> {
+                            if (error != null) {
+                                sendError(emitter, error);
+                            } else {
+                                send(emitter, SseEmitter.event().name("done").data(""));
+                                emitter.complete();
+                            }
+                        });
+            } catch (Exception e) {
+                sendError(emitter, e);
+            }
+        });
+        return emitter;
+    }
+
+    private static void sendError(SseEmitter emitter, Throwable error) {
+        log.error("Error streaming analysis: {}", error.getMessage(), error);
+        send(emitter, SseEmitter.event().name("error").data("Error generating analysis: " + error.getMessage()));
+        emitter.complete();
+    }
+
+    private static void send(SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Client disconnected from analysis stream", e);
+        }
+    }
+
+    /**
+     * Forwards the stages of a streamed analysis as named server-sent events.
+     */
+    private record SseAnalysisListener(SseEmitter emitter) implements AnalysisStreamListener {
+
+        @Override
+        public void onPipeline(String jsonPipeline) {
+            send(emitter, SseEmitter.event().name("pipeline").data(jsonPipeline));
+        }
+
+        @Override
+        public void onResults(List<Document> results) {
+            send(emitter, SseEmitter.event().name("results").data(results, MediaType.APPLICATION_JSON));
+        }
+
+        @Override
+        public void onNarrative(String fragment) {
+            send(emitter, SseEmitter.event().name("narrative").data(fragment));
+        }
     }
 
 }
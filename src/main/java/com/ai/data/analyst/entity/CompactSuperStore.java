@@ -0,0 +1,81 @@
+package com.ai.data.analyst.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.time.LocalDate;
+
+/**
+ * A superStore row in the compact layout: short field names, dictionary codes for the
+ * low-cardinality dimensions and references to the customer and product tables. The measures stay
+ * boxed so a missing value is left out of the document, as in the expanded layout, instead of
+ * turning into 0. The superStore view expands it back into the {@link SuperStore} fields.
+ */
+@Data
+@Document("superStoreCompact")
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CompactSuperStore {
+    @Id
+    private int rowId;
+
+    @Field("o")
+    private String orderId;
+
+    @Field("od")
+    private LocalDate orderDate;
+
+    @Field("sd")
+    private LocalDate shipDate;
+
+    @Field("sm")
+    private int shipMode;
+
+    @Field("cu")
+    private int customer;
+
+    @Field("sg")
+    private int segment;
+
+    @Field("co")
+    private int country;
+
+    @Field("ci")
+    private int city;
+
+    @Field("st")
+    private int state;
+
+    @Field("pc")
+    private String postalCode;
+
+    @Field("r")
+    private int region;
+
+    @Field("p")
+    private int product;
+
+    @Field("ca")
+    private int category;
+
+    @Field("sc")
+    private int subCategory;
+
+    @Field("s")
+    private Double sales;
+
+    @Field("q")
+    private Integer quantity;
+
+    @Field("d")
+    private Double discount;
+
+    @Field("pf")
+    private Double profit;
+}
@@ -0,0 +1,78 @@
+package com.ai.data.analyst.entity;
+
+import com.ai.data.analyst.service.CsvDateParser;
+import com.ai.data.analyst.service.CsvIngestService;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An asynchronous CSV upload. The counters are updated after every written batch, so the job
+ * also serves as the checkpoint an interrupted ingest resumes from.
+ */
+@Data
+@Document("ingestJobs")
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestJob {
+
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    @Id
+    private String id;
+
+    private String fileName;
+
+    private Status status;
+
+    private boolean parallel;
+
+    private CsvIngestService.Mode mode;
+
+    @JsonIgnore
+    private String spoolFile;
+
+    private int attempts;
+
+    /**
+     * Records from the start of the file that are written; a resumed run skips these.
+     */
+    private long recordsCommitted;
+
+    private long rowsParsed;
+
+    private long rowsWritten;
+
+    private long rowsUpdated;
+
+    private long rowsDeleted;
+
+    private double rowsPerSecond;
+
+    private CsvDateParser.DateOrder dateOrder;
+
+    @Builder.Default
+    private List<String> warnings = new ArrayList<>();
+
+    @Builder.Default
+    private List<String> errors = new ArrayList<>();
+
+    private Instant createdAt;
+
+    private Instant startedAt;
+
+    private Instant updatedAt;
+
+    private Instant finishedAt;
+}
@@ -6,6 +6,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDate;
@@ -58,4 +59,11 @@ public class SuperStore {
     private Double discount;
 
     private Double profit;
+
+    /**
+     * Hash of the parsed row, used by delta ingest to recognise unchanged rows. It is kept in the
+     * superStoreHashes collection, not in the row.
+     */
+    @Transient
+    private Long contentHash;
 }
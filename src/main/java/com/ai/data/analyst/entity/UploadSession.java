@@ -0,0 +1,70 @@
+package com.ai.data.analyst.entity;
+
+import com.ai.data.analyst.service.CsvIngestService;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+/**
+ * A chunked upload of one CSV file. Chunk {@code n} covers the bytes from
+ * {@code n * chunkSize}; every chunk but the last is exactly {@code chunkSize} bytes long.
+ */
+@Data
+@Document("uploadSessions")
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSession {
+
+    public enum Status {
+        // COMPLETING: claimed by one complete call, which is submitting the ingest job
+        OPEN, COMPLETING, COMPLETED
+    }
+
+    @Id
+    private String id;
+
+    private String fileName;
+
+    private long size;
+
+    private long chunkSize;
+
+    private int totalChunks;
+
+    private Boolean parallel;
+
+    private CsvIngestService.Mode mode;
+
+    private Status status;
+
+    @JsonIgnore
+    private String spoolFile;
+
+    @Builder.Default
+    private Set<Integer> receivedChunks = new TreeSet<>();
+
+    private String jobId;
+
+    private Instant createdAt;
+
+    private Instant updatedAt;
+
+    public List<Integer> getMissingChunks() {
+        if (receivedChunks.size() == totalChunks) {
+            return new ArrayList<>();
+        }
+        return IntStream.range(0, totalChunks).filter(chunk -> !receivedChunks.contains(chunk)).boxed().toList();
+    }
+}
@@ -0,0 +1,22 @@
+package com.ai.data.analyst.exception;
+
+import com.ai.data.analyst.model.PipelineFailure;
+
+/**
+ * Thrown when a generated pipeline fails the local validation: it is not valid JSON, or it uses
+ * a stage, an operator or a field that does not exist. Like its parent, the message is written
+ * for the model.
+ */
+public class InvalidPipelineException extends PipelineRejectedException {
+
+    private final PipelineFailure failure;
+
+    public InvalidPipelineException(PipelineFailure failure, String message) {
+        super(message);
+        this.failure = failure;
+    }
+
+    public PipelineFailure getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,12 @@
+package com.ai.data.analyst.exception;
+
+/**
+ * Thrown when a generated aggregation pipeline is refused before it reaches MongoDB. The message
+ * is written for the model, since it is fed back into the pipeline correction prompt.
+ */
+public class PipelineRejectedException extends RuntimeException {
+
+    public PipelineRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,255 @@
+package com.ai.data.analyst.handler;
+
+import com.ai.data.analyst.prompt.Prompt;
+import com.ai.data.analyst.response.GeminiResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Calls the Gemini API over one pooled HTTP/2 client: generateContent, streamGenerateContent as
+ * server-sent events, and cachedContents.
+ */
+@Component
+@Slf4j
+public class GeminiApiProvider implements LlmProvider {
+
+    @Value("${google.gemini.api.key}")
+    private String API_KEY;
+
+    @Value("${google.gemini.api.url}")
+    private String GEMINI_URL;
+
+    @Value("${google.gemini.api.stream-url:https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash:streamGenerateContent?alt=sse&key=%s}")
+    private String GEMINI_STREAM_URL;
+
+    @Value("${google.gemini.api.cache-url:https://generativelanguage.googleapis.com/v1beta/cachedContents?key=%s}")
+    private String GEMINI_CACHE_URL;
+
+    @Value("${google.gemini.api.connect-timeout:5s}")
+    private Duration connectTimeout;
+
+    @Value("${google.gemini.api.read-timeout:60s}")
+    private Duration readTimeout;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private HttpClient httpClient;
+    private URI endpoint;
+    private URI streamEndpoint;
+    private URI cacheEndpoint;
+
+    @PostConstruct
+    void init() {
+        endpoint = URI.create(String.format(GEMINI_URL, API_KEY));
+        streamEndpoint = URI.create(String.format(GEMINI_STREAM_URL, API_KEY));
+        cacheEndpoint = URI.create(String.format(GEMINI_CACHE_URL, API_KEY));
+        httpClient = HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .version(HttpClient.Version.HTTP_2)
+                .build();
+    }
+
+    @Override
+    public CompletableFuture<String> generate(GeminiHandler.CallType type, Prompt prompt, Double temperature) {
+        return send(endpoint, prompt, temperature, HttpResponse.BodyHandlers.ofString(), this::extractText);
+    }
+
+    /**
+     * Each server-sent chunk is parsed as it arrives and its text handed to the consumer on the
+     * HTTP client thread. A chunk that cannot be parsed, or a consumer that throws, fails the
+     * returned future and aborts the exchange; a cut-off narrative is never reported as complete.
+     */
+    @Override
+    public CompletableFuture<String> stream(GeminiHandler.CallType type, Prompt prompt, Consumer<String> onChunk) {
+        SseChunkSubscriber subscriber = new SseChunkSubscriber(onChunk);
+        CompletableFuture<String> result = send(streamEndpoint, prompt, null, HttpResponse.BodyHandlers.fromLineSubscriber(
+                subscriber, SseChunkSubscriber::result, null), response -> {
+            if (response.statusCode() / 100 != 2) {
+                throw new IllegalStateException("Gemini API returned HTTP " + response.statusCode() + ": " + response.body());
+            }
+            return response.body();
+        });
+        // a cancelled line subscription never completes the body, so the failure completes the call
+        subscriber.failure.whenComplete((ignored, error) -> result.completeExceptionally(error));
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<String> createCachedContent(String model, String text, Duration ttl) {
+        Map<String, Object> requestBody = Map.of(
+                "model", model,
+                "contents", List.of(Map.of("role", "user", "parts", List.of(Map.of("text", text)))),
+                "ttl", ttl.toSeconds() + "s");
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(cacheEndpoint)
+                    .timeout(readTimeout)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(requestBody)))
+                    .build();
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+            if (response.statusCode() / 100 != 2) {
+                throw new IllegalStateException("Gemini API returned HTTP " + response.statusCode() + ": " + response.body());
+            }
+            try {
+                return objectMapper.readTree(response.body()).path("name").asText();
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Unreadable cachedContents response", e);
+            }
+        });
+    }
+
+    /**
+     * Sends the request; cancelling or failing the returned future aborts the HTTP exchange.
+     */
+    private <B> CompletableFuture<String> send(URI uri, Prompt prompt, Double temperature,
+                                               HttpResponse.BodyHandler<B> bodyHandler, ResponseMapper<B> mapper) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        HttpRequest request;
+        try {
+            request = buildRequest(uri, prompt, temperature);
+        } catch (JsonProcessingException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        CompletableFuture<HttpResponse<B>> exchange = httpClient.sendAsync(request, bodyHandler);
+        result.whenComplete((text, error) -> {
+            if (error != null) {
+                exchange.cancel(true);
+            }
+        });
+        exchange.whenComplete((response, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            try {
+                result.complete(mapper.map(response));
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private HttpRequest buildRequest(URI uri, Prompt prompt, Double temperature) throws JsonProcessingException {
+        Map<String, Object> textPart = Map.of("text", prompt.text());
+        Map<String, Object> content = Map.of("role", "user", "parts", List.of(textPart));
+        Map<String, Object> requestBody = new LinkedHashMap<>();
+        if (prompt.cachedContent() != null) {
+            requestBody.put("cachedContent", prompt.cachedContent());
+        }
+        requestBody.put("contents", List.of(content));
+        if (temperature != null) {
+            requestBody.put("generationConfig", Map.of("temperature", temperature));
+        }
+
+        return HttpRequest.newBuilder(uri)
+                .timeout(readTimeout)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(requestBody)))
+                .build();
+    }
+
+    private String extractText(HttpResponse<String> response) throws JsonProcessingException {
+        if (response.statusCode() / 100 != 2) {
+            throw new IllegalStateException("Gemini API returned HTTP " + response.statusCode() + ": " + response.body());
+        }
+        GeminiResponse geminiResponse = objectMapper.readValue(response.body(), GeminiResponse.class);
+        if (geminiResponse == null || geminiResponse.text() == null) {
+            log.error("No response body received from Gemini API");
+            return "No content generated";
+        }
+        return geminiResponse.text();
+    }
+
+    @FunctionalInterface
+    private interface ResponseMapper<B> {
+        String map(HttpResponse<B> response) throws Exception;
+    }
+
+    /**
+     * Consumes a server-sent event stream line by line. Every {@code data:} line carries one
+     * GeminiResponse chunk; any other non-empty line is kept as the body of an error response.
+     */
+    private final class SseChunkSubscriber implements Flow.Subscriber<String> {
+
+        private final Consumer<String> onChunk;
+        private final StringBuilder text = new StringBuilder();
+        private final StringBuilder otherLines = new StringBuilder();
+        private final CompletableFuture<String> failure = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+
+        SseChunkSubscriber(Consumer<String> onChunk) {
+            this.onChunk = onChunk;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (failure.isDone()) {
+                return;
+            }
+            if (!line.startsWith("data:")) {
+                if (!line.isBlank()) {
+                    otherLines.append(line).append('\n');
+                }
+                return;
+            }
+            try {
+                String chunk = objectMapper.readValue(line.substring(5).trim(), GeminiResponse.class).text();
+                if (chunk != null && !chunk.isEmpty()) {
+                    text.append(chunk);
+                    onChunk.accept(chunk);
+                }
+            } catch (Exception e) {
+                log.warn("Stopping Gemini stream: {}", e.toString());
+                subscription.cancel();
+                failure.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            log.error("Gemini stream failed: {}", throwable.toString());
+            failure.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            log.debug("Gemini stream completed, {} characters", text.length());
+        }
+
+        String result() {
+            return text.length() > 0 || otherLines.length() == 0 ? text.toString() : otherLines.toString();
+        }
+    }
+}
@@ -1,54 +1,246 @@
 package com.ai.data.analyst.handler;
 
-import com.ai.data.analyst.response.GeminiResponse;
+import com.ai.data.analyst.metrics.AnalysisMetrics;
+import com.ai.data.analyst.prompt.Prompt;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
 
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @Component
 @Slf4j
 public class GeminiHandler {
 
-    @Value("${google.gemini.api.key}")
-    private String API_KEY;
+    /**
+     * What a model call is for; recorded as the {@code type} tag of the call metrics.
+     */
+    public enum CallType {
+        PIPELINE, NARRATIVE, REPAIR;
 
-    @Value("${google.gemini.api.url}")
-    private String GEMINI_URL;
+        String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    @Value("${google.gemini.api.max-concurrent-requests:16}")
+    private int maxConcurrentRequests;
+
+    @Value("${google.gemini.api.max-queued-requests:256}")
+    private int maxQueuedRequests;
+
+    @Autowired(required = false)
+    private AnalysisMetrics analysisMetrics;
+
+    @Autowired
+    private LlmProvider llmProvider;
+
+    private final Queue<PendingRequest> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private Semaphore permits;
+
+    @PostConstruct
+    void init() {
+        permits = new Semaphore(maxConcurrentRequests);
+    }
 
-    public String generateContent(String prompt) {
+    /**
+     * Generates content for the prompt, blocking until the model answers.
+     *
+     * @param type   what the call is for
+     * @param prompt the prompt to send
+     * @return the generated text, or an error message if the call failed
+     */
+    public String generateContent(CallType type, String prompt) {
+        return generateContent(type, Prompt.of(prompt));
+    }
+
+    /**
+     * Generates content for a built prompt, blocking until the model answers.
+     *
+     * @param type   what the call is for
+     * @param prompt the prompt to send
+     * @return the generated text, or an error message if the call failed
+     */
+    public String generateContent(CallType type, Prompt prompt) {
+        CompletableFuture<String> future = generateContentAsync(type, prompt, null);
         try {
-            String url = String.format(GEMINI_URL, API_KEY);
-            RestTemplate restTemplate = new RestTemplate();
-
-            Map<String, Object> textPart = Map.of("text", prompt);
-            Map<String, Object> content = Map.of("parts", List.of(textPart));
-            Map<String, Object> requestBody = Map.of("contents", List.of(content));
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-
-            HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
-            ResponseEntity<GeminiResponse> response = restTemplate.postForEntity(url, request, GeminiResponse.class);
-            if (Objects.nonNull(response.getBody())) {
-                return response.getBody().getCandidates().get(0).getContent().getParts().get(0).getText();
-            } else {
-                log.error("No response body received from Gemini API");
-                return "No content generated";
-            }
-        } catch (Exception e) {
-            log.error("Error generating content with Gemini: {}", e.getMessage());
+            return future.get();
+        } catch (ExecutionException e) {
+            log.error("Error generating content with Gemini: {}", e.getCause().toString());
             return "Error generating content";
+        } catch (InterruptedException e) {
+            // the analysis was cancelled, e.g. because every caller waiting for it gave up
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Gemini call interrupted");
+        }
+    }
+
+    /**
+     * Generates content for the prompt without blocking the caller. Requests go to the configured
+     * {@link LlmProvider}; at most {@code max-concurrent-requests} are in flight and further requests
+     * wait in a bounded queue, beyond which they are rejected.
+     *
+     * @param type   what the call is for
+     * @param prompt the prompt to send
+     * @return a future completed with the generated text
+     */
+    public CompletableFuture<String> generateContentAsync(CallType type, String prompt) {
+        return generateContentAsync(type, prompt, null);
+    }
+
+    /**
+     * Generates content for the prompt with the given sampling temperature. Cancelling the
+     * returned future aborts the provider call.
+     *
+     * @param type        what the call is for
+     * @param prompt      the prompt to send
+     * @param temperature the sampling temperature, or null for the model default
+     * @return a future completed with the generated text
+     */
+    public CompletableFuture<String> generateContentAsync(CallType type, String prompt, Double temperature) {
+        return generateContentAsync(type, Prompt.of(prompt), temperature);
+    }
+
+    /**
+     * Generates content for a built prompt with the given sampling temperature. A prompt whose
+     * prefix is held in a context cache is sent with a reference to it.
+     *
+     * @param type        what the call is for
+     * @param prompt      the prompt to send
+     * @param temperature the sampling temperature, or null for the model default
+     * @return a future completed with the generated text
+     */
+    public CompletableFuture<String> generateContentAsync(CallType type, Prompt prompt, Double temperature) {
+        return dispatch(type, false, prompt, () -> llmProvider.generate(type, prompt, temperature));
+    }
+
+    /**
+     * Streams content for the prompt. Each chunk is handed to the consumer as it arrives, on
+     * the provider's thread.
+     *
+     * @param type    what the call is for
+     * @param prompt  the prompt to send
+     * @param onChunk receives every text fragment in order
+     * @return a future completed with the full generated text once the stream ends
+     */
+    public CompletableFuture<String> streamContent(CallType type, String prompt, Consumer<String> onChunk) {
+        return streamContent(type, Prompt.of(prompt), onChunk);
+    }
+
+    /**
+     * Streams content for a built prompt.
+     *
+     * @param type    what the call is for
+     * @param prompt  the prompt to send
+     * @param onChunk receives every text fragment in order
+     * @return a future completed with the full generated text once the stream ends
+     */
+    public CompletableFuture<String> streamContent(CallType type, Prompt prompt, Consumer<String> onChunk) {
+        return dispatch(type, true, prompt, () -> llmProvider.stream(type, prompt, onChunk));
+    }
+
+    /**
+     * Stores the text in a Gemini context cache, so later prompts that start with it can send only
+     * the rest. The call does not take a request permit.
+     *
+     * @param model the model the cache is for, e.g. models/gemini-2.5-flash
+     * @param text  the prompt prefix to cache
+     * @param ttl   how long the cache lives
+     * @return a future completed with the name of the cachedContents resource
+     */
+    public CompletableFuture<String> createCachedContent(String model, String text, Duration ttl) {
+        return llmProvider.createCachedContent(model, text, ttl);
+    }
+
+    private CompletableFuture<String> dispatch(CallType type, boolean streamed, Prompt prompt,
+                                               Supplier<CompletableFuture<String>> call) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        if (analysisMetrics != null) {
+            long start = System.nanoTime();
+            result.whenComplete((text, error) -> analysisMetrics.recordModelCall(
+                    type.tag(), streamed, prompt.text(), text, error, System.nanoTime() - start));
+        }
+        PendingRequest pending = new PendingRequest(result, () -> {
+            CompletableFuture<String> sent = call.get();
+            result.whenComplete((text, error) -> {
+                if (result.isCancelled()) {
+                    sent.cancel(true);
+                }
+            });
+            return sent.whenComplete((text, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(text);
+                }
+            });
+        });
+        if (permits.tryAcquire()) {
+            send(pending);
+        } else if (queued.incrementAndGet() > maxQueuedRequests) {
+            queued.decrementAndGet();
+            result.completeExceptionally(new RejectedExecutionException(
+                    "Gemini request queue is full (" + maxQueuedRequests + " waiting)"));
+        } else {
+            queue.add(pending);
+            // a permit may have been released between tryAcquire and enqueueing
+            drain();
+        }
+        return result;
+    }
+
+    private void send(PendingRequest pending) {
+        CompletableFuture<?> sent;
+        try {
+            sent = pending.call().get();
+        } catch (RuntimeException e) {
+            // the provider failed before returning a future, which would never release the permit
+            permits.release();
+            drain();
+            pending.result().completeExceptionally(e);
+            return;
+        }
+        sent.whenComplete((response, error) -> {
+            permits.release();
+            drain();
+        });
+    }
+
+    private void drain() {
+        while (!queue.isEmpty() && permits.tryAcquire()) {
+            PendingRequest next = queue.poll();
+            if (next == null) {
+                permits.release();
+                return;
+            }
+            queued.decrementAndGet();
+            if (next.result().isDone()) {
+                // the caller gave up while the request was queued
+                permits.release();
+                continue;
+            }
+            send(next);
         }
     }
+
+    private record PendingRequest(CompletableFuture<String> result, Supplier<CompletableFuture<?>> call) {
+    }
 }
 
 
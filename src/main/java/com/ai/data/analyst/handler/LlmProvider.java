@@ -0,0 +1,49 @@
+package com.ai.data.analyst.handler;
+
+import com.ai.data.analyst.prompt.Prompt;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Where {@link GeminiHandler} sends its model calls. The handler keeps the concurrency limit,
+ * the request queue and the metrics; a provider only turns one prompt into text. Cancelling a
+ * returned future should abort the call.
+ *
+ * <p>{@code llm.provider} selects the implementation: {@code gemini} calls the Gemini API,
+ * {@code record} calls it and writes every exchange to disk, and {@code replay} answers from
+ * those recordings without network access.
+ */
+public interface LlmProvider {
+
+    /**
+     * Generates content for the prompt.
+     *
+     * @param type        what the call is for
+     * @param prompt      the prompt to send
+     * @param temperature the sampling temperature, or null for the model default
+     * @return a future completed with the generated text
+     */
+    CompletableFuture<String> generate(GeminiHandler.CallType type, Prompt prompt, Double temperature);
+
+    /**
+     * Streams content for the prompt.
+     *
+     * @param type    what the call is for
+     * @param prompt  the prompt to send
+     * @param onChunk receives every text fragment in order
+     * @return a future completed with the full generated text once the stream ends
+     */
+    CompletableFuture<String> stream(GeminiHandler.CallType type, Prompt prompt, Consumer<String> onChunk);
+
+    /**
+     * Stores a prompt prefix in a context cache.
+     *
+     * @param model the model the cache is for
+     * @param text  the prefix
+     * @param ttl   how long the cache lives
+     * @return a future completed with the name of the cache
+     */
+    CompletableFuture<String> createCachedContent(String model, String text, Duration ttl);
+}
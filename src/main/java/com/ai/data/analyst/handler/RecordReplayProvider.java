@@ -0,0 +1,256 @@
+package com.ai.data.analyst.handler;
+
+import com.ai.data.analyst.prompt.Prompt;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Records model exchanges to disk and replays them without network access, so load tests get
+ * the same answers every run and measure the application rather than the model.
+ *
+ * <p>With {@code llm.provider=record} every call goes to Gemini and the prompt, the response and
+ * the observed latency are appended to {@code recordings.jsonl} in {@code llm.recording.directory}.
+ * With {@code llm.provider=replay} calls are answered from that file, keyed by call type,
+ * temperature and prompt text. A prompt that was never recorded gets an arbitrary but fixed
+ * recording of the same call type ({@code on-miss: ANY_OF_TYPE}) or fails
+ * ({@code on-miss: ERROR}).
+ *
+ * <p>Replayed calls wait {@code latency} plus up to {@code latency-jitter}, or the recorded latency
+ * when {@code recorded-latency} is set, and a fraction {@code error-rate} of them fails as an HTTP
+ * 503 would. Latency and failures are drawn from {@code seed}, the prompt and how often it has been
+ * asked, so a run is repeatable regardless of thread scheduling.
+ */
+@Component
+@Primary
+@ConditionalOnExpression("'${llm.provider:gemini}' != 'gemini'")
+@Slf4j
+public class RecordReplayProvider implements LlmProvider {
+
+    private static final String FILE_NAME = "recordings.jsonl";
+    private static final int STREAM_CHUNK_SIZE = 64;
+
+    enum Mode {
+        RECORD, REPLAY
+    }
+
+    enum OnMiss {
+        ANY_OF_TYPE, ERROR
+    }
+
+    /**
+     * One recorded exchange, a line of {@code recordings.jsonl}.
+     */
+    public record Recording(GeminiHandler.CallType type, String key, String prompt, Double temperature,
+                            String response, long latencyMillis) {
+    }
+
+    private final GeminiApiProvider gemini;
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final Map<String, Recording> recordings = new ConcurrentHashMap<>();
+    private final Map<GeminiHandler.CallType, List<Recording>> byType = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> occurrences = new ConcurrentHashMap<>();
+
+    @Value("${llm.provider:gemini}")
+    private String provider;
+
+    @Value("${llm.recording.directory:${java.io.tmpdir}/ai-data-analyst/llm-recordings}")
+    private Path directory;
+
+    @Value("${llm.recording.latency:0ms}")
+    private Duration latency;
+
+    @Value("${llm.recording.latency-jitter:0ms}")
+    private Duration latencyJitter;
+
+    @Value("${llm.recording.recorded-latency:false}")
+    private boolean recordedLatency;
+
+    @Value("${llm.recording.error-rate:0.0}")
+    private double errorRate;
+
+    @Value("${llm.recording.on-miss:ANY_OF_TYPE}")
+    private OnMiss onMiss;
+
+    @Value("${llm.recording.seed:42}")
+    private long seed;
+
+    private Mode mode;
+    private BufferedWriter writer;
+
+    @Autowired
+    public RecordReplayProvider(GeminiApiProvider gemini) {
+        this.gemini = gemini;
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        mode = Mode.valueOf(provider.trim().toUpperCase(Locale.ROOT));
+        Path file = directory.resolve(FILE_NAME);
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    add(objectMapper.readValue(line, Recording.class));
+                }
+            }
+        }
+        if (mode == Mode.RECORD) {
+            Files.createDirectories(directory);
+            writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } else if (recordings.isEmpty()) {
+            log.warn("No LLM recordings in {}, every replayed call will fail", file);
+        }
+        log.info("LLM provider in {} mode with {} recordings from {}", mode, recordings.size(), file);
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> generate(GeminiHandler.CallType type, Prompt prompt, Double temperature) {
+        if (mode == Mode.RECORD) {
+            long start = System.nanoTime();
+            return gemini.generate(type, prompt, temperature)
+                    .whenComplete((text, error) -> record(type, prompt, temperature, text, error, start));
+        }
+        return replay(type, prompt, temperature);
+    }
+
+    @Override
+    public CompletableFuture<String> stream(GeminiHandler.CallType type, Prompt prompt, Consumer<String> onChunk) {
+        if (mode == Mode.RECORD) {
+            long start = System.nanoTime();
+            return gemini.stream(type, prompt, onChunk)
+                    .whenComplete((text, error) -> record(type, prompt, null, text, error, start));
+        }
+        return replay(type, prompt, null).thenApply(text -> {
+            for (int i = 0; i < text.length(); i += STREAM_CHUNK_SIZE) {
+                onChunk.accept(text.substring(i, Math.min(text.length(), i + STREAM_CHUNK_SIZE)));
+            }
+            return text;
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> createCachedContent(String model, String text, Duration ttl) {
+        if (mode == Mode.RECORD) {
+            return gemini.createCachedContent(model, text, ttl);
+        }
+        return CompletableFuture.completedFuture("cachedContents/replay-" + key(null, null, text).substring(0, 16));
+    }
+
+    private CompletableFuture<String> replay(GeminiHandler.CallType type, Prompt prompt, Double temperature) {
+        String key = key(type, temperature, text(prompt));
+        Recording recording = recordings.get(key);
+        if (recording == null) {
+            List<Recording> candidates = byType.getOrDefault(type, List.of());
+            if (onMiss == OnMiss.ERROR || candidates.isEmpty()) {
+                return CompletableFuture.failedFuture(new IllegalStateException(
+                        "No recorded " + type + " response for prompt " + key));
+            }
+            // not the most similar prompt, just the same pick for the same prompt on every run
+            recording = candidates.get(Math.floorMod(key.hashCode(), candidates.size()));
+        }
+        long occurrence = occurrences.computeIfAbsent(key, k -> new AtomicLong()).getAndIncrement();
+        SplittableRandom random = new SplittableRandom(seed ^ key.hashCode() * 31L ^ occurrence);
+        long delay = recordedLatency ? recording.latencyMillis() : latency.toMillis()
+                + (latencyJitter.isZero() ? 0 : random.nextLong(latencyJitter.toMillis() + 1));
+        boolean fail = errorRate > 0 && random.nextDouble() < errorRate;
+
+        Recording answer = recording;
+        CompletableFuture<String> result = new CompletableFuture<>();
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+            if (fail) {
+                result.completeExceptionally(new IllegalStateException(
+                        "Gemini API returned HTTP 503: synthetic error for " + type + " call " + occurrence));
+            } else {
+                result.complete(answer.response());
+            }
+        });
+        return result;
+    }
+
+    private void record(GeminiHandler.CallType type, Prompt prompt, Double temperature, String text, Throwable error, long start) {
+        if (error != null) {
+            return;
+        }
+        String promptText = text(prompt);
+        Recording recording = new Recording(type, key(type, temperature, promptText), promptText, temperature,
+                text, (System.nanoTime() - start) / 1_000_000);
+        if (recordings.putIfAbsent(recording.key(), recording) != null) {
+            return;
+        }
+        try {
+            String line = objectMapper.writeValueAsString(recording);
+            synchronized (this) {
+                byType.computeIfAbsent(type, t -> new ArrayList<>()).add(recording);
+                writer.write(line);
+                writer.newLine();
+                writer.flush();
+            }
+        } catch (IOException e) {
+            log.warn("Could not write LLM recording {}: {}", recording.key(), e.toString());
+        }
+    }
+
+    private void add(Recording recording) {
+        if (recordings.putIfAbsent(recording.key(), recording) == null) {
+            byType.computeIfAbsent(recording.type(), t -> new ArrayList<>()).add(recording);
+        }
+    }
+
+    /**
+     * A prompt sent against a context cache is recorded with a marker for the cache, since the
+     * cache name changes between runs.
+     */
+    private static String text(Prompt prompt) {
+        return prompt.cachedContent() == null ? prompt.text() : "[cached prefix]\n" + prompt.text();
+    }
+
+    /**
+     * @return the hex SHA-256 of the call type, temperature and prompt text
+     */
+    static String key(GeminiHandler.CallType type, Double temperature, String prompt) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((type + "\n" + temperature + "\n").getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest(prompt.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.ai.data.analyst.metrics;
+
+import com.ai.data.analyst.model.IngestResult;
+import com.ai.data.analyst.model.PipelineFailure;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Meters for every stage of the analyse pipeline: the model calls by type, the aggregation by
+ * engine, repair retries, the end-to-end analysis and CSV ingest. Percentile histograms are
+ * switched on in application.yml so Prometheus can compute latency quantiles across instances.
+ */
+@Component
+public class AnalysisMetrics {
+
+    private final MeterRegistry registry;
+    private final Counter retries;
+    private final Counter retriesExhausted;
+    private final AtomicLong ingestRowsPerSecond = new AtomicLong();
+
+    @Autowired
+    public AnalysisMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.retries = Counter.builder("analysis.pipeline.retries")
+                .description("Generated pipelines that failed and were sent back to the model for repair")
+                .register(registry);
+        this.retriesExhausted = Counter.builder("analysis.pipeline.retries.exhausted")
+                .description("Analyses that gave up after the maximum number of repairs")
+                .register(registry);
+        Gauge.builder("ingest.throughput", ingestRowsPerSecond, AtomicLong::get)
+                .description("Rows per second written by the most recent ingest")
+                .baseUnit("rows/s")
+                .register(registry);
+    }
+
+    /**
+     * Records a completed model call.
+     *
+     * @param type     the call type, e.g. pipeline, narrative or repair
+     * @param streamed whether the response was streamed
+     * @param prompt   the prompt sent
+     * @param response the generated text, or null if the call failed
+     * @param error    the failure, or null
+     * @param nanos    the call duration including time spent queued for a permit
+     */
+    public void recordModelCall(String type, boolean streamed, String prompt, String response, Throwable error, long nanos) {
+        String outcome = error == null ? "success" : "error";
+        Timer.builder("analysis.llm.duration")
+                .description("Gemini call latency")
+                .tags("type", type, "streamed", Boolean.toString(streamed), "outcome", outcome)
+                .register(registry)
+                .record(Duration.ofNanos(nanos));
+        DistributionSummary.builder("analysis.llm.prompt.size")
+                .description("Size of the prompts sent to Gemini")
+                .baseUnit(BaseUnits.BYTES)
+                .tag("type", type)
+                .register(registry)
+                .record(prompt.getBytes(StandardCharsets.UTF_8).length);
+        if (response != null) {
+            DistributionSummary.builder("analysis.llm.response.size")
+                    .description("Size of the text Gemini generated")
+                    .baseUnit(BaseUnits.BYTES)
+                    .tag("type", type)
+                    .register(registry)
+                    .record(response.getBytes(StandardCharsets.UTF_8).length);
+        }
+    }
+
+    /**
+     * Records a built prompt.
+     *
+     * @param template  the template, e.g. analysis_prompt
+     * @param tokens    the estimated tokens sent, without a cached prefix
+     * @param cached    whether the template prefix came from a context cache
+     * @param truncated whether data was cut to fit the token budget
+     */
+    public void recordPrompt(String template, int tokens, boolean cached, boolean truncated) {
+        DistributionSummary.builder("analysis.prompt.tokens")
+                .description("Estimated tokens of the prompts sent to Gemini")
+                .tags("template", template, "cached", Boolean.toString(cached))
+                .register(registry)
+                .record(tokens);
+        if (truncated) {
+            Counter.builder("analysis.prompt.truncated")
+                    .description("Prompts whose data was cut to fit the token budget")
+                    .tag("template", template)
+                    .register(registry)
+                    .increment();
+        }
+    }
+
+    /**
+     * Records an executed aggregation.
+     *
+     * @param collection the collection aggregated
+     * @param engine     where the results came from: cache, columnar or mongo
+     * @param rows       the number of result documents
+     * @param nanos      the execution time
+     */
+    public void recordAggregation(String collection, String engine, int rows, long nanos) {
+        Timer.builder("analysis.aggregation.duration")
+                .description("Aggregation latency, including the guard and the result cache lookup")
+                .tags("collection", collection, "engine", engine)
+                .register(registry)
+                .record(Duration.ofNanos(nanos));
+        DistributionSummary.builder("analysis.aggregation.rows")
+                .description("Documents returned by an aggregation")
+                .tags("collection", collection, "engine", engine)
+                .register(registry)
+                .record(rows);
+    }
+
+    public void recordRetry() {
+        retries.increment();
+    }
+
+    public void recordRetriesExhausted() {
+        retriesExhausted.increment();
+    }
+
+    /**
+     * Records a failed pipeline attempt.
+     *
+     * @param failure why the attempt failed
+     */
+    public void recordPipelineFailure(PipelineFailure failure) {
+        Counter.builder("analysis.pipeline.failures")
+                .description("Pipeline attempts that failed validation, the guard or execution")
+                .tag("failure", failure.name().toLowerCase(Locale.ROOT))
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Records the outcome of a pipeline repair.
+     *
+     * @param failure the failure the model was asked to repair
+     * @param fixed   whether the repaired pipeline executed
+     */
+    public void recordRepair(PipelineFailure failure, boolean fixed) {
+        Counter.builder("analysis.pipeline.repairs")
+                .description("Pipeline repairs by the failure they addressed")
+                .tags("failure", failure.name().toLowerCase(Locale.ROOT), "outcome", fixed ? "fixed" : "failed")
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Records how long it took to get an executed pipeline for a question, from the generation
+     * prompt to the results, including repairs. Comparing the modes shows what speculation does
+     * to the tail latency.
+     *
+     * @param mode    sequential or speculative
+     * @param success whether a pipeline executed
+     * @param nanos   the time taken
+     */
+    public void recordPipelineGeneration(String mode, boolean success, long nanos) {
+        Timer.builder("analysis.pipeline.generation")
+                .description("Time from the pipeline generation prompt to executed results, including repairs")
+                .tags("mode", mode, "outcome", success ? "success" : "error")
+                .register(registry)
+                .record(Duration.ofNanos(nanos));
+    }
+
+    /**
+     * Records the number of candidates a speculative generation requested.
+     *
+     * @param candidates the candidates requested
+     */
+    public void recordSpeculativeFanOut(int candidates) {
+        DistributionSummary.builder("analysis.speculative.fanout")
+                .description("Candidate pipelines requested per speculative generation")
+                .register(registry)
+                .record(candidates);
+    }
+
+    /**
+     * Records what became of a speculative candidate.
+     *
+     * @param outcome won, empty, failed or cancelled
+     */
+    public void recordSpeculativeCandidate(String outcome) {
+        Counter.builder("analysis.speculative.candidates")
+                .description("Speculative candidate pipelines by outcome")
+                .tag("outcome", outcome)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Records an analyse request from prompt to narrative.
+     *
+     * @param streamed whether the narrative was streamed
+     * @param success  whether a narrative was produced
+     * @param nanos    the total duration
+     */
+    public void recordAnalysis(boolean streamed, boolean success, long nanos) {
+        Timer.builder("analysis.duration")
+                .description("End-to-end analyse latency")
+                .tags("streamed", Boolean.toString(streamed), "outcome", success ? "success" : "error")
+                .register(registry)
+                .record(Duration.ofNanos(nanos));
+    }
+
+    /**
+     * Records a batch analysis.
+     *
+     * @param questions the questions in the batch
+     * @param failed    the questions without an analysis
+     * @param nanos     the total duration
+     */
+    public void recordBatch(int questions, int failed, long nanos) {
+        Timer.builder("analysis.batch.duration")
+                .description("End-to-end batch analyse latency")
+                .tag("outcome", failed == 0 ? "success" : failed == questions ? "error" : "partial")
+                .register(registry)
+                .record(Duration.ofNanos(nanos));
+        DistributionSummary.builder("analysis.batch.questions")
+                .description("Questions per batch analysis")
+                .register(registry)
+                .record(questions);
+        Counter.builder("analysis.batch.failures")
+                .description("Batch questions that ended without an analysis")
+                .register(registry)
+                .increment(failed);
+    }
+
+    public void recordIngest(IngestResult result, boolean parallel) {
+        String mode = parallel ? "parallel" : "sequential";
+        Counter.builder("ingest.rows")
+                .description("CSV rows written to the superStore collection")
+                .tag("mode", mode)
+                .register(registry)
+                .increment(result.getRowsWritten());
+        Counter.builder("ingest.rows.skipped")
+                .description("CSV rows parsed but not written, e.g. duplicate rowIds")
+                .tag("mode", mode)
+                .register(registry)
+                .increment(result.getRowsSkipped());
+        Counter.builder("ingest.rows.updated")
+                .description("Stored rows replaced by a delta ingest because their content changed")
+                .tag("mode", mode)
+                .register(registry)
+                .increment(result.getRowsUpdated());
+        Counter.builder("ingest.rows.deleted")
+                .description("Stored rows deleted by a sync ingest because the file no longer has them")
+                .tag("mode", mode)
+                .register(registry)
+                .increment(result.getRowsDeleted());
+        Timer.builder("ingest.duration")
+                .description("CSV ingest duration")
+                .tag("mode", mode)
+                .register(registry)
+                .record(Duration.ofMillis(result.getDurationMillis()));
+        ingestRowsPerSecond.set(Math.round(result.getRowsPerSecond()));
+    }
+}
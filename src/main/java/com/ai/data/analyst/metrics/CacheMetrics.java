@@ -0,0 +1,69 @@
+package com.ai.data.analyst.metrics;
+
+import com.ai.data.analyst.cache.AggregationResultCache;
+import com.ai.data.analyst.cache.AnalysisCoalescer;
+import com.ai.data.analyst.cache.PipelineCache;
+import com.ai.data.analyst.cache.SingleFlight;
+import com.ai.data.analyst.model.CacheStats;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Publishes the pipeline and result cache counters under Micrometer's standard cache meter
+ * names, so the hit rate is {@code rate(cache_gets_total{result="hit"}) / rate(cache_gets_total)}.
+ * The analysis single-flight layer is published next to them as {@code analysis.single_flight.*}.
+ */
+@Component
+public class CacheMetrics implements MeterBinder {
+
+    private final Map<String, Supplier<CacheStats>> caches;
+    private final SingleFlight<String, String> analysisFlights;
+
+    @Autowired
+    public CacheMetrics(PipelineCache pipelineCache, AggregationResultCache resultCache, AnalysisCoalescer analysisCoalescer) {
+        this.caches = Map.of("pipeline", pipelineCache::stats, "result", resultCache::stats);
+        this.analysisFlights = analysisCoalescer.flights();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        caches.forEach((name, stats) -> {
+            counter(registry, "cache.gets", name, stats, CacheStats::getHits, "result", "hit");
+            counter(registry, "cache.gets", name, stats, CacheStats::getMisses, "result", "miss");
+            counter(registry, "cache.evictions", name, stats, CacheStats::getEvictions, "reason", "size");
+            counter(registry, "cache.evictions", name, stats, CacheStats::getExpirations, "reason", "expired");
+            Gauge.builder("cache.size", stats, cache -> cache.get().getSize())
+                    .tag("cache", name)
+                    .register(registry);
+            Gauge.builder("cache.weight", stats, cache -> cache.get().getWeight())
+                    .tag("cache", name)
+                    .register(registry);
+        });
+        FunctionCounter.builder("analysis.single_flight.started", analysisFlights, SingleFlight::started)
+                .description("Analyses started by the single-flight layer")
+                .register(registry);
+        FunctionCounter.builder("analysis.single_flight.coalesced", analysisFlights, SingleFlight::coalesced)
+                .description("Analyse requests that joined an identical analysis already running")
+                .register(registry);
+        FunctionCounter.builder("analysis.single_flight.cancelled", analysisFlights, SingleFlight::cancelled)
+                .description("Analyses cancelled because every waiting request gave up")
+                .register(registry);
+        Gauge.builder("analysis.single_flight.in_flight", analysisFlights, SingleFlight::inFlight)
+                .register(registry);
+    }
+
+    private static void counter(MeterRegistry registry, String meter, String name, Supplier<CacheStats> stats,
+                                ToDoubleFunction<CacheStats> value, String tag, String tagValue) {
+        FunctionCounter.builder(meter, stats, cache -> value.applyAsDouble(cache.get()))
+                .tags("cache", name, tag, tagValue)
+                .register(registry);
+    }
+}
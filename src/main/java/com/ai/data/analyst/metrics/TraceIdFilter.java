@@ -0,0 +1,56 @@
+package com.ai.data.analyst.metrics;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.MDC;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Gives every request a trace id, taken from the {@code X-Trace-Id} header when the caller sends
+ * a well-formed one. The id is put into the logging MDC, so all log lines of the request carry
+ * it, and echoed in the response header so a client can quote it. Async dispatches of the same
+ * request reuse the id.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class TraceIdFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "X-Trace-Id";
+    public static final String MDC_KEY = "traceId";
+
+    private static final Pattern VALID = Pattern.compile("[A-Za-z0-9-]{1,64}");
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String traceId = (String) request.getAttribute(MDC_KEY);
+        if (traceId == null) {
+            traceId = request.getHeader(HEADER);
+            if (traceId == null || !VALID.matcher(traceId).matches()) {
+                traceId = String.format("%016x", ThreadLocalRandom.current().nextLong());
+            }
+            request.setAttribute(MDC_KEY, traceId);
+            response.setHeader(HEADER, traceId);
+        }
+        MDC.put(MDC_KEY, traceId);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            MDC.remove(MDC_KEY);
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+}
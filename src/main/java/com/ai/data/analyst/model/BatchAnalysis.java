@@ -0,0 +1,21 @@
+package com.ai.data.analyst.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchAnalysis {
+    private List<QuestionAnalysis> questions;
+    private int succeeded;
+    private int failed;
+    private int pipelineCalls;
+    private int narrativeCalls;
+    private long durationMillis;
+}
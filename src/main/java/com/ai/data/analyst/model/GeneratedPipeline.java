@@ -0,0 +1,18 @@
+package com.ai.data.analyst.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.bson.Document;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class GeneratedPipeline {
+    private String collection;
+    private List<Document> stages;
+}
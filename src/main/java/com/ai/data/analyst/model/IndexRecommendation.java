@@ -0,0 +1,22 @@
+package com.ai.data.analyst.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class IndexRecommendation {
+    private String collection;
+    private List<String> fields;
+    private long occurrences;
+    private long collectionScans;
+    private long documentsScanned;
+    private double score;
+    private boolean created;
+}
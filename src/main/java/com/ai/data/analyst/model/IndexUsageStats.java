@@ -0,0 +1,24 @@
+package com.ai.data.analyst.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class IndexUsageStats {
+    private long executions;
+    private long indexedExecutions;
+    private long collectionScans;
+    private Map<String, Long> indexUsage;
+    private Map<String, Long> fieldUsage;
+
+    public double getHitRate() {
+        return executions == 0 ? 0 : (double) indexedExecutions / executions;
+    }
+}
@@ -0,0 +1,34 @@
+package com.ai.data.analyst.model;
+
+import com.ai.data.analyst.service.CsvDateParser;
+import com.ai.data.analyst.service.CsvIngestService;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class IngestResult {
+    private long rowsParsed;
+    private long rowsWritten;
+    private long rowsUpdated;
+    private long rowsDeleted;
+    private long rowsSkipped;
+    private long batches;
+    private long durationMillis;
+    private boolean parallel;
+    private CsvIngestService.Mode mode;
+    private CsvDateParser.DateOrder dateOrder;
+    @Builder.Default
+    private List<String> warnings = new ArrayList<>();
+
+    public double getRowsPerSecond() {
+        return durationMillis == 0 ? rowsWritten : rowsWritten * 1000.0 / durationMillis;
+    }
+}
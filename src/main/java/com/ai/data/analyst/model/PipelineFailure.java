@@ -0,0 +1,36 @@
+package com.ai.data.analyst.model;
+
+/**
+ * Why a generated pipeline could not be executed. Everything but {@link #UNAVAILABLE} is a
+ * problem with the pipeline itself and is sent back to the model for repair.
+ */
+public enum PipelineFailure {
+    /** The response is not JSON. */
+    INVALID_JSON(true),
+    /** The JSON is not a stage array or a collection/pipeline object. */
+    INVALID_SHAPE(true),
+    /** A stage operator MongoDB does not know. */
+    UNKNOWN_STAGE(true),
+    /** A query or expression operator MongoDB does not know. */
+    UNKNOWN_OPERATOR(true),
+    /** A field the collection or the preceding stages do not have. */
+    UNKNOWN_FIELD(true),
+    /** Refused by the pipeline guard. */
+    REJECTED(true),
+    /** Exceeded the aggregation time limit. */
+    TIMEOUT(true),
+    /** Failed on the MongoDB server. */
+    EXECUTION_ERROR(true),
+    /** MongoDB could not be reached; repairing the pipeline does not help. */
+    UNAVAILABLE(false);
+
+    private final boolean repairable;
+
+    PipelineFailure(boolean repairable) {
+        this.repairable = repairable;
+    }
+
+    public boolean isRepairable() {
+        return repairable;
+    }
+}
@@ -0,0 +1,20 @@
+package com.ai.data.analyst.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.bson.Document;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class PipelinePlan {
+    private boolean collectionScan;
+    private long estimatedDocuments;
+    private List<String> indexesUsed;
+    private Document winningPlan;
+}
@@ -0,0 +1,26 @@
+package com.ai.data.analyst.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.bson.Document;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class QuestionAnalysis {
+    private int index;
+    private String prompt;
+    private String pipeline;
+    private List<Document> results;
+    private String analysis;
+    private String error;
+
+    public boolean isSucceeded() {
+        return analysis != null && error == null;
+    }
+}
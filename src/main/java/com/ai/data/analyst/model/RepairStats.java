@@ -0,0 +1,18 @@
+package com.ai.data.analyst.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class RepairStats {
+    private PipelineFailure failure;
+    private long occurrences;
+    private long repairs;
+    private long fixed;
+    private double fixRate;
+}
@@ -0,0 +1,24 @@
+package com.ai.data.analyst.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class StorageStats {
+    private boolean compact;
+    private long rows;
+    private int sampledRows;
+    private double expandedBytesPerRow;
+    private double compactBytesPerRow;
+    private double referenceBytesPerRow;
+
+    public double getSavedPercent() {
+        double compactTotal = compactBytesPerRow + referenceBytesPerRow;
+        return expandedBytesPerRow == 0 ? 0 : 100 * (1 - compactTotal / expandedBytesPerRow);
+    }
+}
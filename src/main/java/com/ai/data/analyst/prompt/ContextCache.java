@@ -0,0 +1,100 @@
+package com.ai.data.analyst.prompt;
+
+import com.ai.data.analyst.handler.GeminiHandler;
+import com.ai.data.analyst.service.PromptConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the static prefix of the large templates, the schema and instructions, in Gemini context
+ * caches, so each request only sends and pays full price for its question. A cache is created
+ * in the background the first time a template is used and recreated before it expires; until it
+ * exists, and after a failed creation for {@code prompt.context-cache.retry-after}, prompts are
+ * sent whole. Templates whose prefix is below the API's minimum cache size are never cached.
+ */
+@Component
+@Slf4j
+public class ContextCache {
+
+    private static final Duration REFRESH_MARGIN = Duration.ofMinutes(5);
+
+    private final GeminiHandler geminiHandler;
+    private final Map<PromptConstants, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<PromptConstants, Instant> failures = new ConcurrentHashMap<>();
+    private final Set<PromptConstants> creating = ConcurrentHashMap.newKeySet();
+
+    @Value("${prompt.context-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${prompt.context-cache.model:models/gemini-2.5-flash}")
+    private String model;
+
+    @Value("${prompt.context-cache.ttl:1h}")
+    private Duration ttl;
+
+    @Value("${prompt.context-cache.retry-after:10m}")
+    private Duration retryAfter;
+
+    @Value("${prompt.context-cache.min-tokens:1024}")
+    private int minTokens;
+
+    @Value("${prompt.chars-per-token:4}")
+    private double charsPerToken;
+
+    @Autowired
+    public ContextCache(GeminiHandler geminiHandler) {
+        this.geminiHandler = geminiHandler;
+    }
+
+    /**
+     * Returns the cache holding the prefix of the template, starting its creation if there is
+     * none yet.
+     *
+     * @param template the template
+     * @return the cachedContents name, or empty if the prefix has to be sent
+     */
+    public Optional<String> lookup(PromptConstants template) {
+        if (!enabled || template.getTemplate().prefix().length() < minTokens * charsPerToken) {
+            return Optional.empty();
+        }
+        Instant now = Instant.now();
+        Entry entry = entries.get(template);
+        if (entry == null || entry.expiresAt().minus(REFRESH_MARGIN).isBefore(now)) {
+            create(template, now);
+        }
+        // a cache about to expire could be gone by the time the request arrives
+        return entry != null && entry.expiresAt().minusSeconds(30).isAfter(now) ? Optional.of(entry.name()) : Optional.empty();
+    }
+
+    private void create(PromptConstants template, Instant now) {
+        Instant retryAt = failures.get(template);
+        if (retryAt != null && retryAt.isAfter(now) || !creating.add(template)) {
+            return;
+        }
+        Instant expiresAt = now.plus(ttl);
+        geminiHandler.createCachedContent(model, template.getTemplate().prefix(), ttl).whenComplete((name, error) -> {
+            creating.remove(template);
+            if (error != null) {
+                failures.put(template, Instant.now().plus(retryAfter));
+                log.warn("Could not create a context cache for {}, sending it whole for {}: {}",
+                        template, retryAfter, error.toString());
+                return;
+            }
+            failures.remove(template);
+            entries.put(template, new Entry(name, expiresAt));
+            log.info("Created context cache {} for {}, expiring at {}", name, template, expiresAt);
+        });
+    }
+
+    private record Entry(String name, Instant expiresAt) {
+    }
+}
@@ -0,0 +1,15 @@
+package com.ai.data.analyst.prompt;
+
+/**
+ * A prompt ready to send. When the static prefix of the template is held in a Gemini context
+ * cache, the text is only the part after it and cachedContent names the cache.
+ *
+ * @param text          the text to send
+ * @param cachedContent the cachedContents resource holding the prefix, or null
+ */
+public record Prompt(String text, String cachedContent) {
+
+    public static Prompt of(String text) {
+        return new Prompt(text, null);
+    }
+}
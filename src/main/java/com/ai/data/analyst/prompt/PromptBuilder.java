@@ -0,0 +1,148 @@
+package com.ai.data.analyst.prompt;
+
+import com.ai.data.analyst.metrics.AnalysisMetrics;
+import com.ai.data.analyst.service.PromptConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Builds the prompts sent to Gemini from the precompiled {@link PromptConstants} templates.
+ * Pipeline prompts describe only the schema fields the question needs; the repair prompt keeps
+ * the whole schema, since a wrong field is a common reason for a repair. A template whose prefix
+ * is held in a {@link ContextCache} is sent without it, whole.
+ *
+ * <p>Every prompt is held to {@code prompt.max-tokens}, estimated at
+ * {@code prompt.chars-per-token} characters per token. Over budget, the data arguments, the
+ * result CSV, a failed pipeline or an error message, are cut at a line break, largest first; the
+ * question itself is never cut.
+ */
+@Component
+@Slf4j
+public class PromptBuilder {
+
+    private static final String TRUNCATED = "\n... (truncated to fit the prompt budget)";
+
+    private final SchemaFieldSelector schemaFieldSelector;
+    private final ContextCache contextCache;
+    private final AnalysisMetrics analysisMetrics;
+
+    @Value("${prompt.max-tokens:8000}")
+    private int maxTokens = 8000;
+
+    @Value("${prompt.chars-per-token:4}")
+    private double charsPerToken = 4;
+
+    @Autowired
+    public PromptBuilder(SchemaFieldSelector schemaFieldSelector, ContextCache contextCache, AnalysisMetrics analysisMetrics) {
+        this.schemaFieldSelector = schemaFieldSelector;
+        this.contextCache = contextCache;
+        this.analysisMetrics = analysisMetrics;
+    }
+
+    /**
+     * @param question the analyst question
+     * @return the pipeline generation prompt
+     */
+    public Prompt analysis(String question) {
+        return build(PromptConstants.ANALYSIS_PROMPT, schemaFieldSelector.select(question), Set.of(), question);
+    }
+
+    /**
+     * @param numberedQuestions the questions, one "n. question" per line
+     * @return the batched pipeline generation prompt
+     */
+    public Prompt batchAnalysis(String numberedQuestions) {
+        return build(PromptConstants.BATCH_ANALYSIS_PROMPT, schemaFieldSelector.select(numberedQuestions), Set.of(), numberedQuestions);
+    }
+
+    /**
+     * @param question the analyst question
+     * @param data     the compacted results
+     * @return the narrative prompt
+     */
+    public Prompt narrative(String question, String data) {
+        return build(PromptConstants.DATA_ANALYSIS_PROMPT, null, Set.of(1), question, data);
+    }
+
+    /**
+     * @param blocks the numbered questions with their compacted results
+     * @return the batched narrative prompt
+     */
+    public Prompt batchNarrative(String blocks) {
+        return build(PromptConstants.BATCH_DATA_ANALYSIS_PROMPT, null, Set.of(0), blocks);
+    }
+
+    /**
+     * @param pipeline the pipeline that failed
+     * @param question the analyst question
+     * @param error    the error message
+     * @return the pipeline repair prompt
+     */
+    public Prompt repair(String pipeline, String question, String error) {
+        return build(PromptConstants.REPORT_PROMPT, null, Set.of(0, 2), pipeline, question, error);
+    }
+
+    private int estimateTokens(int chars) {
+        return (int) Math.ceil(chars / charsPerToken);
+    }
+
+    private Prompt build(PromptConstants constant, Set<String> fields, Set<Integer> truncatable, String... args) {
+        PromptTemplate template = constant.getTemplate();
+        for (int i = 0; i < args.length; i++) {
+            // as String.format renders it, e.g. an exception without a message
+            args[i] = String.valueOf(args[i]);
+        }
+        Optional<String> cachedContent = contextCache.lookup(constant);
+        // a cached prefix is the whole schema, it cannot be trimmed
+        Set<String> described = cachedContent.isPresent() ? null : fields;
+
+        String text = template.render(described, (Object[]) args);
+        boolean truncated = false;
+        while (estimateTokens(text.length()) > maxTokens) {
+            int longest = -1;
+            for (int index : truncatable) {
+                if (args[index].length() > TRUNCATED.length() && (longest < 0 || args[index].length() > args[longest].length())) {
+                    longest = index;
+                }
+            }
+            if (longest < 0) {
+                log.warn("{} prompt of about {} tokens exceeds the budget of {} and cannot be cut further",
+                        constant, estimateTokens(text.length()), maxTokens);
+                break;
+            }
+            int excess = (int) Math.ceil((estimateTokens(text.length()) - maxTokens) * charsPerToken);
+            args[longest] = truncate(args[longest], args[longest].length() - excess - TRUNCATED.length());
+            text = template.render(described, (Object[]) args);
+            truncated = true;
+        }
+        if (truncated) {
+            log.info("Cut the {} prompt to about {} tokens", constant, estimateTokens(text.length()));
+        }
+        String tag = constant.name().toLowerCase(Locale.ROOT);
+        if (cachedContent.isPresent()) {
+            String sent = template.renderAfterPrefix((Object[]) args);
+            analysisMetrics.recordPrompt(tag, estimateTokens(sent.length()), true, truncated);
+            return new Prompt(sent, cachedContent.get());
+        }
+        analysisMetrics.recordPrompt(tag, estimateTokens(text.length()), false, truncated);
+        return Prompt.of(text);
+    }
+
+    /**
+     * Keeps at most the given number of characters, ending at the last line break before them
+     * when there is one, so CSV data keeps whole rows.
+     */
+    private static String truncate(String value, int keep) {
+        if (keep <= 0) {
+            return TRUNCATED.substring(1);
+        }
+        int end = value.lastIndexOf('\n', keep);
+        return value.substring(0, end > 0 ? end : keep) + TRUNCATED;
+    }
+}
@@ -0,0 +1,176 @@
+package com.ai.data.analyst.prompt;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A prompt template parsed once into literal text and argument slots, so rendering is a single
+ * pass of appends instead of a {@code String.format} parse per request. Templates use the
+ * {@code String.format} syntax they were written in: {@code %s} for an argument and {@code %%}
+ * for a percent sign.
+ *
+ * <p>Lines of the form {@code - field: description} that describe a superStore field are kept
+ * as separate parts, so a rendering can leave out the fields a question does not need.
+ */
+public final class PromptTemplate {
+
+    private static final Pattern FIELD_LINE = Pattern.compile("^- (\\w+):");
+
+    private final List<Part> parts;
+    private final int arguments;
+    private final int literalLength;
+    private final String prefix;
+
+    private PromptTemplate(List<Part> parts) {
+        this.parts = List.copyOf(parts);
+        int count = 0;
+        int length = 0;
+        StringBuilder leading = new StringBuilder();
+        for (Part part : this.parts) {
+            if (part.text() == null) {
+                count++;
+            } else {
+                length += part.text().length();
+                if (count == 0) {
+                    leading.append(part.text());
+                }
+            }
+        }
+        this.arguments = count;
+        this.literalLength = length;
+        this.prefix = leading.toString();
+    }
+
+    /**
+     * Parses the template.
+     *
+     * @param template     the template text
+     * @param schemaFields the field names whose description lines may be left out
+     * @return the compiled template
+     * @throws IllegalArgumentException if the template has a format specifier other than %s or %%
+     */
+    public static PromptTemplate compile(String template, Collection<String> schemaFields) {
+        List<Part> parts = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int arguments = 0;
+        for (int i = 0; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            char next = i + 1 < template.length() ? template.charAt(i + 1) : 0;
+            if (next == '%') {
+                literal.append('%');
+            } else if (next == 's') {
+                addLiteral(parts, literal, schemaFields);
+                parts.add(new Part(null, null, arguments++));
+            } else {
+                throw new IllegalArgumentException("Unsupported format specifier %" + next + " at " + i);
+            }
+            i++;
+        }
+        addLiteral(parts, literal, schemaFields);
+        return new PromptTemplate(parts);
+    }
+
+    /**
+     * @return the number of %s arguments
+     */
+    public int arguments() {
+        return arguments;
+    }
+
+    /**
+     * @return the text before the first argument, with every field
+     */
+    public String prefix() {
+        return prefix;
+    }
+
+    /**
+     * Renders the whole template with every field.
+     */
+    public String render(Object... args) {
+        return render(null, false, args);
+    }
+
+    /**
+     * Renders the whole template.
+     *
+     * @param fields the fields to describe, or null for all
+     * @param args   the arguments
+     * @return the prompt text
+     */
+    public String render(Set<String> fields, Object... args) {
+        return render(fields, false, args);
+    }
+
+    /**
+     * Renders the template without its {@link #prefix()}, for a prefix held in a context cache.
+     */
+    public String renderAfterPrefix(Object... args) {
+        return render(null, true, args);
+    }
+
+    private String render(Set<String> fields, boolean skipPrefix, Object[] args) {
+        if (args.length != arguments) {
+            throw new IllegalArgumentException("Template takes " + arguments + " arguments, got " + args.length);
+        }
+        String[] values = new String[args.length];
+        int length = literalLength;
+        for (int i = 0; i < args.length; i++) {
+            values[i] = String.valueOf(args[i]);
+            length += values[i].length();
+        }
+        StringBuilder out = new StringBuilder(length);
+        boolean inPrefix = skipPrefix;
+        for (Part part : parts) {
+            if (part.text() == null) {
+                inPrefix = false;
+                out.append(values[part.argument()]);
+            } else if (!inPrefix && (part.field() == null || fields == null || fields.contains(part.field()))) {
+                out.append(part.text());
+            }
+        }
+        return out.toString();
+    }
+
+    private static void addLiteral(List<Part> parts, StringBuilder literal, Collection<String> schemaFields) {
+        if (literal.isEmpty()) {
+            return;
+        }
+        StringBuilder plain = new StringBuilder();
+        int start = 0;
+        while (start < literal.length()) {
+            int end = literal.indexOf("\n", start);
+            end = end < 0 ? literal.length() : end + 1;
+            String line = literal.substring(start, end);
+            Matcher matcher = FIELD_LINE.matcher(line);
+            if (matcher.find() && schemaFields.contains(matcher.group(1))) {
+                if (!plain.isEmpty()) {
+                    parts.add(new Part(plain.toString(), null, -1));
+                    plain.setLength(0);
+                }
+                parts.add(new Part(line, matcher.group(1), -1));
+            } else {
+                plain.append(line);
+            }
+            start = end;
+        }
+        if (!plain.isEmpty()) {
+            parts.add(new Part(plain.toString(), null, -1));
+        }
+        literal.setLength(0);
+    }
+
+    /**
+     * Literal text, optionally the description of a field, or, when text is null, an argument.
+     */
+    private record Part(String text, String field, int argument) {
+    }
+}
@@ -0,0 +1,163 @@
+package com.ai.data.analyst.prompt;
+
+import com.ai.data.analyst.entity.SuperStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.annotation.Transient;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Picks the superStore fields a question is about, so the pipeline prompt only describes those.
+ * Matching is local: the question and every synonym are lower-cased, split into words and
+ * reduced to a crude singular, and a field is selected when one of its synonyms occurs as a
+ * whole phrase. Synonyms cover the field names, everyday words for them and the known values of
+ * the dimensions, e.g. "Furniture" selects category and "California" selects state.
+ *
+ * <p>The fields in {@code prompt.schema-trimming.always-include} are described whenever anything
+ * matched. When nothing matched the whole schema is described.
+ */
+@Component
+@Slf4j
+public class SchemaFieldSelector {
+
+    /**
+     * The logical superStore fields, in declaration order.
+     */
+    public static final List<String> FIELDS;
+
+    private static final Pattern YEAR = Pattern.compile("\\b(19|20)\\d\\d\\b");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final String MONTHS = "january,february,march,april,may,june,july,august,september,october,november,december,"
+            + "jan,feb,mar,apr,jun,jul,aug,sep,sept,oct,nov,dec";
+    private static final String STATES = "alabama,arizona,arkansas,california,colorado,connecticut,delaware,district of columbia,"
+            + "florida,georgia,idaho,illinois,indiana,iowa,kansas,kentucky,louisiana,maine,maryland,massachusetts,michigan,"
+            + "minnesota,mississippi,missouri,montana,nebraska,nevada,new hampshire,new jersey,new mexico,new york,"
+            + "north carolina,north dakota,ohio,oklahoma,oregon,pennsylvania,rhode island,south carolina,south dakota,"
+            + "tennessee,texas,utah,vermont,virginia,washington,west virginia,wisconsin,wyoming";
+
+    private static final Map<String, String> SYNONYMS = new LinkedHashMap<>();
+
+    static {
+        List<String> fields = new ArrayList<>();
+        for (Field field : SuperStore.class.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && !field.isAnnotationPresent(Transient.class)) {
+                fields.add(field.getName());
+            }
+        }
+        FIELDS = List.copyOf(fields);
+
+        SYNONYMS.put("rowId", "row");
+        SYNONYMS.put("orderId", "order,transaction,purchase,basket,distinct order");
+        SYNONYMS.put("orderDate", "date,when,day,daily,week,weekly,month,monthly,quarter,quarterly,year,yearly,annual,annually,"
+                + "trend,over time,period,season,seasonal,growth,ytd,recent,latest," + MONTHS);
+        SYNONYMS.put("shipDate", "ship date,shipping date,shipped,delivery,delivered,lead time,fulfillment,fulfilment,days to ship");
+        SYNONYMS.put("shipMode", "ship mode,shipping mode,shipping method,shipping,delivery method,first class,second class,"
+                + "standard class,same day");
+        SYNONYMS.put("customerId", "customer,client,buyer,shopper");
+        SYNONYMS.put("customerName", "customer,client,buyer,shopper,who");
+        SYNONYMS.put("segment", "segment,consumer,corporate,home office,b2b,b2c");
+        SYNONYMS.put("country", "country,nation,national,united states,usa");
+        SYNONYMS.put("city", "city,town,urban,metro,los angeles,new york city,seattle,san francisco,philadelphia,houston,chicago");
+        SYNONYMS.put("state", "state,province," + STATES);
+        SYNONYMS.put("postalCode", "postal,zip,zipcode,postcode");
+        SYNONYMS.put("region", "region,regional,east,west,central,south,north");
+        SYNONYMS.put("productId", "product,sku");
+        SYNONYMS.put("category", "category,furniture,office supplies,technology");
+        SYNONYMS.put("subCategory", "sub category,subcategory,bookcase,chair,furnishing,table,appliance,art,binder,envelope,"
+                + "fastener,label,paper,storage,supplies,accessory,copier,machine,phone");
+        SYNONYMS.put("productName", "product,item,sku");
+        SYNONYMS.put("sales", "sale,revenue,turnover,sold,sell,selling,income,spend,spent,bestselling,best selling");
+        SYNONYMS.put("quantity", "quantity,unit,volume,how many,sold,items sold");
+        SYNONYMS.put("discount", "discount,discounted,markdown,promotion,promo,rebate");
+        SYNONYMS.put("profit", "profit,profitable,profitability,unprofitable,margin,loss,earning,roi");
+    }
+
+    private final Map<String, List<String>> phrases = new LinkedHashMap<>();
+    private final Set<String> alwaysInclude;
+
+    @Value("${prompt.schema-trimming.enabled:true}")
+    private boolean enabled = true;
+
+    public SchemaFieldSelector(@Value("${prompt.schema-trimming.always-include:orderDate,sales,quantity,profit}") List<String> alwaysInclude) {
+        this.alwaysInclude = Set.copyOf(alwaysInclude);
+        for (String field : FIELDS) {
+            List<String> fieldPhrases = new ArrayList<>();
+            // the field name itself, both as written and split at the camel case
+            fieldPhrases.add(normalize(field));
+            fieldPhrases.add(normalize(field.replaceAll("([a-z])([A-Z])", "$1 $2")));
+            for (String synonym : SYNONYMS.getOrDefault(field, "").split(",")) {
+                if (!synonym.isBlank()) {
+                    fieldPhrases.add(normalize(synonym));
+                }
+            }
+            phrases.put(field, fieldPhrases);
+        }
+    }
+
+    /**
+     * Selects the fields to describe for the question.
+     *
+     * @param question the analyst question
+     * @return the fields, or null to describe every field
+     */
+    public Set<String> select(String question) {
+        if (!enabled || question == null) {
+            return null;
+        }
+        String text = normalize(question);
+        Set<String> matched = new HashSet<>();
+        phrases.forEach((field, fieldPhrases) -> {
+            for (String phrase : fieldPhrases) {
+                if (text.contains(phrase)) {
+                    matched.add(field);
+                    return;
+                }
+            }
+        });
+        if (YEAR.matcher(question).find()) {
+            matched.add("orderDate");
+        }
+        if (matched.isEmpty()) {
+            log.debug("No schema field matched the question, describing all fields");
+            return null;
+        }
+        matched.addAll(alwaysInclude);
+        return matched;
+    }
+
+    /**
+     * Lower-cases, splits into words and strips plural endings, returning the words separated
+     * and surrounded by single spaces so phrases match on word boundaries.
+     */
+    static String normalize(String text) {
+        StringBuilder out = new StringBuilder(text.length() + 2).append(' ');
+        for (String word : NON_WORD.split(text.toLowerCase(Locale.ROOT))) {
+            if (!word.isEmpty()) {
+                out.append(singular(word)).append(' ');
+            }
+        }
+        return out.toString();
+    }
+
+    private static String singular(String word) {
+        if (word.length() > 4 && word.endsWith("ies")) {
+            return word.substring(0, word.length() - 3) + "y";
+        }
+        if (word.length() > 3 && word.endsWith("s") && !word.endsWith("ss") && !word.endsWith("us")) {
+            return word.substring(0, word.length() - 1);
+        }
+        return word;
+    }
+}
@@ -1,5 +1,6 @@
 package com.ai.data.analyst.response;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -11,6 +12,27 @@ import java.util.List;
 @AllArgsConstructor
 @NoArgsConstructor
 @Builder
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class GeminiResponse {
     private List<Candidates> candidates;
+
+    /**
+     * Joins the text parts of the first candidate. A streamed chunk may carry several parts or
+     * none at all, so this returns null instead of failing when there is no text.
+     *
+     * @return the candidate text, or null if the response has none
+     */
+    public String text() {
+        if (candidates == null || candidates.isEmpty() || candidates.get(0).getContent() == null
+                || candidates.get(0).getContent().getParts() == null) {
+            return null;
+        }
+        StringBuilder text = new StringBuilder();
+        for (Parts part : candidates.get(0).getContent().getParts()) {
+            if (part.getText() != null) {
+                text.append(part.getText());
+            }
+        }
+        return text.toString();
+    }
 }
@@ -0,0 +1,90 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.cache.AggregationResultCache;
+import com.ai.data.analyst.cache.DatasetGeneration;
+import com.ai.data.analyst.columnar.ColumnarEngine;
+import com.ai.data.analyst.metrics.AnalysisMetrics;
+import com.ai.data.analyst.model.PipelinePlan;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+
+@Component
+@Slf4j
+public class AggregationExecutor {
+
+    private final MongoTemplate mongoTemplate;
+    private final AggregationResultCache resultCache;
+    private final DatasetGeneration datasetGeneration;
+    private final PipelineGuard pipelineGuard;
+    private final IndexAdvisor indexAdvisor;
+    private final ColumnarEngine columnarEngine;
+    private final AnalysisMetrics analysisMetrics;
+
+    @Autowired
+    public AggregationExecutor(MongoTemplate mongoTemplate,
+                               AggregationResultCache resultCache,
+                               DatasetGeneration datasetGeneration,
+                               PipelineGuard pipelineGuard,
+                               IndexAdvisor indexAdvisor,
+                               ColumnarEngine columnarEngine,
+                               AnalysisMetrics analysisMetrics) {
+        this.mongoTemplate = mongoTemplate;
+        this.resultCache = resultCache;
+        this.datasetGeneration = datasetGeneration;
+        this.pipelineGuard = pipelineGuard;
+        this.indexAdvisor = indexAdvisor;
+        this.columnarEngine = columnarEngine;
+        this.analysisMetrics = analysisMetrics;
+    }
+
+    /**
+     * Executes the pipeline against the collection, serving it from the result cache when the
+     * same pipeline already ran against the current dataset generation, and from the in-memory
+     * column store when it supports the pipeline. The pipeline passes the guard first, which may
+     * rewrite it or reject it.
+     *
+     * @param collection        the collection to aggregate
+     * @param generatedPipeline the pipeline stages
+     * @return the aggregation results
+     * @throws com.ai.data.analyst.exception.PipelineRejectedException if the guard refuses the pipeline
+     */
+    public List<Document> execute(String collection, List<Document> generatedPipeline) {
+        long start = System.nanoTime();
+        List<Document> pipeline = pipelineGuard.rewrite(collection, generatedPipeline);
+        String key = resultCache.key(collection, pipeline);
+        Optional<List<Document>> cached = resultCache.get(key);
+        if (cached.isPresent()) {
+            log.info("Serving aggregation from result cache, {} results", cached.get().size());
+            analysisMetrics.recordAggregation(collection, "cache", cached.get().size(), System.nanoTime() - start);
+            return cached.get();
+        }
+        long generation = datasetGeneration.current();
+        Optional<List<Document>> inMemory = columnarEngine.execute(collection, pipeline);
+        if (inMemory.isPresent()) {
+            resultCache.put(key, generation, inMemory.get());
+            analysisMetrics.recordAggregation(collection, "columnar", inMemory.get().size(), System.nanoTime() - start);
+            return inMemory.get();
+        }
+        PipelinePlan plan = pipelineGuard.checkCost(collection, pipeline);
+        indexAdvisor.record(collection, pipeline, plan);
+
+        // Convert to AggregationOperation list
+        List<AggregationOperation> operations = pipeline.stream()
+                .map(document -> (AggregationOperation) context -> document)
+                .toList();
+
+        Aggregation aggregation = Aggregation.newAggregation(operations).withOptions(pipelineGuard.options());
+        List<Document> results = mongoTemplate.aggregate(aggregation, collection, Document.class).getMappedResults();
+        resultCache.put(key, generation, results);
+        analysisMetrics.recordAggregation(collection, "mongo", results.size(), System.nanoTime() - start);
+        return results;
+    }
+}
@@ -0,0 +1,18 @@
+package com.ai.data.analyst.service;
+
+import org.bson.Document;
+
+import java.util.List;
+
+/**
+ * Receives the stages of a streamed analysis in order: the executed pipeline, its results and
+ * then the narrative fragments as the model produces them.
+ */
+public interface AnalysisStreamListener {
+
+    void onPipeline(String jsonPipeline);
+
+    void onResults(List<Document> results);
+
+    void onNarrative(String fragment);
+}
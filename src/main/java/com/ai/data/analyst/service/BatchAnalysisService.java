@@ -0,0 +1,495 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.cache.PipelineCache;
+import com.ai.data.analyst.config.AsyncConfig;
+import com.ai.data.analyst.handler.GeminiHandler;
+import com.ai.data.analyst.metrics.AnalysisMetrics;
+import com.ai.data.analyst.model.BatchAnalysis;
+import com.ai.data.analyst.model.PipelineExecution;
+import com.ai.data.analyst.model.QuestionAnalysis;
+import com.ai.data.analyst.prompt.Prompt;
+import com.ai.data.analyst.prompt.PromptBuilder;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Answers a list of related questions, e.g. for one report, with far fewer model calls than
+ * analysing them one by one. Pipelines for up to {@code analysis.batch.pipelines-per-call}
+ * questions are generated by one call, the pipelines run with at most
+ * {@code analysis.batch.parallelism} aggregations at a time, and the results are packed into
+ * narrative calls of up to {@code analysis.batch.narratives-per-call} questions and
+ * {@code analysis.batch.narrative-max-chars} characters of data. Cached pipelines are reused,
+ * and a question the batched response left out is asked on its own. A question that fails does
+ * not fail the batch; it is returned with its error.
+ */
+@Service
+@Slf4j
+public class BatchAnalysisService {
+
+    private static final Pattern SECTION = Pattern.compile("(?m)^[ \\t]*#{1,4}[ \\t]*\\**[ \\t]*Question[ \\t]+(\\d+)\\b.*$");
+
+    private final GeminiHandler geminiHandler;
+    private final PipelineRetryEngine pipelineRetryEngine;
+    private final PipelineCache pipelineCache;
+    private final ResultCompactor resultCompactor;
+    private final AnalysisMetrics analysisMetrics;
+    private final Executor executor;
+    private final PromptBuilder promptBuilder;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${analysis.batch.max-questions:50}")
+    private int maxQuestions;
+
+    @Value("${analysis.batch.pipelines-per-call:10}")
+    private int pipelinesPerCall;
+
+    @Value("${analysis.batch.narratives-per-call:8}")
+    private int narrativesPerCall;
+
+    @Value("${analysis.batch.narrative-max-chars:32000}")
+    private int narrativeMaxChars;
+
+    @Value("${analysis.batch.parallelism:4}")
+    private int parallelism;
+
+    @Autowired
+    public BatchAnalysisService(GeminiHandler geminiHandler,
+                                PipelineRetryEngine pipelineRetryEngine,
+                                PipelineCache pipelineCache,
+                                ResultCompactor resultCompactor,
+                                AnalysisMetrics analysisMetrics,
+                                @Qualifier(AsyncConfig.ANALYSIS_EXECUTOR) Executor executor,
+                                PromptBuilder promptBuilder) {
+        this.geminiHandler = geminiHandler;
+        this.pipelineRetryEngine = pipelineRetryEngine;
+        this.pipelineCache = pipelineCache;
+        this.resultCompactor = resultCompactor;
+        this.analysisMetrics = analysisMetrics;
+        this.executor = executor;
+        this.promptBuilder = promptBuilder;
+    }
+
+    /**
+     * Analyses the questions on the analysis executor.
+     *
+     * @param prompts the analyst questions, answered in order
+     * @return a future completed with an analysis or an error for every question
+     * @throws IllegalArgumentException if there are no questions or more than {@code max-questions}
+     */
+    public CompletableFuture<BatchAnalysis> analyse(List<String> prompts) {
+        if (prompts == null || prompts.isEmpty()) {
+            throw new IllegalArgumentException("At least one prompt is required");
+        }
+        if (prompts.size() > maxQuestions) {
+            throw new IllegalArgumentException("At most " + maxQuestions + " prompts can be analysed in one batch, got " + prompts.size());
+        }
+        return CompletableFuture.supplyAsync(() -> generateAnalyses(prompts), executor);
+    }
+
+    /**
+     * Analyses the questions on the calling thread.
+     *
+     * @param prompts the analyst questions, answered in order
+     * @return an analysis or an error for every question
+     */
+    public BatchAnalysis generateAnalyses(List<String> prompts) {
+        long start = System.nanoTime();
+        Batch batch = new Batch(prompts);
+        try {
+            generatePipelines(batch);
+            executePipelines(batch);
+            generateNarratives(batch);
+        } catch (CancellationException e) {
+            batch.cancel();
+            throw e;
+        }
+        int succeeded = (int) batch.questions.stream().filter(QuestionAnalysis::isSucceeded).count();
+        int failed = batch.questions.size() - succeeded;
+        long nanos = System.nanoTime() - start;
+        analysisMetrics.recordBatch(batch.questions.size(), failed, nanos);
+        log.info("Analysed {} questions with {} pipeline and {} narrative calls in {} ms, {} failed",
+                batch.questions.size(), batch.pipelineCalls.get(), batch.narrativeCalls.get(), nanos / 1_000_000, failed);
+        return BatchAnalysis.builder()
+                .questions(batch.questions)
+                .succeeded(succeeded)
+                .failed(failed)
+                .pipelineCalls(batch.pipelineCalls.get())
+                .narrativeCalls(batch.narrativeCalls.get())
+                .durationMillis(nanos / 1_000_000)
+                .build();
+    }
+
+    public int getMaxQuestions() {
+        return maxQuestions;
+    }
+
+    /**
+     * Takes cached pipelines from the pipeline cache and asks the model for the others, several
+     * questions per call.
+     */
+    private void generatePipelines(Batch batch) {
+        List<QuestionAnalysis> uncached = new ArrayList<>();
+        for (QuestionAnalysis question : batch.questions) {
+            if (question.getPrompt() == null || question.getPrompt().isBlank()) {
+                question.setError("The question is empty");
+                continue;
+            }
+            Optional<String> cachedPipeline = pipelineCache.get(question.getPrompt());
+            if (cachedPipeline.isPresent()) {
+                batch.pipelines.put(question.getIndex(), cachedPipeline.get());
+                batch.cached.add(question.getIndex());
+            } else {
+                uncached.add(question);
+            }
+        }
+        if (!batch.cached.isEmpty()) {
+            log.info("Using {} cached pipelines", batch.cached.size());
+        }
+
+        List<Call> calls = new ArrayList<>();
+        for (int from = 0; from < uncached.size(); from += pipelinesPerCall) {
+            List<QuestionAnalysis> chunk = uncached.subList(from, Math.min(uncached.size(), from + pipelinesPerCall));
+            Prompt prompt = chunk.size() == 1
+                    ? promptBuilder.analysis(chunk.get(0).getPrompt())
+                    : promptBuilder.batchAnalysis(numberedQuestions(chunk));
+            calls.add(new Call(chunk, batch.call(GeminiHandler.CallType.PIPELINE, prompt)));
+        }
+
+        List<QuestionAnalysis> missing = new ArrayList<>();
+        for (Call call : calls) {
+            List<QuestionAnalysis> chunk = call.questions();
+            String response = batch.await(call.response(), "Pipeline generation");
+            if (response == null) {
+                chunk.forEach(question -> question.setError("No pipeline could be generated for the question"));
+            } else if (chunk.size() == 1) {
+                batch.pipelines.put(chunk.get(0).getIndex(), PipelineValidator.sanitize(response));
+            } else {
+                Map<Integer, String> pipelines = parsePipelines(response);
+                for (QuestionAnalysis question : chunk) {
+                    String pipeline = pipelines.get(number(question));
+                    if (pipeline == null) {
+                        missing.add(question);
+                    } else {
+                        batch.pipelines.put(question.getIndex(), pipeline);
+                    }
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        log.warn("Batched response had no pipeline for {} questions, asking for them separately", missing.size());
+        List<Call> fallbacks = new ArrayList<>();
+        for (QuestionAnalysis question : missing) {
+            fallbacks.add(new Call(List.of(question), batch.call(GeminiHandler.CallType.PIPELINE,
+                    promptBuilder.analysis(question.getPrompt()))));
+        }
+        for (Call fallback : fallbacks) {
+            QuestionAnalysis question = fallback.questions().get(0);
+            String response = batch.await(fallback.response(), "Pipeline generation");
+            if (response == null) {
+                question.setError("No pipeline could be generated for the question");
+            } else {
+                batch.pipelines.put(question.getIndex(), PipelineValidator.sanitize(response));
+            }
+        }
+    }
+
+    /**
+     * Executes the generated pipelines, repairing those that fail, with at most
+     * {@code parallelism} running at a time. The calling thread is one of the workers, so the
+     * batch makes progress even when the executor has no capacity left.
+     */
+    private void executePipelines(Batch batch) {
+        Queue<QuestionAnalysis> queue = new ConcurrentLinkedQueue<>();
+        batch.questions.stream()
+                .filter(question -> batch.pipelines.containsKey(question.getIndex()))
+                .forEach(queue::add);
+        if (queue.isEmpty()) {
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger(queue.size());
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Runnable worker = () -> {
+            QuestionAnalysis question;
+            while (!done.isDone() && (question = queue.poll()) != null) {
+                try {
+                    execute(batch, question);
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        done.complete(null);
+                    }
+                }
+            }
+        };
+        int workers = Math.min(Math.max(1, parallelism), queue.size());
+        for (int i = 1; i < workers; i++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                log.debug("Executor is saturated, running the batch with {} workers", i);
+                break;
+            }
+        }
+        try {
+            worker.run();
+            batch.await(done, "Pipeline execution");
+        } catch (CancellationException e) {
+            // stops the other workers after their current question
+            done.cancel(false);
+            throw e;
+        }
+    }
+
+    private void execute(Batch batch, QuestionAnalysis question) {
+        String jsonPipeline = batch.pipelines.get(question.getIndex());
+        try {
+            Optional<PipelineExecution> execution = pipelineRetryEngine.execute(question.getPrompt(), jsonPipeline);
+            if (execution.isPresent()) {
+                question.setPipeline(execution.get().getPipeline());
+                question.setResults(execution.get().getResults());
+                pipelineCache.put(question.getPrompt(), execution.get().getPipeline());
+                return;
+            }
+            question.setPipeline(PipelineValidator.sanitize(jsonPipeline));
+            question.setError("No pipeline could be executed for the question");
+        } catch (CancellationException e) {
+            question.setError("The analysis was cancelled");
+        } catch (RuntimeException e) {
+            log.error("Error executing the pipeline for question {}: {}", number(question), e.getMessage(), e);
+            question.setError("Error executing the pipeline: " + e.getMessage());
+        }
+        if (batch.cached.contains(question.getIndex())) {
+            pipelineCache.invalidate(question.getPrompt());
+        }
+    }
+
+    /**
+     * Packs the executed questions into as few narrative calls as the size limits allow and
+     * splits each response into the answers of its questions.
+     */
+    private void generateNarratives(Batch batch) {
+        List<List<QuestionAnalysis>> groups = new ArrayList<>();
+        Map<Integer, String> data = new HashMap<>();
+        List<QuestionAnalysis> group = new ArrayList<>();
+        int groupChars = 0;
+        for (QuestionAnalysis question : batch.questions) {
+            if (question.getResults() == null || question.getError() != null) {
+                continue;
+            }
+            String compacted = resultCompactor.compact(question.getResults());
+            data.put(question.getIndex(), compacted);
+            int chars = question.getPrompt().length() + compacted.length();
+            if (!group.isEmpty() && (group.size() >= narrativesPerCall || groupChars + chars > narrativeMaxChars)) {
+                groups.add(group);
+                group = new ArrayList<>();
+                groupChars = 0;
+            }
+            group.add(question);
+            groupChars += chars;
+        }
+        if (!group.isEmpty()) {
+            groups.add(group);
+        }
+
+        List<Call> calls = new ArrayList<>();
+        for (List<QuestionAnalysis> questions : groups) {
+            Prompt prompt;
+            if (questions.size() == 1) {
+                QuestionAnalysis question = questions.get(0);
+                prompt = promptBuilder.narrative(question.getPrompt(), data.get(question.getIndex()));
+            } else {
+                StringBuilder blocks = new StringBuilder();
+                for (QuestionAnalysis question : questions) {
+                    blocks.append("Question ").append(number(question)).append(": ").append(question.getPrompt()).append('\n')
+                            .append("Data:\n").append(data.get(question.getIndex())).append("\n\n");
+                }
+                prompt = promptBuilder.batchNarrative(blocks.toString().trim());
+            }
+            log.debug("Generated batch analysis prompt: {}", prompt.text());
+            calls.add(new Call(questions, batch.call(GeminiHandler.CallType.NARRATIVE, prompt)));
+        }
+
+        List<QuestionAnalysis> missing = new ArrayList<>();
+        for (Call call : calls) {
+            List<QuestionAnalysis> questions = call.questions();
+            String response = batch.await(call.response(), "Narrative generation");
+            if (response == null) {
+                questions.forEach(question -> question.setError("No analysis could be generated for the question"));
+            } else if (questions.size() == 1) {
+                questions.get(0).setAnalysis(response);
+            } else {
+                Map<Integer, String> sections = sections(response);
+                for (QuestionAnalysis question : questions) {
+                    String section = sections.get(number(question));
+                    if (section == null || section.isBlank()) {
+                        missing.add(question);
+                    } else {
+                        question.setAnalysis(section);
+                    }
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        log.warn("Batched narrative had no answer for {} questions, asking for them separately", missing.size());
+        List<Call> fallbacks = new ArrayList<>();
+        for (QuestionAnalysis question : missing) {
+            fallbacks.add(new Call(List.of(question), batch.call(GeminiHandler.CallType.NARRATIVE,
+                    promptBuilder.narrative(question.getPrompt(), data.get(question.getIndex())))));
+        }
+        for (Call fallback : fallbacks) {
+            QuestionAnalysis question = fallback.questions().get(0);
+            String response = batch.await(fallback.response(), "Narrative generation");
+            if (response == null) {
+                question.setError("No analysis could be generated for the question");
+            } else {
+                question.setAnalysis(response);
+            }
+        }
+    }
+
+    /**
+     * Reads the pipelines of a batched generation, keyed by question number. Entries that are
+     * not objects with a question number and a pipeline are skipped.
+     */
+    private Map<Integer, String> parsePipelines(String response) {
+        Map<Integer, String> pipelines = new HashMap<>();
+        JsonNode root;
+        try {
+            root = objectMapper.readTree(PipelineValidator.sanitize(response));
+        } catch (JsonProcessingException e) {
+            log.warn("Batched pipeline response is not valid JSON: {}", e.getOriginalMessage());
+            return pipelines;
+        }
+        if (root == null || !root.isArray()) {
+            log.warn("Batched pipeline response is not a JSON array");
+            return pipelines;
+        }
+        for (JsonNode entry : root) {
+            if (entry.isObject() && entry.path("question").canConvertToInt() && entry.has("pipeline")) {
+                ObjectNode pipeline = entry.deepCopy();
+                pipeline.remove("question");
+                pipelines.putIfAbsent(entry.get("question").asInt(), pipeline.toString());
+            }
+        }
+        return pipelines;
+    }
+
+    /**
+     * Splits a batched narrative at its "### Question n" headings.
+     */
+    private static Map<Integer, String> sections(String response) {
+        Map<Integer, String> sections = new HashMap<>();
+        Matcher matcher = SECTION.matcher(response);
+        int number = -1;
+        int from = 0;
+        while (matcher.find()) {
+            if (number > 0) {
+                sections.putIfAbsent(number, response.substring(from, matcher.start()).trim());
+            }
+            number = Integer.parseInt(matcher.group(1));
+            from = matcher.end();
+        }
+        if (number > 0) {
+            sections.putIfAbsent(number, response.substring(from).trim());
+        }
+        return sections;
+    }
+
+    private static String numberedQuestions(List<QuestionAnalysis> questions) {
+        StringBuilder numbered = new StringBuilder();
+        for (QuestionAnalysis question : questions) {
+            numbered.append(number(question)).append(". ").append(question.getPrompt().replace('\n', ' ')).append('\n');
+        }
+        return numbered.toString().trim();
+    }
+
+    private static int number(QuestionAnalysis question) {
+        return question.getIndex() + 1;
+    }
+
+    /**
+     * One model call and the questions it answers.
+     */
+    private record Call(List<QuestionAnalysis> questions, CompletableFuture<String> response) {
+    }
+
+    /**
+     * The state of one batch: its questions, the generated pipelines by question index and the
+     * model calls made so far, which are cancelled together if the batch is interrupted.
+     */
+    private final class Batch {
+        private final List<QuestionAnalysis> questions = new ArrayList<>();
+        private final Map<Integer, String> pipelines = new ConcurrentHashMap<>();
+        private final Set<Integer> cached = ConcurrentHashMap.newKeySet();
+        private final List<Future<?>> calls = new CopyOnWriteArrayList<>();
+        private final AtomicInteger pipelineCalls = new AtomicInteger();
+        private final AtomicInteger narrativeCalls = new AtomicInteger();
+
+        Batch(List<String> prompts) {
+            for (int i = 0; i < prompts.size(); i++) {
+                questions.add(QuestionAnalysis.builder().index(i).prompt(prompts.get(i)).build());
+            }
+        }
+
+        CompletableFuture<String> call(GeminiHandler.CallType type, Prompt prompt) {
+            (type == GeminiHandler.CallType.PIPELINE ? pipelineCalls : narrativeCalls).incrementAndGet();
+            CompletableFuture<String> call = geminiHandler.generateContentAsync(type, prompt, null);
+            calls.add(call);
+            return call;
+        }
+
+        /**
+         * Waits for the future.
+         *
+         * @return its result, or null if it failed
+         * @throws CancellationException if the batch was interrupted
+         */
+        <T> T await(CompletableFuture<T> future, String stage) {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                log.error("{} failed: {}", stage, e.getCause().toString());
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Batch analysis interrupted");
+            }
+        }
+
+        void cancel() {
+            calls.forEach(call -> call.cancel(true));
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.entity.IngestJob;
+import com.ai.data.analyst.entity.UploadSession;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Receives large CSV files as numbered chunks. Every chunk is streamed to a file of its own while
+ * its SHA-256 is computed, so server memory stays constant whatever the file size, and is copied to
+ * its offset in a single spool file only once its length and checksum match; a bad resend of a
+ * chunk that was already received leaves the accepted bytes alone. Clients resume an
+ * interrupted upload by asking for the missing chunks and sending just those. Once all chunks are
+ * in, the spool file is handed to an ingest job as it is.
+ */
+@Service
+@Slf4j
+public class ChunkedUploadService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final MongoTemplate mongoTemplate;
+    private final IngestJobService ingestJobService;
+
+    @Value("${ingest.jobs.directory:${java.io.tmpdir}/ai-data-analyst/ingest}")
+    private Path directory;
+
+    @Value("${upload.chunk-size:8MB}")
+    private DataSize defaultChunkSize;
+
+    @Value("${upload.max-chunk-size:64MB}")
+    private DataSize maxChunkSize;
+
+    @Value("${upload.max-size:50GB}")
+    private DataSize maxSize;
+
+    @Autowired
+    public ChunkedUploadService(MongoTemplate mongoTemplate, IngestJobService ingestJobService) {
+        this.mongoTemplate = mongoTemplate;
+        this.ingestJobService = ingestJobService;
+    }
+
+    /**
+     * Opens an upload.
+     *
+     * @param fileName  the name of the file, for display
+     * @param size      the total size of the file in bytes, compressed if it is gzipped
+     * @param chunkSize the size of every chunk but the last, or null for the configured default
+     * @param parallel  whether to parse on a worker pool, or null to use the configured ingest mode
+     * @param mode      how rows that are already stored are handled, or null for the configured mode
+     * @return the new session
+     * @throws IllegalArgumentException if the sizes are out of range
+     */
+    public UploadSession open(String fileName, long size, Long chunkSize, Boolean parallel, CsvIngestService.Mode mode)
+            throws IOException {
+        long chunk = chunkSize == null ? defaultChunkSize.toBytes() : chunkSize;
+        if (size <= 0 || size > maxSize.toBytes()) {
+            throw new IllegalArgumentException("File size must be between 1 byte and " + maxSize);
+        }
+        if (chunk <= 0 || chunk > maxChunkSize.toBytes()) {
+            throw new IllegalArgumentException("Chunk size must be between 1 byte and " + maxChunkSize);
+        }
+        long totalChunks = (size + chunk - 1) / chunk;
+        if (totalChunks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many chunks, use a larger chunk size");
+        }
+        String id = UUID.randomUUID().toString();
+        Path uploads = directory.resolve("uploads");
+        Files.createDirectories(uploads);
+        Path spoolFile = uploads.resolve(id + ".part");
+        Files.createFile(spoolFile);
+        Instant now = Instant.now();
+        UploadSession session = UploadSession.builder()
+                .id(id)
+                .fileName(fileName)
+                .size(size)
+                .chunkSize(chunk)
+                .totalChunks((int) totalChunks)
+                .parallel(parallel)
+                .mode(mode)
+                .status(UploadSession.Status.OPEN)
+                .spoolFile(spoolFile.toString())
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+        mongoTemplate.insert(session);
+        log.info("Opened chunked upload {} for {} ({} bytes in {} chunks)", id, fileName, size, totalChunks);
+        return session;
+    }
+
+    public Optional<UploadSession> get(String id) {
+        return Optional.ofNullable(mongoTemplate.findById(id, UploadSession.class));
+    }
+
+    /**
+     * Stores one chunk. Sending a chunk again replaces it once the new body is verified, so a client
+     * may simply retry.
+     *
+     * @param id     the upload id
+     * @param index  the zero-based chunk number
+     * @param sha256 the hex SHA-256 of the chunk body
+     * @param body   the chunk body
+     * @return the session with the chunk recorded, or empty if there is no such upload
+     * @throws IllegalArgumentException if the chunk number, length or checksum is wrong
+     * @throws IllegalStateException    if the upload is already complete
+     */
+    public Optional<UploadSession> writeChunk(String id, int index, String sha256, InputStream body) throws IOException {
+        Optional<UploadSession> found = get(id);
+        if (found.isEmpty()) {
+            return found;
+        }
+        UploadSession session = found.get();
+        requireOpen(session);
+        if (index < 0 || index >= session.getTotalChunks()) {
+            throw new IllegalArgumentException("Chunk " + index + " is out of range, the upload has " + session.getTotalChunks() + " chunks");
+        }
+        if (sha256 == null || sha256.isBlank()) {
+            throw new IllegalArgumentException("Chunk checksum is required");
+        }
+        long offset = index * session.getChunkSize();
+        long expected = Math.min(session.getChunkSize(), session.getSize() - offset);
+        Path spoolFile = Path.of(session.getSpoolFile());
+        // a resent chunk must not overwrite accepted bytes before it is verified
+        Path chunkFile = Files.createTempFile(spoolFile.getParent(), id + "-" + index + "-", ".chunk");
+        try {
+            receive(chunkFile, index, expected, sha256, body);
+            copy(chunkFile, spoolFile, offset);
+        } finally {
+            Files.deleteIfExists(chunkFile);
+        }
+        return Optional.ofNullable(mongoTemplate.findAndModify(
+                new Query(Criteria.where("_id").is(id)),
+                new Update().addToSet("receivedChunks", index).set("updatedAt", Instant.now()),
+                FindAndModifyOptions.options().returnNew(true),
+                UploadSession.class));
+    }
+
+    /**
+     * Queues the uploaded file for ingest once every chunk has arrived.
+     *
+     * @param id the upload id
+     * @return the ingest job, or empty if there is no such upload
+     * @throws IllegalStateException if chunks are missing or the upload is already complete
+     */
+    public Optional<IngestJob> complete(String id) {
+        Optional<UploadSession> found = get(id);
+        if (found.isEmpty()) {
+            return Optional.empty();
+        }
+        UploadSession session = found.get();
+        requireOpen(session);
+        if (!session.getMissingChunks().isEmpty()) {
+            throw new IllegalStateException("Upload " + id + " is missing " + session.getMissingChunks().size()
+                    + " chunks, first missing chunk is " + session.getMissingChunks().get(0));
+        }
+        // only one of several concurrent calls moves the upload out of OPEN and submits the job
+        UploadSession claimed = mongoTemplate.findAndModify(
+                new Query(Criteria.where("_id").is(id).and("status").is(UploadSession.Status.OPEN)),
+                new Update().set("status", UploadSession.Status.COMPLETING).set("updatedAt", Instant.now()),
+                FindAndModifyOptions.options().returnNew(true),
+                UploadSession.class);
+        if (claimed == null) {
+            requireOpen(get(id).orElse(session));
+            throw new IllegalStateException("Upload " + id + " is no longer open");
+        }
+        IngestJob job;
+        try {
+            job = ingestJobService.submit(Path.of(claimed.getSpoolFile()), claimed.getFileName(), claimed.getParallel(),
+                    claimed.getMode());
+        } catch (RuntimeException e) {
+            mongoTemplate.updateFirst(
+                    new Query(Criteria.where("_id").is(id).and("status").is(UploadSession.Status.COMPLETING)),
+                    new Update().set("status", UploadSession.Status.OPEN).set("updatedAt", Instant.now()),
+                    UploadSession.class);
+            throw e;
+        }
+        mongoTemplate.updateFirst(
+                new Query(Criteria.where("_id").is(id)),
+                new Update().set("status", UploadSession.Status.COMPLETED).set("jobId", job.getId()).set("updatedAt", Instant.now()),
+                UploadSession.class);
+        return Optional.of(job);
+    }
+
+    /**
+     * Discards an open upload and its chunks.
+     *
+     * @param id the upload id
+     * @return whether there was such an upload
+     */
+    public boolean abort(String id) throws IOException {
+        Optional<UploadSession> found = get(id);
+        if (found.isEmpty()) {
+            return false;
+        }
+        requireOpen(found.get());
+        if (mongoTemplate.remove(new Query(Criteria.where("_id").is(id).and("status").is(UploadSession.Status.OPEN)),
+                UploadSession.class).getDeletedCount() == 0) {
+            // completed or aborted since it was read
+            get(id).ifPresent(ChunkedUploadService::requireOpen);
+            return false;
+        }
+        Files.deleteIfExists(Path.of(found.get().getSpoolFile()));
+        return true;
+    }
+
+    /**
+     * Writes the chunk body to its own file, checking its length and checksum.
+     */
+    private static void receive(Path chunkFile, int index, long expected, String sha256, InputStream body) throws IOException {
+        MessageDigest digest = sha256();
+        long written = 0;
+        try (OutputStream out = Files.newOutputStream(chunkFile)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                if (written + read > expected) {
+                    throw new IllegalArgumentException("Chunk " + index + " is longer than " + expected + " bytes");
+                }
+                digest.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+                written += read;
+            }
+        }
+        if (written != expected) {
+            throw new IllegalArgumentException("Chunk " + index + " has " + written + " bytes, expected " + expected);
+        }
+        String actual = HexFormat.of().formatHex(digest.digest());
+        if (!actual.equalsIgnoreCase(sha256.trim())) {
+            throw new IllegalArgumentException("Checksum mismatch for chunk " + index + ": received " + actual);
+        }
+    }
+
+    /**
+     * Copies a verified chunk to its offset in the spool file.
+     */
+    private static void copy(Path chunkFile, Path spoolFile, long offset) throws IOException {
+        try (FileChannel source = FileChannel.open(chunkFile, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(spoolFile, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long position = 0;
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    position += target.write(buffer, offset + position);
+                }
+                buffer.clear();
+            }
+        }
+    }
+
+    private static void requireOpen(UploadSession session) {
+        if (session.getStatus() == UploadSession.Status.COMPLETING) {
+            throw new IllegalStateException("Upload " + session.getId() + " is being completed");
+        }
+        if (session.getStatus() != UploadSession.Status.OPEN) {
+            throw new IllegalStateException("Upload " + session.getId() + " is already complete, see job " + session.getJobId());
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
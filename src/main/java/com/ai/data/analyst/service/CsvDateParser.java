@@ -0,0 +1,189 @@
+package com.ai.data.analyst.service;
+
+import lombok.Getter;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.Collection;
+
+/**
+ * Allocation-light parser for the numeric date columns of a CSV file. The field order is
+ * detected once from a sample of values, after which every value is parsed with a hand-rolled
+ * digit scanner instead of trying DateTimeFormatter patterns per row.
+ */
+public final class CsvDateParser {
+
+    private static final int INVALID_GROUP = -2;
+
+    public enum DateOrder {
+        AUTO, DMY, MDY, YMD
+    }
+
+    @Getter
+    private final DateOrder order;
+
+    /**
+     * Describes why the order had to be assumed, or null when the sample was unambiguous.
+     */
+    @Getter
+    private final String ambiguity;
+
+    private CsvDateParser(DateOrder order, String ambiguity) {
+        this.order = order;
+        this.ambiguity = ambiguity;
+    }
+
+    /**
+     * Creates a parser for a fixed field order.
+     *
+     * @param order the field order, must not be AUTO
+     * @return the parser
+     */
+    public static CsvDateParser of(DateOrder order) {
+        if (order == DateOrder.AUTO) {
+            throw new IllegalArgumentException("A concrete date order is required");
+        }
+        return new CsvDateParser(order, null);
+    }
+
+    /**
+     * Detects the field order from sample values. A four-digit first component means year-first;
+     * otherwise a day or month component above 12 decides between day-first and month-first; if
+     * no sample decides it, the fallback order is used and the ambiguity is reported through
+     * {@link #getAmbiguity()}.
+     *
+     * @param samples  sample date values from the file
+     * @param fallback the order to assume when the samples are ambiguous
+     * @return the parser
+     * @throws IllegalArgumentException if the samples are not numeric dates or contradict each other
+     */
+    public static CsvDateParser detect(Collection<String> samples, DateOrder fallback) {
+        boolean dayFirst = false;
+        boolean monthFirst = false;
+        boolean yearFirst = false;
+        boolean yearLast = false;
+        int checked = 0;
+        int[] fields = new int[3];
+        for (String sample : samples) {
+            if (sample == null || sample.isEmpty()) {
+                continue;
+            }
+            int yearField = split(sample, fields);
+            if (yearField < 0) {
+                throw new IllegalArgumentException("Unsupported date format: " + sample);
+            }
+            checked++;
+            if (yearField == 0) {
+                yearFirst = true;
+            } else {
+                yearLast = true;
+                if (fields[0] > 12) {
+                    dayFirst = true;
+                } else if (fields[1] > 12) {
+                    monthFirst = true;
+                }
+            }
+        }
+        if (yearFirst) {
+            if (yearLast) {
+                throw new IllegalArgumentException("Date column mixes year-first and year-last values");
+            }
+            return new CsvDateParser(DateOrder.YMD, null);
+        }
+        if (dayFirst && monthFirst) {
+            throw new IllegalArgumentException("Date column mixes dd/MM and MM/dd values");
+        }
+        if (dayFirst) {
+            return new CsvDateParser(DateOrder.DMY, null);
+        }
+        if (monthFirst) {
+            return new CsvDateParser(DateOrder.MDY, null);
+        }
+        return new CsvDateParser(fallback, String.format(
+                "Ambiguous date order: none of %d sampled dates has a day above 12, assumed %s", checked, fallback));
+    }
+
+    /**
+     * Parses a date value using the detected field order.
+     *
+     * @param value the date string to parse
+     * @return the parsed LocalDate object
+     * @throws IllegalArgumentException if the value does not match the detected order
+     */
+    public LocalDate parse(String value) {
+        int[] fields = new int[3];
+        int yearField = split(value, fields);
+        if (yearField < 0) {
+            throw new IllegalArgumentException("Unsupported date format: " + value);
+        }
+        if (yearField != (order == DateOrder.YMD ? 0 : 2)) {
+            throw new IllegalArgumentException("Date " + value + " does not match detected " + order + " order");
+        }
+        try {
+            return switch (order) {
+                case DMY -> LocalDate.of(fields[2], fields[1], fields[0]);
+                case MDY -> LocalDate.of(fields[2], fields[0], fields[1]);
+                default -> LocalDate.of(fields[0], fields[1], fields[2]);
+            };
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Date " + value + " does not match detected " + order + " order", e);
+        }
+    }
+
+    /**
+     * Splits a value of three digit groups separated by '/', '-' or '.' without allocating. The
+     * first or the last group is the year and has exactly four digits, so a two-digit year such as
+     * {@code 1/2/20} is rejected rather than read as the year 20; the other groups have one or two.
+     *
+     * @param value  the value to split
+     * @param fields receives the three numeric components
+     * @return the index of the year group, 0 or 2, or -1 if the value is not such a date
+     */
+    private static int split(String value, int[] fields) {
+        int field = 0;
+        int digits = 0;
+        int current = 0;
+        int yearField = -1;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 4) {
+                    return -1;
+                }
+                current = current * 10 + (c - '0');
+            } else if ((c == '/' || c == '-' || c == '.') && digits > 0 && field < 2) {
+                yearField = closeGroup(field, digits, yearField);
+                if (yearField == INVALID_GROUP) {
+                    return -1;
+                }
+                fields[field++] = current;
+                current = 0;
+                digits = 0;
+            } else {
+                return -1;
+            }
+        }
+        if (digits == 0 || field != 2) {
+            return -1;
+        }
+        yearField = closeGroup(field, digits, yearField);
+        if (yearField < 0) {
+            return -1;
+        }
+        fields[2] = current;
+        return yearField;
+    }
+
+    /**
+     * Checks the length of a finished digit group.
+     *
+     * @return the index of the year group so far, or {@link #INVALID_GROUP} if the group has the
+     * wrong length
+     */
+    private static int closeGroup(int field, int digits, int yearField) {
+        if (digits == 4) {
+            return field != 1 && yearField < 0 ? field : INVALID_GROUP;
+        }
+        return digits <= 2 ? yearField : INVALID_GROUP;
+    }
+}
@@ -0,0 +1,492 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.entity.SuperStore;
+import com.ai.data.analyst.model.IngestResult;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.io.input.BOMInputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+@Service
+@Slf4j
+public class CsvIngestService {
+
+    /**
+     * How rows whose rowId is already stored are handled.
+     */
+    public enum Mode {
+        /**
+         * Only new rowIds are written; stored rows are left as they are.
+         */
+        INSERT,
+        /**
+         * New rows are inserted and changed rows replaced; unchanged rows are not written.
+         */
+        DELTA,
+        /**
+         * Like DELTA, and stored rows whose rowId is not in the file are deleted afterwards.
+         */
+        SYNC
+    }
+
+    static final CSVFormat SUPER_STORE_CSV_FORMAT = CSVFormat.Builder.create(CSVFormat.DEFAULT)
+            .setHeader()
+            .setSkipHeaderRecord(false)
+            .setIgnoreHeaderCase(true)
+            .setTrim(true)
+            .build();
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private final SuperStoreBatchWriter batchWriter;
+
+    @Value("${ingest.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${ingest.date-order:AUTO}")
+    private CsvDateParser.DateOrder dateOrder;
+
+    @Value("${ingest.ambiguous-date-order:DMY}")
+    private CsvDateParser.DateOrder ambiguousDateOrder;
+
+    @Value("${ingest.date-sample-size:1000}")
+    private int dateSampleSize;
+
+    @Value("${ingest.parallel.enabled:false}")
+    private boolean parallelEnabled;
+
+    @Value("${ingest.parallel.threads:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")
+    private int parallelThreads;
+
+    @Value("${ingest.parallel.chunk-lines:5000}")
+    private int parallelChunkLines;
+
+    @Value("${ingest.parallel.ordered:true}")
+    private boolean parallelOrdered;
+
+    @Value("${ingest.mode:INSERT}")
+    private Mode mode = Mode.INSERT;
+
+    @Autowired
+    public CsvIngestService(SuperStoreBatchWriter batchWriter) {
+        this.batchWriter = batchWriter;
+    }
+
+    /**
+     * Streams the CSV records from the input and writes them in fixed-size batches, using the
+     * configured ingest mode.
+     *
+     * @param inputStream the input stream of the CSV file
+     * @return counters describing the ingest
+     */
+    public IngestResult ingest(InputStream inputStream) {
+        return ingest(inputStream, parallelEnabled);
+    }
+
+    /**
+     * Streams the CSV records from the input and writes them in fixed-size batches, so only a
+     * bounded number of entities is held in memory at any time. Gzip-compressed input is
+     * decompressed on the fly.
+     *
+     * @param inputStream the input stream of the CSV file
+     * @param parallel    whether to parse and map line-aligned chunks on a worker pool
+     * @return counters describing the ingest
+     */
+    public IngestResult ingest(InputStream inputStream, boolean parallel) {
+        return ingest(inputStream, parallel, parallelOrdered, mode, 0, IngestProgressListener.NONE);
+    }
+
+    /**
+     * Streams the CSV records from the input like {@link #ingest(InputStream, boolean)}, skipping
+     * the records an earlier run already committed. Rows reach the writer in file order, so every
+     * written batch is a checkpoint the listener can persist and a later run can resume from.
+     *
+     * @param inputStream   the input stream of the CSV file
+     * @param parallel      whether to parse and map line-aligned chunks on a worker pool
+     * @param mode          how rows that are already stored are handled, or null for the configured mode
+     * @param skipRecords   the number of leading records to parse but not write
+     * @param listener      receives a checkpoint after every written batch
+     * @return counters describing this run, excluding the skipped records
+     */
+    public IngestResult ingest(InputStream inputStream, boolean parallel, Mode mode, long skipRecords,
+                               IngestProgressListener listener) {
+        return ingest(inputStream, parallel, true, mode == null ? this.mode : mode, skipRecords, listener);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    private IngestResult ingest(InputStream inputStream, boolean parallel, boolean ordered, Mode mode, long skipRecords,
+                                IngestProgressListener listener) {
+        long start = System.nanoTime();
+        BatchSink sink = new BatchSink(!parallel || ordered, mode, skipRecords, listener);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                BOMInputStream.builder().setInputStream(decompressIfGzip(inputStream)).get(), StandardCharsets.UTF_8))) {
+            if (parallel) {
+                ingestParallel(reader, sink, ordered);
+            } else {
+                ingestSequential(reader, sink);
+            }
+            sink.flush();
+            sink.commit();
+            sink.deleteMissing();
+        } catch (IOException | RuntimeException e) {
+            log.error("Error ingesting CSV file after {} records: {}", sink.rowsParsed, e.getMessage());
+            throw new RuntimeException("Failed to parse CSV file", e);
+        }
+        IngestResult result = IngestResult.builder()
+                .rowsParsed(sink.rowsParsed)
+                .rowsWritten(sink.rowsWritten)
+                .rowsUpdated(sink.rowsUpdated)
+                .rowsDeleted(sink.rowsDeleted)
+                .rowsSkipped(sink.rowsParsed - sink.rowsWritten)
+                .batches(sink.batches)
+                .dateOrder(sink.dateOrder)
+                .warnings(sink.warnings)
+                .durationMillis((System.nanoTime() - start) / 1_000_000)
+                .parallel(parallel)
+                .mode(mode)
+                .build();
+        log.info("Ingested {} of {} records in {} batches ({} rows/s, parallel={}, mode={})",
+                result.getRowsWritten(), result.getRowsParsed(), result.getBatches(),
+                Math.round(result.getRowsPerSecond()), parallel, mode);
+        if (mode != Mode.INSERT) {
+            log.info("Delta ingest updated {} rows, left {} unchanged, skipped {} repeated rowIds and deleted {}",
+                    result.getRowsUpdated(), sink.rowsUnchanged, sink.rowsRepeated, result.getRowsDeleted());
+        }
+        return result;
+    }
+
+    /**
+     * Recognises gzip-compressed input by its magic bytes and decompresses it as it is read.
+     *
+     * @param inputStream the raw input
+     * @return a stream of the CSV text
+     * @throws IOException if the input cannot be read
+     */
+    private static InputStream decompressIfGzip(InputStream inputStream) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(inputStream, GZIP_BUFFER_SIZE);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        if (first == (GZIPInputStream.GZIP_MAGIC & 0xff) && second == (GZIPInputStream.GZIP_MAGIC >>> 8)) {
+            return new GZIPInputStream(buffered, GZIP_BUFFER_SIZE);
+        }
+        return buffered;
+    }
+
+    private void ingestSequential(Reader reader, BatchSink sink) throws IOException {
+        try (CSVParser parser = SUPER_STORE_CSV_FORMAT.parse(reader)) {
+            log.info("Parsed headers: {}", parser.getHeaderMap().keySet());
+            Iterator<CSVRecord> records = parser.iterator();
+            List<CSVRecord> sample = new ArrayList<>(dateSampleSize);
+            while (sample.size() < dateSampleSize && records.hasNext()) {
+                sample.add(records.next());
+            }
+            CsvDateParser dateParser = dateParser(sample, sink);
+            for (CSVRecord csvRecord : sample) {
+                sink.accept(toSuperStore(csvRecord, dateParser));
+            }
+            sample.clear();
+            while (records.hasNext()) {
+                sink.accept(toSuperStore(records.next(), dateParser));
+            }
+        }
+    }
+
+    /**
+     * Splits the input into line-aligned chunks and parses and maps them on a fork-join pool.
+     * At most {@code 2 * threads} chunks are in flight, so memory stays bounded while the single
+     * writer drains finished chunks either in file order or in completion order.
+     *
+     * @param reader  the reader positioned at the header line
+     * @param sink    the batch sink receiving the mapped rows
+     * @param ordered whether finished chunks are drained in file order
+     * @throws IOException if an error occurs while reading the file
+     */
+    private void ingestParallel(BufferedReader reader, BatchSink sink, boolean ordered) throws IOException {
+        String headerLine = reader.readLine();
+        if (headerLine == null) {
+            return;
+        }
+        CSVFormat chunkFormat = chunkFormat(headerLine);
+        log.info("Parsed headers: {}", List.of(chunkFormat.getHeader()));
+
+        int maxInFlight = parallelThreads * 2;
+        ForkJoinPool pool = new ForkJoinPool(parallelThreads);
+        CompletionService<List<SuperStore>> completionService = new ExecutorCompletionService<>(pool);
+        Deque<Future<List<SuperStore>>> inFlight = new ArrayDeque<>(maxInFlight);
+        try {
+            String chunk = readChunk(reader);
+            if (chunk == null) {
+                return;
+            }
+            CsvDateParser dateParser = dateParser(sampleRecords(chunk, chunkFormat), sink);
+            for (; chunk != null; chunk = readChunk(reader)) {
+                String chunkText = chunk;
+                Callable<List<SuperStore>> task = () -> parseChunk(chunkText, chunkFormat, dateParser);
+                // ordered mode drains by submission order, so completions must not pile up in the service queue
+                inFlight.addLast(ordered ? pool.submit(task) : completionService.submit(task));
+                if (inFlight.size() == maxInFlight) {
+                    drainOne(inFlight, completionService, sink, ordered);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                drainOne(inFlight, completionService, sink, ordered);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Parallel ingest interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to parse CSV chunk: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            inFlight.forEach(future -> future.cancel(true));
+            pool.shutdownNow();
+        }
+    }
+
+    private void drainOne(Deque<Future<List<SuperStore>>> inFlight,
+                          CompletionService<List<SuperStore>> completionService,
+                          BatchSink sink,
+                          boolean ordered) throws InterruptedException, ExecutionException {
+        Future<List<SuperStore>> next;
+        if (ordered) {
+            next = inFlight.removeFirst();
+        } else {
+            next = completionService.take();
+            inFlight.remove(next);
+        }
+        next.get().forEach(sink::accept);
+    }
+
+    private CSVFormat chunkFormat(String headerLine) throws IOException {
+        try (CSVParser headerParser = CSVFormat.DEFAULT.parse(new StringReader(headerLine))) {
+            String[] headers = headerParser.iterator().next().values();
+            for (int i = 0; i < headers.length; i++) {
+                headers[i] = headers[i].trim();
+            }
+            return CSVFormat.Builder.create(SUPER_STORE_CSV_FORMAT)
+                    .setHeader(headers)
+                    .setSkipHeaderRecord(false)
+                    .build();
+        }
+    }
+
+    /**
+     * Reads the next chunk of roughly {@code chunkLines} lines. A chunk only ends on a line where
+     * the running count of quote characters is even, so quoted values spanning lines are never
+     * split between chunks.
+     *
+     * @param reader the reader to read from
+     * @return the chunk text, or null once the input is exhausted
+     * @throws IOException if an error occurs while reading the file
+     */
+    private String readChunk(BufferedReader reader) throws IOException {
+        StringBuilder chunk = new StringBuilder(parallelChunkLines * 160);
+        int lines = 0;
+        boolean insideQuotes = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            chunk.append(line).append('\n');
+            lines++;
+            for (int i = 0; i < line.length(); i++) {
+                if (line.charAt(i) == '"') {
+                    insideQuotes = !insideQuotes;
+                }
+            }
+            if (lines >= parallelChunkLines && !insideQuotes) {
+                break;
+            }
+        }
+        return lines == 0 ? null : chunk.toString();
+    }
+
+    private List<SuperStore> parseChunk(String chunk, CSVFormat chunkFormat, CsvDateParser dateParser) throws IOException {
+        List<SuperStore> rows = new ArrayList<>(parallelChunkLines);
+        try (CSVParser parser = chunkFormat.parse(new StringReader(chunk))) {
+            for (CSVRecord csvRecord : parser) {
+                rows.add(toSuperStore(csvRecord, dateParser));
+            }
+        }
+        return rows;
+    }
+
+    private List<CSVRecord> sampleRecords(String chunk, CSVFormat chunkFormat) throws IOException {
+        try (CSVParser parser = chunkFormat.parse(new StringReader(chunk))) {
+            return parser.stream().limit(dateSampleSize).toList();
+        }
+    }
+
+    /**
+     * Resolves the date parser for the file, detecting the field order from the sampled records
+     * unless one is configured. An ambiguous sample is reported as an ingest warning.
+     *
+     * @param sample the first records of the file
+     * @param sink   the batch sink collecting warnings
+     * @return the date parser for every row of the file
+     */
+    private CsvDateParser dateParser(List<CSVRecord> sample, BatchSink sink) {
+        if (dateOrder != CsvDateParser.DateOrder.AUTO) {
+            sink.dateOrder = dateOrder;
+            return CsvDateParser.of(dateOrder);
+        }
+        List<String> dates = new ArrayList<>(sample.size() * 2);
+        for (CSVRecord csvRecord : sample) {
+            dates.add(csvRecord.get("Order Date"));
+            dates.add(csvRecord.get("Ship Date"));
+        }
+        CsvDateParser dateParser = CsvDateParser.detect(dates, ambiguousDateOrder);
+        if (dateParser.getAmbiguity() != null) {
+            log.warn("{}; set ingest.date-order to override", dateParser.getAmbiguity());
+            sink.warnings.add(dateParser.getAmbiguity());
+        }
+        log.info("Using {} date order for upload", dateParser.getOrder());
+        sink.dateOrder = dateParser.getOrder();
+        return dateParser;
+    }
+
+    /**
+     * Maps a CSV record onto a SuperStore entity with its content hash.
+     *
+     * @param csvRecord  the CSV record
+     * @param dateParser the date parser detected for the file
+     * @return the SuperStore entity
+     */
+    private SuperStore toSuperStore(CSVRecord csvRecord, CsvDateParser dateParser) {
+        SuperStore superStore = SuperStore.builder()
+                .rowId(Integer.valueOf(csvRecord.get("Row ID")))
+                .orderId(csvRecord.get("Order ID"))
+                .orderDate(dateParser.parse(csvRecord.get("Order Date")))
+                .shipDate(dateParser.parse(csvRecord.get("Ship Date")))
+                .shipMode(csvRecord.get("Ship Mode"))
+                .customerId(csvRecord.get("Customer ID"))
+                .customerName(csvRecord.get("Customer Name"))
+                .segment(csvRecord.get("Segment"))
+                .country(csvRecord.get("Country"))
+                .city(csvRecord.get("City"))
+                .state(csvRecord.get("State"))
+                .postalCode(csvRecord.get("Postal Code"))
+                .region(csvRecord.get("Region"))
+                .productId(csvRecord.get("Product ID"))
+                .category(csvRecord.get("Category"))
+                .subCategory(csvRecord.get("Sub-Category"))
+                .productName(csvRecord.get("Product Name"))
+                .sales(Double.valueOf(csvRecord.get("Sales")))
+                .quantity(Integer.valueOf(csvRecord.get("Quantity")))
+                .discount(Double.valueOf(csvRecord.get("Discount")))
+                .profit(Double.valueOf(csvRecord.get("Profit")))
+                .build();
+        superStore.setContentHash(ContentHash.of(superStore));
+        return superStore;
+    }
+
+    /**
+     * Accumulates mapped rows into fixed-size batches and hands each full batch to the writer.
+     * When rows arrive in file order every written batch is reported as a checkpoint; otherwise
+     * only the end of the file is. In SYNC mode the rowIds of every record, including skipped
+     * ones, are collected so the rows missing from the file can be deleted at the end.
+     */
+    private final class BatchSink {
+        private final List<SuperStore> batch = new ArrayList<>(batchSize);
+        private final boolean inFileOrder;
+        private final Mode mode;
+        private final long skipRecords;
+        private final IngestProgressListener listener;
+        private final BitSet rowIds;
+        private long records;
+        private long rowsParsed;
+        private long rowsWritten;
+        private long rowsUpdated;
+        private long rowsUnchanged;
+        private long rowsRepeated;
+        private long rowsDeleted;
+        private long batches;
+        private CsvDateParser.DateOrder dateOrder;
+        private final List<String> warnings = new ArrayList<>();
+
+        BatchSink(boolean inFileOrder, Mode mode, long skipRecords, IngestProgressListener listener) {
+            this.inFileOrder = inFileOrder;
+            this.mode = mode;
+            this.skipRecords = skipRecords;
+            this.listener = listener;
+            this.rowIds = mode == Mode.SYNC ? new BitSet() : null;
+        }
+
+        void accept(SuperStore superStore) {
+            if (rowIds != null && superStore.getRowId() >= 0) {
+                rowIds.set(superStore.getRowId());
+            }
+            if (++records <= skipRecords) {
+                return;
+            }
+            batch.add(superStore);
+            rowsParsed++;
+            if (batch.size() == batchSize) {
+                flush();
+                if (inFileOrder) {
+                    commit();
+                }
+            }
+        }
+
+        void flush() {
+            if (!batch.isEmpty()) {
+                if (mode == Mode.INSERT) {
+                    rowsWritten += batchWriter.write(batch);
+                } else {
+                    SuperStoreBatchWriter.DeltaWrite written = batchWriter.writeDelta(batch);
+                    rowsWritten += written.written();
+                    rowsUpdated += written.updated();
+                    rowsUnchanged += written.unchanged();
+                    rowsRepeated += batch.size() - written.written() - written.unchanged();
+                }
+                batches++;
+                batch.clear();
+            }
+        }
+
+        void commit() {
+            listener.onBatchCommitted(records, rowsParsed, rowsWritten, rowsUpdated);
+        }
+
+        void deleteMissing() {
+            if (rowIds == null) {
+                return;
+            }
+            if (rowIds.isEmpty()) {
+                log.warn("The file has no rows, not deleting every stored row");
+                warnings.add("The file has no rows, so no stored rows were deleted");
+                return;
+            }
+            rowsDeleted = batchWriter.deleteMissing(rowIds);
+        }
+    }
+}
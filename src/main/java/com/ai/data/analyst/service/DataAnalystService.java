@@ -1,193 +1,178 @@
 package com.ai.data.analyst.service;
 
-import com.ai.data.analyst.entity.SuperStore;
+import com.ai.data.analyst.cache.AnalysisCoalescer;
+import com.ai.data.analyst.cache.PipelineCache;
 import com.ai.data.analyst.handler.GeminiHandler;
-import com.ai.data.analyst.repository.DataAnalystRepository;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ai.data.analyst.metrics.AnalysisMetrics;
+import com.ai.data.analyst.model.GeneratedPipeline;
+import com.ai.data.analyst.model.PipelineExecution;
+import com.ai.data.analyst.prompt.Prompt;
+import com.ai.data.analyst.prompt.PromptBuilder;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
 import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.aggregation.Aggregation;
-import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
-import org.springframework.data.mongodb.core.aggregation.AggregationResults;
-import org.springframework.data.mongodb.core.aggregation.ArrayOperators;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 @Slf4j
 public class DataAnalystService {
 
-    private final DataAnalystRepository dataAnalystRepository;
     private final GeminiHandler geminiHandler;
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private final MongoTemplate mongoTemplate;
+    private final AggregationExecutor aggregationExecutor;
+    private final PipelineValidator pipelineValidator;
+    private final PipelineRetryEngine pipelineRetryEngine;
+    private final PipelineSpeculator pipelineSpeculator;
+    private final PipelineCache pipelineCache;
+    private final ResultCompactor resultCompactor;
+    private final AnalysisMetrics analysisMetrics;
+    private final AnalysisCoalescer analysisCoalescer;
+    private final PromptBuilder promptBuilder;
 
     public static final String SUPER_STORE = "superStore";
-    private static final int MAX_RETRIES = 2;
 
     @Autowired
-    public DataAnalystService(DataAnalystRepository dataAnalystRepository,
-                              GeminiHandler geminiHandler,
-                              MongoTemplate mongoTemplate) {
-        this.dataAnalystRepository = dataAnalystRepository;
+    public DataAnalystService(GeminiHandler geminiHandler,
+                              AggregationExecutor aggregationExecutor,
+                              PipelineValidator pipelineValidator,
+                              PipelineRetryEngine pipelineRetryEngine,
+                              PipelineSpeculator pipelineSpeculator,
+                              PipelineCache pipelineCache,
+                              ResultCompactor resultCompactor,
+                              AnalysisMetrics analysisMetrics,
+                              AnalysisCoalescer analysisCoalescer,
+                              PromptBuilder promptBuilder) {
         this.geminiHandler = geminiHandler;
-        this.mongoTemplate = mongoTemplate;
+        this.aggregationExecutor = aggregationExecutor;
+        this.pipelineValidator = pipelineValidator;
+        this.pipelineRetryEngine = pipelineRetryEngine;
+        this.pipelineSpeculator = pipelineSpeculator;
+        this.pipelineCache = pipelineCache;
+        this.resultCompactor = resultCompactor;
+        this.analysisMetrics = analysisMetrics;
+        this.analysisCoalescer = analysisCoalescer;
+        this.promptBuilder = promptBuilder;
     }
 
     /**
-     * Processes the uploaded CSV file and saves the parsed data into the database.
+     * Generates an analysis for the prompt on the analysis executor. Concurrent requests for the
+     * same normalized prompt share one analysis.
      *
-     * @param file the uploaded CSV file
-     * @throws IOException if an error occurs while reading the file
+     * @param prompt the prompt for analysis
+     * @return a future completed with the generated analysis
      */
-    public void processData(MultipartFile file) throws IOException {
-        List<SuperStore> uploadedData = parseCsvFile(file.getInputStream());
-        log.info("Parsed {} records from the uploaded file", uploadedData.size());
-        dataAnalystRepository.saveAll(uploadedData);
-
+    public CompletableFuture<String> analyse(String prompt) {
+        return analysisCoalescer.execute(prompt, () -> generateAnalysis(prompt));
     }
 
     /**
-     * Parses the CSV file and converts it into a list of SuperStore entities.
+     * Generates an analysis based on the provided prompt using the Gemini AI handler.
      *
-     * @param inputStream the input stream of the CSV file
-     * @return a list of SuperStore entities
+     * @param prompt the prompt for analysis
+     * @return the generated analysis as a String
      */
-    private List<SuperStore> parseCsvFile(InputStream inputStream) {
-        List<SuperStore> superStores = new ArrayList<>();
-        try (InputStreamReader reader = new InputStreamReader(inputStream)) {   //if we use UTF_8 CSV file, need to do like this try (InputStreamReader reader = new InputStreamReader(new BOMInputStream(inputStream), StandardCharsets.UTF_8))
-            CSVParser parser = new CSVParser(reader,
-                    CSVFormat.Builder.create(CSVFormat.DEFAULT)
-                            .setHeader()
-                            .setSkipHeaderRecord(false)
-                            .setIgnoreHeaderCase(true)
-                            .setTrim(true)
-                            .build());
-            log.info("Parsed headers: {}", parser.getHeaderMap().keySet());
-            for (CSVRecord csvRecord : parser) {
-                SuperStore superStore = SuperStore.builder()
-                        .rowId(Integer.valueOf(csvRecord.get("Row ID")))
-                        .orderId(csvRecord.get("Order ID"))
-                        .orderDate(parseDate(csvRecord.get("Order Date")))
-                        .shipDate(parseDate(csvRecord.get("Ship Date")))
-                        .shipMode(csvRecord.get("Ship Mode"))
-                        .customerId(csvRecord.get("Customer ID"))
-                        .customerName(csvRecord.get("Customer Name"))
-                        .segment(csvRecord.get("Segment"))
-                        .country(csvRecord.get("Country"))
-                        .city(csvRecord.get("City"))
-                        .state(csvRecord.get("State"))
-                        .postalCode(csvRecord.get("Postal Code"))
-                        .region(csvRecord.get("Region"))
-                        .productId(csvRecord.get("Product ID"))
-                        .category(csvRecord.get("Category"))
-                        .subCategory(csvRecord.get("Sub-Category"))
-                        .productName(csvRecord.get("Product Name"))
-                        .sales(Double.valueOf(csvRecord.get("Sales")))
-                        .quantity(Integer.valueOf(csvRecord.get("Quantity")))
-                        .discount(Double.valueOf(csvRecord.get("Discount")))
-                        .profit(Double.valueOf(csvRecord.get("Profit")))
-                        .build();
-                superStores.add(superStore);
-            }
-            return superStores;
-        } catch (Exception e) {
-            log.error("Error parsing CSV file: {}", e.getMessage());
-            throw new RuntimeException("Failed to parse CSV file", e);
+    public String generateAnalysis(String prompt) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            PipelineExecution execution = executePipeline(prompt);
+            log.info("processing a result for natural language analysis: {}", execution.getResults());
+            String analysis = generateAnalysisPrompt(prompt, execution.getResults());
+            success = true;
+            return analysis;
+        } finally {
+            analysisMetrics.recordAnalysis(false, success, System.nanoTime() - start);
         }
     }
 
     /**
-     * Parses a date string into a LocalDate object using multiple formats.
+     * Generates a streamed analysis. The executed pipeline and its raw results are handed to the
+     * listener as soon as they are available, followed by the narrative as the model produces it.
      *
-     * @param dateStr the date string to parse
-     * @return the parsed LocalDate object
-     * @throws IllegalArgumentException if the date format is unsupported
+     * @param prompt   the prompt for analysis
+     * @param listener receives the pipeline, the results and every narrative fragment
+     * @return a future completed with the full narrative
      */
-    private LocalDate parseDate(String dateStr) {
-        String[] formats = {"dd/MM/yyyy", "dd-MM-yyyy", "MM/dd/yyyy", "M/dd/yyyy"};
-        for (String format : formats) {
-            try {
-                return LocalDate.parse(dateStr, DateTimeFormatter.ofPattern(format));
-            } catch (Exception ignored) {
-                log.debug("Ignoring date parsing error for format {}: {}", format, dateStr);
-            }
+    public CompletableFuture<String> streamAnalysis(String prompt, AnalysisStreamListener listener) {
+        long start = System.nanoTime();
+        CompletableFuture<String> narrative;
+        try {
+            PipelineExecution execution = executePipeline(prompt);
+            listener.onPipeline(execution.getPipeline());
+            listener.onResults(execution.getResults());
+
+            Prompt analysisPrompt = promptBuilder.narrative(prompt, resultCompactor.compact(execution.getResults()));
+            log.debug("Generated analysis prompt: {}", analysisPrompt.text());
+            narrative = geminiHandler.streamContent(GeminiHandler.CallType.NARRATIVE, analysisPrompt, listener::onNarrative);
+        } catch (RuntimeException e) {
+            analysisMetrics.recordAnalysis(true, false, System.nanoTime() - start);
+            throw e;
         }
-        throw new IllegalArgumentException("Unsupported date format: " + dateStr);
+        return narrative.whenComplete((text, error) ->
+                analysisMetrics.recordAnalysis(true, error == null, System.nanoTime() - start));
     }
 
     /**
-     * Generates an analysis based on the provided prompt using the Gemini AI handler.
+     * Resolves the aggregation pipeline for the prompt, from the pipeline cache or from Gemini,
+     * and executes it. Gemini is asked for one pipeline that is repaired until it executes, or,
+     * in speculative mode, for several candidates of which the first with results is used. Only
+     * a pipeline that executed is cached.
      *
      * @param prompt the prompt for analysis
-     * @return the generated analysis as a String
+     * @return the executed pipeline and its results
      */
-    public String generateAnalysis(String prompt) throws JsonProcessingException {
-        String formattedPrompt = String.format(PromptConstants.ANALYSIS_PROMPT.getPrompt(), prompt);
-        log.debug("Generated prompt for analysis: {}", formattedPrompt);
-
-        String jsonPipeline = geminiHandler.generateContent(formattedPrompt);
-        log.debug("Gemini Response: {}", jsonPipeline);
-
-        String sanitizedJsonPipeline = jsonPipeline.replace("```json", "").replace("```", "").trim();
-        log.info("Generated JSON pipeline: {}", sanitizedJsonPipeline);
+    private PipelineExecution executePipeline(String prompt) {
+        Optional<PipelineExecution> cachedExecution = executeCachedPipeline(prompt);
+        if (cachedExecution.isPresent()) {
+            return cachedExecution.get();
+        }
 
-        int retryCount = 0;
-        List<Document> result = executeAggregation(prompt, sanitizedJsonPipeline, retryCount);
+        Prompt formattedPrompt = promptBuilder.analysis(prompt);
+        log.debug("Generated prompt for analysis: {}", formattedPrompt.text());
 
-        log.info("processing a result for natural language analysis: {}", result);
-        return generateAnalysisPrompt(prompt, result);
+        long start = System.nanoTime();
+        String generatedPipeline = "[]";
+        Optional<PipelineExecution> execution;
+        if (pipelineSpeculator.isEnabled()) {
+            execution = pipelineSpeculator.execute(prompt, formattedPrompt);
+        } else {
+            String jsonPipeline = geminiHandler.generateContent(GeminiHandler.CallType.PIPELINE, formattedPrompt);
+            log.debug("Gemini Response: {}", jsonPipeline);
+            generatedPipeline = PipelineValidator.sanitize(jsonPipeline);
+            execution = pipelineRetryEngine.execute(prompt, jsonPipeline);
+        }
+        analysisMetrics.recordPipelineGeneration(pipelineSpeculator.isEnabled() ? "speculative" : "sequential",
+                execution.isPresent(), System.nanoTime() - start);
+        execution.ifPresent(executed -> pipelineCache.put(prompt, executed.getPipeline()));
+        return execution.orElse(new PipelineExecution(generatedPipeline, new ArrayList<>()));
     }
 
     /**
-     * Executes the aggregation pipeline on the MongoDB collection.
+     * Executes the cached pipeline for the prompt, if there is one. A cached pipeline that no longer
+     * executes is evicted so the caller falls back to generating a new one.
      *
-     * @param prompt       the original prompt for context
-     * @param jsonPipeline the JSON representation of the aggregation pipeline
-     * @param retryCount   the current retry count
-     * @return a list of Document results from the aggregation
-     * @throws JsonProcessingException if there is an error processing the JSON
+     * @param prompt the original prompt
+     * @return the executed pipeline and its results, or empty if no cached pipeline could be used
      */
-    private List<Document> executeAggregation(String prompt, String jsonPipeline, int retryCount) throws JsonProcessingException {
-
-        // Parse JSON string to List<Document>
-        List<Document> pipeline = objectMapper.readValue(jsonPipeline, objectMapper.getTypeFactory().constructCollectionType(List.class, Document.class));
-
-        // Convert to AggregationOperation list
-        List<AggregationOperation> operations = pipeline.stream()
-                .map(document -> (AggregationOperation) context -> document)
-                .toList();
-
-        // Build aggregation
-        Aggregation aggregation = Aggregation.newAggregation(operations);
-        AggregationResults<Document> results = null;
-
-        if (retryCount == MAX_RETRIES) {
-            log.error("Max retries reached for aggregation execution. Returning empty results.");
-            return new ArrayList<>();
-        } else {
-            try {
-                // Execute aggregation
-                log.info("Attempt:{}, Executing aggregation with pipeline: {}", retryCount, aggregation);
-                results = mongoTemplate.aggregate(aggregation, SUPER_STORE, Document.class);
-                log.info("Aggregation executed successfully, found {} results", results.getMappedResults());
-            } catch (Exception e) {
-                log.error("Error executing aggregation: {}", e.getMessage());
-                validatePipeline(prompt, jsonPipeline, e.getMessage(), retryCount);
-            }
-            return results.getMappedResults();
+    private Optional<PipelineExecution> executeCachedPipeline(String prompt) {
+        Optional<String> cachedPipeline = pipelineCache.get(prompt);
+        if (cachedPipeline.isEmpty()) {
+            return Optional.empty();
+        }
+        log.info("Using cached JSON pipeline: {}", cachedPipeline.get());
+        try {
+            GeneratedPipeline pipeline = pipelineValidator.parse(cachedPipeline.get());
+            List<Document> results = aggregationExecutor.execute(pipeline.getCollection(), pipeline.getStages());
+            return Optional.of(new PipelineExecution(cachedPipeline.get(), results));
+        } catch (Exception e) {
+            log.warn("Cached pipeline failed, generating a new one: {}", e.getMessage());
+            pipelineCache.invalidate(prompt);
+            return Optional.empty();
         }
     }
 
@@ -199,30 +184,8 @@ public class DataAnalystService {
      * @return the generated analysis prompt
      */
     private String generateAnalysisPrompt(String prompt, List<Document> relatedData) {
-        String analysisPrompt = String.format(PromptConstants.DATA_ANALYSIS_PROMPT.getPrompt(), prompt, relatedData);
-        log.debug("Generated analysis prompt: {}", analysisPrompt);
-        return geminiHandler.generateContent(analysisPrompt);
-    }
-
-    /**
-     * Validates the generated pipeline by re-querying the Gemini AI handler.
-     *
-     * @param prompt       the original prompt for context
-     * @param jsonPipeline the JSON representation of the aggregation pipeline
-     * @param errorMessage the error message encountered during aggregation
-     * @param retryCount   the current retry count
-     * @throws JsonProcessingException if there is an error processing the JSON
-     */
-    private void validatePipeline(String prompt, String jsonPipeline, String errorMessage, int retryCount) throws JsonProcessingException {
-        retryCount++;
-        String validationPrompt = String.format(PromptConstants.REPORT_PROMPT.getPrompt(), jsonPipeline, prompt, errorMessage);
-        log.info("Validation prompt: {}", validationPrompt);
-
-        String updatedPipeline = geminiHandler.generateContent(validationPrompt);
-
-        String sanitizedJsonPipeline = updatedPipeline.replace("```json", "").replace("```", "").trim();
-        log.info("Updated JSON pipeline: {}", sanitizedJsonPipeline);
-        executeAggregation(prompt, sanitizedJsonPipeline, retryCount);
+        Prompt analysisPrompt = promptBuilder.narrative(prompt, resultCompactor.compact(relatedData));
+        log.debug("Generated analysis prompt: {}", analysisPrompt.text());
+        return geminiHandler.generateContent(GeminiHandler.CallType.NARRATIVE, analysisPrompt);
     }
-
 }
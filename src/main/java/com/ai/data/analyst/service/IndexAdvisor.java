@@ -0,0 +1,303 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.model.IndexRecommendation;
+import com.ai.data.analyst.model.IndexUsageStats;
+import com.ai.data.analyst.model.PipelinePlan;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Learns which indexes the generated pipelines would benefit from. For every executed pipeline
+ * the fields of the leading {@code $match}/{@code $sort} stages are turned into an
+ * equality-sort-range candidate index and counted together with the explain outcome; candidates
+ * are ranked by frequency and observed collection scans and can be created automatically once
+ * they are common enough, or on demand through the admin API. {@code $group} keys only count
+ * towards the field usage: a group over the whole collection scans it with or without an index.
+ * With compact storage enabled no candidates are kept for the superStore view.
+ */
+@Component
+@Slf4j
+public class IndexAdvisor {
+
+    private static final Set<String> EQUALITY_OPERATORS = Set.of("$eq", "$in");
+    private static final Set<String> RANGE_OPERATORS = Set.of("$gt", "$gte", "$lt", "$lte");
+
+    private final MongoTemplate mongoTemplate;
+
+    private final Map<Candidate, CandidateStats> candidates = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> fieldUsage = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> indexUsage = new ConcurrentHashMap<>();
+    private final Set<Candidate> created = ConcurrentHashMap.newKeySet();
+    private final Set<Candidate> failed = ConcurrentHashMap.newKeySet();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder indexedExecutions = new LongAdder();
+    private final LongAdder collectionScans = new LongAdder();
+
+    @Value("${index-advisor.enabled:true}")
+    private boolean enabled;
+
+    @Value("${index-advisor.auto-create:false}")
+    private boolean autoCreate;
+
+    @Value("${index-advisor.min-occurrences:20}")
+    private long minOccurrences;
+
+    @Value("${index-advisor.max-created-indexes:10}")
+    private int maxCreatedIndexes;
+
+    @Value("${storage.compact.enabled:false}")
+    private boolean compactStorage;
+
+    @Autowired
+    public IndexAdvisor(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Records an executed pipeline and its plan.
+     *
+     * @param collection the collection the pipeline ran against
+     * @param pipeline   the executed pipeline
+     * @param plan       the explain summary, or null if the pipeline was not explained
+     */
+    public void record(String collection, List<Document> pipeline, PipelinePlan plan) {
+        if (!enabled) {
+            return;
+        }
+        executions.increment();
+        if (plan != null) {
+            if (plan.isCollectionScan()) {
+                collectionScans.increment();
+            }
+            if (plan.getIndexesUsed() != null && !plan.getIndexesUsed().isEmpty()) {
+                indexedExecutions.increment();
+                plan.getIndexesUsed().forEach(index -> indexUsage.computeIfAbsent(index, key -> new LongAdder()).increment());
+            }
+        }
+        Candidate candidate = candidateFor(collection, pipeline);
+        Set<String> used = new LinkedHashSet<>(groupKeys(pipeline));
+        if (candidate != null) {
+            used.addAll(candidate.fieldNames());
+        }
+        used.forEach(field -> fieldUsage.computeIfAbsent(field, key -> new LongAdder()).increment());
+        // in compact storage superStore is a view, which cannot be indexed
+        if (candidate == null || compactStorage && DataAnalystService.SUPER_STORE.equals(collection)) {
+            return;
+        }
+        CandidateStats stats = candidates.computeIfAbsent(candidate, key -> new CandidateStats());
+        stats.occurrences.increment();
+        if (plan != null && plan.isCollectionScan()) {
+            stats.collectionScans.increment();
+            stats.documentsScanned.add(plan.getEstimatedDocuments());
+        }
+        // a candidate that failed once, e.g. on a view, is left to the admin API
+        if (autoCreate && stats.occurrences.sum() >= minOccurrences && stats.collectionScans.sum() > 0
+                && created.size() < maxCreatedIndexes && !failed.contains(candidate) && created.add(candidate)) {
+            CompletableFuture.runAsync(() -> createIndex(candidate));
+        }
+    }
+
+    /**
+     * Ranks the candidate indexes seen so far, skipping ones an existing index already serves.
+     *
+     * @return the candidates, best first
+     */
+    public List<IndexRecommendation> recommendations() {
+        Map<String, List<List<String>>> existingIndexes = new TreeMap<>();
+        List<IndexRecommendation> recommendations = new ArrayList<>();
+        candidates.forEach((candidate, stats) -> {
+            List<List<String>> existing = existingIndexes.computeIfAbsent(candidate.collection(), this::existingIndexFields);
+            if (existing.stream().anyMatch(fields -> isPrefix(candidate.fieldNames(), fields))) {
+                return;
+            }
+            long occurrences = stats.occurrences.sum();
+            long scans = stats.collectionScans.sum();
+            long documents = stats.documentsScanned.sum();
+            double score = (occurrences + 2.0 * scans) * Math.log10(10 + (scans == 0 ? 0 : documents / scans));
+            recommendations.add(IndexRecommendation.builder()
+                    .collection(candidate.collection())
+                    .fields(candidate.fields())
+                    .occurrences(occurrences)
+                    .collectionScans(scans)
+                    .documentsScanned(documents)
+                    .score(score)
+                    .created(created.contains(candidate))
+                    .build());
+        });
+        recommendations.sort(Comparator.comparingDouble(IndexRecommendation::getScore).reversed());
+        return recommendations;
+    }
+
+    /**
+     * Creates the best ranked recommended indexes.
+     *
+     * @param top the number of indexes to create
+     * @return the recommendations that were created
+     */
+    public List<IndexRecommendation> apply(int top) {
+        List<IndexRecommendation> applied = recommendations().stream().limit(top).toList();
+        for (IndexRecommendation recommendation : applied) {
+            Candidate candidate = new Candidate(recommendation.getCollection(), recommendation.getFields());
+            created.add(candidate);
+            createIndex(candidate);
+            recommendation.setCreated(true);
+        }
+        return applied;
+    }
+
+    public IndexUsageStats stats() {
+        Map<String, Long> indexes = new TreeMap<>();
+        indexUsage.forEach((index, count) -> indexes.put(index, count.sum()));
+        Map<String, Long> fields = new TreeMap<>();
+        fieldUsage.forEach((field, count) -> fields.put(field, count.sum()));
+        return IndexUsageStats.builder()
+                .executions(executions.sum())
+                .indexedExecutions(indexedExecutions.sum())
+                .collectionScans(collectionScans.sum())
+                .indexUsage(indexes)
+                .fieldUsage(fields)
+                .build();
+    }
+
+    private void createIndex(Candidate candidate) {
+        Index index = new Index();
+        for (String field : candidate.fields()) {
+            boolean descending = field.endsWith(":-1");
+            index.on(descending ? field.substring(0, field.length() - 3) : field,
+                    descending ? Sort.Direction.DESC : Sort.Direction.ASC);
+        }
+        try {
+            String name = mongoTemplate.indexOps(candidate.collection()).createIndex(index);
+            failed.remove(candidate);
+            log.info("Created index {} on {} for fields {}", name, candidate.collection(), candidate.fields());
+        } catch (RuntimeException e) {
+            failed.add(candidate);
+            created.remove(candidate);
+            log.error("Failed to create index on {} for fields {}: {}", candidate.collection(), candidate.fields(), e.getMessage());
+        }
+    }
+
+    private List<List<String>> existingIndexFields(String collection) {
+        try {
+            return mongoTemplate.indexOps(collection).getIndexInfo().stream()
+                    .map(IndexInfo::getIndexFields)
+                    .map(fields -> fields.stream().map(IndexField::getKey).toList())
+                    .toList();
+        } catch (RuntimeException e) {
+            log.warn("Could not list indexes of {}: {}", collection, e.getMessage());
+            return List.of();
+        }
+    }
+
+    private static boolean isPrefix(List<String> candidate, List<String> indexFields) {
+        return indexFields.size() >= candidate.size() && indexFields.subList(0, candidate.size()).equals(candidate);
+    }
+
+    /**
+     * Builds the equality-sort-range candidate for the index-eligible prefix of the pipeline:
+     * the leading {@code $match} and {@code $sort} stages. A pipeline without such a prefix has
+     * no candidate.
+     */
+    static Candidate candidateFor(String collection, List<Document> pipeline) {
+        Set<String> equality = new LinkedHashSet<>();
+        Set<String> range = new LinkedHashSet<>();
+        Set<String> sort = new LinkedHashSet<>();
+        for (Document stage : pipeline) {
+            if (stage.get("$match") instanceof Map<?, ?> filter) {
+                classifyFilter(filter, equality, range);
+                continue;
+            }
+            if (stage.get("$sort") instanceof Map<?, ?> sortSpec) {
+                sortSpec.forEach((field, direction) -> sort.add(
+                        Integer.valueOf(-1).equals(direction) ? field + ":-1" : String.valueOf(field)));
+            }
+            break;
+        }
+        equality.remove("_id");
+        range.remove("_id");
+        List<String> fields = new ArrayList<>(equality);
+        sort.stream().filter(field -> !equality.contains(field)).forEach(fields::add);
+        range.stream().filter(field -> !fields.contains(field)).findFirst().ifPresent(fields::add);
+        return fields.isEmpty() ? null : new Candidate(collection, List.copyOf(fields));
+    }
+
+    /**
+     * @return the fields the first {@code $group} of the pipeline groups by
+     */
+    static Set<String> groupKeys(List<Document> pipeline) {
+        Set<String> group = new LinkedHashSet<>();
+        pipeline.stream()
+                .filter(stage -> stage.containsKey("$group"))
+                .findFirst()
+                .ifPresent(stage -> {
+                    if (stage.get("$group") instanceof Map<?, ?> groupSpec) {
+                        collectFieldReferences(groupSpec.get("_id"), group);
+                    }
+                });
+        return group;
+    }
+
+    private static void classifyFilter(Map<?, ?> filter, Set<String> equality, Set<String> range) {
+        for (Map.Entry<?, ?> entry : filter.entrySet()) {
+            String key = String.valueOf(entry.getKey());
+            if (key.equals("$and") && entry.getValue() instanceof List<?> clauses) {
+                clauses.stream()
+                        .filter(Map.class::isInstance)
+                        .forEach(clause -> classifyFilter((Map<?, ?>) clause, equality, range));
+            } else if (!key.startsWith("$")) {
+                if (entry.getValue() instanceof Map<?, ?> condition
+                        && condition.keySet().stream().anyMatch(operator -> String.valueOf(operator).startsWith("$"))) {
+                    if (condition.keySet().stream().allMatch(EQUALITY_OPERATORS::contains)) {
+                        equality.add(key);
+                    } else if (condition.keySet().stream().anyMatch(RANGE_OPERATORS::contains)) {
+                        range.add(key);
+                    }
+                } else {
+                    equality.add(key);
+                }
+            }
+        }
+    }
+
+    private static void collectFieldReferences(Object expression, Set<String> fields) {
+        if (expression instanceof String reference && reference.startsWith("$") && !reference.startsWith("$$")) {
+            fields.add(reference.substring(1));
+        } else if (expression instanceof Map<?, ?> map) {
+            map.values().forEach(value -> collectFieldReferences(value, fields));
+        } else if (expression instanceof List<?> list) {
+            list.forEach(value -> collectFieldReferences(value, fields));
+        }
+    }
+
+    record Candidate(String collection, List<String> fields) {
+
+        List<String> fieldNames() {
+            return fields.stream().map(field -> field.endsWith(":-1") ? field.substring(0, field.length() - 3) : field).toList();
+        }
+    }
+
+    private static final class CandidateStats {
+        private final LongAdder occurrences = new LongAdder();
+        private final LongAdder collectionScans = new LongAdder();
+        private final LongAdder documentsScanned = new LongAdder();
+    }
+}
@@ -0,0 +1,307 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.cache.DatasetGeneration;
+import com.ai.data.analyst.config.AsyncConfig;
+import com.ai.data.analyst.entity.IngestJob;
+import com.ai.data.analyst.metrics.AnalysisMetrics;
+import com.ai.data.analyst.model.IngestResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Runs CSV uploads as background jobs. The upload is spooled to disk and ingested on the
+ * bounded ingest executor, checkpointing the job after every written batch. Jobs interrupted by a
+ * shutdown or crash are resumed on startup, and failed jobs can be resumed on demand, from the
+ * last committed batch; the rowId-keyed upserts make replaying a partly written batch harmless.
+ * The upload of a failed job is kept for {@code ingest.jobs.failed-retention} so it can be
+ * resumed, and deleted after that.
+ */
+@Service
+@Slf4j
+public class IngestJobService {
+
+    private final MongoTemplate mongoTemplate;
+    private final CsvIngestService csvIngestService;
+    private final DatasetGeneration datasetGeneration;
+    private final AnalysisMetrics analysisMetrics;
+    private final AsyncTaskExecutor ingestExecutor;
+
+    @Value("${ingest.jobs.directory:${java.io.tmpdir}/ai-data-analyst/ingest}")
+    private Path directory;
+
+    @Value("${ingest.jobs.recent:20}")
+    private int recentJobs;
+
+    @Value("${ingest.parallel.enabled:false}")
+    private boolean parallelEnabled;
+
+    @Value("${ingest.jobs.failed-retention:7d}")
+    private Duration failedRetention;
+
+    @Autowired
+    public IngestJobService(MongoTemplate mongoTemplate,
+                            CsvIngestService csvIngestService,
+                            DatasetGeneration datasetGeneration,
+                            AnalysisMetrics analysisMetrics,
+                            @Qualifier(AsyncConfig.INGEST_EXECUTOR) AsyncTaskExecutor ingestExecutor) {
+        this.mongoTemplate = mongoTemplate;
+        this.csvIngestService = csvIngestService;
+        this.datasetGeneration = datasetGeneration;
+        this.analysisMetrics = analysisMetrics;
+        this.ingestExecutor = ingestExecutor;
+    }
+
+    /**
+     * Spools the upload and queues it for ingest.
+     *
+     * @param file     the uploaded CSV file
+     * @param parallel whether to parse on a worker pool, or null to use the configured ingest mode
+     * @param mode     how rows that are already stored are handled, or null for the configured mode
+     * @return the queued job
+     * @throws IOException           if the upload cannot be spooled
+     * @throws TaskRejectedException if the ingest queue is full
+     */
+    public IngestJob submit(MultipartFile file, Boolean parallel, CsvIngestService.Mode mode) throws IOException {
+        Files.createDirectories(directory);
+        Path spoolFile = directory.resolve(UUID.randomUUID() + ".csv");
+        file.transferTo(spoolFile);
+        try {
+            return submit(spoolFile, file.getOriginalFilename(), parallel, mode);
+        } catch (TaskRejectedException e) {
+            Files.deleteIfExists(spoolFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Queues a file that is already on disk for ingest. The job takes ownership of the file and
+     * deletes it once the ingest completed.
+     *
+     * @param spoolFile the CSV file, optionally gzip-compressed
+     * @param fileName  the name the client gave the file
+     * @param parallel  whether to parse on a worker pool, or null to use the configured ingest mode
+     * @param mode      how rows that are already stored are handled, or null for the configured mode
+     * @return the queued job
+     * @throws TaskRejectedException if the ingest queue is full
+     */
+    public IngestJob submit(Path spoolFile, String fileName, Boolean parallel, CsvIngestService.Mode mode) {
+        Instant now = Instant.now();
+        String id = UUID.randomUUID().toString();
+        IngestJob job = IngestJob.builder()
+                .id(id)
+                .fileName(fileName)
+                .status(IngestJob.Status.QUEUED)
+                .parallel(parallel == null ? parallelEnabled : parallel)
+                .mode(mode == null ? csvIngestService.getMode() : mode)
+                .spoolFile(spoolFile.toString())
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+        mongoTemplate.insert(job);
+        try {
+            enqueue(job);
+        } catch (TaskRejectedException e) {
+            mongoTemplate.remove(job);
+            throw e;
+        }
+        log.info("Queued ingest job {} for {}", id, job.getFileName());
+        return job;
+    }
+
+    public Optional<IngestJob> get(String id) {
+        return Optional.ofNullable(mongoTemplate.findById(id, IngestJob.class));
+    }
+
+    /**
+     * @return the most recently created jobs, newest first
+     */
+    public List<IngestJob> recent() {
+        return mongoTemplate.find(new Query().with(Sort.by(Sort.Direction.DESC, "createdAt")).limit(recentJobs), IngestJob.class);
+    }
+
+    /**
+     * Queues a failed job again; it continues after its last committed batch.
+     *
+     * @param id the job id
+     * @return the queued job, or empty if there is no such job
+     * @throws IllegalStateException if the job did not fail or its upload is gone
+     */
+    public Optional<IngestJob> resume(String id) {
+        Optional<IngestJob> found = get(id);
+        found.ifPresent(job -> {
+            if (job.getStatus() != IngestJob.Status.FAILED) {
+                throw new IllegalStateException("Job " + id + " is " + job.getStatus() + ", only failed jobs can be resumed");
+            }
+            if (job.getSpoolFile() == null || !Files.exists(Path.of(job.getSpoolFile()))) {
+                throw new IllegalStateException("The upload of job " + id + " is no longer available");
+            }
+            job.setStatus(IngestJob.Status.QUEUED);
+            job.setUpdatedAt(Instant.now());
+            mongoTemplate.save(job);
+            enqueue(job);
+        });
+        return found;
+    }
+
+    /**
+     * Requeues the jobs that were queued or running when the application stopped.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterrupted() {
+        List<IngestJob> interrupted;
+        try {
+            interrupted = mongoTemplate.find(new Query(Criteria.where("status")
+                    .in(IngestJob.Status.QUEUED, IngestJob.Status.RUNNING)), IngestJob.class);
+        } catch (RuntimeException e) {
+            log.warn("Could not look for interrupted ingest jobs: {}", e.getMessage());
+            return;
+        }
+        for (IngestJob job : interrupted) {
+            if (job.getSpoolFile() == null || !Files.exists(Path.of(job.getSpoolFile()))) {
+                fail(job, "The upload is no longer available to resume from");
+                continue;
+            }
+            log.info("Resuming ingest job {} after {} committed records", job.getId(), job.getRecordsCommitted());
+            try {
+                enqueue(job);
+            } catch (TaskRejectedException e) {
+                fail(job, "Ingest queue was full when resuming the job");
+            }
+        }
+    }
+
+    /**
+     * Deletes the uploads of jobs that failed more than {@code ingest.jobs.failed-retention} ago.
+     * Those jobs can no longer be resumed.
+     *
+     * @return the number of uploads deleted
+     */
+    @Scheduled(fixedDelayString = "${ingest.jobs.purge-interval:1h}")
+    public int purgeFailedUploads() {
+        List<IngestJob> expired;
+        try {
+            expired = mongoTemplate.find(new Query(Criteria.where("status").is(IngestJob.Status.FAILED)
+                    .and("finishedAt").lt(Instant.now().minus(failedRetention))
+                    .and("spoolFile").ne(null)), IngestJob.class);
+        } catch (RuntimeException e) {
+            log.warn("Could not look for expired ingest uploads: {}", e.getMessage());
+            return 0;
+        }
+        int purged = 0;
+        for (IngestJob job : expired) {
+            try {
+                // a job resumed since it was read keeps its upload
+                if (mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(job.getId()).and("status").is(IngestJob.Status.FAILED)),
+                        new Update().unset("spoolFile"), IngestJob.class).getModifiedCount() == 0) {
+                    continue;
+                }
+                Files.deleteIfExists(Path.of(job.getSpoolFile()));
+                purged++;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not delete the upload of ingest job {}: {}", job.getId(), e.getMessage());
+            }
+        }
+        if (purged > 0) {
+            log.info("Deleted the uploads of {} ingest jobs that failed more than {} ago", purged, failedRetention);
+        }
+        return purged;
+    }
+
+    private void enqueue(IngestJob job) {
+        ingestExecutor.execute(() -> run(job.getId()));
+    }
+
+    private void run(String id) {
+        IngestJob job = mongoTemplate.findById(id, IngestJob.class);
+        if (job == null || job.getStatus() == IngestJob.Status.COMPLETED || job.getStatus() == IngestJob.Status.FAILED) {
+            return;
+        }
+        Path spoolFile = Path.of(job.getSpoolFile());
+        long committedBefore = job.getRecordsCommitted();
+        long writtenBefore = job.getRowsWritten();
+        long updatedBefore = job.getRowsUpdated();
+        long start = System.nanoTime();
+        job.setStatus(IngestJob.Status.RUNNING);
+        job.setAttempts(job.getAttempts() + 1);
+        job.setStartedAt(Instant.now());
+        job.setUpdatedAt(job.getStartedAt());
+        mongoTemplate.save(job);
+
+        datasetGeneration.bump();
+        try (InputStream inputStream = Files.newInputStream(spoolFile)) {
+            IngestResult result = csvIngestService.ingest(inputStream, job.isParallel(), job.getMode(), committedBefore,
+                    (recordsCommitted, rowsParsed, rowsWritten, rowsUpdated) -> checkpoint(job, recordsCommitted,
+                            committedBefore + rowsParsed, writtenBefore + rowsWritten, updatedBefore + rowsUpdated, rowsWritten, start));
+            analysisMetrics.recordIngest(result, result.isParallel());
+            job.setStatus(IngestJob.Status.COMPLETED);
+            job.setDateOrder(result.getDateOrder());
+            job.setRowsUpdated(updatedBefore + result.getRowsUpdated());
+            job.setRowsDeleted(result.getRowsDeleted());
+            job.getWarnings().addAll(result.getWarnings());
+            job.setFinishedAt(Instant.now());
+            job.setUpdatedAt(job.getFinishedAt());
+            mongoTemplate.save(job);
+            Files.deleteIfExists(spoolFile);
+            log.info("Ingest job {} completed: {} of {} rows written", id, job.getRowsWritten(), job.getRowsParsed());
+        } catch (IOException | RuntimeException e) {
+            String message = e.getCause() == null ? e.getMessage() : e.getMessage() + ": " + e.getCause().getMessage();
+            log.error("Ingest job {} failed after {} committed records: {}", id, job.getRecordsCommitted(), message, e);
+            fail(job, message);
+        } finally {
+            datasetGeneration.bump();
+        }
+    }
+
+    private void checkpoint(IngestJob job, long recordsCommitted, long rowsParsed, long rowsWritten, long rowsUpdated,
+                            long rowsWrittenThisRun, long start) {
+        job.setRecordsCommitted(recordsCommitted);
+        job.setRowsParsed(rowsParsed);
+        job.setRowsWritten(rowsWritten);
+        job.setRowsUpdated(rowsUpdated);
+        job.setRowsPerSecond(rowsWrittenThisRun * 1e9 / Math.max(1, System.nanoTime() - start));
+        job.setUpdatedAt(Instant.now());
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(job.getId())), new Update()
+                .set("recordsCommitted", job.getRecordsCommitted())
+                .set("rowsParsed", job.getRowsParsed())
+                .set("rowsWritten", job.getRowsWritten())
+                .set("rowsUpdated", job.getRowsUpdated())
+                .set("rowsPerSecond", job.getRowsPerSecond())
+                .set("updatedAt", job.getUpdatedAt()), IngestJob.class);
+    }
+
+    private void fail(IngestJob job, String error) {
+        job.setStatus(IngestJob.Status.FAILED);
+        job.getErrors().add(error);
+        job.setFinishedAt(Instant.now());
+        job.setUpdatedAt(job.getFinishedAt());
+        try {
+            mongoTemplate.save(job);
+        } catch (RuntimeException e) {
+            log.error("Could not record the failure of ingest job {}: {}", job.getId(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.ai.data.analyst.service;
+
+/**
+ * Receives a checkpoint every time an ingest has durably written a prefix of the file, so an
+ * interrupted ingest can be resumed from the last committed batch.
+ */
+@FunctionalInterface
+public interface IngestProgressListener {
+
+    IngestProgressListener NONE = (recordsCommitted, rowsParsed, rowsWritten, rowsUpdated) -> {
+    };
+
+    /**
+     * @param recordsCommitted the number of records from the start of the file, including skipped
+     *                         ones, that are written; resuming may skip exactly these
+     * @param rowsParsed       the rows parsed by this run so far
+     * @param rowsWritten      the rows written by this run so far
+     * @param rowsUpdated      the rows among them that replaced a changed stored row
+     */
+    void onBatchCommitted(long recordsCommitted, long rowsParsed, long rowsWritten, long rowsUpdated);
+}
@@ -0,0 +1,290 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.exception.PipelineRejectedException;
+import com.ai.data.analyst.model.PipelinePlan;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks and rewrites generated pipelines before they run. Write and admin stages are refused,
+ * joins are limited to known collections, {@code $match} stages are moved ahead of stages they do
+ * not depend on, a {@code $limit} is appended when the model left the result unbounded, and an
+ * explain of the pipeline rejects full collection scans over very large collections.
+ */
+@Component
+@Slf4j
+public class PipelineGuard {
+
+    private static final Set<String> DISALLOWED_STAGES = Set.of(
+            "$out", "$merge", "$currentOp", "$listSessions", "$listLocalSessions", "$planCacheStats");
+
+    private static final Set<String> JOIN_STAGES = Set.of("$lookup", "$graphLookup", "$unionWith");
+
+    private static final Set<String> BLOCKING_STAGES = Set.of("$group", "$sort", "$bucket", "$bucketAuto", "$facet", "$sortByCount");
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${guard.max-result-rows:1000}")
+    private int maxResultRows;
+
+    @Value("${guard.max-joins:2}")
+    private int maxJoins;
+
+    @Value("${guard.max-time:30s}")
+    private Duration maxTime;
+
+    @Value("${guard.allow-disk-use:false}")
+    private boolean allowDiskUse;
+
+    @Value("${guard.explain.enabled:true}")
+    private boolean explainEnabled;
+
+    @Value("${guard.max-collection-scan-documents:5000000}")
+    private long maxCollectionScanDocuments;
+
+    @Value("${guard.allowed-collections:superStore,superStoreDaily,superStoreMonthly}")
+    private Set<String> allowedCollections;
+
+    @Autowired
+    public PipelineGuard(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Validates the pipeline and returns the rewritten stages. This is purely local and cheap, so
+     * it runs before the result cache lookup and the rewritten pipeline is what gets cached.
+     *
+     * @param collection the collection the pipeline runs against
+     * @param pipeline   the generated pipeline stages
+     * @return the rewritten pipeline
+     * @throws PipelineRejectedException if the pipeline uses a disallowed stage or too many joins
+     */
+    public List<Document> rewrite(String collection, List<Document> pipeline) {
+        if (!allowedCollections.contains(collection)) {
+            throw new PipelineRejectedException("Collection '" + collection + "' is not available; use one of " + allowedCollections);
+        }
+        int joins = checkStages(pipeline);
+        if (joins > maxJoins) {
+            throw new PipelineRejectedException("Pipeline uses " + joins + " $lookup/$graphLookup/$unionWith stages, at most "
+                    + maxJoins + " are allowed; aggregate within the collection instead");
+        }
+        List<Document> rewritten = pushMatchesEarlier(pipeline);
+        if (rewritten.stream().noneMatch(stage -> stage.containsKey("$limit"))) {
+            rewritten.add(new Document("$limit", maxResultRows));
+        }
+        return rewritten;
+    }
+
+    /**
+     * Explains the pipeline and rejects it if it would run a blocking stage over a full scan of a
+     * collection larger than {@code guard.max-collection-scan-documents}.
+     *
+     * @param collection the collection the pipeline runs against
+     * @param pipeline   the rewritten pipeline stages
+     * @return the plan summary, or null when explain is disabled or failed
+     * @throws PipelineRejectedException if the estimated cost is too high
+     */
+    public PipelinePlan checkCost(String collection, List<Document> pipeline) {
+        if (!explainEnabled) {
+            return null;
+        }
+        PipelinePlan plan;
+        try {
+            Document explain = mongoTemplate.getDb().runCommand(new Document("explain",
+                    new Document("aggregate", collection).append("pipeline", pipeline).append("cursor", new Document()))
+                    .append("verbosity", "queryPlanner"));
+            plan = summarize(explain);
+        } catch (RuntimeException e) {
+            // an invalid pipeline fails explain too; let the real execution report the error
+            log.debug("Explain failed, skipping cost check: {}", e.getMessage());
+            return null;
+        }
+        if (plan.isCollectionScan()) {
+            plan.setEstimatedDocuments(mongoTemplate.getCollection(collection).estimatedDocumentCount());
+            boolean blocking = pipeline.stream().anyMatch(stage -> stage.keySet().stream().anyMatch(BLOCKING_STAGES::contains));
+            if (blocking && plan.getEstimatedDocuments() > maxCollectionScanDocuments) {
+                throw new PipelineRejectedException("Pipeline would scan all " + plan.getEstimatedDocuments()
+                        + " documents of " + collection + " without an index before grouping or sorting; start with a selective $match");
+            }
+        }
+        return plan;
+    }
+
+    public AggregationOptions options() {
+        return AggregationOptions.builder()
+                .maxTime(maxTime)
+                .allowDiskUse(allowDiskUse)
+                .build();
+    }
+
+    private int checkStages(List<?> pipeline) {
+        int joins = 0;
+        for (Object stageObject : pipeline) {
+            if (!(stageObject instanceof Map<?, ?> stage) || stage.size() != 1) {
+                throw new PipelineRejectedException("Every pipeline stage must be an object with exactly one $-operator, got: " + stageObject);
+            }
+            String operator = String.valueOf(stage.keySet().iterator().next());
+            if (DISALLOWED_STAGES.contains(operator)) {
+                throw new PipelineRejectedException("Stage " + operator + " is not allowed; the pipeline must only read data");
+            }
+            if (JOIN_STAGES.contains(operator)) {
+                joins++;
+                Object spec = stage.get(operator);
+                String from = spec instanceof Map<?, ?> join ? String.valueOf(join.get(operator.equals("$unionWith") ? "coll" : "from"))
+                        : String.valueOf(spec);
+                if (!allowedCollections.contains(from)) {
+                    throw new PipelineRejectedException(operator + " from '" + from + "' is not allowed; available collections are " + allowedCollections);
+                }
+                if (spec instanceof Map<?, ?> join && join.get("pipeline") instanceof List<?> subPipeline) {
+                    joins += checkStages(subPipeline);
+                }
+            }
+            if (operator.equals("$facet") && stage.get(operator) instanceof Map<?, ?> facets) {
+                for (Object facet : facets.values()) {
+                    if (facet instanceof List<?> facetPipeline) {
+                        joins += checkStages(facetPipeline);
+                    }
+                }
+            }
+        }
+        return joins;
+    }
+
+    /**
+     * Moves every {@code $match} ahead of directly preceding {@code $sort} stages, and ahead of
+     * {@code $project}/{@code $addFields}/{@code $set} stages that neither compute nor drop a
+     * field the match filters on.
+     */
+    private List<Document> pushMatchesEarlier(List<Document> pipeline) {
+        List<Document> rewritten = new ArrayList<>(pipeline);
+        for (int i = 1; i < rewritten.size(); i++) {
+            Document match = rewritten.get(i);
+            if (!match.containsKey("$match") || !(match.get("$match") instanceof Map<?, ?> filter)) {
+                continue;
+            }
+            Set<String> fields = new HashSet<>();
+            if (!collectFilterFields(filter, fields)) {
+                continue;
+            }
+            int position = i;
+            while (position > 0 && canSwap(rewritten.get(position - 1), fields)) {
+                rewritten.set(position, rewritten.get(position - 1));
+                rewritten.set(position - 1, match);
+                position--;
+            }
+            if (position != i) {
+                log.debug("Moved $match on {} from stage {} to stage {}", fields, i, position);
+            }
+        }
+        return rewritten;
+    }
+
+    private static boolean canSwap(Document previous, Set<String> matchFields) {
+        if (previous.containsKey("$sort")) {
+            return true;
+        }
+        Object spec = previous.containsKey("$project") ? previous.get("$project")
+                : previous.containsKey("$addFields") ? previous.get("$addFields")
+                : previous.get("$set");
+        if (!(spec instanceof Map<?, ?> projection)) {
+            return false;
+        }
+        boolean project = previous.containsKey("$project");
+        boolean inclusion = project && projection.entrySet().stream()
+                .anyMatch(entry -> !"_id".equals(entry.getKey()) && !isExclusion(entry.getValue()));
+        for (String field : matchFields) {
+            if (inclusion) {
+                Object value = projection.get(field);
+                boolean plainlyIncluded = (value == null && "_id".equals(field))
+                        || Integer.valueOf(1).equals(value) || Boolean.TRUE.equals(value);
+                if (!plainlyIncluded) {
+                    return false;
+                }
+            } else if (projection.keySet().stream().anyMatch(key -> rootOf(String.valueOf(key)).equals(field))) {
+                // the stage computes or drops the field or a subfield of it, e.g. {"a.b": 0} for a match on a
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isExclusion(Object value) {
+        return Integer.valueOf(0).equals(value) || Boolean.FALSE.equals(value);
+    }
+
+    /**
+     * Collects the root field names a match filter reads.
+     *
+     * @return false if the filter uses operators whose dependencies cannot be determined statically
+     */
+    private static boolean collectFilterFields(Map<?, ?> filter, Set<String> fields) {
+        for (Map.Entry<?, ?> entry : filter.entrySet()) {
+            String key = String.valueOf(entry.getKey());
+            if (key.equals("$and") || key.equals("$or") || key.equals("$nor")) {
+                if (!(entry.getValue() instanceof List<?> clauses)) {
+                    return false;
+                }
+                for (Object clause : clauses) {
+                    if (!(clause instanceof Map<?, ?> clauseFilter) || !collectFilterFields(clauseFilter, fields)) {
+                        return false;
+                    }
+                }
+            } else if (key.startsWith("$")) {
+                // $expr, $text, $where and friends
+                return false;
+            } else {
+                fields.add(rootOf(key));
+            }
+        }
+        return true;
+    }
+
+    private static String rootOf(String path) {
+        int dot = path.indexOf('.');
+        return dot < 0 ? path : path.substring(0, dot);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PipelinePlan summarize(Document explain) {
+        Document queryPlanner = (Document) explain.get("queryPlanner");
+        if (queryPlanner == null && explain.get("stages") instanceof List<?> stages && !stages.isEmpty()
+                && stages.get(0) instanceof Document first && first.get("$cursor") instanceof Document cursor) {
+            queryPlanner = (Document) cursor.get("queryPlanner");
+        }
+        Document winningPlan = queryPlanner == null ? new Document() : (Document) queryPlanner.get("winningPlan", new Document());
+        List<String> indexes = new ArrayList<>();
+        boolean[] collectionScan = {false};
+        walkPlan(winningPlan, indexes, collectionScan);
+        return PipelinePlan.builder()
+                .collectionScan(collectionScan[0])
+                .indexesUsed(indexes)
+                .winningPlan(winningPlan)
+                .build();
+    }
+
+    private static void walkPlan(Object node, List<String> indexes, boolean[] collectionScan) {
+        if (node instanceof Document stage) {
+            if ("COLLSCAN".equals(stage.get("stage"))) {
+                collectionScan[0] = true;
+            }
+            if (stage.get("indexName") instanceof String indexName) {
+                indexes.add(indexName);
+            }
+            stage.values().forEach(child -> walkPlan(child, indexes, collectionScan));
+        } else if (node instanceof List<?> children) {
+            children.forEach(child -> walkPlan(child, indexes, collectionScan));
+        }
+    }
+}
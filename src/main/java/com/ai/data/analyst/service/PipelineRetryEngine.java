@@ -0,0 +1,268 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.exception.InvalidPipelineException;
+import com.ai.data.analyst.exception.PipelineRejectedException;
+import com.ai.data.analyst.handler.GeminiHandler;
+import com.ai.data.analyst.metrics.AnalysisMetrics;
+import com.ai.data.analyst.model.GeneratedPipeline;
+import com.ai.data.analyst.model.PipelineExecution;
+import com.ai.data.analyst.model.PipelineFailure;
+import com.ai.data.analyst.model.RepairStats;
+import com.ai.data.analyst.prompt.Prompt;
+import com.ai.data.analyst.prompt.PromptBuilder;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executes a generated pipeline and, when it fails, asks the model to correct it. Every attempt
+ * is parsed once and validated locally, so malformed pipelines and unknown stages, operators or
+ * fields are sent back for repair without a round trip to MongoDB. The loop stops after
+ * {@code analysis.retry.max-attempts} attempts, when the {@code analysis.retry.budget} latency
+ * budget is spent, or when the failure is not one the model can fix. For every failure class it
+ * counts how often a repair fixed it.
+ */
+@Component
+@Slf4j
+public class PipelineRetryEngine {
+
+    private final GeminiHandler geminiHandler;
+    private final PipelineValidator pipelineValidator;
+    private final AggregationExecutor aggregationExecutor;
+    private final AnalysisMetrics analysisMetrics;
+    private final PromptBuilder promptBuilder;
+
+    private final Map<PipelineFailure, FailureStats> failures = new EnumMap<>(PipelineFailure.class);
+
+    @Value("${analysis.retry.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${analysis.retry.budget:45s}")
+    private Duration budget;
+
+    @Autowired
+    public PipelineRetryEngine(GeminiHandler geminiHandler,
+                               PipelineValidator pipelineValidator,
+                               AggregationExecutor aggregationExecutor,
+                               AnalysisMetrics analysisMetrics,
+                               PromptBuilder promptBuilder) {
+        this.geminiHandler = geminiHandler;
+        this.pipelineValidator = pipelineValidator;
+        this.aggregationExecutor = aggregationExecutor;
+        this.analysisMetrics = analysisMetrics;
+        this.promptBuilder = promptBuilder;
+        for (PipelineFailure failure : PipelineFailure.values()) {
+            failures.put(failure, new FailureStats());
+        }
+    }
+
+    /**
+     * Executes the generated pipeline, repairing it until an attempt succeeds or the retries are
+     * exhausted.
+     *
+     * @param prompt       the analyst question, for the repair prompt
+     * @param jsonPipeline the pipeline the model generated
+     * @return the pipeline that succeeded and its results, or empty if no attempt succeeded
+     */
+    public Optional<PipelineExecution> execute(String prompt, String jsonPipeline) {
+        long deadline = System.nanoTime() + budget.toNanos();
+        return repairFrom(prompt, attempt(jsonPipeline), deadline);
+    }
+
+    /**
+     * Continues with the repairs of a pipeline whose first attempt already failed.
+     *
+     * @param prompt the analyst question, for the repair prompt
+     * @param failed the failed attempt
+     * @return the pipeline that succeeded and its results, or empty if no repair succeeded
+     */
+    public Optional<PipelineExecution> repair(String prompt, Attempt failed) {
+        return repairFrom(prompt, failed, System.nanoTime() + budget.toNanos());
+    }
+
+    /**
+     * Parses, validates and executes one pipeline. A failure is classified and counted but not
+     * repaired.
+     *
+     * @param jsonPipeline the pipeline the model generated
+     * @return the outcome of the attempt
+     */
+    public Attempt attempt(String jsonPipeline) {
+        String json = PipelineValidator.sanitize(jsonPipeline);
+        PipelineFailure failure;
+        String error;
+        try {
+            GeneratedPipeline pipeline = pipelineValidator.parse(json);
+            pipelineValidator.validate(pipeline);
+            log.info("Executing aggregation on {} with pipeline: {}", pipeline.getCollection(), pipeline.getStages());
+            List<Document> results = aggregationExecutor.execute(pipeline.getCollection(), pipeline.getStages());
+            log.info("Aggregation executed successfully, found {} results", results.size());
+            return new Attempt(json, results, null, null);
+        } catch (InvalidPipelineException e) {
+            failure = e.getFailure();
+            error = e.getMessage();
+        } catch (PipelineRejectedException e) {
+            failure = PipelineFailure.REJECTED;
+            error = e.getMessage();
+        } catch (RuntimeException e) {
+            failure = classify(e);
+            error = e.getMessage();
+        }
+        log.warn("Pipeline attempt failed ({}): {}", failure, error);
+        failures.get(failure).occurrences.increment();
+        analysisMetrics.recordPipelineFailure(failure);
+        return new Attempt(json, null, failure, error);
+    }
+
+    private Optional<PipelineExecution> repairFrom(String prompt, Attempt attempt, long deadline) {
+        PipelineFailure repairing = null;
+        for (int attempts = 1; ; attempts++) {
+            recordRepair(repairing, attempt.succeeded());
+            if (attempt.succeeded()) {
+                return Optional.of(attempt.execution());
+            }
+            if (!attempt.failure().isRepairable()) {
+                log.error("Pipeline failure {} cannot be repaired, returning empty results", attempt.failure());
+                return Optional.empty();
+            }
+            if (attempts >= maxAttempts) {
+                break;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                log.error("Retry budget of {} spent after {} attempts", budget, attempts);
+                break;
+            }
+            Optional<String> repaired = repair(prompt, attempt.pipeline(), attempt.error(), remaining);
+            if (repaired.isEmpty()) {
+                break;
+            }
+            repairing = attempt.failure();
+            attempt = attempt(repaired.get());
+        }
+        log.error("No pipeline attempt succeeded, returning empty results");
+        analysisMetrics.recordRetriesExhausted();
+        return Optional.empty();
+    }
+
+    /**
+     * How often each failure class occurred and how often a repair fixed it.
+     *
+     * @return the failure classes seen so far, most frequent first
+     */
+    public List<RepairStats> stats() {
+        List<RepairStats> stats = new ArrayList<>();
+        failures.forEach((failure, counts) -> {
+            long occurrences = counts.occurrences.sum();
+            if (occurrences == 0) {
+                return;
+            }
+            long repairs = counts.repairs.sum();
+            long fixed = counts.fixed.sum();
+            stats.add(RepairStats.builder()
+                    .failure(failure)
+                    .occurrences(occurrences)
+                    .repairs(repairs)
+                    .fixed(fixed)
+                    .fixRate(repairs == 0 ? 0 : (double) fixed / repairs)
+                    .build());
+        });
+        stats.sort((left, right) -> Long.compare(right.getOccurrences(), left.getOccurrences()));
+        return stats;
+    }
+
+    /**
+     * Asks the model to correct the pipeline, waiting at most for the rest of the budget.
+     */
+    private Optional<String> repair(String prompt, String jsonPipeline, String errorMessage, long remainingNanos) {
+        analysisMetrics.recordRetry();
+        Prompt validationPrompt = promptBuilder.repair(jsonPipeline, prompt, errorMessage);
+        log.debug("Validation prompt: {}", validationPrompt.text());
+        CompletableFuture<String> future = geminiHandler.generateContentAsync(GeminiHandler.CallType.REPAIR, validationPrompt, null);
+        try {
+            String updatedPipeline = PipelineValidator.sanitize(future.get(remainingNanos, TimeUnit.NANOSECONDS));
+            log.info("Updated JSON pipeline: {}", updatedPipeline);
+            return Optional.of(updatedPipeline);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            log.error("Retry budget of {} spent waiting for a pipeline repair", budget);
+        } catch (ExecutionException e) {
+            log.error("Error repairing the pipeline with Gemini: {}", e.getCause().toString());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Pipeline repair interrupted");
+        }
+        return Optional.empty();
+    }
+
+    private void recordRepair(PipelineFailure repaired, boolean fixed) {
+        if (repaired == null) {
+            return;
+        }
+        FailureStats stats = failures.get(repaired);
+        stats.repairs.increment();
+        if (fixed) {
+            stats.fixed.increment();
+        }
+        analysisMetrics.recordRepair(repaired, fixed);
+    }
+
+    private static PipelineFailure classify(RuntimeException exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoExecutionTimeoutException || cause instanceof QueryTimeoutException) {
+                return PipelineFailure.TIMEOUT;
+            }
+            if (cause instanceof DataAccessResourceFailureException || cause instanceof MongoSocketException
+                    || cause instanceof MongoTimeoutException) {
+                return PipelineFailure.UNAVAILABLE;
+            }
+        }
+        return PipelineFailure.EXECUTION_ERROR;
+    }
+
+    /**
+     * The outcome of executing one pipeline: its results, or why it failed.
+     *
+     * @param pipeline the sanitized pipeline JSON
+     * @param results  the results, or null if the attempt failed
+     * @param failure  why the attempt failed, or null
+     * @param error    the error message, written for the model
+     */
+    public record Attempt(String pipeline, List<Document> results, PipelineFailure failure, String error) {
+
+        public boolean succeeded() {
+            return failure == null;
+        }
+
+        public PipelineExecution execution() {
+            return new PipelineExecution(pipeline, results);
+        }
+    }
+
+    private static final class FailureStats {
+        private final LongAdder occurrences = new LongAdder();
+        private final LongAdder repairs = new LongAdder();
+        private final LongAdder fixed = new LongAdder();
+    }
+}
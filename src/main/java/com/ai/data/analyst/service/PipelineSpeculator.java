@@ -0,0 +1,185 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.handler.GeminiHandler;
+import com.ai.data.analyst.metrics.AnalysisMetrics;
+import com.ai.data.analyst.model.PipelineExecution;
+import com.ai.data.analyst.prompt.Prompt;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Speculative pipeline generation: several candidate pipelines are requested from the model at
+ * once, the extra ones with different sampling temperatures, and every candidate is validated and
+ * executed as soon as it arrives. The first candidate that returns results wins and the model
+ * calls still running for the others are cancelled.
+ *
+ * <p>The first candidate is the call the sequential path would make anyway, with the model's
+ * default temperature; every further candidate is sent with the next of
+ * {@code analysis.speculative.temperatures} and takes a permit from a pool of
+ * {@code analysis.speculative.max-extra-candidates} shared by all requests, so under load the
+ * fan-out shrinks back to a single call. When no candidate returns results, the first one that
+ * executed is used, and when none executed the first failure is handed to the retry engine for
+ * repair.
+ *
+ * <p>Candidates are evaluated on the calling thread in the order they arrive. The caller already
+ * runs on the analysis executor, and handing the evaluations to the same bounded pool could leave
+ * every pool thread waiting for work stuck in its queue. The wait for candidates is bounded by
+ * {@code analysis.retry.budget}.
+ */
+@Component
+@Slf4j
+public class PipelineSpeculator {
+
+    private final GeminiHandler geminiHandler;
+    private final PipelineRetryEngine pipelineRetryEngine;
+    private final AnalysisMetrics analysisMetrics;
+    private final Semaphore extraCandidates;
+
+    @Value("${analysis.speculative.enabled:false}")
+    private boolean enabled;
+
+    @Value("${analysis.speculative.fan-out:3}")
+    private int fanOut;
+
+    @Value("${analysis.speculative.temperatures:0.7,1.0}")
+    private List<Double> temperatures;
+
+    @Value("${analysis.retry.budget:45s}")
+    private Duration budget = Duration.ofSeconds(45);
+
+    @Autowired
+    public PipelineSpeculator(GeminiHandler geminiHandler,
+                              PipelineRetryEngine pipelineRetryEngine,
+                              AnalysisMetrics analysisMetrics,
+                              @Value("${analysis.speculative.max-extra-candidates:8}") int maxExtraCandidates) {
+        this.geminiHandler = geminiHandler;
+        this.pipelineRetryEngine = pipelineRetryEngine;
+        this.analysisMetrics = analysisMetrics;
+        this.extraCandidates = new Semaphore(maxExtraCandidates);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Races candidate pipelines for the question.
+     *
+     * @param prompt         the analyst question, for repairs
+     * @param pipelinePrompt the built pipeline generation prompt
+     * @return the winning pipeline and its results, or empty if no candidate could be executed
+     */
+    public Optional<PipelineExecution> execute(String prompt, Prompt pipelinePrompt) {
+        int extra = 0;
+        while (extra < fanOut - 1 && extraCandidates.tryAcquire()) {
+            extra++;
+        }
+        int candidates = 1 + extra;
+        analysisMetrics.recordSpeculativeFanOut(candidates);
+        log.info("Generating {} candidate pipelines", candidates);
+        BlockingQueue<Generated> arrivals = new LinkedBlockingQueue<>();
+        List<CompletableFuture<String>> generations = new ArrayList<>(candidates);
+        for (int i = 0; i < candidates; i++) {
+            Double temperature = i == 0 || temperatures.isEmpty() ? null : temperatures.get((i - 1) % temperatures.size());
+            CompletableFuture<String> generation = geminiHandler.generateContentAsync(
+                    GeminiHandler.CallType.PIPELINE, pipelinePrompt, temperature);
+            generations.add(generation);
+            int candidate = i;
+            generation.whenComplete((json, error) -> {
+                if (candidate > 0) {
+                    extraCandidates.release();
+                }
+                arrivals.add(new Generated(candidate, json, error));
+            });
+        }
+
+        long deadline = System.nanoTime() + budget.toNanos();
+        PipelineRetryEngine.Attempt[] attempts = new PipelineRetryEngine.Attempt[candidates];
+        int evaluated = 0;
+        try {
+            while (evaluated < candidates) {
+                Generated next = arrivals.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    log.error("Retry budget of {} spent with {} of {} candidates evaluated", budget, evaluated, candidates);
+                    break;
+                }
+                evaluated++;
+                PipelineRetryEngine.Attempt attempt = evaluate(next);
+                attempts[next.candidate()] = attempt;
+                if (attempt != null && attempt.succeeded() && !attempt.results().isEmpty()) {
+                    log.info("Candidate {} won with {} results", next.candidate(), attempt.results().size());
+                    analysisMetrics.recordSpeculativeCandidate("won");
+                    return Optional.of(attempt.execution());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Speculative pipeline generation interrupted");
+        } finally {
+            for (int i = evaluated; i < candidates; i++) {
+                analysisMetrics.recordSpeculativeCandidate("cancelled");
+            }
+            generations.forEach(generation -> generation.cancel(true));
+        }
+
+        PipelineRetryEngine.Attempt firstFailure = null;
+        for (int i = 0; i < candidates; i++) {
+            PipelineRetryEngine.Attempt attempt = attempts[i];
+            if (attempt != null && attempt.succeeded()) {
+                log.info("No candidate returned results, using candidate {}", i);
+                return Optional.of(attempt.execution());
+            }
+            if (attempt != null && firstFailure == null) {
+                firstFailure = attempt;
+            }
+        }
+        if (firstFailure == null) {
+            log.error("No candidate pipeline was generated");
+            return Optional.empty();
+        }
+        if (System.nanoTime() - deadline >= 0) {
+            return Optional.empty();
+        }
+        log.info("No candidate executed, repairing the first failure");
+        return pipelineRetryEngine.repair(prompt, firstFailure);
+    }
+
+    /**
+     * Validates and executes one candidate.
+     *
+     * @return the outcome, or null if the candidate could not be generated
+     */
+    private PipelineRetryEngine.Attempt evaluate(Generated generated) {
+        if (generated.error() != null) {
+            log.warn("Candidate {} could not be generated: {}", generated.candidate(), generated.error().toString());
+            analysisMetrics.recordSpeculativeCandidate("failed");
+            return null;
+        }
+        PipelineRetryEngine.Attempt attempt = pipelineRetryEngine.attempt(generated.json());
+        if (!attempt.succeeded()) {
+            analysisMetrics.recordSpeculativeCandidate("failed");
+        } else if (attempt.results().isEmpty()) {
+            analysisMetrics.recordSpeculativeCandidate("empty");
+        }
+        return attempt;
+    }
+
+    /**
+     * A candidate as it arrived from the model.
+     */
+    private record Generated(int candidate, String json, Throwable error) {
+    }
+}
@@ -0,0 +1,515 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.entity.SuperStore;
+import com.ai.data.analyst.exception.InvalidPipelineException;
+import com.ai.data.analyst.model.GeneratedPipeline;
+import com.ai.data.analyst.model.PipelineFailure;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.annotation.Transient;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Parses generated pipelines and checks them locally before anything touches MongoDB. Every
+ * stage, query operator and expression operator must exist, and every field a stage reads must
+ * exist in the target collection or be produced by an earlier stage. Fields are tracked from
+ * stage to stage; after a stage whose output cannot be determined statically, such as
+ * {@code $replaceRoot}, only the operators are checked.
+ */
+@Component
+public class PipelineValidator {
+
+    private static final int MAX_PROBLEMS = 5;
+
+    private static final Set<String> STAGES = Set.of(
+            "$addFields", "$bucket", "$bucketAuto", "$changeStream", "$collStats", "$count", "$currentOp", "$densify",
+            "$documents", "$facet", "$fill", "$geoNear", "$graphLookup", "$group", "$indexStats", "$limit",
+            "$listLocalSessions", "$listSessions", "$lookup", "$match", "$merge", "$out", "$planCacheStats", "$project",
+            "$redact", "$replaceRoot", "$replaceWith", "$sample", "$search", "$set", "$setWindowFields", "$skip",
+            "$sort", "$sortByCount", "$unionWith", "$unset", "$unwind");
+
+    private static final Set<String> QUERY_OPERATORS = Set.of(
+            "$eq", "$ne", "$gt", "$gte", "$lt", "$lte", "$in", "$nin", "$and", "$or", "$nor", "$not", "$exists",
+            "$type", "$regex", "$options", "$expr", "$mod", "$all", "$elemMatch", "$size", "$text", "$where",
+            "$jsonSchema", "$comment", "$geoWithin", "$geoIntersects", "$near", "$nearSphere", "$bitsAllSet",
+            "$bitsAllClear", "$bitsAnySet", "$bitsAnyClear");
+
+    private static final Set<String> EXPRESSION_OPERATORS = Set.of(
+            // arithmetic
+            "$abs", "$add", "$ceil", "$divide", "$exp", "$floor", "$ln", "$log", "$log10", "$mod", "$multiply",
+            "$pow", "$round", "$sqrt", "$subtract", "$trunc",
+            // array
+            "$arrayElemAt", "$arrayToObject", "$concatArrays", "$filter", "$first", "$firstN", "$in", "$indexOfArray",
+            "$isArray", "$last", "$lastN", "$map", "$maxN", "$minN", "$objectToArray", "$range", "$reduce",
+            "$reverseArray", "$size", "$slice", "$sortArray", "$zip",
+            // boolean, comparison and conditional
+            "$and", "$not", "$or", "$cmp", "$eq", "$gt", "$gte", "$lt", "$lte", "$ne", "$cond", "$ifNull", "$switch",
+            // date
+            "$dateAdd", "$dateDiff", "$dateFromParts", "$dateFromString", "$dateSubtract", "$dateToParts",
+            "$dateToString", "$dateTrunc", "$dayOfMonth", "$dayOfWeek", "$dayOfYear", "$hour", "$isoDayOfWeek",
+            "$isoWeek", "$isoWeekYear", "$millisecond", "$minute", "$month", "$second", "$week", "$year",
+            // object, variables and miscellaneous
+            "$literal", "$let", "$getField", "$setField", "$unsetField", "$mergeObjects", "$rand", "$sampleRate",
+            "$binarySize", "$bsonSize", "$function", "$meta",
+            // set
+            "$allElementsTrue", "$anyElementTrue", "$setDifference", "$setEquals", "$setIntersection",
+            "$setIsSubset", "$setUnion",
+            // string
+            "$concat", "$indexOfBytes", "$indexOfCP", "$ltrim", "$regexFind", "$regexFindAll", "$regexMatch",
+            "$replaceOne", "$replaceAll", "$rtrim", "$split", "$strLenBytes", "$strLenCP", "$strcasecmp", "$substr",
+            "$substrBytes", "$substrCP", "$toLower", "$toString", "$trim", "$toUpper",
+            // trigonometry
+            "$sin", "$cos", "$tan", "$asin", "$acos", "$atan", "$atan2", "$degreesToRadians", "$radiansToDegrees",
+            // type
+            "$convert", "$isNumber", "$toBool", "$toDate", "$toDecimal", "$toDouble", "$toInt", "$toLong",
+            "$toObjectId", "$type",
+            // accumulators
+            "$accumulator", "$addToSet", "$avg", "$bottom", "$bottomN", "$count", "$max", "$median", "$min",
+            "$percentile", "$push", "$stdDevPop", "$stdDevSamp", "$sum", "$top", "$topN",
+            // window functions
+            "$covariancePop", "$covarianceSamp", "$denseRank", "$derivative", "$documentNumber", "$expMovingAvg",
+            "$integral", "$linearFill", "$locf", "$rank", "$shift");
+
+    private static final String DATE_HINT = "; extended JSON such as {\"$date\": ...} is not supported, compare dates in $expr,"
+            + " e.g. {\"$expr\": {\"$gte\": [\"$orderDate\", {\"$dateFromString\": {\"dateString\": \"2016-01-01\"}}]}}";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Set<String>> collectionFields;
+
+    @Value("${analysis.validation.enabled:true}")
+    private boolean enabled = true;
+
+    public PipelineValidator() {
+        Set<String> superStore = new HashSet<>(Set.of("_id"));
+        for (Field field : SuperStore.class.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && !field.isAnnotationPresent(Transient.class)) {
+                superStore.add(field.getName());
+            }
+        }
+        Set<String> rollup = Set.of("_id", "region", "state", "category", "segment", "orderLines", "sales", "profit", "quantity");
+        Set<String> daily = new HashSet<>(rollup);
+        daily.add("orderDate");
+        Set<String> monthly = new HashSet<>(rollup);
+        monthly.add("orderMonth");
+        this.collectionFields = Map.of(
+                DataAnalystService.SUPER_STORE, Set.copyOf(superStore),
+                RollupService.DAILY, Set.copyOf(daily),
+                RollupService.MONTHLY, Set.copyOf(monthly));
+    }
+
+    /**
+     * Strips the markdown code fences the model tends to wrap its JSON in.
+     *
+     * @param response the model response
+     * @return the bare JSON
+     */
+    public static String sanitize(String response) {
+        return response.replace("```json", "").replace("```", "").trim();
+    }
+
+    /**
+     * Parses a generated pipeline. The model answers either with a plain array of stages, which
+     * runs against the superStore collection, or with an object naming the target collection,
+     * e.g. {@code {"collection": "superStoreMonthly", "pipeline": [...]}}.
+     *
+     * @param jsonPipeline the JSON representation of the aggregation pipeline
+     * @return the target collection and the pipeline stages
+     * @throws InvalidPipelineException if the JSON is malformed or has neither shape
+     */
+    public GeneratedPipeline parse(String jsonPipeline) {
+        JsonNode root;
+        try {
+            root = objectMapper.readTree(jsonPipeline);
+        } catch (JsonProcessingException e) {
+            throw new InvalidPipelineException(PipelineFailure.INVALID_JSON, "The response is not valid JSON: " + e.getOriginalMessage());
+        }
+        String collection = DataAnalystService.SUPER_STORE;
+        JsonNode stages = root;
+        if (root != null && root.isObject() && root.has("pipeline")) {
+            collection = resolveCollection(root.path("collection").asText(DataAnalystService.SUPER_STORE));
+            stages = root.get("pipeline");
+        }
+        if (stages == null || !stages.isArray()) {
+            throw new InvalidPipelineException(PipelineFailure.INVALID_SHAPE,
+                    "Expected a JSON array of stages or an object with \"collection\" and \"pipeline\" fields");
+        }
+        for (int i = 0; i < stages.size(); i++) {
+            if (!stages.get(i).isObject() || stages.get(i).size() != 1) {
+                throw new InvalidPipelineException(PipelineFailure.INVALID_SHAPE,
+                        "Stage " + (i + 1) + " must be an object with exactly one $-operator, got: " + stages.get(i));
+            }
+        }
+        List<Document> pipeline = objectMapper.convertValue(stages,
+                objectMapper.getTypeFactory().constructCollectionType(List.class, Document.class));
+        return new GeneratedPipeline(collection, pipeline);
+    }
+
+    /**
+     * Checks the stages, operators and field references of the pipeline.
+     *
+     * @param pipeline the parsed pipeline
+     * @throws InvalidPipelineException describing up to five problems, classified by the first
+     */
+    public void validate(GeneratedPipeline pipeline) {
+        if (!enabled) {
+            return;
+        }
+        Check check = new Check();
+        Set<String> fields = collectionFields.get(pipeline.getCollection());
+        check.pipeline(pipeline.getStages(), fields, "");
+        if (check.failure != null) {
+            throw new InvalidPipelineException(check.failure, String.join("; ", check.problems));
+        }
+    }
+
+    private static String resolveCollection(String collection) {
+        for (String known : List.of(DataAnalystService.SUPER_STORE, RollupService.DAILY, RollupService.MONTHLY)) {
+            if (known.equalsIgnoreCase(collection)) {
+                return known;
+            }
+        }
+        return collection;
+    }
+
+    private static String rootOf(String path) {
+        int dot = path.indexOf('.');
+        return dot < 0 ? path : path.substring(0, dot);
+    }
+
+    private static String suggestion(String name, Set<String> candidates) {
+        String bare = name.startsWith("$") ? name.substring(1) : name;
+        return candidates.stream()
+                .filter(candidate -> candidate.equalsIgnoreCase(name) || candidate.equalsIgnoreCase("$" + bare) || candidate.equalsIgnoreCase(bare))
+                .findFirst()
+                .map(candidate -> ", did you mean '" + candidate + "'?")
+                .orElse("");
+    }
+
+    /**
+     * One validation run. Field sets are null where the available fields are unknown.
+     */
+    private static final class Check {
+        private final Set<String> problems = new LinkedHashSet<>();
+        private PipelineFailure failure;
+
+        private void problem(PipelineFailure kind, String message) {
+            if (failure == null) {
+                failure = kind;
+            }
+            if (problems.size() < MAX_PROBLEMS) {
+                problems.add(message);
+            }
+        }
+
+        Set<String> pipeline(List<?> stages, Set<String> fields, String path) {
+            for (int i = 0; i < stages.size(); i++) {
+                String where = path + "stage " + (i + 1);
+                if (!(stages.get(i) instanceof Map<?, ?> stage) || stage.size() != 1) {
+                    problem(PipelineFailure.INVALID_SHAPE, where + " must be an object with exactly one $-operator");
+                    fields = null;
+                    continue;
+                }
+                Map.Entry<?, ?> entry = stage.entrySet().iterator().next();
+                String operator = String.valueOf(entry.getKey());
+                if (!STAGES.contains(operator)) {
+                    problem(PipelineFailure.UNKNOWN_STAGE, where + ": " + operator + " is not an aggregation stage" + suggestion(operator, STAGES));
+                    fields = null;
+                    continue;
+                }
+                fields = stage(operator, entry.getValue(), fields, where + " (" + operator + ")");
+            }
+            return fields;
+        }
+
+        private Set<String> stage(String operator, Object spec, Set<String> fields, String where) {
+            switch (operator) {
+                case "$match":
+                    if (spec instanceof Map<?, ?> filter) {
+                        filter(filter, fields, where);
+                    } else {
+                        problem(PipelineFailure.INVALID_SHAPE, where + " must be a filter object");
+                    }
+                    return fields;
+                case "$group":
+                    return group(spec, fields, where);
+                case "$project":
+                    return project(spec, fields, where);
+                case "$addFields":
+                case "$set":
+                    if (!(spec instanceof Map<?, ?> added)) {
+                        problem(PipelineFailure.INVALID_SHAPE, where + " must be an object of field expressions");
+                        return null;
+                    }
+                    added.values().forEach(value -> expression(value, fields, where));
+                    return plus(fields, added.keySet());
+                case "$unset":
+                    if (fields == null) {
+                        return null;
+                    }
+                    Set<String> remaining = new HashSet<>(fields);
+                    (spec instanceof List<?> list ? list : List.of(spec)).forEach(remaining::remove);
+                    return remaining;
+                case "$sort":
+                    if (spec instanceof Map<?, ?> sort) {
+                        sort.forEach((key, direction) -> {
+                            if (!(direction instanceof Map)) {
+                                field(String.valueOf(key), fields, where);
+                            }
+                        });
+                    } else {
+                        problem(PipelineFailure.INVALID_SHAPE, where + " must be an object of field directions");
+                    }
+                    return fields;
+                case "$count":
+                    return spec instanceof String name ? new HashSet<>(Set.of(name)) : null;
+                case "$unwind":
+                    Object path = spec instanceof Map<?, ?> unwind ? unwind.get("path") : spec;
+                    expression(path, fields, where);
+                    return spec instanceof Map<?, ?> unwind && unwind.get("includeArrayIndex") instanceof String index
+                            ? plus(fields, Set.of(index)) : fields;
+                case "$sortByCount":
+                    expression(spec, fields, where);
+                    return new HashSet<>(Set.of("_id", "count"));
+                case "$bucket":
+                case "$bucketAuto":
+                    if (!(spec instanceof Map<?, ?> bucket)) {
+                        return null;
+                    }
+                    expression(bucket.get("groupBy"), fields, where);
+                    if (!(bucket.get("output") instanceof Map<?, ?> output)) {
+                        return new HashSet<>(Set.of("_id", "count"));
+                    }
+                    output.values().forEach(value -> expression(value, fields, where));
+                    return plus(Set.of("_id"), output.keySet());
+                case "$setWindowFields":
+                    if (!(spec instanceof Map<?, ?> window)) {
+                        return null;
+                    }
+                    expression(window.get("partitionBy"), fields, where);
+                    if (window.get("sortBy") instanceof Map<?, ?> sortBy) {
+                        sortBy.keySet().forEach(key -> field(String.valueOf(key), fields, where));
+                    }
+                    if (window.get("output") instanceof Map<?, ?> output) {
+                        output.values().forEach(value -> expression(value, fields, where));
+                        return plus(fields, output.keySet());
+                    }
+                    return fields;
+                case "$lookup":
+                case "$graphLookup":
+                    if (!(spec instanceof Map<?, ?> lookup)) {
+                        return null;
+                    }
+                    // the foreign side is another collection, only the local references are checked
+                    if (lookup.get("localField") instanceof String localField) {
+                        field(localField, fields, where);
+                    }
+                    expression(lookup.get("startWith"), fields, where);
+                    if (lookup.get("let") instanceof Map<?, ?> variables) {
+                        variables.values().forEach(value -> expression(value, fields, where));
+                    }
+                    if (lookup.get("pipeline") instanceof List<?> subPipeline) {
+                        pipeline(subPipeline, null, where + " sub-pipeline ");
+                    }
+                    return lookup.get("as") instanceof String as ? plus(fields, Set.of(as)) : null;
+                case "$facet":
+                    if (!(spec instanceof Map<?, ?> facets)) {
+                        return null;
+                    }
+                    facets.forEach((name, facet) -> {
+                        if (facet instanceof List<?> facetPipeline) {
+                            pipeline(facetPipeline, fields, where + " facet '" + name + "' ");
+                        }
+                    });
+                    return plus(Set.of(), facets.keySet());
+                case "$replaceRoot":
+                    expression(spec instanceof Map<?, ?> replace ? replace.get("newRoot") : null, fields, where);
+                    return null;
+                case "$replaceWith":
+                    expression(spec, fields, where);
+                    return null;
+                case "$unionWith":
+                    if (spec instanceof Map<?, ?> union && union.get("pipeline") instanceof List<?> subPipeline) {
+                        pipeline(subPipeline, null, where + " sub-pipeline ");
+                    }
+                    return null;
+                case "$limit":
+                case "$skip":
+                case "$sample":
+                case "$redact":
+                case "$densify":
+                case "$fill":
+                    return fields;
+                default:
+                    return null;
+            }
+        }
+
+        private Set<String> group(Object spec, Set<String> fields, String where) {
+            if (!(spec instanceof Map<?, ?> group)) {
+                problem(PipelineFailure.INVALID_SHAPE, where + " must be an object with an _id and accumulators");
+                return null;
+            }
+            if (!group.containsKey("_id")) {
+                problem(PipelineFailure.INVALID_SHAPE, where + " needs an _id; use {\"_id\": null} to group all documents");
+            }
+            group.forEach((key, value) -> {
+                if (!"_id".equals(key) && !(value instanceof Map<?, ?> accumulator && accumulator.size() == 1
+                        && String.valueOf(accumulator.keySet().iterator().next()).startsWith("$"))) {
+                    problem(PipelineFailure.INVALID_SHAPE, where + ": field '" + key + "' must use an accumulator, e.g. {\"$sum\": \"$sales\"}");
+                }
+                expression(value, fields, where);
+            });
+            return plus(Set.of("_id"), group.keySet());
+        }
+
+        private Set<String> project(Object spec, Set<String> fields, String where) {
+            if (!(spec instanceof Map<?, ?> projection)) {
+                problem(PipelineFailure.INVALID_SHAPE, where + " must be an object of fields");
+                return null;
+            }
+            boolean exclusion = true;
+            boolean excludeId = false;
+            Set<String> output = new HashSet<>();
+            for (Map.Entry<?, ?> entry : projection.entrySet()) {
+                String key = String.valueOf(entry.getKey());
+                Object value = entry.getValue();
+                if (value instanceof Number || value instanceof Boolean) {
+                    boolean include = value instanceof Boolean flag ? flag : ((Number) value).doubleValue() != 0;
+                    if (key.equals("_id")) {
+                        excludeId = !include;
+                    } else if (include) {
+                        exclusion = false;
+                        field(key, fields, where);
+                        output.add(rootOf(key));
+                    }
+                    continue;
+                }
+                exclusion = false;
+                if (!(value instanceof Map<?, ?> nested && nested.keySet().stream().noneMatch(name -> String.valueOf(name).startsWith("$")))) {
+                    expression(value, fields, where);
+                }
+                output.add(rootOf(key));
+            }
+            if (exclusion) {
+                if (fields == null) {
+                    return null;
+                }
+                Set<String> remaining = new HashSet<>(fields);
+                projection.keySet().forEach(remaining::remove);
+                return remaining;
+            }
+            if (!excludeId) {
+                output.add("_id");
+            }
+            return output;
+        }
+
+        private void filter(Map<?, ?> filter, Set<String> fields, String where) {
+            for (Map.Entry<?, ?> entry : filter.entrySet()) {
+                String key = String.valueOf(entry.getKey());
+                if (key.equals("$and") || key.equals("$or") || key.equals("$nor")) {
+                    if (!(entry.getValue() instanceof List<?> clauses)) {
+                        problem(PipelineFailure.INVALID_SHAPE, where + ": " + key + " must be an array of filters");
+                        continue;
+                    }
+                    clauses.forEach(clause -> {
+                        if (clause instanceof Map<?, ?> clauseFilter) {
+                            filter(clauseFilter, fields, where);
+                        }
+                    });
+                } else if (key.equals("$expr")) {
+                    expression(entry.getValue(), fields, where);
+                } else if (key.startsWith("$")) {
+                    if (!QUERY_OPERATORS.contains(key)) {
+                        problem(PipelineFailure.UNKNOWN_OPERATOR, where + ": " + key + " is not a query operator"
+                                + (EXPRESSION_OPERATORS.contains(key) ? ", wrap expressions in $expr" : suggestion(key, QUERY_OPERATORS)));
+                    }
+                } else {
+                    field(key, fields, where);
+                    condition(entry.getValue(), where);
+                }
+            }
+        }
+
+        private void condition(Object value, String where) {
+            if (!(value instanceof Map<?, ?> condition)
+                    || condition.keySet().stream().noneMatch(key -> String.valueOf(key).startsWith("$"))) {
+                return;
+            }
+            condition.forEach((key, operand) -> {
+                String operator = String.valueOf(key);
+                if (!QUERY_OPERATORS.contains(operator)) {
+                    problem(PipelineFailure.UNKNOWN_OPERATOR, where + ": " + operator + " is not a query operator"
+                            + (operator.equals("$date") ? DATE_HINT : suggestion(operator, QUERY_OPERATORS)));
+                } else if (operator.equals("$not")) {
+                    condition(operand, where);
+                } else if (isExtendedDate(operand)) {
+                    problem(PipelineFailure.UNKNOWN_OPERATOR, where + ": " + operator + " compares with " + operand + DATE_HINT);
+                }
+            });
+        }
+
+        private static boolean isExtendedDate(Object operand) {
+            if (operand instanceof List<?> values) {
+                return values.stream().anyMatch(Check::isExtendedDate);
+            }
+            return operand instanceof Map<?, ?> map && map.containsKey("$date");
+        }
+
+        private void expression(Object value, Set<String> fields, String where) {
+            if (value instanceof String reference) {
+                if (reference.startsWith("$") && !reference.startsWith("$$")) {
+                    field(reference.substring(1), fields, where);
+                }
+            } else if (value instanceof Map<?, ?> map) {
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    String key = String.valueOf(entry.getKey());
+                    if (key.startsWith("$")) {
+                        if (!EXPRESSION_OPERATORS.contains(key)) {
+                            problem(PipelineFailure.UNKNOWN_OPERATOR, where + ": " + key + " is not an expression operator"
+                                    + (key.equals("$date") ? DATE_HINT : suggestion(key, EXPRESSION_OPERATORS)));
+                        }
+                        if (key.equals("$literal")) {
+                            continue;
+                        }
+                    }
+                    expression(entry.getValue(), fields, where);
+                }
+            } else if (value instanceof List<?> list) {
+                list.forEach(element -> expression(element, fields, where));
+            }
+        }
+
+        private void field(String path, Set<String> fields, String where) {
+            if (fields == null) {
+                return;
+            }
+            String root = rootOf(path);
+            if (!fields.contains(root)) {
+                problem(PipelineFailure.UNKNOWN_FIELD, where + " references unknown field '" + path + "'"
+                        + suggestion(root, fields) + " (available: " + new TreeSet<>(fields) + ")");
+            }
+        }
+
+        private static Set<String> plus(Set<String> fields, Set<?> added) {
+            if (fields == null) {
+                return null;
+            }
+            Set<String> result = new HashSet<>(fields);
+            added.forEach(name -> result.add(rootOf(String.valueOf(name))));
+            return result;
+        }
+    }
+}
@@ -1,40 +1,25 @@
 package com.ai.data.analyst.service;
 
+import com.ai.data.analyst.prompt.PromptTemplate;
+import com.ai.data.analyst.prompt.SchemaFieldSelector;
 import lombok.Getter;
 
 @Getter
 public enum PromptConstants {
     ANALYSIS_PROMPT("""
-            You are a data analyst working with a MongoDB collection named `superstore`. This collection contains the following fields:
-            
-            - rowId: Integer
-            - orderId: String
-            - orderDate: Date (Date, stored as BSON Date object, not string, e.g., ISODate("2016-08-10T18:30:00.000Z")) (formats: "yyyy-MM-dd")
-            - shipDate: Date (Date, stored as BSON Date object, not string, e.g., ISODate("2016-08-10T18:30:00.000Z")) (formats: "yyyy-MM-dd")
-            - shipMode: String (e.g., First Class, Second Class)
-            - customerId: String
-            - customerName: String
-            - segment: String (e.g., Consumer, Corporate)
-            - country: String
-            - city: String
-            - state: String
-            - postalCode: String
-            - region: String
-            - productId: String
-            - category: String (e.g., Furniture, Office Supplies)
-            - subCategory: String
-            - productName: String
-            - sales: Double
-            - quantity: Integer
-            - discount: Double (e.g., 0.1 for 10%%)
-            - profit: Double
-            
-            Return all **MongoDB aggregation pipeline** required for to below analysis, as an array of JSON objects, for example:
-            [
-              { "$match": { ... } },
-              { "$group": { ... } },
-              { "$sort": { ... } }
-            ]
+            You are a data analyst working with a MongoDB collection named `superStore`. This collection contains the following fields:
+            
+            """ + Schema.SUPER_STORE + """
+            
+            Return the collection to aggregate and all **MongoDB aggregation pipeline** required for to below analysis, as a JSON object, for example:
+            {
+              "collection": "superStoreMonthly",
+              "pipeline": [
+                { "$match": { ... } },
+                { "$group": { ... } },
+                { "$sort": { ... } }
+              ]
+            }
             1. Executive Summary (2–3 sentences)
                 Clear, direct answer to the question without any disclaimers.
             
@@ -49,16 +34,67 @@ public enum PromptConstants {
                 Action 2
             Do not include any explanations.
             
-            Assume the collection name is `superstore`.
+            The collection must be one of superStore, superStoreDaily or superStoreMonthly.
             
             Question: %s
             """),
     DATA_ANALYSIS_PROMPT("""
             You are a data analyst, provide a explanation for the following analyst question and data:
             Question: %s
-            Data: %s
+            Data (CSV of the first rows; "constant" lines hold values shared by every row and "summary" covers all rows):
+            %s
             format of response should look like this:
             
+            1. Executive Summary (2–3 sentences)
+                Clear, direct answer to the question without any disclaimers.
+            
+            2. Key Metrics (table or bullet points)
+                Metric Value
+            
+            3. Insight & Interpretation
+                Short paragraph explaining what the metrics mean in business terms.
+            
+            4. Recommendations
+                Action 1
+                Action 2
+            """),
+    BATCH_ANALYSIS_PROMPT("""
+            You are a data analyst working with a MongoDB collection named `superStore`. This collection contains the following fields:
+            
+            """ + Schema.SUPER_STORE + """
+            
+            Below are several numbered analyst questions. For every question return the collection to aggregate and the **MongoDB aggregation pipeline** that answers it, as one JSON array with one object per question in question order, for example:
+            [
+              {
+                "question": 1,
+                "collection": "superStoreMonthly",
+                "pipeline": [
+                  { "$match": { ... } },
+                  { "$group": { ... } }
+                ]
+              },
+              {
+                "question": 2,
+                "collection": "superStore",
+                "pipeline": [ ... ]
+              }
+            ]
+            
+            Do not include any explanations.
+            
+            Every collection must be one of superStore, superStoreDaily or superStoreMonthly.
+            
+            Questions:
+            %s
+            """),
+    BATCH_DATA_ANALYSIS_PROMPT("""
+            You are a data analyst, provide a explanation for each of the following numbered analyst questions and their data.
+            Data is given as CSV of the first rows; "constant" lines hold values shared by every row and "summary" covers all rows.
+            
+            %s
+            
+            Answer every question separately and in order. Start each answer with a line containing only "### Question <number>", followed by:
+            
             1. Executive Summary (2–3 sentences)
                 Clear, direct answer to the question without any disclaimers.
             
@@ -80,45 +116,77 @@ public enum PromptConstants {
             The pipeline failed with the following error: %s
             
             Here are the details of the MongoDB collection:
-            - Name: superstore
+            - Name: superStore
             - Fields:
-            - rowId: Integer
-            - orderId: String
-            - orderDate: Date (Date, stored as BSON Date object, not string, e.g., ISODate("2016-08-10T18:30:00.000Z")) (formats: "yyyy-MM-dd")
-            - shipDate: Date (Date, stored as BSON Date object, not string, e.g., ISODate("2016-08-10T18:30:00.000Z")) (formats: "yyyy-MM-dd")
-            - shipMode: String (e.g., First Class, Second Class)
-            - customerId: String
-            - customerName: String
-            - segment: String (e.g., Consumer, Corporate)
-            - country: String
-            - city: String
-            - state: String
-            - postalCode: String
-            - region: String
-            - productId: String
-            - category: String (e.g., Furniture, Office Supplies)
-            - subCategory: String
-            - productName: String
-            - sales: Double
-            - quantity: Integer
-            - discount: Double (e.g., 0.1 for 10%%)
-            - profit: Double
-            
-              Return all **MongoDB aggregation pipeline** required for to below analysis, as an array of JSON objects, for example:
-            [
-              { "$match": { ... } },
-              { "$group": { ... } },
-              { "$sort": { ... } }
-            ]
+            """ + Schema.SUPER_STORE + """
+            
+            Return the collection to aggregate and all **MongoDB aggregation pipeline** required for to below analysis, as a JSON object, for example:
+            {
+              "collection": "superStoreMonthly",
+              "pipeline": [
+                { "$match": { ... } },
+                { "$group": { ... } },
+                { "$sort": { ... } }
+              ]
+            }
             
             Do not include any explanations.
             
-            Assume the collection name is `superstore`.
+            The collection must be one of superStore, superStoreDaily or superStoreMonthly.
             """);
 
+    /**
+     * The superStore fields and the rollup collections, shared by the prompts that need the schema.
+     * A holder class, since enum constants cannot refer to the enum's own static fields.
+     */
+    private static final class Schema {
+        private static final String SUPER_STORE = """
+                - rowId: Integer
+                - orderId: String
+                - orderDate: Date (Date, stored as BSON Date object, not string, e.g., ISODate("2016-08-10T18:30:00.000Z")) (formats: "yyyy-MM-dd")
+                - shipDate: Date (Date, stored as BSON Date object, not string, e.g., ISODate("2016-08-10T18:30:00.000Z")) (formats: "yyyy-MM-dd")
+                - shipMode: String (e.g., First Class, Second Class)
+                - customerId: String
+                - customerName: String
+                - segment: String (e.g., Consumer, Corporate)
+                - country: String
+                - city: String
+                - state: String
+                - postalCode: String
+                - region: String
+                - productId: String
+                - category: String (e.g., Furniture, Office Supplies)
+                - subCategory: String
+                - productName: String
+                - sales: Double
+                - quantity: Integer
+                - discount: Double (e.g., 0.1 for 10%%)
+                - profit: Double
+                
+                Pre-aggregated rollups of the same data are also available. Prefer them whenever the question only needs sales, profit, quantity or order line counts by date, region, state, category or segment, because they are much smaller:
+                
+                - superStoreDaily: one document per orderDate, region, state, category and segment
+                  - orderDate: Date (the order day, same representation as in superStore)
+                  - region, state, category, segment: String
+                  - orderLines: Long (number of order lines)
+                  - sales: Double (sum)
+                  - profit: Double (sum)
+                  - quantity: Long (sum)
+                - superStoreMonthly: the same fields, with orderMonth (Date of the first day of the month) instead of orderDate
+                
+                Rollup values are totals, so combine them with $sum; per order line averages are the summed value divided by the summed orderLines. Use superStore for everything else (customers, products, cities, ship modes, discounts, distinct orders).
+                """;
+    }
+
     private final String prompt;
 
+    /**
+     * The prompt parsed once, for the prompt builder.
+     */
+    private final PromptTemplate template;
+
     PromptConstants(String prompt) {
         this.prompt = prompt;
+        this.template = PromptTemplate.compile(prompt, SchemaFieldSelector.FIELDS);
     }
 }
@@ -0,0 +1,241 @@
+package com.ai.data.analyst.service;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Turns aggregation results into a compact, size-bounded text block for the narrative prompt.
+ * Nested documents are flattened into dotted columns, all-null and constant columns are lifted
+ * out of the table, at most {@code max-rows} rows are rendered as CSV and summary statistics are
+ * computed over every row, so the model still sees totals for results it only partially reads.
+ */
+@Component
+public class ResultCompactor {
+
+    private static final MathContext SIGNIFICANT_DIGITS = new MathContext(8);
+    private static final String SUMMARY = "summary:\n";
+    private static final String SUMMARY_TRUNCATED = "... summary truncated\n";
+
+    private final int maxRows;
+    private final int maxChars;
+    private final int topK;
+
+    public ResultCompactor(@Value("${analysis.compaction.max-rows:50}") int maxRows,
+                           @Value("${analysis.compaction.max-chars:8000}") int maxChars,
+                           @Value("${analysis.compaction.top-k:5}") int topK) {
+        this.maxRows = maxRows;
+        this.maxChars = maxChars;
+        this.topK = topK;
+    }
+
+    /**
+     * Compacts the aggregation results.
+     *
+     * @param results the aggregation results
+     * @return the compact encoding, never longer than {@code max-chars} once the row count fits;
+     *         constants and the table take at most half of it, truncation notes included
+     */
+    public String compact(List<Document> results) {
+        if (results == null || results.isEmpty()) {
+            return "rows: 0";
+        }
+        List<Map<String, Object>> rows = new ArrayList<>(results.size());
+        Map<String, Column> columns = new LinkedHashMap<>();
+        for (Document result : results) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            flatten("", result, row);
+            rows.add(row);
+            row.forEach((name, value) -> columns.computeIfAbsent(name, Column::new).add(value));
+        }
+        columns.values().forEach(column -> column.nulls = rows.size() - column.count);
+
+        List<Column> tableColumns = new ArrayList<>();
+        List<String> constants = new ArrayList<>();
+        StringBuilder out = new StringBuilder(Math.min(maxChars, 1024));
+        out.append("rows: ").append(rows.size());
+        if (rows.size() > maxRows) {
+            out.append(" (showing first ").append(maxRows).append(')');
+        }
+        out.append('\n');
+        for (Column column : columns.values()) {
+            if (column.count == 0) {
+                continue;
+            }
+            if (rows.size() > 1 && column.nulls == 0 && column.frequencies.size() == 1) {
+                constants.add("constant: " + column.name + '=' + format(column.first) + '\n');
+            } else {
+                tableColumns.add(column);
+            }
+        }
+
+        // constants and the table share the first half of the budget, the summary gets the rest
+        int tableLimit = maxChars / 2;
+        appendWithin(out, constants, tableLimit, skipped -> "... " + skipped + " more constant columns truncated\n");
+        if (!tableColumns.isEmpty()) {
+            String header = String.join(",", tableColumns.stream().map(column -> escape(column.name)).toList()) + '\n';
+            List<String> lines = new ArrayList<>();
+            for (Map<String, Object> row : rows.subList(0, Math.min(rows.size(), maxRows))) {
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < tableColumns.size(); i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    Object value = row.get(tableColumns.get(i).name);
+                    if (value != null) {
+                        line.append(escape(format(value)));
+                    }
+                }
+                lines.add(line.append('\n').toString());
+            }
+            // rows past max-rows are already announced by the first line
+            int hidden = rows.size() - lines.size();
+            if (out.length() + header.length() <= tableLimit) {
+                out.append(header);
+                appendWithin(out, lines, tableLimit, skipped -> "... " + (skipped + hidden) + " more rows truncated\n");
+            } else {
+                appendNote(out, "... table of " + rows.size() + " rows truncated\n", tableLimit);
+            }
+        }
+
+        if (out.length() + SUMMARY.length() + SUMMARY_TRUNCATED.length() <= maxChars) {
+            out.append(SUMMARY);
+            List<String> summaries = tableColumns.stream().map(column -> column.summary(topK, rows.size())).toList();
+            appendWithin(out, summaries, maxChars, skipped -> SUMMARY_TRUNCATED);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Appends lines while the output stays within the limit and ends with the truncation note for
+     * the lines that did not fit. Room for the note is held back before every line but the last.
+     */
+    private static void appendWithin(StringBuilder out, List<String> lines, int limit, IntFunction<String> truncated) {
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            int reserve = i + 1 < lines.size() ? truncated.apply(lines.size() - i - 1).length() : 0;
+            if (out.length() + line.length() + reserve > limit) {
+                appendNote(out, truncated.apply(lines.size() - i), limit);
+                return;
+            }
+            out.append(line);
+        }
+    }
+
+    private static void appendNote(StringBuilder out, String note, int limit) {
+        if (out.length() + note.length() <= limit) {
+            out.append(note);
+        }
+    }
+
+    private static void flatten(String prefix, Map<String, Object> document, Map<String, Object> row) {
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            String name = prefix.isEmpty() ? entry.getKey() : prefix + "." + entry.getKey();
+            if (entry.getValue() instanceof Map<?, ?> nested) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> nestedDocument = (Map<String, Object>) nested;
+                flatten(name, nestedDocument, row);
+            } else if (entry.getValue() != null) {
+                row.put(name, entry.getValue());
+            }
+        }
+    }
+
+    private static String format(Object value) {
+        if (value instanceof Double || value instanceof Float || value instanceof BigDecimal) {
+            double number = ((Number) value).doubleValue();
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                return Double.toString(number);
+            }
+            return new BigDecimal(number).round(SIGNIFICANT_DIGITS).stripTrailingZeros().toPlainString();
+        }
+        if (value instanceof Number number) {
+            return number.toString();
+        }
+        if (value instanceof Date date) {
+            return date.toInstant().toString();
+        }
+        if (value instanceof Collection<?> collection) {
+            String joined = String.join("|", collection.stream().map(ResultCompactor::format).toList());
+            return joined.length() > 200 ? joined.substring(0, 200) + "..." : joined;
+        }
+        return value.toString();
+    }
+
+    private static String escape(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Running statistics for one flattened column.
+     */
+    private static final class Column {
+        private static final int MAX_TRACKED_VALUES = 10_000;
+
+        private final String name;
+        private final Map<String, Integer> frequencies = new HashMap<>();
+        private Object first;
+        private int count;
+        private int nulls;
+        private int numeric;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        Column(String name) {
+            this.name = name;
+        }
+
+        void add(Object value) {
+            if (first == null) {
+                first = value;
+            }
+            count++;
+            if (value instanceof Number number) {
+                double d = number.doubleValue();
+                numeric++;
+                sum += d;
+                min = Math.min(min, d);
+                max = Math.max(max, d);
+            }
+            String key = format(value);
+            if (frequencies.size() < MAX_TRACKED_VALUES || frequencies.containsKey(key)) {
+                frequencies.merge(key, 1, Integer::sum);
+            }
+        }
+
+        String summary(int topK, int rows) {
+            StringBuilder summary = new StringBuilder(name).append(": count=").append(count);
+            if (numeric == count) {
+                summary.append(" sum=").append(format(sum))
+                        .append(" min=").append(format(min))
+                        .append(" max=").append(format(max))
+                        .append(" mean=").append(format(sum / count));
+            } else {
+                summary.append(" distinct=").append(frequencies.size());
+                if (frequencies.size() < rows) {
+                    summary.append(" top=");
+                    frequencies.entrySet().stream()
+                            .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                            .limit(topK)
+                            .forEach(entry -> summary.append(entry.getKey()).append('(').append(entry.getValue()).append(") "));
+                }
+            }
+            return summary.toString().stripTrailing() + '\n';
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.cache.DatasetGeneration;
+import com.ai.data.analyst.entity.SuperStore;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Maintains pre-aggregated rollups of the superStore collection. Every ingested batch is grouped
+ * in memory by day or month and region, state, category and segment, and the totals are added to
+ * the rollup documents with upserts, so analyst questions over these dimensions can aggregate a
+ * few thousand rollup documents instead of every order line.
+ */
+@Service
+@Slf4j
+public class RollupService {
+
+    public static final String DAILY = "superStoreDaily";
+    public static final String MONTHLY = "superStoreMonthly";
+
+    private final MongoTemplate mongoTemplate;
+    private final DatasetGeneration datasetGeneration;
+
+    @Value("${rollup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ingest.batch-size:1000}")
+    private int batchSize;
+
+    @Autowired
+    public RollupService(MongoTemplate mongoTemplate, DatasetGeneration datasetGeneration) {
+        this.mongoTemplate = mongoTemplate;
+        this.datasetGeneration = datasetGeneration;
+    }
+
+    /**
+     * Adds the rows to the daily and monthly rollups.
+     *
+     * @param rows rows that were just inserted into the superStore collection
+     */
+    public void apply(List<SuperStore> rows) {
+        if (!enabled || rows.isEmpty()) {
+            return;
+        }
+        upsert(DAILY, "orderDate", rows, SuperStore::getOrderDate, 1);
+        upsert(MONTHLY, "orderMonth", rows, row -> row.getOrderDate() == null ? null : row.getOrderDate().withDayOfMonth(1), 1);
+    }
+
+    /**
+     * Subtracts the rows from the daily and monthly rollups and drops rollup documents that no
+     * order line contributes to any more.
+     *
+     * @param rows rows that were just replaced or deleted in the superStore collection, with
+     *             their stored values
+     */
+    public void remove(List<SuperStore> rows) {
+        if (!enabled || rows.isEmpty()) {
+            return;
+        }
+        upsert(DAILY, "orderDate", rows, SuperStore::getOrderDate, -1);
+        upsert(MONTHLY, "orderMonth", rows, row -> row.getOrderDate() == null ? null : row.getOrderDate().withDayOfMonth(1), -1);
+        Query empty = new Query(Criteria.where("orderLines").lte(0));
+        mongoTemplate.remove(empty, DAILY);
+        mongoTemplate.remove(empty, MONTHLY);
+    }
+
+    /**
+     * Drops the rollups and recomputes them from the superStore collection, for data that was
+     * loaded before the rollups existed.
+     *
+     * @return the number of rows rolled up
+     */
+    public long rebuild() {
+        mongoTemplate.dropCollection(DAILY);
+        mongoTemplate.dropCollection(MONTHLY);
+        long rows = 0;
+        List<SuperStore> batch = new ArrayList<>(batchSize);
+        try (Stream<SuperStore> stream = mongoTemplate.stream(new Query(), SuperStore.class)) {
+            for (SuperStore row : (Iterable<SuperStore>) stream::iterator) {
+                batch.add(row);
+                if (batch.size() == batchSize) {
+                    apply(batch);
+                    rows += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        apply(batch);
+        rows += batch.size();
+        datasetGeneration.bump();
+        log.info("Rebuilt rollups from {} rows", rows);
+        return rows;
+    }
+
+    private void upsert(String collection, String periodField, List<SuperStore> rows, Function<SuperStore, LocalDate> period,
+                        int sign) {
+        Map<Document, Totals> groups = new LinkedHashMap<>();
+        for (SuperStore row : rows) {
+            Document key = new Document(periodField, mongoTemplate.getConverter().convertToMongoType(period.apply(row)))
+                    .append("region", row.getRegion())
+                    .append("state", row.getState())
+                    .append("category", row.getCategory())
+                    .append("segment", row.getSegment());
+            groups.computeIfAbsent(key, k -> new Totals()).add(row);
+        }
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection);
+        groups.forEach((key, totals) -> {
+            Update update = new Update()
+                    .inc("orderLines", sign * totals.orderLines)
+                    .inc("sales", sign * totals.sales)
+                    .inc("profit", sign * totals.profit)
+                    .inc("quantity", sign * totals.quantity);
+            key.forEach(update::setOnInsert);
+            bulkOperations.upsert(new Query(Criteria.where("_id").is(key)), update);
+        });
+        bulkOperations.execute();
+    }
+
+    private static final class Totals {
+        private long orderLines;
+        private double sales;
+        private double profit;
+        private long quantity;
+
+        void add(SuperStore row) {
+            orderLines++;
+            sales += row.getSales() == null ? 0 : row.getSales();
+            profit += row.getProfit() == null ? 0 : row.getProfit();
+            quantity += row.getQuantity() == null ? 0 : row.getQuantity();
+        }
+    }
+}
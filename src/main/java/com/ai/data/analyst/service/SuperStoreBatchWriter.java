@@ -0,0 +1,214 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.entity.SuperStore;
+import com.ai.data.analyst.storage.CompactStorage;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Component
+@Slf4j
+public class SuperStoreBatchWriter {
+
+    /**
+     * The content hash of every row written by a delta ingest, keyed by rowId.
+     */
+    public static final String HASHES = "superStoreHashes";
+
+    private final MongoTemplate mongoTemplate;
+    private final RollupService rollupService;
+    private final CompactStorage compactStorage;
+
+    @Value("${ingest.batch-size:1000}")
+    private int batchSize = 1000;
+
+    @Autowired
+    public SuperStoreBatchWriter(MongoTemplate mongoTemplate, RollupService rollupService, CompactStorage compactStorage) {
+        this.mongoTemplate = mongoTemplate;
+        this.rollupService = rollupService;
+        this.compactStorage = compactStorage;
+    }
+
+    /**
+     * Writes a batch of rows with a single unordered bulk write of upserts keyed on the rowId.
+     * Rows whose rowId already exists are left unchanged, so writing the same batch again, e.g.
+     * when a job resumes after a crash, is a no-op. Only the newly inserted rows are added to the
+     * rollups. In compact mode the rows are encoded and written to the compact collection.
+     *
+     * @param batch the rows to write
+     * @return the number of rows inserted
+     */
+    public int write(List<SuperStore> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, compactStorage.collection());
+        for (SuperStore row : batch) {
+            insertIfAbsent(bulkOperations, row);
+        }
+        compactStorage.refreshView();
+        BulkWriteResult result = bulkOperations.execute();
+        int skipped = batch.size() - result.getUpserts().size();
+        if (skipped > 0) {
+            log.warn("Skipped {} rows already present in the collection", skipped);
+            List<SuperStore> inserted = new ArrayList<>(result.getUpserts().size());
+            for (BulkWriteUpsert upsert : result.getUpserts()) {
+                inserted.add(batch.get(upsert.getIndex()));
+            }
+            rollupService.apply(inserted);
+        } else {
+            rollupService.apply(batch);
+        }
+        return result.getUpserts().size();
+    }
+
+    /**
+     * Writes only the rows of the batch that are new or changed. The content hashes of the batch
+     * are compared with the stored hashes in one query; only rows without a matching hash are
+     * read in full, so rows loaded before hashes were kept are compared by hashing the stored
+     * row. New rows are inserted, changed rows replaced, and the rollups are corrected by the
+     * difference. Writing the same batch again finds every row unchanged.
+     *
+     * @param batch the rows to write, with their content hashes
+     * @return how many rows were inserted, updated and left unchanged; earlier rows of a rowId
+     *         repeated within the batch are in none of the counts
+     */
+    public DeltaWrite writeDelta(List<SuperStore> batch) {
+        if (batch.isEmpty()) {
+            return new DeltaWrite(0, 0, 0);
+        }
+        // a rowId repeated within the batch keeps its last row
+        Map<Integer, SuperStore> rows = new LinkedHashMap<>();
+        for (SuperStore row : batch) {
+            if (row.getContentHash() == null) {
+                row.setContentHash(ContentHash.of(row));
+            }
+            rows.put(row.getRowId(), row);
+        }
+        Map<Integer, Long> storedHashes = new HashMap<>();
+        mongoTemplate.getCollection(HASHES)
+                .find(new Document("_id", new Document("$in", new ArrayList<>(rows.keySet()))))
+                .forEach(document -> storedHashes.put(document.getInteger("_id"), document.getLong("hash")));
+        List<Integer> unmatched = new ArrayList<>();
+        List<Integer> matched = new ArrayList<>();
+        rows.forEach((rowId, row) -> (row.getContentHash().equals(storedHashes.get(rowId)) ? matched : unmatched).add(rowId));
+        if (!matched.isEmpty() && mongoTemplate.count(new Query(Criteria.where("_id").in(matched)), compactStorage.collection()) < matched.size()) {
+            // rows were deleted behind the hashes' back, so compare the whole batch against the rows
+            unmatched.addAll(matched);
+        }
+        int unchanged = rows.size() - unmatched.size();
+        if (unmatched.isEmpty()) {
+            return new DeltaWrite(0, 0, unchanged);
+        }
+
+        Map<Integer, SuperStore> stored = new HashMap<>();
+        for (SuperStore row : compactStorage.find(unmatched)) {
+            stored.put(row.getRowId(), row);
+        }
+        List<SuperStore> inserted = new ArrayList<>();
+        List<SuperStore> updated = new ArrayList<>();
+        List<SuperStore> previous = new ArrayList<>();
+        BulkOperations rowOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, compactStorage.collection());
+        BulkOperations hashOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, HASHES);
+        for (Integer rowId : unmatched) {
+            SuperStore row = rows.get(rowId);
+            SuperStore old = stored.get(rowId);
+            if (old == null) {
+                insertIfAbsent(rowOperations, row);
+                inserted.add(row);
+            } else if (ContentHash.of(old) != row.getContentHash()) {
+                rowOperations.replaceOne(new Query(Criteria.where("_id").is(rowId)), compactStorage.document(row));
+                updated.add(row);
+                previous.add(old);
+            } else {
+                unchanged++;
+            }
+            hashOperations.upsert(new Query(Criteria.where("_id").is(rowId)), new Update().set("hash", row.getContentHash()));
+        }
+        if (!inserted.isEmpty() || !updated.isEmpty()) {
+            compactStorage.refreshView();
+            rowOperations.execute();
+        }
+        hashOperations.execute();
+        rollupService.remove(previous);
+        inserted.addAll(updated);
+        rollupService.apply(inserted);
+        return new DeltaWrite(inserted.size() - updated.size(), updated.size(), unchanged);
+    }
+
+    /**
+     * Deletes every row whose rowId is not in the set, with its content hash, and subtracts it
+     * from the rollups.
+     *
+     * @param rowIds the rowIds to keep
+     * @return the number of rows deleted
+     */
+    public long deleteMissing(BitSet rowIds) {
+        List<Integer> missing = new ArrayList<>();
+        long deleted = 0;
+        for (Document document : mongoTemplate.getCollection(compactStorage.collection())
+                .find().projection(new Document("_id", 1))) {
+            if (document.get("_id") instanceof Integer rowId && (rowId < 0 || !rowIds.get(rowId))) {
+                missing.add(rowId);
+            }
+            if (missing.size() == batchSize) {
+                deleted += delete(missing);
+                missing.clear();
+            }
+        }
+        deleted += delete(missing);
+        return deleted;
+    }
+
+    private long delete(List<Integer> rowIds) {
+        if (rowIds.isEmpty()) {
+            return 0;
+        }
+        Query query = new Query(Criteria.where("_id").in(rowIds));
+        List<SuperStore> removed = compactStorage.find(rowIds);
+        mongoTemplate.remove(query, compactStorage.collection());
+        mongoTemplate.remove(query, HASHES);
+        rollupService.remove(removed);
+        return removed.size();
+    }
+
+    private void insertIfAbsent(BulkOperations bulkOperations, SuperStore row) {
+        Update update = new Update();
+        compactStorage.document(row).forEach((field, value) -> {
+            if (!"_id".equals(field)) {
+                update.setOnInsert(field, value);
+            }
+        });
+        bulkOperations.upsert(new Query(Criteria.where("_id").is(row.getRowId())), update);
+    }
+
+    /**
+     * The outcome of a delta write.
+     *
+     * @param inserted  rows that were new
+     * @param updated   rows whose content changed
+     * @param unchanged rows that were not written because the stored row is the same
+     */
+    public record DeltaWrite(int inserted, int updated, int unchanged) {
+
+        public int written() {
+            return inserted + updated;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.ai.data.analyst.storage;
+
+import com.ai.data.analyst.cache.DatasetGeneration;
+import com.ai.data.analyst.entity.CompactSuperStore;
+import com.ai.data.analyst.entity.SuperStore;
+import com.ai.data.analyst.model.StorageStats;
+import com.ai.data.analyst.service.DataAnalystService;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.RenameCollectionOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The compact storage mode. Rows are stored in the superStoreCompact collection as
+ * {@link CompactSuperStore} documents: short field names, primitive numbers, dictionary codes for
+ * the low-cardinality dimensions and codes into the superStoreCustomers and superStoreProducts
+ * reference collections. superStore becomes a read-only view that joins and decodes them back
+ * into the logical fields, so the prompts, generated pipelines, rollups and caches keep working
+ * on the same schema.
+ *
+ * <p>The dictionary values are inlined into the view definition, so the view is redefined before
+ * any row carrying a new code is written. Lookups through the view cost two joins per row, and a
+ * {@code $match} on a decoded field cannot use an index: views cannot be indexed, and an index on
+ * a code field of superStoreCompact is not used for a filter on the decoded value. The index
+ * advisor therefore leaves superStore alone in this mode. The mode trades query CPU for a smaller
+ * working set and is off unless {@code storage.compact.enabled} is set.
+ */
+@Component
+@Slf4j
+public class CompactStorage {
+
+    public static final String COMPACT = "superStoreCompact";
+    public static final String EXPANDED = "superStoreExpanded";
+    public static final String CUSTOMERS = "superStoreCustomers";
+    public static final String PRODUCTS = "superStoreProducts";
+
+    private final MongoTemplate mongoTemplate;
+    private final DimensionDictionary dictionary;
+    private final DatasetGeneration datasetGeneration;
+    private final ReferenceTable customers;
+    private final ReferenceTable products;
+
+    private long viewVersion = -1;
+
+    @Value("${storage.compact.enabled:false}")
+    private boolean enabled;
+
+    @Value("${storage.compact.migration-batch-size:1000}")
+    private int migrationBatchSize = 1000;
+
+    @Value("${storage.compact.stats-sample-size:1000}")
+    private int statsSampleSize = 1000;
+
+    @Autowired
+    public CompactStorage(MongoTemplate mongoTemplate, DimensionDictionary dictionary, DatasetGeneration datasetGeneration) {
+        this.mongoTemplate = mongoTemplate;
+        this.dictionary = dictionary;
+        this.datasetGeneration = datasetGeneration;
+        this.customers = new ReferenceTable(mongoTemplate, CUSTOMERS, "customerId", "customerName");
+        this.products = new ReferenceTable(mongoTemplate, PRODUCTS, "productId", "productName");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the collection rows are written to
+     */
+    public String collection() {
+        return enabled ? COMPACT : DataAnalystService.SUPER_STORE;
+    }
+
+    /**
+     * Maps a row to the document stored for it in {@link #collection()}.
+     *
+     * @param row the logical row
+     * @return the compact document, or the row as it was always stored
+     */
+    public Document document(SuperStore row) {
+        Document document = new Document();
+        if (!enabled) {
+            mongoTemplate.getConverter().write(row, document);
+            return document;
+        }
+        mongoTemplate.getConverter().write(encode(row, true), document);
+        document.remove("_class");
+        return document;
+    }
+
+    /**
+     * Reads logical rows by rowId, from the view in compact mode.
+     *
+     * @param rowIds the rowIds
+     * @return the rows found
+     */
+    public List<SuperStore> find(Collection<Integer> rowIds) {
+        List<SuperStore> rows = new ArrayList<>(rowIds.size());
+        for (Document document : mongoTemplate.getCollection(DataAnalystService.SUPER_STORE)
+                .find(new Document("_id", new Document("$in", new ArrayList<>(rowIds))))) {
+            rows.add(mongoTemplate.getConverter().read(SuperStore.class, document));
+        }
+        return rows;
+    }
+
+    /**
+     * Redefines the view if values were added to the dictionary since it was last defined. Must be
+     * called before writing rows encoded since then.
+     */
+    public synchronized void refreshView() {
+        if (!enabled || viewVersion == dictionary.version()) {
+            return;
+        }
+        if (viewVersion < 0 && !"view".equals(collectionType(DataAnalystService.SUPER_STORE))) {
+            // not set up yet, initialise or migrate defines the view with every value
+            return;
+        }
+        dictionary.refresh();
+        defineView(true);
+    }
+
+    /**
+     * Sets up the compact layout when the mode is enabled: creates the view, or migrates the rows
+     * of a superStore collection written before the mode was turned on.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void initialise() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            String type = collectionType(DataAnalystService.SUPER_STORE);
+            if ("collection".equals(type) && mongoTemplate.getCollection(DataAnalystService.SUPER_STORE).estimatedDocumentCount() > 0) {
+                migrate();
+            } else if (!"view".equals(type)) {
+                if (type != null) {
+                    mongoTemplate.dropCollection(DataAnalystService.SUPER_STORE);
+                }
+                defineView(false);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not set up compact storage: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Copies the rows of the superStore collection into the compact layout, keeps the original as
+     * superStoreExpanded and replaces it with the view. Rows already in the compact collection are
+     * left as they are.
+     *
+     * @return the number of rows copied
+     */
+    public synchronized long migrate() {
+        if (!enabled) {
+            throw new IllegalStateException("Compact storage is not enabled");
+        }
+        if (!"collection".equals(collectionType(DataAnalystService.SUPER_STORE))) {
+            log.info("superStore is already a view, nothing to migrate");
+            return 0;
+        }
+        long copied = 0;
+        List<SuperStore> batch = new ArrayList<>(migrationBatchSize);
+        for (Document document : mongoTemplate.getCollection(DataAnalystService.SUPER_STORE).find()) {
+            batch.add(mongoTemplate.getConverter().read(SuperStore.class, document));
+            if (batch.size() == migrationBatchSize) {
+                copied += copy(batch);
+                batch.clear();
+            }
+        }
+        copied += copy(batch);
+        mongoTemplate.getCollection(DataAnalystService.SUPER_STORE).renameCollection(
+                new MongoNamespace(mongoTemplate.getDb().getName(), EXPANDED), new RenameCollectionOptions().dropTarget(true));
+        dictionary.refresh();
+        defineView(false);
+        datasetGeneration.bump();
+        log.info("Migrated {} rows to compact storage, the original rows are kept in {}", copied, EXPANDED);
+        return copied;
+    }
+
+    /**
+     * Measures the bytes per row of the expanded and the compact layout on a sample of rows. The
+     * reference collections and the dictionary are spread over all rows.
+     *
+     * @return the sizes per row
+     */
+    public StorageStats stats() {
+        long rows = mongoTemplate.getCollection(collection()).estimatedDocumentCount();
+        List<Integer> sample = new ArrayList<>();
+        mongoTemplate.getCollection(collection())
+                .aggregate(List.of(new Document("$sample", new Document("size", statsSampleSize)),
+                        new Document("$project", new Document("_id", 1))))
+                .forEach(document -> sample.add(document.getInteger("_id")));
+        long expandedBytes = 0;
+        long compactBytes = 0;
+        List<SuperStore> sampled = find(sample);
+        for (SuperStore row : sampled) {
+            Document expanded = new Document();
+            mongoTemplate.getConverter().write(row, expanded);
+            expandedBytes += size(expanded);
+            Document compact = new Document();
+            // codes are fixed-width ints, so placeholders measure the same without registering values
+            mongoTemplate.getConverter().write(encode(row, false), compact);
+            compact.remove("_class");
+            compactBytes += size(compact);
+        }
+        long referenceBytes = enabled ? size(CUSTOMERS) + size(PRODUCTS) + size(DimensionDictionary.COLLECTION) : 0;
+        return StorageStats.builder()
+                .compact(enabled)
+                .rows(rows)
+                .sampledRows(sampled.size())
+                .expandedBytesPerRow(sampled.isEmpty() ? 0 : (double) expandedBytes / sampled.size())
+                .compactBytesPerRow(sampled.isEmpty() ? 0 : (double) compactBytes / sampled.size())
+                .referenceBytesPerRow(rows == 0 ? 0 : (double) referenceBytes / rows)
+                .build();
+    }
+
+    private long copy(List<SuperStore> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, COMPACT);
+        for (SuperStore row : batch) {
+            Update update = new Update();
+            document(row).forEach((field, value) -> {
+                if (!"_id".equals(field)) {
+                    update.setOnInsert(field, value);
+                }
+            });
+            bulkOperations.upsert(new Query(Criteria.where("_id").is(row.getRowId())), update);
+        }
+        return bulkOperations.execute().getUpserts().size();
+    }
+
+    private CompactSuperStore encode(SuperStore row, boolean register) {
+        return CompactSuperStore.builder()
+                .rowId(row.getRowId())
+                .orderId(row.getOrderId())
+                .orderDate(row.getOrderDate())
+                .shipDate(row.getShipDate())
+                .shipMode(code(register, "shipMode", row.getShipMode()))
+                .customer(register ? customers.encode(row.getCustomerId(), row.getCustomerName()) : 0)
+                .segment(code(register, "segment", row.getSegment()))
+                .country(code(register, "country", row.getCountry()))
+                .city(code(register, "city", row.getCity()))
+                .state(code(register, "state", row.getState()))
+                .postalCode(row.getPostalCode())
+                .region(code(register, "region", row.getRegion()))
+                .product(register ? products.encode(row.getProductId(), row.getProductName()) : 0)
+                .category(code(register, "category", row.getCategory()))
+                .subCategory(code(register, "subCategory", row.getSubCategory()))
+                .sales(row.getSales())
+                .quantity(row.getQuantity())
+                .discount(row.getDiscount())
+                .profit(row.getProfit())
+                .build();
+    }
+
+    private int code(boolean register, String dimension, String value) {
+        return register ? dictionary.encode(dimension, value) : 0;
+    }
+
+    /**
+     * Creates the view, or redefines it with collMod, decoding every dictionary code with the
+     * values known now.
+     */
+    private void defineView(boolean exists) {
+        long version = dictionary.version();
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("_id", 1);
+        fields.put("orderId", "$o");
+        fields.put("orderDate", "$od");
+        fields.put("shipDate", "$sd");
+        fields.put("shipMode", decode("shipMode", "sm"));
+        fields.put("customerId", reference("cu", customers.idField()));
+        fields.put("customerName", reference("cu", customers.nameField()));
+        fields.put("segment", decode("segment", "sg"));
+        fields.put("country", decode("country", "co"));
+        fields.put("city", decode("city", "ci"));
+        fields.put("state", decode("state", "st"));
+        fields.put("postalCode", "$pc");
+        fields.put("region", decode("region", "r"));
+        fields.put("productId", reference("p", products.idField()));
+        fields.put("category", decode("category", "ca"));
+        fields.put("subCategory", decode("subCategory", "sc"));
+        fields.put("productName", reference("p", products.nameField()));
+        fields.put("sales", "$s");
+        fields.put("quantity", "$q");
+        fields.put("discount", "$d");
+        fields.put("profit", "$pf");
+        List<Document> pipeline = List.of(
+                lookup(customers.collection(), "cu"),
+                lookup(products.collection(), "p"),
+                new Document("$project", new Document(fields)));
+        mongoTemplate.getDb().runCommand(new Document(exists ? "collMod" : "create", DataAnalystService.SUPER_STORE)
+                .append("viewOn", COMPACT)
+                .append("pipeline", pipeline));
+        viewVersion = version;
+        log.info("{} the superStore view over {}", exists ? "Redefined" : "Created", COMPACT);
+    }
+
+    private String collectionType(String name) {
+        Document info = mongoTemplate.getDb().listCollections().filter(new Document("name", name)).first();
+        return info == null ? null : info.getString("type");
+    }
+
+    private Document decode(String dimension, String field) {
+        // the values may include null, which List.of does not take
+        List<Object> expression = new ArrayList<>();
+        expression.add(new Document("$literal", new ArrayList<>(dictionary.values(dimension))));
+        expression.add("$" + field);
+        return new Document("$arrayElemAt", expression);
+    }
+
+    private static Document reference(String field, String attribute) {
+        return new Document("$arrayElemAt", List.of("$" + field + "." + attribute, 0));
+    }
+
+    private static Document lookup(String from, String field) {
+        return new Document("$lookup", new Document("from", from)
+                .append("localField", field)
+                .append("foreignField", "_id")
+                .append("as", field));
+    }
+
+    private long size(String collection) {
+        long bytes = 0;
+        MongoCollection<RawBsonDocument> documents = mongoTemplate.getCollection(collection).withDocumentClass(RawBsonDocument.class);
+        for (RawBsonDocument document : documents.find()) {
+            bytes += document.getByteBuffer().remaining();
+        }
+        return bytes;
+    }
+
+    private static int size(Document document) {
+        return new RawBsonDocument(document, new DocumentCodec()).getByteBuffer().remaining();
+    }
+}
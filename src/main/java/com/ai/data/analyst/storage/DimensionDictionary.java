@@ -0,0 +1,130 @@
+package com.ai.data.analyst.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dictionary codes for the low-cardinality superStore dimensions. Each dimension is one document
+ * in the superStoreDictionary collection, {@code {_id: "region", values: ["Central", "East", ...]}},
+ * and a value's code is its position in the array. New values are appended with a conditional
+ * {@code $push}, so concurrent writers, also on other instances, agree on the codes.
+ */
+@Component
+@Slf4j
+public class DimensionDictionary {
+
+    public static final String COLLECTION = "superStoreDictionary";
+
+    /**
+     * Stands in for null, which the code maps cannot hold.
+     */
+    private static final String NULL = "\u0000";
+
+    private final MongoTemplate mongoTemplate;
+    private final Map<String, Codes> dimensions = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    @Autowired
+    public DimensionDictionary(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Returns the code of the value, adding it to the dictionary if it is new.
+     *
+     * @param dimension the dimension, e.g. region
+     * @param value     the value, may be null
+     * @return the code of the value
+     */
+    public int encode(String dimension, String value) {
+        Codes codes = dimensions.computeIfAbsent(dimension, this::load);
+        Integer code = codes.index.get(value == null ? NULL : value);
+        if (code != null) {
+            return code;
+        }
+        synchronized (codes) {
+            code = codes.index.get(value == null ? NULL : value);
+            if (code != null) {
+                return code;
+            }
+            try {
+                mongoTemplate.upsert(new Query(Criteria.where("_id").is(dimension).and("values").ne(value)),
+                        new Update().push("values", value), COLLECTION);
+            } catch (DuplicateKeyException e) {
+                // the document exists and another writer added the value first
+            }
+            Codes reloaded = load(dimension);
+            codes.values = reloaded.values;
+            codes.index.putAll(reloaded.index);
+            version.incrementAndGet();
+            log.info("Added {} value '{}' to the dictionary", dimension, value);
+            return codes.index.get(value == null ? NULL : value);
+        }
+    }
+
+    /**
+     * Returns the known values of the dimension without adding any, indexed by code.
+     *
+     * @param dimension the dimension
+     * @return the values, empty if the dimension has none yet
+     */
+    public List<String> values(String dimension) {
+        return Collections.unmodifiableList(dimensions.computeIfAbsent(dimension, this::load).values);
+    }
+
+    /**
+     * @return a counter that changes whenever a value was added
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Reloads the dimensions from the collection, picking up values other instances added.
+     */
+    public void refresh() {
+        for (Map.Entry<String, Codes> entry : dimensions.entrySet()) {
+            Codes codes = entry.getValue();
+            synchronized (codes) {
+                Codes reloaded = load(entry.getKey());
+                if (reloaded.values.size() != codes.values.size()) {
+                    codes.values = reloaded.values;
+                    codes.index.putAll(reloaded.index);
+                    version.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private Codes load(String dimension) {
+        Document document = mongoTemplate.findById(dimension, Document.class, COLLECTION);
+        Codes codes = new Codes();
+        if (document != null) {
+            codes.values = new ArrayList<>(document.getList("values", String.class));
+            for (int i = 0; i < codes.values.size(); i++) {
+                String value = codes.values.get(i);
+                codes.index.putIfAbsent(value == null ? NULL : value, i);
+            }
+        }
+        return codes;
+    }
+
+    private static final class Codes {
+        private volatile List<String> values = new ArrayList<>();
+        private final Map<String, Integer> index = new ConcurrentHashMap<>();
+    }
+}
@@ -0,0 +1,101 @@
+package com.ai.data.analyst.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A reference collection holding one document per distinct pair of attributes, e.g. a customer's
+ * id and name, under a small integer code that the compact rows store instead of the strings.
+ * Codes are allocated as the highest code plus one; a unique index on the attributes keeps two
+ * writers from registering the same pair twice.
+ */
+@Slf4j
+class ReferenceTable {
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final MongoTemplate mongoTemplate;
+    private final String collection;
+    private final String idField;
+    private final String nameField;
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+    private int next;
+
+    ReferenceTable(MongoTemplate mongoTemplate, String collection, String idField, String nameField) {
+        this.mongoTemplate = mongoTemplate;
+        this.collection = collection;
+        this.idField = idField;
+        this.nameField = nameField;
+    }
+
+    String collection() {
+        return collection;
+    }
+
+    String idField() {
+        return idField;
+    }
+
+    String nameField() {
+        return nameField;
+    }
+
+    /**
+     * Returns the code of the pair, registering it if it is new.
+     */
+    int encode(String id, String name) {
+        String key = key(id, name);
+        Integer code = loaded ? codes.get(key) : null;
+        if (code != null) {
+            return code;
+        }
+        synchronized (this) {
+            if (!loaded) {
+                load();
+            }
+            for (int attempt = 1; ; attempt++) {
+                code = codes.get(key);
+                if (code != null) {
+                    return code;
+                }
+                try {
+                    mongoTemplate.insert(new Document("_id", next).append(idField, id).append(nameField, name), collection);
+                    codes.put(key, next);
+                    return next++;
+                } catch (DuplicateKeyException e) {
+                    if (attempt == MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                    // another writer took the code or registered the pair
+                    load();
+                }
+            }
+        }
+    }
+
+    private void load() {
+        mongoTemplate.indexOps(collection).createIndex(new Index()
+                .on(idField, Sort.Direction.ASC).on(nameField, Sort.Direction.ASC).unique());
+        int max = -1;
+        for (Document document : mongoTemplate.getCollection(collection).find()) {
+            int code = document.getInteger("_id");
+            codes.put(key(document.getString(idField), document.getString(nameField)), code);
+            max = Math.max(max, code);
+        }
+        next = max + 1;
+        loaded = true;
+        log.debug("Loaded {} codes from {}", codes.size(), collection);
+    }
+
+    private static String key(String id, String name) {
+        return (id == null ? "\u0000" : id) + '\u0001' + (name == null ? "\u0000" : name);
+    }
+}
@@ -9,21 +9,58 @@ document.getElementById('promptForm').addEventListener('submit', async function
   responseText.classList.add('loading');
 
   try {
-    const res = await fetch('http://localhost:8080/api/dataAnalyst/analyse', {
+    const res = await fetch('http://localhost:8080/api/dataAnalyst/analyse/stream', {
       method: 'POST',
-      headers: { 'Content-Type': 'application/json' },
+      headers: { 'Content-Type': 'application/json', 'Accept': 'text/event-stream' },
       body: JSON.stringify({ prompt })
     });
 
-    if (!res.ok) throw new Error("Something went wrong");
+    if (!res.ok || !res.body) throw new Error("Something went wrong");
 
-    const data = await res.text();
+    let narrative = '';
+    await readEvents(res.body, (event, data) => {
+      if (event === 'narrative') {
+        narrative += data;
+        responseText.classList.remove('loading');
+        responseText.innerHTML = DOMPurify.sanitize(marked.parse(narrative));
+      } else if (event === 'results' && !narrative) {
+        responseText.textContent = '💡 Data ready, writing insight';
+      } else if (event === 'error') {
+        throw new Error(data);
+      }
+    });
     responseText.classList.remove('loading');
-    const safeHtml = DOMPurify.sanitize(marked.parse(data));
-    responseText.innerHTML = safeHtml;
 
   } catch (err) {
+    responseText.classList.remove('loading');
     responseText.textContent = 'Failed to generate insight. Please try again.';
     console.error(err);
   }
 });
+
+// Parses a server-sent event stream, joining multi-line data fields with newlines.
+async function readEvents(body, onEvent) {
+  const reader = body.pipeThrough(new TextDecoderStream()).getReader();
+  let buffer = '';
+  let event = 'message';
+  let data = [];
+  while (true) {
+    const { value, done } = await reader.read();
+    if (done) break;
+    buffer += value;
+    let newline;
+    while ((newline = buffer.indexOf('\n')) >= 0) {
+      const line = buffer.slice(0, newline).replace(/\r$/, '');
+      buffer = buffer.slice(newline + 1);
+      if (line === '') {
+        if (data.length) onEvent(event, data.join('\n'));
+        event = 'message';
+        data = [];
+      } else if (line.startsWith('event:')) {
+        event = line.slice(6).trim();
+      } else if (line.startsWith('data:')) {
+        data.push(line.slice(5));
+      }
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package com.ai.data.analyst.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AnalysisCoalescerTest {
+
+    @Test
+    void sharesOnlyTheSameQuestion() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        AnalysisCoalescer coalescer = new AnalysisCoalescer(tasks::add, true, Duration.ofSeconds(10));
+
+        CompletableFuture<String> first = coalescer.execute("Profit from 2015 to 2017", () -> "to");
+        CompletableFuture<String> same = coalescer.execute("  profit from 2015 TO 2017 ", () -> "to again");
+        CompletableFuture<String> other = coalescer.execute("Profit from 2015 or 2017", () -> "or");
+        tasks.forEach(Runnable::run);
+
+        assertEquals(2, tasks.size());
+        assertEquals("to", first.get());
+        assertEquals("to", same.get());
+        assertEquals("or", other.get());
+    }
+}
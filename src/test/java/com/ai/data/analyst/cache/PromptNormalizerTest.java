@@ -0,0 +1,57 @@
+package com.ai.data.analyst.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class PromptNormalizerTest {
+
+    static Stream<String[]> samePhrasings() {
+        return Stream.of(
+                new String[]{"Top 5 states by profit?", "please show the top five   states by profit"},
+                new String[]{"Total sales in the West", "total SALES in West."},
+                new String[]{"Can you give me the discount above 0.20", "discount above 0.2"},
+                new String[]{"orders with quantity above 10.0", "Orders with quantity above ten"});
+    }
+
+    static Stream<String[]> differentQuestions() {
+        return Stream.of(
+                new String[]{"profit from 2015 to 2017", "profit from 2015 or 2017"},
+                new String[]{"sales in East and West", "sales in East or West"},
+                new String[]{"all orders with a discount", "some orders with a discount"},
+                new String[]{"orders with a discount", "orders without a discount"},
+                new String[]{"sales by region", "sales in region"},
+                new String[]{"profit for Technology by year", "profit for Technology in year"},
+                new String[]{"which region has the most sales", "region has the most sales"},
+                new String[]{"top 5 states by profit", "top 10 states by profit"});
+    }
+
+    @ParameterizedTest
+    @MethodSource("samePhrasings")
+    void rephrasingsShareAKey(String prompt, String rephrased) {
+        assertEquals(PromptNormalizer.normalize(prompt), PromptNormalizer.normalize(rephrased));
+    }
+
+    @ParameterizedTest
+    @MethodSource("differentQuestions")
+    void differentMeaningsGetDifferentKeys(String prompt, String other) {
+        assertNotEquals(PromptNormalizer.normalize(prompt), PromptNormalizer.normalize(other));
+    }
+
+    @Test
+    void keepsConnectivesAndQuantifiers() {
+        assertEquals("profit from 2015 to 2017", PromptNormalizer.normalize("Profit from 2015 to 2017"));
+        assertEquals("all orders by segment", PromptNormalizer.normalize("Show me all the orders by segment"));
+    }
+
+    @Test
+    void blankPromptHasAnEmptyKey() {
+        assertEquals("", PromptNormalizer.normalize(null));
+        assertEquals("", PromptNormalizer.normalize("  ?! "));
+    }
+}
@@ -0,0 +1,209 @@
+package com.ai.data.analyst.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final ManualExecutor executor = new ManualExecutor();
+    private final SingleFlight<String, String> flights = new SingleFlight<>(executor, TIMEOUT);
+    private final AtomicInteger computations = new AtomicInteger();
+
+    private String compute() {
+        return "result " + computations.incrementAndGet();
+    }
+
+    @Test
+    void callersOfARunningComputationShareIt() throws Exception {
+        CompletableFuture<String> first = flights.execute("sales", this::compute);
+        CompletableFuture<String> second = flights.execute("sales", this::compute);
+
+        assertEquals(1, executor.pending());
+        executor.runAll();
+
+        assertEquals("result 1", first.get());
+        assertEquals("result 1", second.get());
+        assertEquals(1, flights.started());
+        assertEquals(1, flights.coalesced());
+        assertEquals(0, flights.inFlight());
+    }
+
+    @Test
+    void differentKeysRunSeparately() throws Exception {
+        CompletableFuture<String> sales = flights.execute("sales", this::compute);
+        CompletableFuture<String> profit = flights.execute("profit", this::compute);
+
+        assertEquals(2, executor.pending());
+        executor.runAll();
+
+        assertFalse(sales.get().equals(profit.get()));
+        assertEquals(0, flights.coalesced());
+    }
+
+    @Test
+    void finishedComputationIsNotReused() throws Exception {
+        CompletableFuture<String> first = flights.execute("sales", this::compute);
+        executor.runAll();
+        CompletableFuture<String> second = flights.execute("sales", this::compute);
+        executor.runAll();
+
+        assertEquals("result 1", first.get());
+        assertEquals("result 2", second.get());
+        assertEquals(2, flights.started());
+    }
+
+    @Test
+    void failureReachesEveryCaller() {
+        CompletableFuture<String> first = flights.execute("sales", () -> {
+            throw new IllegalStateException("pipeline failed");
+        });
+        CompletableFuture<String> second = flights.execute("sales", this::compute);
+        executor.runAll();
+
+        for (CompletableFuture<String> caller : List.of(first, second)) {
+            ExecutionException e = assertThrows(ExecutionException.class, caller::get);
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+        }
+        assertEquals(0, computations.get());
+        assertEquals(0, flights.inFlight());
+    }
+
+    @Test
+    void callerLeavingDoesNotCancelTheOthers() throws Exception {
+        CompletableFuture<String> first = flights.execute("sales", this::compute);
+        CompletableFuture<String> second = flights.execute("sales", this::compute);
+
+        first.cancel(true);
+        executor.runAll();
+
+        assertTrue(first.isCancelled());
+        assertEquals("result 1", second.get());
+        assertEquals(0, flights.cancelled());
+    }
+
+    @Test
+    void computationIsCancelledWhenTheLastCallerLeaves() throws Exception {
+        CompletableFuture<String> first = flights.execute("sales", this::compute);
+        CompletableFuture<String> second = flights.execute("sales", this::compute);
+
+        first.cancel(true);
+        second.cancel(true);
+        executor.runAll();
+
+        assertEquals(0, computations.get());
+        assertEquals(1, flights.cancelled());
+        assertEquals(0, flights.inFlight());
+
+        // a new caller starts a new computation rather than joining the abandoned one
+        CompletableFuture<String> third = flights.execute("sales", this::compute);
+        executor.runAll();
+        assertEquals("result 1", third.get());
+        assertEquals(2, flights.started());
+    }
+
+    @Test
+    void runningComputationIsInterruptedWhenTheLastCallerLeaves() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<String> caller = flights.execute("sales", () -> {
+            running.countDown();
+            try {
+                Thread.sleep(TIMEOUT.toMillis());
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return compute();
+        });
+        Thread worker = new Thread(executor::runAll);
+        worker.start();
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        caller.cancel(true);
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        worker.join(5000);
+        assertTrue(caller.isCancelled());
+        assertEquals(1, flights.cancelled());
+        assertEquals(0, flights.inFlight());
+    }
+
+    @Test
+    void callerTimesOutAndLeaves() {
+        SingleFlight<String, String> shortFlights = new SingleFlight<>(executor, Duration.ofMillis(50));
+        CompletableFuture<String> caller = shortFlights.execute("sales", this::compute);
+
+        ExecutionException e = assertThrows(ExecutionException.class, caller::get);
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        // the caller leaves on the timeout thread, possibly after get() returned here
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (shortFlights.cancelled() == 0 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertEquals(1, shortFlights.cancelled());
+        assertEquals(0, shortFlights.inFlight());
+
+        executor.runAll();
+        assertEquals(0, computations.get());
+    }
+
+    @Test
+    void rejectedComputationFailsTheCaller() {
+        SingleFlight<String, String> rejecting = new SingleFlight<>(task -> {
+            throw new RejectedExecutionException("pool is full");
+        }, TIMEOUT);
+
+        CompletableFuture<String> caller = rejecting.execute("sales", this::compute);
+
+        ExecutionException e = assertThrows(ExecutionException.class, caller::get);
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        assertEquals(0, rejecting.inFlight());
+    }
+
+    /**
+     * Holds submitted tasks until the test runs them.
+     */
+    private static final class ManualExecutor implements Executor {
+
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        synchronized int pending() {
+            return tasks.size();
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = poll()) != null) {
+                task.run();
+            }
+        }
+
+        private synchronized Runnable poll() {
+            return tasks.poll();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.ai.data.analyst.columnar;
+
+import com.ai.data.analyst.entity.SuperStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Runs the same pipelines on MongoDB and on the column store and checks that they return the
+ * same documents with the same value types. Doubles may differ in the last bits because the sums
+ * are compensated differently.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ColumnarDifferentialTest {
+
+    private static final String COLLECTION = "superStore";
+    private static final double TOLERANCE = 1e-9;
+
+    @Container
+    private static final MongoDBContainer MONGO = new MongoDBContainer("mongo:7.0");
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static MongoClient client;
+    private static MongoTemplate mongoTemplate;
+    private static ColumnarStore store;
+
+    @BeforeAll
+    static void load() {
+        client = MongoClients.create(MONGO.getConnectionString());
+        mongoTemplate = new MongoTemplate(client, "differential");
+        mongoTemplate.insertAll(rows(4000));
+        ColumnarStore.Builder builder = new ColumnarStore.Builder(ZoneId.systemDefault());
+        mongoTemplate.getCollection(COLLECTION).find().forEach(builder::add);
+        store = builder.build();
+    }
+
+    @AfterAll
+    static void close() {
+        client.close();
+    }
+
+    static Stream<String> orderedPipelines() {
+        return Stream.of(
+                """
+                [{"$group": {"_id": "$region", "sales": {"$sum": "$sales"}, "profit": {"$sum": "$profit"}, "lines": {"$sum": 1}}},
+                 {"$sort": {"sales": -1}}]""",
+                """
+                [{"$match": {"category": "Technology"}},
+                 {"$group": {"_id": {"year": {"$year": "$orderDate"}, "month": {"$month": "$orderDate"}},
+                             "sales": {"$sum": "$sales"}, "quantity": {"$sum": "$quantity"}}},
+                 {"$sort": {"_id.year": 1, "_id.month": 1}}]""",
+                """
+                [{"$match": {"$or": [{"state": "Texas"}, {"profit": {"$lt": 0}}]}},
+                 {"$group": {"_id": {"state": "$state", "category": "$category"}, "loss": {"$sum": "$profit"}, "lines": {"$count": {}}}},
+                 {"$sort": {"loss": 1}}, {"$limit": 5}]""",
+                """
+                [{"$sort": {"sales": -1}}, {"$limit": 10}]""",
+                """
+                [{"$match": {"region": "Central"}},
+                 {"$project": {"_id": 0, "orderId": 1, "sales": 1, "margin": {"$divide": ["$profit", "$sales"]}}},
+                 {"$sort": {"margin": -1}}, {"$limit": 20}]""",
+                """
+                [{"$group": {"_id": {"$dateToString": {"format": "%Y-%m", "date": "$orderDate"}},
+                             "revenue": {"$sum": {"$multiply": ["$sales", {"$subtract": [1, "$discount"]}]}}}},
+                 {"$sort": {"_id": 1}}]""",
+                """
+                [{"$match": {"shipMode": {"$nin": ["Same Day"]}, "discount": 0}},
+                 {"$group": {"_id": {"$dayOfWeek": "$shipDate"}, "lines": {"$sum": 1}}},
+                 {"$sort": {"_id": 1}}]""",
+                """
+                [{"$match": {"category": {"$gt": "Furniture"}}},
+                 {"$group": {"_id": "$subCategory", "quantity": {"$sum": "$quantity"}}},
+                 {"$sort": {"quantity": -1, "_id": 1}}, {"$skip": 2}, {"$limit": 3}]""",
+                """
+                [{"$group": {"_id": {"region": "$region", "segment": "$segment"}, "sales": {"$sum": "$sales"}}},
+                 {"$sort": {"_id": 1}}]""");
+    }
+
+    static Stream<String> unorderedPipelines() {
+        return Stream.of(
+                """
+                [{"$match": {"sales": {"$gte": 100, "$lt": 500}, "region": {"$in": ["East", "West"]}}},
+                 {"$group": {"_id": "$segment", "avgDiscount": {"$avg": "$discount"}, "maxSales": {"$max": "$sales"},
+                             "minQuantity": {"$min": "$quantity"}, "lastOrder": {"$max": "$orderDate"}}}]""",
+                """
+                [{"$match": {"segment": {"$ne": "Consumer"}, "quantity": {"$gt": 5}}},
+                 {"$group": {"_id": null, "total": {"$sum": "$quantity"}, "avgSales": {"$avg": "$sales"}}}]""",
+                """
+                [{"$match": {"Region": "East"}}, {"$group": {"_id": "$region", "lines": {"$sum": 1}}}]""",
+                """
+                [{"$group": {"_id": "$customerId", "sales": {"$sum": "$sales"}}},
+                 {"$match": {"sales": {"$gt": 1000}}},
+                 {"$group": {"_id": null, "customers": {"$sum": 1}, "avgSales": {"$avg": "$sales"}}}]""",
+                """
+                [{"$match": {"$nor": [{"region": "West"}, {"quantity": {"$lte": 2}}], "postalCode": {"$exists": true}}},
+                 {"$group": {"_id": "$category", "orders": {"$sum": 1}, "firstDay": {"$min": "$orderDate"}}}]""");
+    }
+
+    @ParameterizedTest
+    @MethodSource("orderedPipelines")
+    void orderedResultsMatchMongo(String json) throws Exception {
+        List<Document> pipeline = parse(json);
+        List<Document> expected = runOnMongo(pipeline);
+        List<Document> actual = new PipelineInterpreter(store).execute(parse(json));
+        assertEquals(expected.size(), actual.size(), "result count");
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue(same(expected.get(i), actual.get(i)), "row " + i + ": expected " + expected.get(i) + " but was " + actual.get(i));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("unorderedPipelines")
+    void unorderedResultsMatchMongo(String json) throws Exception {
+        List<Document> expected = runOnMongo(parse(json));
+        List<Document> actual = new ArrayList<>(new PipelineInterpreter(store).execute(parse(json)));
+        assertEquals(expected.size(), actual.size(), "result count");
+        for (Document document : expected) {
+            if (!actual.removeIf(candidate -> same(document, candidate))) {
+                fail("No match for " + document + " in " + actual);
+            }
+        }
+    }
+
+    @Test
+    void unsupportedStagesAreRefused() throws Exception {
+        PipelineInterpreter interpreter = new PipelineInterpreter(store);
+        assertThrows(UnsupportedPipelineException.class, () -> interpreter.execute(parse("""
+                [{"$unwind": "$category"}]""")));
+        assertThrows(UnsupportedPipelineException.class, () -> interpreter.execute(parse("""
+                [{"$match": {"productName": {"$regex": "^Staple"}}}]""")));
+        assertThrows(UnsupportedPipelineException.class, () -> interpreter.execute(parse("""
+                [{"$group": {"_id": "$region", "first": {"$first": "$sales"}}}]""")));
+    }
+
+    private static List<Document> runOnMongo(List<Document> pipeline) {
+        List<AggregationOperation> operations = pipeline.stream()
+                .map(document -> (AggregationOperation) context -> document)
+                .toList();
+        return mongoTemplate.aggregate(Aggregation.newAggregation(operations), COLLECTION, Document.class).getMappedResults();
+    }
+
+    private static List<Document> parse(String json) throws Exception {
+        return OBJECT_MAPPER.readValue(json, OBJECT_MAPPER.getTypeFactory().constructCollectionType(List.class, Document.class));
+    }
+
+    private static boolean same(Object expected, Object actual) {
+        if (expected instanceof Map<?, ?> left && actual instanceof Map<?, ?> right) {
+            return left.keySet().equals(right.keySet())
+                    && left.keySet().stream().allMatch(key -> same(left.get(key), right.get(key)));
+        }
+        if (expected instanceof Double left && actual instanceof Double right) {
+            return Math.abs(left - right) <= TOLERANCE * Math.max(1, Math.max(Math.abs(left), Math.abs(right)));
+        }
+        return expected == null ? actual == null : actual != null && expected.getClass() == actual.getClass() && expected.equals(actual);
+    }
+
+    private static List<SuperStore> rows(int count) {
+        Random random = new Random(42);
+        String[] regions = {"East", "West", "Central", "South"};
+        String[] states = {"Texas", "California", "New York", "Ohio", "Florida", "Washington", "Illinois"};
+        String[] categories = {"Furniture", "Office Supplies", "Technology"};
+        String[] subCategories = {"Chairs", "Tables", "Binders", "Paper", "Phones", "Machines"};
+        String[] segments = {"Consumer", "Corporate", "Home Office"};
+        String[] shipModes = {"First Class", "Second Class", "Standard Class", "Same Day"};
+        double[] discounts = {0, 0.1, 0.2, 0.5, 0.8};
+        List<SuperStore> rows = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            LocalDate orderDate = LocalDate.of(2014, 1, 1).plusDays(random.nextInt(4 * 365));
+            rows.add(SuperStore.builder()
+                    .rowId(i)
+                    .orderId("CA-" + (1000 + random.nextInt(count / 2)))
+                    .orderDate(orderDate)
+                    .shipDate(orderDate.plusDays(random.nextInt(7)))
+                    .shipMode(shipModes[random.nextInt(shipModes.length)])
+                    .customerId("CU-" + random.nextInt(400))
+                    .customerName("Customer " + random.nextInt(400))
+                    .segment(segments[random.nextInt(segments.length)])
+                    .country("United States")
+                    .city("City " + random.nextInt(50))
+                    .state(states[random.nextInt(states.length)])
+                    .postalCode(String.valueOf(10000 + random.nextInt(80000)))
+                    .region(regions[random.nextInt(regions.length)])
+                    .productId("PR-" + random.nextInt(300))
+                    .category(categories[random.nextInt(categories.length)])
+                    .subCategory(subCategories[random.nextInt(subCategories.length)])
+                    .productName("Product " + random.nextInt(300))
+                    .sales(Math.round(random.nextDouble() * 200_000) / 100.0)
+                    .quantity(1 + random.nextInt(14))
+                    .discount(discounts[random.nextInt(discounts.length)])
+                    .profit(Math.round((random.nextDouble() - 0.3) * 50_000) / 100.0)
+                    .build());
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,129 @@
+package com.ai.data.analyst.handler;
+
+import com.ai.data.analyst.prompt.Prompt;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Streams from a local server that sends three chunks and then holds the connection open, as a
+ * slow model would.
+ */
+class GeminiApiProviderTest {
+
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private HttpServer server;
+    private GeminiApiProvider provider;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 16);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+
+        String base = "http://localhost:" + server.getAddress().getPort();
+        provider = new GeminiApiProvider();
+        ReflectionTestUtils.setField(provider, "API_KEY", "test");
+        ReflectionTestUtils.setField(provider, "GEMINI_URL", base + "/generate?key=%s");
+        ReflectionTestUtils.setField(provider, "GEMINI_STREAM_URL", base + "/stream?key=%s");
+        ReflectionTestUtils.setField(provider, "GEMINI_CACHE_URL", base + "/cache?key=%s");
+        ReflectionTestUtils.setField(provider, "connectTimeout", Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(provider, "readTimeout", Duration.ofSeconds(60));
+        provider.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        released.countDown();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        boolean malformed = exchange.getRequestURI().getPath().equals("/malformed");
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (String chunk : List.of("one ", "two ", "three")) {
+                String line = malformed && chunk.equals("two ") ? "data: {\"candidates\": [" : chunk(chunk);
+                out.write((line + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+            released.await(30, TimeUnit.SECONDS);
+        } catch (IOException | InterruptedException e) {
+            // the client went away
+        }
+    }
+
+    private static String chunk(String text) {
+        return "data: {\"candidates\":[{\"content\":{\"role\":\"model\",\"parts\":[{\"text\":\"" + text + "\"}]}}]}";
+    }
+
+    private CompletableFuture<String> stream(Consumer<String> onChunk) {
+        return provider.stream(GeminiHandler.CallType.NARRATIVE, Prompt.of("narrate"), onChunk);
+    }
+
+    @Test
+    void failsTheCallWhenTheConsumerThrows() {
+        List<String> chunks = new CopyOnWriteArrayList<>();
+        CompletableFuture<String> result = stream(chunk -> {
+            chunks.add(chunk);
+            if (chunks.size() == 2) {
+                throw new UncheckedIOException(new IOException("Broken pipe"));
+            }
+        });
+
+        // the server is still holding the connection open, so only the failure can complete the call
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(UncheckedIOException.class, e.getCause());
+        assertEquals(List.of("one ", "two "), chunks);
+    }
+
+    @Test
+    void failsTheCallOnAnUnreadableChunk() throws Exception {
+        List<String> chunks = new CopyOnWriteArrayList<>();
+        ReflectionTestUtils.setField(provider, "GEMINI_STREAM_URL",
+                "http://localhost:" + server.getAddress().getPort() + "/malformed?key=%s");
+        provider.init();
+
+        CompletableFuture<String> result = stream(chunks::add);
+
+        assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("one "), chunks);
+    }
+
+    @Test
+    void returnsTheWholeTextWhenTheStreamEnds() throws Exception {
+        List<String> chunks = new CopyOnWriteArrayList<>();
+        released.countDown();
+
+        assertEquals("one two three", stream(chunks::add).get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("one ", "two ", "three"), chunks);
+    }
+}
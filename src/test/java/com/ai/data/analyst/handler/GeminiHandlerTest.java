@@ -0,0 +1,94 @@
+package com.ai.data.analyst.handler;
+
+import com.ai.data.analyst.prompt.Prompt;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeminiHandlerTest {
+
+    private final ScriptedProvider provider = new ScriptedProvider();
+    private final GeminiHandler handler = new GeminiHandler();
+
+    GeminiHandlerTest() {
+        ReflectionTestUtils.setField(handler, "llmProvider", provider);
+        ReflectionTestUtils.setField(handler, "maxConcurrentRequests", 1);
+        ReflectionTestUtils.setField(handler, "maxQueuedRequests", 8);
+        handler.init();
+    }
+
+    private static CompletableFuture<String> fail() {
+        throw new IllegalArgumentException("Illegal character in query");
+    }
+
+    @Test
+    void releasesThePermitWhenTheProviderThrows() {
+        for (int i = 0; i < 4; i++) {
+            provider.calls.add(GeminiHandlerTest::fail);
+        }
+
+        for (int i = 0; i < 3; i++) {
+            CompletableFuture<String> result = handler.generateContentAsync(GeminiHandler.CallType.PIPELINE, "sales by region");
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalArgumentException.class, e.getCause());
+        }
+        // with the only permit leaked this would block forever
+        assertEquals("Error generating content", handler.generateContent(GeminiHandler.CallType.PIPELINE, "sales by region"));
+        assertTrue(provider.calls.isEmpty());
+    }
+
+    @Test
+    void sendsQueuedRequestsAfterAProviderThrows() throws Exception {
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        provider.calls.add(() -> pending);
+        provider.calls.add(GeminiHandlerTest::fail);
+        provider.calls.add(() -> CompletableFuture.completedFuture("third answer"));
+
+        CompletableFuture<String> first = handler.generateContentAsync(GeminiHandler.CallType.PIPELINE, "first");
+        // both wait for the only permit
+        CompletableFuture<String> second = handler.generateContentAsync(GeminiHandler.CallType.PIPELINE, "second");
+        CompletableFuture<String> third = handler.generateContentAsync(GeminiHandler.CallType.PIPELINE, "third");
+        pending.complete("first answer");
+
+        assertEquals("first answer", first.get(5, TimeUnit.SECONDS));
+        assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+        assertEquals("third answer", third.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Answers every call with the next scripted behaviour.
+     */
+    private static final class ScriptedProvider implements LlmProvider {
+
+        private final Queue<Supplier<CompletableFuture<String>>> calls = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public CompletableFuture<String> generate(GeminiHandler.CallType type, Prompt prompt, Double temperature) {
+            return calls.remove().get();
+        }
+
+        @Override
+        public CompletableFuture<String> stream(GeminiHandler.CallType type, Prompt prompt, Consumer<String> onChunk) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<String> createCachedContent(String model, String text, Duration ttl) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.ai.data.analyst.loadtest;
+
+import com.ai.data.analyst.AiDataAnalystApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the platform-thread and virtual-thread execution modes of {@code /analyse}. The
+ * application is started in-process against a local {@link StubLlmServer} and a local MongoDB
+ * (override with {@code -Dspring.data.mongodb.uri=...}); for each concurrency level the harness
+ * fires that many distinct prompts at once and reports completed requests, latency, peak live
+ * threads and heap per in-flight request. Caches are disabled so every request does the full work.
+ *
+ * <p>Usage: {@code AnalyseLoadHarness [llmLatencyMillis] [concurrency...]}.
+ */
+public class AnalyseLoadHarness {
+
+    public static void main(String[] args) throws Exception {
+        Duration llmLatency = Duration.ofMillis(args.length > 0 ? Long.parseLong(args[0]) : 2000);
+        int[] levels = args.length > 1
+                ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{100, 250, 500, 1000, 2000};
+        try (StubLlmServer llm = new StubLlmServer(llmLatency)) {
+            for (boolean virtualThreads : new boolean[]{false, true}) {
+                runMode(llm, virtualThreads, levels);
+            }
+        }
+    }
+
+    private static void runMode(StubLlmServer llm, boolean virtualThreads, int[] levels) throws Exception {
+        ConfigurableApplicationContext context = new SpringApplication(AiDataAnalystApplication.class).run(
+                "--server.port=0",
+                "--spring.threads.virtual.enabled=" + virtualThreads,
+                "--google.gemini.api.url=" + llm.url(),
+                "--google.gemini.api.max-concurrent-requests=10000",
+                "--google.gemini.api.max-queued-requests=10000",
+                "--cache.pipeline.enabled=false",
+                "--cache.result.enabled=false",
+                "--logging.level.com.ai.data.analyst=WARN");
+        try {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            System.out.printf("%n== %s threads (Java %d) ==%n", virtualThreads ? "virtual" : "platform",
+                    Runtime.version().feature());
+            System.out.println("concurrency  ok     failed  p50(ms)  p99(ms)  peakThreads  heapKB/inflight");
+            for (int level : levels) {
+                runLevel(port, level);
+            }
+        } finally {
+            context.close();
+        }
+    }
+
+    private static void runLevel(int port, int concurrency) throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        threads.resetPeakThreadCount();
+
+        ExecutorService clientExecutor = Executors.newCachedThreadPool();
+        HttpClient client = HttpClient.newBuilder().executor(clientExecutor).build();
+        AtomicInteger failed = new AtomicInteger();
+        long[] peakHeap = {heapBefore};
+        List<Long> latencies = new ArrayList<>();
+        List<CompletableFuture<Void>> calls = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            long start = System.nanoTime();
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/dataAnalyst/analyse"))
+                    .timeout(Duration.ofMinutes(5))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"prompt\":\"total sales by region, run " + i + "\"}"))
+                    .build();
+            calls.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .handle((response, error) -> {
+                        synchronized (latencies) {
+                            latencies.add((System.nanoTime() - start) / 1_000_000);
+                            peakHeap[0] = Math.max(peakHeap[0], memory.getHeapMemoryUsage().getUsed());
+                        }
+                        if (error != null || response.statusCode() != 200) {
+                            failed.incrementAndGet();
+                        }
+                        return null;
+                    }));
+        }
+        CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).join();
+        clientExecutor.shutdown();
+
+        latencies.sort(Long::compare);
+        long heapPerRequest = (peakHeap[0] - heapBefore) / 1024 / concurrency;
+        System.out.printf("%-12d %-6d %-7d %-8d %-8d %-12d %d%n", concurrency, concurrency - failed.get(), failed.get(),
+                latencies.get(latencies.size() / 2), latencies.get((int) (latencies.size() * 0.99)),
+                threads.getPeakThreadCount(), heapPerRequest);
+    }
+}
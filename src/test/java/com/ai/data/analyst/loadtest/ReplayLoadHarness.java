@@ -0,0 +1,218 @@
+package com.ai.data.analyst.loadtest;
+
+import com.ai.data.analyst.AiDataAnalystApplication;
+import com.ai.data.analyst.handler.GeminiHandler;
+import com.ai.data.analyst.handler.RecordReplayProvider;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.testcontainers.containers.MongoDBContainer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives upload and {@code /analyse} end to end without network access. The application is
+ * started in-process with {@code llm.provider=replay}, answering from a recordings file seeded
+ * with one pipeline and one narrative, against MongoDB in a local container (or
+ * {@code -Dspring.data.mongodb.uri=...}). The harness uploads a replicated sample CSV and reports
+ * ingest throughput, then runs a closed loop of analyse requests, each worker sending its next
+ * request as soon as the last one returns, and reports throughput and latency percentiles. Caches
+ * are disabled so every request does the full work; latency and error rate are those of the
+ * replayed model.
+ *
+ * <p>Usage: {@code ReplayLoadHarness [requests] [concurrency] [llmLatencyMillis] [errorRate] [rows]}
+ * (default 2000 requests, 32 workers, 200 ms, 0.0, 100,000 rows).
+ */
+public class ReplayLoadHarness {
+
+    private static final String PIPELINE = """
+            [ { "$group": { "_id": "$region", "totalSales": { "$sum": "$sales" } } }, { "$sort": { "totalSales": -1 } } ]""";
+
+    private static final String NARRATIVE = "1. Executive Summary\nThe West region leads sales.";
+
+    private static final String[] QUESTIONS = {
+            "total sales by region", "profit by category", "monthly sales trend in the West",
+            "top ten products by profit", "average discount by segment", "quantity sold per state"};
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        long llmLatency = args.length > 2 ? Long.parseLong(args[2]) : 200;
+        double errorRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.0;
+        int rows = args.length > 4 ? Integer.parseInt(args[4]) : 100_000;
+
+        String mongoUri = System.getProperty("spring.data.mongodb.uri");
+        MongoDBContainer mongo = null;
+        if (mongoUri == null) {
+            mongo = new MongoDBContainer("mongo:7.0");
+            mongo.start();
+            mongoUri = mongo.getConnectionString() + "/SuperStoreDB";
+        }
+        Path recordings = seedRecordings();
+        ConfigurableApplicationContext context = new SpringApplication(AiDataAnalystApplication.class).run(
+                "--server.port=0",
+                "--spring.data.mongodb.uri=" + mongoUri,
+                "--llm.provider=replay",
+                "--llm.recording.directory=" + recordings,
+                "--llm.recording.latency=" + llmLatency + "ms",
+                "--llm.recording.latency-jitter=" + llmLatency / 2 + "ms",
+                "--llm.recording.error-rate=" + errorRate,
+                "--google.gemini.api.max-concurrent-requests=10000",
+                "--google.gemini.api.max-queued-requests=10000",
+                "--cache.pipeline.enabled=false",
+                "--cache.result.enabled=false",
+                "--logging.level.com.ai.data.analyst=WARN");
+        try {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            HttpClient client = HttpClient.newHttpClient();
+            upload(client, port, rows);
+            analyse(client, port, requests, concurrency);
+        } finally {
+            context.close();
+            if (mongo != null) {
+                mongo.stop();
+            }
+            try (var files = Files.list(recordings)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(recordings);
+        }
+    }
+
+    private static Path seedRecordings() throws IOException {
+        Path directory = Files.createTempDirectory("llm-recordings");
+        List<String> lines = new ArrayList<>();
+        for (RecordReplayProvider.Recording recording : List.of(
+                recording(GeminiHandler.CallType.PIPELINE, PIPELINE),
+                recording(GeminiHandler.CallType.NARRATIVE, NARRATIVE))) {
+            lines.add(OBJECT_MAPPER.writeValueAsString(recording));
+        }
+        Files.write(directory.resolve("recordings.jsonl"), lines, StandardCharsets.UTF_8);
+        return directory;
+    }
+
+    /**
+     * A recording no real prompt matches; replay answers every prompt of its type with it.
+     */
+    private static RecordReplayProvider.Recording recording(GeminiHandler.CallType type, String response) {
+        return new RecordReplayProvider.Recording(type, "seed-" + type, "", null, response, 0);
+    }
+
+    private static void upload(HttpClient client, int port, int rows) throws Exception {
+        Path csv = SampleCsv.replicate(rows);
+        try {
+            String boundary = UUID.randomUUID().toString();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            body.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"superstore.csv\"\r\n"
+                    + "Content-Type: text/csv\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            body.write(Files.readAllBytes(csv));
+            body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+            long start = System.nanoTime();
+            HttpResponse<String> accepted = client.send(HttpRequest.newBuilder(uri(port, "/api/dataAnalyst/upload?parallel=true"))
+                    .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            if (accepted.statusCode() != 202) {
+                throw new IllegalStateException("Upload returned HTTP " + accepted.statusCode() + ": " + accepted.body());
+            }
+            String jobId = OBJECT_MAPPER.readTree(accepted.body()).path("id").asText();
+            JsonNode job;
+            do {
+                Thread.sleep(200);
+                job = OBJECT_MAPPER.readTree(client.send(HttpRequest.newBuilder(uri(port, "/api/dataAnalyst/jobs/" + jobId)).build(),
+                        HttpResponse.BodyHandlers.ofString()).body());
+            } while (!job.path("status").asText().equals("COMPLETED") && !job.path("status").asText().equals("FAILED"));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("upload: %s, %d rows written in %.1f s, %.0f rows/s%n", job.path("status").asText(),
+                    job.path("rowsWritten").asLong(), seconds, job.path("rowsWritten").asLong() / seconds);
+        } finally {
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    private static void analyse(HttpClient client, int port, int requests, int concurrency) throws Exception {
+        // one round per worker to warm up the JIT, the connection pools and Mongo
+        runLoop(client, port, concurrency, concurrency, new ArrayList<>(), new AtomicInteger());
+
+        List<Long> latencies = new ArrayList<>(requests);
+        AtomicInteger failed = new AtomicInteger();
+        long start = System.nanoTime();
+        runLoop(client, port, requests, concurrency, latencies, failed);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        latencies.sort(Long::compare);
+        double throughput = requests / seconds;
+        long p50 = percentile(latencies, 0.50);
+        long p95 = percentile(latencies, 0.95);
+        long p99 = percentile(latencies, 0.99);
+        long max = latencies.get(latencies.size() - 1);
+        System.out.println("requests  concurrency  failed  req/s    p50(ms)  p95(ms)  p99(ms)  max(ms)");
+        System.out.printf("%-9d %-12d %-7d %-8.1f %-8d %-8d %-8d %d%n",
+                requests, concurrency, failed.get(), throughput, p50, p95, p99, max);
+        System.out.printf("{\"requests\":%d,\"concurrency\":%d,\"failed\":%d,\"throughput\":%.1f,"
+                        + "\"p50\":%d,\"p95\":%d,\"p99\":%d,\"max\":%d}%n",
+                requests, concurrency, failed.get(), throughput, p50, p95, p99, max);
+    }
+
+    private static void runLoop(HttpClient client, int port, int requests, int concurrency,
+                                List<Long> latencies, AtomicInteger failed) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        for (int w = 0; w < concurrency; w++) {
+            workers.execute(() -> {
+                for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement()) {
+                    String question = QUESTIONS[i % QUESTIONS.length] + ", run " + i;
+                    HttpRequest request = HttpRequest.newBuilder(uri(port, "/api/dataAnalyst/analyse"))
+                            .timeout(Duration.ofMinutes(2))
+                            .header("Content-Type", "application/json")
+                            .POST(HttpRequest.BodyPublishers.ofString("{\"prompt\":\"" + question + "\"}"))
+                            .build();
+                    long start = System.nanoTime();
+                    try {
+                        if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() != 200) {
+                            failed.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                    }
+                    synchronized (latencies) {
+                        latencies.add((System.nanoTime() - start) / 1_000_000);
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.HOURS);
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) (sorted.size() * p)));
+    }
+
+    private static URI uri(int port, String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
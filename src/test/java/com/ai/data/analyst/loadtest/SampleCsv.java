@@ -0,0 +1,48 @@
+package com.ai.data.analyst.loadtest;
+
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Builds large CSV files for the load harnesses and benchmarks from SampleSuperStoreData.csv.
+ */
+public final class SampleCsv {
+
+    private SampleCsv() {
+    }
+
+    /**
+     * Writes the sample rows over and over to a temporary file, numbering the rowIds
+     * consecutively so every row is distinct. The caller deletes the file.
+     *
+     * @param rows the number of data rows
+     * @return the file, with the sample's header line
+     */
+    public static Path replicate(int rows) throws IOException {
+        List<String> lines;
+        try (InputStream in = new ClassPathResource("SampleSuperStoreData.csv").getInputStream()) {
+            lines = new String(in.readAllBytes(), StandardCharsets.UTF_8).lines().toList();
+        }
+        List<String> body = lines.subList(1, lines.size()).stream()
+                .map(line -> line.substring(line.indexOf(',')))
+                .toList();
+        Path csv = Files.createTempFile("superstore-bench", ".csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            writer.write(lines.get(0));
+            writer.newLine();
+            for (int rowId = 1; rowId <= rows; rowId++) {
+                writer.write(Integer.toString(rowId));
+                writer.write(body.get((rowId - 1) % body.size()));
+                writer.newLine();
+            }
+        }
+        return csv;
+    }
+}
@@ -0,0 +1,71 @@
+package com.ai.data.analyst.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal local stand-in for the Gemini generateContent endpoint. Pipeline prompts are answered
+ * with a fixed aggregation pipeline, every other prompt with a short narrative, after a fixed
+ * synthetic latency.
+ */
+public class StubLlmServer implements AutoCloseable {
+
+    private static final String PIPELINE = """
+            [ { "$group": { "_id": "$region", "totalSales": { "$sum": "$sales" } } }, { "$sort": { "totalSales": -1 } } ]""";
+
+    private static final String NARRATIVE = "1. Executive Summary\\nThe West region leads sales.";
+
+    private final HttpServer server;
+    private final Duration latency;
+    private final AtomicLong requests = new AtomicLong();
+
+    public StubLlmServer(Duration latency) throws IOException {
+        this.latency = latency;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    /**
+     * @return the value for {@code google.gemini.api.url}, including the key placeholder
+     */
+    public String url() {
+        return "http://localhost:" + server.getAddress().getPort() + "/v1beta/models/stub:generateContent?key=%s";
+    }
+
+    public long requests() {
+        return requests.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        try {
+            Thread.sleep(latency.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        String text = body.contains("aggregation pipeline") ? PIPELINE.replace("\"", "\\\"") : NARRATIVE;
+        byte[] response = ("{\"candidates\":[{\"content\":{\"role\":\"model\",\"parts\":[{\"text\":\""
+                + text.replace("\n", "\\n") + "\"}]}}]}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
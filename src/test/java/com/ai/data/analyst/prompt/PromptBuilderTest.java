@@ -0,0 +1,107 @@
+package com.ai.data.analyst.prompt;
+
+import com.ai.data.analyst.handler.GeminiHandler;
+import com.ai.data.analyst.metrics.AnalysisMetrics;
+import com.ai.data.analyst.service.PromptConstants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PromptBuilderTest {
+
+    private static final String TRUNCATED = "... (truncated to fit the prompt budget)";
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private final PromptBuilder promptBuilder = new PromptBuilder(new SchemaFieldSelector(List.of()),
+            new ContextCache(new GeminiHandler()), new AnalysisMetrics(new SimpleMeterRegistry()));
+
+    private void budget(int tokens) {
+        ReflectionTestUtils.setField(promptBuilder, "maxTokens", tokens);
+        ReflectionTestUtils.setField(promptBuilder, "charsPerToken", (double) CHARS_PER_TOKEN);
+    }
+
+    private static String csv(int rows) {
+        StringBuilder csv = new StringBuilder("region,sales\n");
+        for (int i = 0; i < rows; i++) {
+            csv.append("Region ").append(i).append(',').append(1000 + i).append('\n');
+        }
+        return csv.toString();
+    }
+
+    private static int tokens(String text) {
+        return (int) Math.ceil(text.length() / (double) CHARS_PER_TOKEN);
+    }
+
+    @Test
+    void leavesPromptsWithinTheBudgetAlone() {
+        budget(8000);
+        String data = csv(20);
+
+        Prompt prompt = promptBuilder.narrative("sales by region", data);
+
+        assertEquals(String.format(PromptConstants.DATA_ANALYSIS_PROMPT.getPrompt(), "sales by region", data), prompt.text());
+        assertNull(prompt.cachedContent());
+    }
+
+    @Test
+    void cutsTheDataAtARowToFitTheBudget() {
+        String question = "which region had the highest sales?";
+        String data = csv(2000);
+        int fixed = tokens(String.format(PromptConstants.DATA_ANALYSIS_PROMPT.getPrompt(), question, ""));
+        budget(fixed + 500);
+
+        String text = promptBuilder.narrative(question, data).text();
+
+        assertTrue(tokens(text) <= fixed + 500, tokens(text) + " tokens");
+        assertTrue(text.contains("Question: " + question + "\n"));
+        String kept = text.substring(text.indexOf("region,sales\n"), text.indexOf(TRUNCATED));
+        assertTrue(data.startsWith(kept));
+        assertTrue(kept.endsWith("\n"), "ends with a whole row");
+        assertTrue(kept.length() > 1000, "keeps as much as fits: " + kept.length());
+    }
+
+    @Test
+    void cutsOnlyTheTruncatableArgumentsLargestFirst() {
+        String pipeline = "[{\"$group\": {\"_id\": \"$region\"}}]\n".repeat(20);
+        String question = "total sales per region ".repeat(200);
+        String error = "Command failed with error 40324: Unrecognized pipeline stage name\n".repeat(400);
+        int fixed = tokens(String.format(PromptConstants.REPORT_PROMPT.getPrompt(), "", question, ""));
+        budget(fixed + 400);
+
+        String text = promptBuilder.repair(pipeline, question, error).text();
+
+        assertTrue(tokens(text) <= fixed + 400, tokens(text) + " tokens");
+        assertTrue(text.contains("pipeline for the following question: " + question + "\n"), "the question is never cut");
+        // the error was far larger, so it alone was cut
+        assertTrue(text.contains("You previously generated a MongoDB aggregation: " + pipeline + "\n"));
+        assertTrue(text.contains("with the following error: Command failed"));
+        assertTrue(text.indexOf(TRUNCATED) > text.indexOf("with the following error: "));
+        assertEquals(text.indexOf(TRUNCATED), text.lastIndexOf(TRUNCATED));
+    }
+
+    @Test
+    void stopsWhenNothingIsLeftToCut() {
+        String question = "sales by region ".repeat(4000);
+        budget(100);
+
+        String text = promptBuilder.narrative(question, "region,sales\nWest,1\n").text();
+
+        assertTrue(text.contains("Question: " + question + "\n"));
+        assertTrue(tokens(text) > 100);
+    }
+
+    @Test
+    void rendersNullArgumentsAsStringFormatWould() {
+        budget(8000);
+
+        String text = promptBuilder.repair("[]", "sales", null).text();
+
+        assertEquals(String.format(PromptConstants.REPORT_PROMPT.getPrompt(), "[]", "sales", null), text);
+    }
+}
@@ -0,0 +1,74 @@
+package com.ai.data.analyst.prompt;
+
+import com.ai.data.analyst.service.PromptConstants;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PromptTemplateTest {
+
+    /**
+     * Arguments with the characters a format string treats specially, which must come out as is.
+     */
+    private static Object[] arguments(int count) {
+        Object[] args = new Object[count];
+        for (int i = 0; i < count; i++) {
+            args[i] = "argument " + i + " with 100% of %s, %n and $1 in it\n";
+        }
+        return args;
+    }
+
+    @Test
+    void rendersEveryPromptAsStringFormatWould() {
+        for (PromptConstants constant : PromptConstants.values()) {
+            PromptTemplate template = constant.getTemplate();
+            Object[] args = arguments(template.arguments());
+            String formatted = String.format(constant.getPrompt(), args);
+
+            assertEquals(formatted, template.render(args), constant.name());
+            assertEquals(formatted, template.render(null, args), constant.name());
+            assertTrue(formatted.startsWith(template.prefix()), constant.name());
+            assertEquals(formatted.substring(template.prefix().length()), template.renderAfterPrefix(args), constant.name());
+        }
+    }
+
+    @Test
+    void rendersNullAsStringFormatWould() {
+        PromptTemplate template = PromptConstants.DATA_ANALYSIS_PROMPT.getTemplate();
+        assertEquals(String.format(PromptConstants.DATA_ANALYSIS_PROMPT.getPrompt(), null, 12.5),
+                template.render((Object) null, 12.5));
+    }
+
+    @Test
+    void leavesOutTheFieldsNotAsked() {
+        String all = PromptConstants.ANALYSIS_PROMPT.getTemplate().render("total sales");
+        String trimmed = PromptConstants.ANALYSIS_PROMPT.getTemplate().render(Set.of("sales", "region"), "total sales");
+
+        assertTrue(all.contains("\n- profit: Double\n"));
+        assertFalse(trimmed.contains("\n- profit: Double\n"));
+        assertTrue(trimmed.contains("\n- sales: Double\n"));
+        assertTrue(trimmed.contains("\n- region: String\n"));
+        // the rollup description is not a field line of superStore and is always kept
+        assertTrue(trimmed.contains("superStoreMonthly"));
+        assertTrue(trimmed.endsWith("Question: total sales\n"));
+    }
+
+    @Test
+    void parsesFormatSyntax() {
+        PromptTemplate template = PromptTemplate.compile("%s of %s is 100%%\n- sales: Double\n", List.of("sales"));
+
+        assertEquals(2, template.arguments());
+        assertEquals("", template.prefix());
+        assertEquals("margin of West is 100%\n- sales: Double\n", template.render("margin", "West"));
+        assertEquals("margin of West is 100%\n", template.render(Set.of(), "margin", "West"));
+        assertThrows(IllegalArgumentException.class, () -> template.render("margin"));
+        assertThrows(IllegalArgumentException.class, () -> PromptTemplate.compile("%d rows", List.of()));
+        assertThrows(IllegalArgumentException.class, () -> PromptTemplate.compile("100%", List.of()));
+    }
+}
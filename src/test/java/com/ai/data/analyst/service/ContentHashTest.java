@@ -0,0 +1,106 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.entity.SuperStore;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class ContentHashTest {
+
+    private static SuperStore row() {
+        return SuperStore.builder()
+                .rowId(1)
+                .orderId("CA-2016-152156")
+                .orderDate(LocalDate.of(2016, 11, 8))
+                .shipDate(LocalDate.of(2016, 11, 11))
+                .shipMode("Second Class")
+                .customerId("CG-12520")
+                .customerName("Claire Gute")
+                .segment("Consumer")
+                .country("United States")
+                .city("Henderson")
+                .state("Kentucky")
+                .postalCode("42420")
+                .region("South")
+                .productId("FUR-BO-10001798")
+                .category("Furniture")
+                .subCategory("Bookcases")
+                .productName("Bush Somerset Collection Bookcase")
+                .sales(261.96)
+                .quantity(2)
+                .discount(0.0)
+                .profit(41.9136)
+                .build();
+    }
+
+    private static long hashWith(Consumer<SuperStore> change) {
+        SuperStore row = row();
+        change.accept(row);
+        return ContentHash.of(row);
+    }
+
+    @Test
+    void isStableAcrossRuns() {
+        // stored hashes outlive the process, so the function must never change
+        assertEquals(-1476965918503749206L, ContentHash.of(row()));
+        assertEquals(-1259324555352405707L, ContentHash.of(new SuperStore()));
+    }
+
+    @Test
+    void ignoresTheRowIdAndTheStoredHash() {
+        long hash = ContentHash.of(row());
+
+        assertEquals(hash, hashWith(row -> row.setRowId(9994)));
+        assertEquals(hash, hashWith(row -> row.setContentHash(42L)));
+    }
+
+    @Test
+    void changesWithEveryField() {
+        long hash = ContentHash.of(row());
+
+        assertNotEquals(hash, hashWith(row -> row.setOrderId("CA-2016-152157")));
+        assertNotEquals(hash, hashWith(row -> row.setOrderDate(LocalDate.of(2016, 11, 9))));
+        assertNotEquals(hash, hashWith(row -> row.setShipDate(null)));
+        assertNotEquals(hash, hashWith(row -> row.setShipMode("First Class")));
+        assertNotEquals(hash, hashWith(row -> row.setCustomerId("CG-12521")));
+        assertNotEquals(hash, hashWith(row -> row.setCustomerName("Claire Gute ")));
+        assertNotEquals(hash, hashWith(row -> row.setSegment("Corporate")));
+        assertNotEquals(hash, hashWith(row -> row.setCountry("Canada")));
+        assertNotEquals(hash, hashWith(row -> row.setCity("Louisville")));
+        assertNotEquals(hash, hashWith(row -> row.setState("Ohio")));
+        assertNotEquals(hash, hashWith(row -> row.setPostalCode("42421")));
+        assertNotEquals(hash, hashWith(row -> row.setRegion("East")));
+        assertNotEquals(hash, hashWith(row -> row.setProductId("FUR-BO-10001799")));
+        assertNotEquals(hash, hashWith(row -> row.setCategory("Technology")));
+        assertNotEquals(hash, hashWith(row -> row.setSubCategory("Chairs")));
+        assertNotEquals(hash, hashWith(row -> row.setProductName("Bush Somerset Collection")));
+        assertNotEquals(hash, hashWith(row -> row.setSales(261.97)));
+        assertNotEquals(hash, hashWith(row -> row.setQuantity(3)));
+        assertNotEquals(hash, hashWith(row -> row.setDiscount(-0.0)));
+        assertNotEquals(hash, hashWith(row -> row.setProfit(null)));
+    }
+
+    @Test
+    void separatesNullsEmptyStringsAndShiftedValues() {
+        assertNotEquals(hashWith(row -> row.setCity(null)), hashWith(row -> row.setCity("")));
+        assertNotEquals(
+                hashWith(row -> {
+                    row.setCountry("United StatesH");
+                    row.setCity("enderson");
+                }),
+                ContentHash.of(row()));
+        assertNotEquals(
+                hashWith(row -> {
+                    row.setCustomerId(null);
+                    row.setCustomerName("CG-12520");
+                }),
+                hashWith(row -> {
+                    row.setCustomerId("CG-12520");
+                    row.setCustomerName(null);
+                }));
+    }
+}
@@ -0,0 +1,102 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.service.CsvDateParser.DateOrder;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvDateParserTest {
+
+    @Test
+    void detectsDayFirst() {
+        CsvDateParser parser = CsvDateParser.detect(List.of("01/02/2016", "25/12/2016", "3/4/2017"), DateOrder.MDY);
+
+        assertEquals(DateOrder.DMY, parser.getOrder());
+        assertNull(parser.getAmbiguity());
+        assertEquals(LocalDate.of(2016, 2, 1), parser.parse("01/02/2016"));
+        assertEquals(LocalDate.of(2017, 4, 3), parser.parse("3.4.2017"));
+    }
+
+    @Test
+    void detectsMonthFirst() {
+        CsvDateParser parser = CsvDateParser.detect(List.of("11/8/2016", "6/12/2016", "10/11/2015", "6/16/2017"), DateOrder.DMY);
+
+        assertEquals(DateOrder.MDY, parser.getOrder());
+        assertNull(parser.getAmbiguity());
+        assertEquals(LocalDate.of(2017, 6, 16), parser.parse("6/16/2017"));
+        assertEquals(LocalDate.of(2016, 11, 8), parser.parse("11-8-2016"));
+    }
+
+    @Test
+    void detectsYearFirst() {
+        CsvDateParser parser = CsvDateParser.detect(List.of("2016-01-02", "2017-12-31"), DateOrder.DMY);
+
+        assertEquals(DateOrder.YMD, parser.getOrder());
+        assertNull(parser.getAmbiguity());
+        assertEquals(LocalDate.of(2016, 1, 2), parser.parse("2016-01-02"));
+    }
+
+    @Test
+    void ambiguousSampleFallsBackAndSaysSo() {
+        CsvDateParser parser = CsvDateParser.detect(Arrays.asList("01/02/2016", null, "", "12/11/2016"), DateOrder.DMY);
+
+        assertEquals(DateOrder.DMY, parser.getOrder());
+        assertNotNull(parser.getAmbiguity());
+        assertTrue(parser.getAmbiguity().contains("2 sampled dates"), parser.getAmbiguity());
+        assertEquals(LocalDate.of(2016, 2, 1), parser.parse("01/02/2016"));
+    }
+
+    @Test
+    void rejectsMixedOrders() {
+        assertThrows(IllegalArgumentException.class,
+                () -> CsvDateParser.detect(List.of("25/12/2016", "12/25/2016"), DateOrder.DMY));
+        assertThrows(IllegalArgumentException.class,
+                () -> CsvDateParser.detect(List.of("2016-12-25", "25-12-2016"), DateOrder.DMY));
+    }
+
+    @Test
+    void rejectsInvalidDays() {
+        CsvDateParser dayFirst = CsvDateParser.of(DateOrder.DMY);
+        assertThrows(IllegalArgumentException.class, () -> dayFirst.parse("31/02/2016"));
+        assertThrows(IllegalArgumentException.class, () -> dayFirst.parse("29/02/2017"));
+        assertThrows(IllegalArgumentException.class, () -> dayFirst.parse("00/01/2017"));
+        assertEquals(LocalDate.of(2016, 2, 29), dayFirst.parse("29/02/2016"));
+
+        CsvDateParser monthFirst = CsvDateParser.of(DateOrder.MDY);
+        assertThrows(IllegalArgumentException.class, () -> monthFirst.parse("13/01/2016"));
+    }
+
+    @Test
+    void requiresAFourDigitYear() {
+        CsvDateParser monthFirst = CsvDateParser.of(DateOrder.MDY);
+        assertThrows(IllegalArgumentException.class, () -> monthFirst.parse("1/2/20"));
+        assertThrows(IllegalArgumentException.class, () -> monthFirst.parse("1/2/020"));
+        assertThrows(IllegalArgumentException.class, () -> monthFirst.parse("1/2/20160"));
+        assertThrows(IllegalArgumentException.class, () -> monthFirst.parse("001/2/2016"));
+        assertThrows(IllegalArgumentException.class,
+                () -> CsvDateParser.detect(List.of("1/2/20", "3/4/21"), DateOrder.MDY));
+    }
+
+    @Test
+    void rejectsValuesInTheOtherYearPosition() {
+        assertThrows(IllegalArgumentException.class, () -> CsvDateParser.of(DateOrder.DMY).parse("2016/01/02"));
+        assertThrows(IllegalArgumentException.class, () -> CsvDateParser.of(DateOrder.YMD).parse("01/02/2016"));
+    }
+
+    @Test
+    void rejectsMalformedValues() {
+        CsvDateParser parser = CsvDateParser.of(DateOrder.DMY);
+        for (String value : List.of("", "01/02", "01/02/2016/03", "01//2016", "/01/2016", "01/02/2016 ", "1st/02/2016")) {
+            assertThrows(IllegalArgumentException.class, () -> parser.parse(value), value);
+        }
+        assertThrows(IllegalArgumentException.class, () -> CsvDateParser.of(DateOrder.AUTO));
+    }
+}
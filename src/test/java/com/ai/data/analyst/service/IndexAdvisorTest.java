@@ -0,0 +1,144 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.model.PipelinePlan;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexOptions;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndexAdvisorTest {
+
+    private static final PipelinePlan COLLECTION_SCAN = PipelinePlan.builder().collectionScan(true).estimatedDocuments(9994).build();
+
+    // nothing listens there: every index operation goes to the stub below
+    private final MongoClient client = MongoClients.create("mongodb://localhost:1");
+    private final AtomicInteger createAttempts = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+    }
+
+    private static List<Document> pipeline(String json) {
+        return new PipelineValidator().parse(json).getStages();
+    }
+
+    @Test
+    void buildsCandidatesFromTheLeadingMatchAndSort() {
+        IndexAdvisor.Candidate candidate = IndexAdvisor.candidateFor("superStore", pipeline("""
+                [{"$match": {"region": "West", "orderDate": {"$gte": "2016-01-01"}, "category": {"$in": ["Technology"]}}},
+                 {"$sort": {"sales": -1}},
+                 {"$match": {"state": "California"}}]"""));
+
+        assertEquals(List.of("region", "category", "sales:-1", "orderDate"), candidate.fields());
+    }
+
+    @Test
+    void doesNotProposeGroupKeysAsIndexes() {
+        List<Document> groupOnly = pipeline("[{\"$group\": {\"_id\": {\"region\": \"$region\", \"year\": {\"$year\": \"$orderDate\"}}}}]");
+
+        assertNull(IndexAdvisor.candidateFor("superStore", groupOnly));
+        assertNull(IndexAdvisor.candidateFor("superStore", pipeline(
+                "[{\"$project\": {\"region\": 1}}, {\"$match\": {\"region\": \"West\"}}]")));
+        assertEquals(Set.of("region", "orderDate"), IndexAdvisor.groupKeys(groupOnly));
+    }
+
+    @Test
+    void countsGroupKeysAsFieldUsageOnly() {
+        IndexAdvisor advisor = advisor(true);
+        List<Document> pipeline = pipeline("[{\"$group\": {\"_id\": \"$region\", \"sales\": {\"$sum\": \"$sales\"}}}]");
+
+        for (int i = 0; i < 5; i++) {
+            advisor.record("superStore", pipeline, COLLECTION_SCAN);
+        }
+
+        assertTrue(advisor.recommendations().isEmpty());
+        assertEquals(Long.valueOf(5), advisor.stats().getFieldUsage().get("region"));
+        assertEquals(0, createAttempts.get());
+    }
+
+    @Test
+    void doesNotRetryAFailedIndex() throws InterruptedException {
+        IndexAdvisor advisor = advisor(false);
+        List<Document> pipeline = pipeline("[{\"$match\": {\"region\": \"West\"}}]");
+
+        for (int i = 0; i < 10; i++) {
+            advisor.record("superStore", pipeline, COLLECTION_SCAN);
+            // creation runs asynchronously; let the failure land before the next execution
+            for (int wait = 0; wait < 100 && advisor.recommendations().get(0).isCreated(); wait++) {
+                Thread.sleep(10);
+            }
+        }
+
+        assertEquals(1, createAttempts.get());
+        assertEquals(List.of("region"), advisor.recommendations().get(0).getFields());
+    }
+
+    private IndexAdvisor advisor(boolean indexesSucceed) {
+        MongoTemplate mongoTemplate = new MongoTemplate(client, "advisor") {
+            @Override
+            public IndexOperations indexOps(String collectionName) {
+                return new StubIndexOperations(indexesSucceed);
+            }
+        };
+        IndexAdvisor advisor = new IndexAdvisor(mongoTemplate);
+        ReflectionTestUtils.setField(advisor, "enabled", true);
+        ReflectionTestUtils.setField(advisor, "autoCreate", true);
+        ReflectionTestUtils.setField(advisor, "minOccurrences", 2L);
+        ReflectionTestUtils.setField(advisor, "maxCreatedIndexes", 10);
+        return advisor;
+    }
+
+    /**
+     * Has no indexes and counts create calls, failing them unless told otherwise.
+     */
+    private final class StubIndexOperations implements IndexOperations {
+
+        private final boolean succeed;
+
+        StubIndexOperations(boolean succeed) {
+            this.succeed = succeed;
+        }
+
+        @Override
+        public String createIndex(IndexDefinition indexDefinition) {
+            createAttempts.incrementAndGet();
+            if (!succeed) {
+                throw new IllegalStateException("Cannot create indexes on a view");
+            }
+            return "stub";
+        }
+
+        @Override
+        public void alterIndex(String name, IndexOptions options) {
+        }
+
+        @Override
+        public void dropIndex(String name) {
+        }
+
+        @Override
+        public void dropAllIndexes() {
+        }
+
+        @Override
+        public List<IndexInfo> getIndexInfo() {
+            return List.of();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.exception.PipelineRejectedException;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PipelineGuardTest {
+
+    private final PipelineGuard pipelineGuard = new PipelineGuard(null);
+
+    PipelineGuardTest() {
+        ReflectionTestUtils.setField(pipelineGuard, "maxResultRows", 1000);
+        ReflectionTestUtils.setField(pipelineGuard, "maxJoins", 2);
+        ReflectionTestUtils.setField(pipelineGuard, "allowedCollections", Set.of("superStore", "superStoreDaily", "superStoreMonthly"));
+    }
+
+    private static List<Document> pipeline(String json) {
+        return Document.parse("{\"stages\": " + json + "}").getList("stages", Document.class);
+    }
+
+    private List<Document> rewrite(String json) {
+        return pipelineGuard.rewrite("superStore", pipeline(json));
+    }
+
+    private static void assertStages(String expected, List<Document> actual) {
+        assertEquals(pipeline(expected), actual);
+    }
+
+    @Test
+    void movesMatchesAheadOfStagesTheyDoNotDependOn() {
+        assertStages("[{\"$match\": {\"region\": \"West\"}}, {\"$sort\": {\"sales\": -1}}, {\"$limit\": 10}]",
+                rewrite("[{\"$sort\": {\"sales\": -1}}, {\"$match\": {\"region\": \"West\"}}, {\"$limit\": 10}]"));
+        assertStages("[{\"$match\": {\"region\": \"West\"}}, {\"$addFields\": {\"margin\": {\"$divide\": [\"$profit\", \"$sales\"]}}}, {\"$limit\": 1000}]",
+                rewrite("[{\"$addFields\": {\"margin\": {\"$divide\": [\"$profit\", \"$sales\"]}}}, {\"$match\": {\"region\": \"West\"}}]"));
+        assertStages("[{\"$match\": {\"region\": \"West\"}}, {\"$project\": {\"region\": 1, \"sales\": 1}}, {\"$limit\": 1000}]",
+                rewrite("[{\"$project\": {\"region\": 1, \"sales\": 1}}, {\"$match\": {\"region\": \"West\"}}]"));
+        assertStages("[{\"$match\": {\"region\": \"West\"}}, {\"$project\": {\"customer.name\": 0}}, {\"$limit\": 1000}]",
+                rewrite("[{\"$project\": {\"customer.name\": 0}}, {\"$match\": {\"region\": \"West\"}}]"));
+    }
+
+    @Test
+    void keepsMatchesBehindStagesThatChangeTheirFields() {
+        for (String json : List.of(
+                "[{\"$addFields\": {\"sales\": {\"$multiply\": [\"$sales\", 2]}}}, {\"$match\": {\"sales\": {\"$gt\": 100}}}]",
+                "[{\"$set\": {\"customer.tier\": \"gold\"}}, {\"$match\": {\"customer.tier\": \"gold\"}}]",
+                "[{\"$project\": {\"total\": \"$sales\"}}, {\"$match\": {\"total\": {\"$gt\": 100}}}]",
+                "[{\"$project\": {\"region\": 1}}, {\"$match\": {\"sales\": {\"$gt\": 100}}}]",
+                "[{\"$project\": {\"sales\": 0}}, {\"$match\": {\"sales\": {\"$gt\": 100}}}]",
+                "[{\"$project\": {\"customer.name\": 0}}, {\"$match\": {\"customer\": {\"$exists\": true}}}]",
+                "[{\"$project\": {\"customer.name\": 0}}, {\"$match\": {\"customer.name\": \"Claire Gute\"}}]",
+                "[{\"$group\": {\"_id\": \"$region\", \"sales\": {\"$sum\": \"$sales\"}}}, {\"$match\": {\"sales\": {\"$gt\": 100}}}]",
+                "[{\"$sort\": {\"sales\": -1}}, {\"$match\": {\"$expr\": {\"$gt\": [\"$sales\", \"$profit\"]}}}]")) {
+            List<Document> stages = pipeline(json);
+            assertEquals(stages, rewrite(json).subList(0, stages.size()), json);
+        }
+    }
+
+    @Test
+    void boundsTheResult() {
+        assertEquals(new Document("$limit", 1000), rewrite("[{\"$sort\": {\"sales\": -1}}]").get(1));
+        assertEquals(1, rewrite("[{\"$limit\": 5}]").size());
+    }
+
+    @Test
+    void refusesWritesJoinsAndUnknownCollections() {
+        assertThrows(PipelineRejectedException.class, () -> rewrite("[{\"$out\": \"copy\"}]"));
+        assertThrows(PipelineRejectedException.class, () -> rewrite("[{\"$lookup\": {\"from\": \"users\", \"as\": \"u\"}}]"));
+        assertThrows(PipelineRejectedException.class, () -> rewrite(
+                "[{\"$unionWith\": \"superStoreDaily\"}, {\"$unionWith\": \"superStoreDaily\"}, {\"$unionWith\": \"superStoreMonthly\"}]"));
+        assertThrows(PipelineRejectedException.class, () -> pipelineGuard.rewrite("users", pipeline("[]")));
+    }
+}
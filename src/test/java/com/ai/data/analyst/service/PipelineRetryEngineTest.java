@@ -0,0 +1,222 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.handler.GeminiHandler;
+import com.ai.data.analyst.metrics.AnalysisMetrics;
+import com.ai.data.analyst.model.PipelineExecution;
+import com.ai.data.analyst.model.PipelineFailure;
+import com.ai.data.analyst.model.RepairStats;
+import com.ai.data.analyst.prompt.ContextCache;
+import com.ai.data.analyst.prompt.Prompt;
+import com.ai.data.analyst.prompt.PromptBuilder;
+import com.ai.data.analyst.prompt.SchemaFieldSelector;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PipelineRetryEngineTest {
+
+    private static final String VALID = "[{\"$group\": {\"_id\": \"$region\", \"sales\": {\"$sum\": \"$sales\"}}}]";
+    private static final String UNKNOWN_FIELD = "[{\"$group\": {\"_id\": \"$territory\", \"sales\": {\"$sum\": \"$sales\"}}}]";
+    private static final List<Document> RESULTS = List.of(new Document("_id", "West").append("sales", 725457.8));
+
+    private final StubGeminiHandler geminiHandler = new StubGeminiHandler();
+    private final StubAggregationExecutor aggregationExecutor = new StubAggregationExecutor();
+    private final AnalysisMetrics metrics = new AnalysisMetrics(new SimpleMeterRegistry());
+    private final PipelineRetryEngine engine = new PipelineRetryEngine(geminiHandler, new PipelineValidator(),
+            aggregationExecutor, metrics, new PromptBuilder(new SchemaFieldSelector(List.of()), new ContextCache(geminiHandler), metrics));
+
+    PipelineRetryEngineTest() {
+        ReflectionTestUtils.setField(engine, "maxAttempts", 3);
+        ReflectionTestUtils.setField(engine, "budget", Duration.ofSeconds(10));
+    }
+
+    @Test
+    void returnsAWorkingPipelineWithoutRepair() {
+        Optional<PipelineExecution> execution = engine.execute("sales by region", "```json\n" + VALID + "\n```");
+
+        assertTrue(execution.isPresent());
+        assertEquals(VALID, execution.get().getPipeline());
+        assertEquals(RESULTS, execution.get().getResults());
+        assertEquals(0, geminiHandler.prompts.size());
+        assertTrue(engine.stats().isEmpty());
+    }
+
+    @Test
+    void repairsUntilAnAttemptSucceeds() {
+        geminiHandler.answer(UNKNOWN_FIELD);
+        geminiHandler.answer(VALID);
+
+        Optional<PipelineExecution> execution = engine.execute("sales by region", "[{\"$group\": ");
+
+        assertTrue(execution.isPresent());
+        assertEquals(VALID, execution.get().getPipeline());
+        assertEquals(2, geminiHandler.prompts.size());
+        assertTrue(geminiHandler.prompts.get(0).contains("The response is not valid JSON"), geminiHandler.prompts.get(0));
+        assertTrue(geminiHandler.prompts.get(1).contains("unknown field 'territory'"), geminiHandler.prompts.get(1));
+        // only the validated pipeline reached the executor
+        assertEquals(1, aggregationExecutor.executions);
+
+        RepairStats invalidJson = stats(PipelineFailure.INVALID_JSON);
+        assertEquals(1, invalidJson.getOccurrences());
+        assertEquals(1, invalidJson.getRepairs());
+        assertEquals(0, invalidJson.getFixed());
+        RepairStats unknownField = stats(PipelineFailure.UNKNOWN_FIELD);
+        assertEquals(1, unknownField.getRepairs());
+        assertEquals(1, unknownField.getFixed());
+        assertEquals(1.0, unknownField.getFixRate());
+    }
+
+    @Test
+    void stopsAfterMaxAttempts() {
+        for (int i = 0; i < 5; i++) {
+            geminiHandler.answer(UNKNOWN_FIELD);
+        }
+
+        assertTrue(engine.execute("sales by region", UNKNOWN_FIELD).isEmpty());
+
+        assertEquals(2, geminiHandler.prompts.size());
+        assertEquals(3, stats(PipelineFailure.UNKNOWN_FIELD).getOccurrences());
+        assertEquals(0, aggregationExecutor.executions);
+    }
+
+    @Test
+    void doesNotRepairWhatTheModelCannotFix() {
+        aggregationExecutor.outcome = () -> {
+            throw new DataAccessResourceFailureException("Timed out while waiting for a server");
+        };
+
+        assertTrue(engine.execute("sales by region", VALID).isEmpty());
+
+        assertEquals(0, geminiHandler.prompts.size());
+        assertEquals(1, stats(PipelineFailure.UNAVAILABLE).getOccurrences());
+    }
+
+    @Test
+    void repairsExecutionFailures() {
+        List<RuntimeException> failures = new ArrayList<>(List.of(
+                new QueryTimeoutException("operation exceeded time limit"),
+                new IllegalStateException("PlanExecutor error during aggregation")));
+        aggregationExecutor.outcome = () -> {
+            if (!failures.isEmpty()) {
+                throw failures.remove(0);
+            }
+            return RESULTS;
+        };
+        geminiHandler.answer(VALID);
+        geminiHandler.answer(VALID);
+
+        assertTrue(engine.execute("sales by region", VALID).isPresent());
+
+        assertEquals(1, stats(PipelineFailure.TIMEOUT).getRepairs());
+        assertEquals(0, stats(PipelineFailure.TIMEOUT).getFixed());
+        assertEquals(1, stats(PipelineFailure.EXECUTION_ERROR).getRepairs());
+        assertEquals(1, stats(PipelineFailure.EXECUTION_ERROR).getFixed());
+        assertEquals(2, geminiHandler.prompts.size());
+    }
+
+    @Test
+    void stopsWhenTheBudgetIsSpentWaitingForARepair() {
+        ReflectionTestUtils.setField(engine, "budget", Duration.ofMillis(200));
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        geminiHandler.answers.add(pending);
+
+        long start = System.nanoTime();
+        assertTrue(engine.execute("sales by region", UNKNOWN_FIELD).isEmpty());
+
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(5).toNanos());
+        assertTrue(pending.isCancelled());
+        assertEquals(1, geminiHandler.prompts.size());
+    }
+
+    @Test
+    void doesNotStartARepairWithoutBudget() {
+        ReflectionTestUtils.setField(engine, "budget", Duration.ZERO);
+        geminiHandler.answer(VALID);
+
+        assertTrue(engine.execute("sales by region", UNKNOWN_FIELD).isEmpty());
+
+        assertEquals(0, geminiHandler.prompts.size());
+    }
+
+    @Test
+    void stopsWhenTheRepairCallFails() {
+        geminiHandler.answers.add(CompletableFuture.failedFuture(new IllegalStateException("Gemini API returned HTTP 503")));
+
+        assertTrue(engine.execute("sales by region", UNKNOWN_FIELD).isEmpty());
+
+        assertEquals(1, geminiHandler.prompts.size());
+        assertEquals(1, stats(PipelineFailure.UNKNOWN_FIELD).getOccurrences());
+    }
+
+    @Test
+    void continuesFromAFailedFirstAttempt() {
+        PipelineRetryEngine.Attempt failed = engine.attempt(UNKNOWN_FIELD);
+        assertEquals(PipelineFailure.UNKNOWN_FIELD, failed.failure());
+        assertEquals(0, geminiHandler.prompts.size());
+
+        geminiHandler.answer(VALID);
+        assertEquals(RESULTS, engine.repair("sales by region", failed).orElseThrow().getResults());
+    }
+
+    private RepairStats stats(PipelineFailure failure) {
+        return engine.stats().stream()
+                .filter(stats -> stats.getFailure() == failure)
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("no stats for " + failure));
+    }
+
+    /**
+     * Answers repair prompts from a queue and records them.
+     */
+    private static final class StubGeminiHandler extends GeminiHandler {
+
+        private final Queue<CompletableFuture<String>> answers = new ArrayDeque<>();
+        private final List<String> prompts = new ArrayList<>();
+
+        void answer(String pipeline) {
+            answers.add(CompletableFuture.completedFuture(pipeline));
+        }
+
+        @Override
+        public CompletableFuture<String> generateContentAsync(CallType type, Prompt prompt, Double temperature) {
+            assertEquals(CallType.REPAIR, type);
+            prompts.add(prompt.text());
+            CompletableFuture<String> answer = answers.poll();
+            return answer != null ? answer : CompletableFuture.failedFuture(new AssertionError("unexpected model call"));
+        }
+    }
+
+    /**
+     * Returns fixed results, or whatever the test supplies, without a database.
+     */
+    private static final class StubAggregationExecutor extends AggregationExecutor {
+
+        private Supplier<List<Document>> outcome = () -> RESULTS;
+        private int executions;
+
+        StubAggregationExecutor() {
+            super(null, null, null, null, null, null, null);
+        }
+
+        @Override
+        public List<Document> execute(String collection, List<Document> generatedPipeline) {
+            executions++;
+            return outcome.get();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.exception.InvalidPipelineException;
+import com.ai.data.analyst.model.GeneratedPipeline;
+import com.ai.data.analyst.model.PipelineFailure;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PipelineValidatorTest {
+
+    private final PipelineValidator validator = new PipelineValidator();
+
+    private void valid(String json) {
+        assertDoesNotThrow(() -> validator.validate(validator.parse(json)), json);
+    }
+
+    private InvalidPipelineException invalid(String json, PipelineFailure failure) {
+        InvalidPipelineException e = assertThrows(InvalidPipelineException.class,
+                () -> validator.validate(validator.parse(json)), json);
+        assertEquals(failure, e.getFailure(), e.getMessage());
+        return e;
+    }
+
+    private static void assertMentions(InvalidPipelineException e, String text) {
+        assertTrue(e.getMessage().contains(text), e.getMessage());
+    }
+
+    @Test
+    void parsesBothShapes() {
+        GeneratedPipeline array = validator.parse(PipelineValidator.sanitize("```json\n[{\"$limit\": 5}]\n```"));
+        assertEquals(DataAnalystService.SUPER_STORE, array.getCollection());
+        assertEquals(1, array.getStages().size());
+
+        GeneratedPipeline object = validator.parse("{\"collection\": \"SUPERSTOREMONTHLY\", \"pipeline\": [{\"$limit\": 5}]}");
+        assertEquals(RollupService.MONTHLY, object.getCollection());
+    }
+
+    @Test
+    void classifiesMalformedResponses() {
+        invalid("[{\"$match\": ", PipelineFailure.INVALID_JSON);
+        invalid("{\"stages\": []}", PipelineFailure.INVALID_SHAPE);
+        invalid("[{\"$match\": {}, \"$limit\": 5}]", PipelineFailure.INVALID_SHAPE);
+        invalid("[{\"$group\": {\"total\": {\"$sum\": \"$sales\"}}}]", PipelineFailure.INVALID_SHAPE);
+        invalid("[{\"$group\": {\"_id\": \"$region\", \"total\": \"$sales\"}}]", PipelineFailure.INVALID_SHAPE);
+    }
+
+    @Test
+    void tracksFieldsFromStageToStage() {
+        valid("""
+                [{"$match": {"category": "Technology"}},
+                 {"$group": {"_id": "$region", "total": {"$sum": "$sales"}}},
+                 {"$addFields": {"share": {"$divide": ["$total", 100]}}},
+                 {"$sort": {"share": -1}},
+                 {"$project": {"region": "$_id", "share": 1}}]""");
+
+        InvalidPipelineException e = invalid("""
+                [{"$group": {"_id": "$region", "total": {"$sum": "$sales"}}},
+                 {"$match": {"profit": {"$gt": 0}}}]""", PipelineFailure.UNKNOWN_FIELD);
+        assertMentions(e, "stage 2 ($match) references unknown field 'profit'");
+        assertMentions(e, "(available: [_id, total])");
+    }
+
+    @Test
+    void tracksProjections() {
+        valid("[{\"$project\": {\"sales\": 1, \"_id\": 0}}, {\"$sort\": {\"sales\": -1}}]");
+        invalid("[{\"$project\": {\"sales\": 1}}, {\"$sort\": {\"profit\": -1}}]", PipelineFailure.UNKNOWN_FIELD);
+        invalid("[{\"$project\": {\"sales\": 0}}, {\"$sort\": {\"sales\": -1}}]", PipelineFailure.UNKNOWN_FIELD);
+        valid("[{\"$project\": {\"sales\": 0}}, {\"$sort\": {\"profit\": -1}}]");
+        invalid("[{\"$unset\": [\"profit\"]}, {\"$sort\": {\"profit\": -1}}]", PipelineFailure.UNKNOWN_FIELD);
+    }
+
+    @Test
+    void tracksFieldsOfOtherStages() {
+        valid("[{\"$count\": \"orders\"}, {\"$project\": {\"orders\": 1}}]");
+        invalid("[{\"$count\": \"orders\"}, {\"$sort\": {\"sales\": 1}}]", PipelineFailure.UNKNOWN_FIELD);
+        valid("[{\"$sortByCount\": \"$state\"}, {\"$match\": {\"count\": {\"$gte\": 10}}}]");
+        valid("[{\"$unwind\": {\"path\": \"$city\", \"includeArrayIndex\": \"position\"}}, {\"$sort\": {\"position\": 1}}]");
+        valid("""
+                [{"$facet": {"top": [{"$sort": {"sales": -1}}, {"$limit": 5}]}},
+                 {"$project": {"top": 1}}]""");
+        invalid("[{\"$facet\": {\"top\": [{\"$sort\": {\"revenue\": -1}}]}}]", PipelineFailure.UNKNOWN_FIELD);
+    }
+
+    @Test
+    void checksTheFieldsOfTheTargetCollection() {
+        valid("{\"collection\": \"superStoreMonthly\", \"pipeline\": [{\"$group\": {\"_id\": \"$orderMonth\", \"sales\": {\"$sum\": \"$sales\"}}}]}");
+        invalid("{\"collection\": \"superStoreMonthly\", \"pipeline\": [{\"$match\": {\"orderDate\": \"2016-01-01\"}}]}",
+                PipelineFailure.UNKNOWN_FIELD);
+        invalid("{\"collection\": \"superStoreDaily\", \"pipeline\": [{\"$match\": {\"productName\": \"Stapler\"}}]}",
+                PipelineFailure.UNKNOWN_FIELD);
+    }
+
+    @Test
+    void stopsTrackingFieldsAfterAnUnknownOutput() {
+        valid("[{\"$replaceRoot\": {\"newRoot\": {\"total\": \"$sales\"}}}, {\"$match\": {\"anything\": 1}}]");
+        invalid("[{\"$replaceRoot\": {\"newRoot\": {\"total\": \"$sales\"}}}, {\"$match\": {\"anything\": {\"$greater\": 1}}}]",
+                PipelineFailure.UNKNOWN_OPERATOR);
+        // the foreign collection of a lookup is not known, its sub-pipeline only gets the operators checked
+        valid("[{\"$lookup\": {\"from\": \"returns\", \"pipeline\": [{\"$match\": {\"returned\": true}}], \"as\": \"returns\"}},"
+                + " {\"$match\": {\"returns\": {\"$size\": 0}}}]");
+    }
+
+    @Test
+    void suggestsTheIntendedName() {
+        assertMentions(invalid("[{\"$Match\": {\"sales\": 1}}]", PipelineFailure.UNKNOWN_STAGE),
+                "$Match is not an aggregation stage, did you mean '$match'?");
+        assertMentions(invalid("[{\"$group\": {\"_id\": \"$Region\", \"n\": {\"$sum\": 1}}}]", PipelineFailure.UNKNOWN_FIELD),
+                "unknown field 'Region', did you mean 'region'?");
+        assertMentions(invalid("[{\"$match\": {\"sales\": {\"$GT\": 100}}}]", PipelineFailure.UNKNOWN_OPERATOR),
+                "$GT is not a query operator, did you mean '$gt'?");
+        assertMentions(invalid("[{\"$project\": {\"total\": {\"$Sum\": [\"$sales\", \"$profit\"]}}}]", PipelineFailure.UNKNOWN_OPERATOR),
+                "$Sum is not an expression operator, did you mean '$sum'?");
+        assertMentions(invalid("[{\"$match\": {\"$gt\": [\"$sales\", 100], \"$year\": 2016}}]", PipelineFailure.UNKNOWN_OPERATOR),
+                "$year is not a query operator, wrap expressions in $expr");
+    }
+
+    @Test
+    void detectsExtendedJsonDates() {
+        assertMentions(invalid("[{\"$match\": {\"orderDate\": {\"$gte\": {\"$date\": \"2016-01-01T00:00:00Z\"}}}}]",
+                PipelineFailure.UNKNOWN_OPERATOR), "extended JSON such as {\"$date\": ...} is not supported");
+        assertMentions(invalid("[{\"$match\": {\"orderDate\": {\"$in\": [{\"$date\": \"2016-01-01T00:00:00Z\"}]}}}]",
+                PipelineFailure.UNKNOWN_OPERATOR), "$dateFromString");
+        assertMentions(invalid("[{\"$match\": {\"orderDate\": {\"$date\": \"2016-01-01T00:00:00Z\"}}}]",
+                PipelineFailure.UNKNOWN_OPERATOR), "$date is not a query operator; extended JSON");
+        assertMentions(invalid("[{\"$match\": {\"$expr\": {\"$gte\": [\"$orderDate\", {\"$date\": \"2016-01-01T00:00:00Z\"}]}}}]",
+                PipelineFailure.UNKNOWN_OPERATOR), "$date is not an expression operator; extended JSON");
+        valid("[{\"$match\": {\"$expr\": {\"$gte\": [\"$orderDate\", {\"$dateFromString\": {\"dateString\": \"2016-01-01\"}}]}}}]");
+    }
+
+    @Test
+    void reportsAtMostFiveProblemsClassifiedByTheFirst() {
+        InvalidPipelineException e = invalid("""
+                [{"$match": {"a": 1, "b": 1, "c": 1, "d": 1, "e": 1, "f": 1, "sales": {"$bigger": 1}}}]""",
+                PipelineFailure.UNKNOWN_FIELD);
+        assertEquals(5, e.getMessage().split("; ").length, e.getMessage());
+    }
+
+    @Test
+    void checksNothingWhenDisabled() {
+        ReflectionTestUtils.setField(validator, "enabled", false);
+        assertDoesNotThrow(() -> validator.validate(validator.parse("[{\"$nonsense\": {}}]")));
+    }
+}
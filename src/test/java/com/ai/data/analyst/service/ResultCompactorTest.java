@@ -0,0 +1,81 @@
+package com.ai.data.analyst.service;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultCompactorTest {
+
+    private static List<Document> results(int rows, int constantColumns) {
+        List<Document> results = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Document row = new Document("_id", new Document("region", "Region " + i).append("year", 2014 + i % 4))
+                    .append("sales", 1000.5 * i)
+                    .append("orders", i);
+            for (int c = 0; c < constantColumns; c++) {
+                row.append("constantColumnWithALongName" + c, "the same value in every row");
+            }
+            results.add(row);
+        }
+        return results;
+    }
+
+    private static void assertWithin(int maxChars, String compacted) {
+        assertTrue(compacted.length() <= maxChars, compacted.length() + " > " + maxChars + ":\n" + compacted);
+    }
+
+    @Test
+    void rendersSmallResultsWhole() {
+        String compacted = new ResultCompactor(50, 8000, 5).compact(List.of(
+                new Document("_id", "West").append("sales", 725457.8).append("category", "Furniture"),
+                new Document("_id", "East").append("sales", 678781.2).append("category", "Furniture")));
+
+        assertEquals("""
+                rows: 2
+                constant: category=Furniture
+                _id,sales
+                West,725457.8
+                East,678781.2
+                summary:
+                _id: count=2 distinct=2
+                sales: count=2 sum=1404239 min=678781.2 max=725457.8 mean=702119.5
+                """, compacted);
+    }
+
+    @Test
+    void holdsEveryPartToMaxChars() {
+        for (int maxChars : new int[] {120, 300, 600, 1200, 4000}) {
+            String compacted = new ResultCompactor(50, maxChars, 5).compact(results(200, 20));
+
+            assertWithin(maxChars, compacted);
+            assertTrue(compacted.startsWith("rows: 200 (showing first 50)\n"), compacted);
+        }
+    }
+
+    @Test
+    void countsConstantsAgainstTheTableHalf() {
+        String compacted = new ResultCompactor(50, 1000, 5).compact(results(10, 40));
+
+        assertWithin(1000, compacted);
+        assertTrue(compacted.contains(" more constant columns truncated\n"), compacted);
+        int summary = compacted.indexOf("summary:\n");
+        assertTrue(summary >= 0 && summary <= 500, compacted);
+        assertTrue(compacted.contains("sales: count=10 sum=45022.5"), compacted);
+    }
+
+    @Test
+    void notesTruncatedRowsWithinTheCap() {
+        String compacted = new ResultCompactor(50, 600, 5).compact(results(200, 0));
+
+        assertWithin(600, compacted);
+        // the note counts the rows beyond max-rows as well
+        assertTrue(compacted.matches("(?s).*\\.\\.\\. 1\\d\\d more rows truncated\n.*"), compacted);
+        assertFalse(compacted.contains("summary truncated"), compacted);
+    }
+}
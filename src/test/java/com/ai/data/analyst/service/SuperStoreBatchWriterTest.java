@@ -0,0 +1,228 @@
+package com.ai.data.analyst.service;
+
+import com.ai.data.analyst.cache.DatasetGeneration;
+import com.ai.data.analyst.entity.SuperStore;
+import com.ai.data.analyst.storage.CompactStorage;
+import com.ai.data.analyst.storage.DimensionDictionary;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Runs delta ingest against MongoDB and checks which rows are written and that the rollups
+ * match the rows after every write.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class SuperStoreBatchWriterTest {
+
+    private static final LocalDate DAY = LocalDate.of(2016, 11, 8);
+
+    @Container
+    private static final MongoDBContainer MONGO = new MongoDBContainer("mongo:7.0");
+
+    private static MongoClient client;
+
+    private MongoTemplate mongoTemplate;
+    private SuperStoreBatchWriter batchWriter;
+
+    @BeforeAll
+    static void connect() {
+        client = MongoClients.create(MONGO.getConnectionString());
+    }
+
+    @AfterAll
+    static void close() {
+        client.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        client.getDatabase("delta").drop();
+        mongoTemplate = new MongoTemplate(client, "delta");
+        DatasetGeneration datasetGeneration = new DatasetGeneration();
+        RollupService rollupService = new RollupService(mongoTemplate, datasetGeneration);
+        ReflectionTestUtils.setField(rollupService, "enabled", true);
+        ReflectionTestUtils.setField(rollupService, "batchSize", 1000);
+        CompactStorage compactStorage = new CompactStorage(mongoTemplate, new DimensionDictionary(mongoTemplate), datasetGeneration);
+        batchWriter = new SuperStoreBatchWriter(mongoTemplate, rollupService, compactStorage);
+        ReflectionTestUtils.setField(batchWriter, "batchSize", 2);
+    }
+
+    private static SuperStore row(int rowId, String region, double sales, double profit, int quantity) {
+        return SuperStore.builder()
+                .rowId(rowId)
+                .orderId("CA-2016-" + rowId)
+                .orderDate(DAY)
+                .shipDate(DAY.plusDays(3))
+                .shipMode("Second Class")
+                .customerId("CG-12520")
+                .customerName("Claire Gute")
+                .segment("Consumer")
+                .country("United States")
+                .city("Henderson")
+                .state("Kentucky")
+                .postalCode("42420")
+                .region(region)
+                .productId("FUR-BO-10001798")
+                .category("Furniture")
+                .subCategory("Bookcases")
+                .productName("Bush Somerset Collection Bookcase")
+                .sales(sales)
+                .quantity(quantity)
+                .discount(0.0)
+                .profit(profit)
+                .build();
+    }
+
+    private SuperStore stored(int rowId) {
+        return mongoTemplate.findById(rowId, SuperStore.class);
+    }
+
+    private long hashes() {
+        return mongoTemplate.getCollection(SuperStoreBatchWriter.HASHES).countDocuments();
+    }
+
+    /**
+     * Checks the daily and monthly rollup of the region.
+     */
+    private void assertRollup(String region, long orderLines, double sales, double profit, long quantity) {
+        for (String collection : List.of(RollupService.DAILY, RollupService.MONTHLY)) {
+            Document rollup = mongoTemplate.getCollection(collection).find(new Document("region", region)).first();
+            String where = collection + " " + region;
+            assertEquals(orderLines, ((Number) rollup.get("orderLines")).longValue(), where);
+            assertEquals(sales, rollup.getDouble("sales"), 1e-9, where);
+            assertEquals(profit, rollup.getDouble("profit"), 1e-9, where);
+            assertEquals(quantity, ((Number) rollup.get("quantity")).longValue(), where);
+        }
+    }
+
+    private void assertNoRollup(String region) {
+        for (String collection : List.of(RollupService.DAILY, RollupService.MONTHLY)) {
+            assertNull(mongoTemplate.getCollection(collection).find(new Document("region", region)).first(), collection + " " + region);
+        }
+    }
+
+    @Test
+    void classifiesInsertedUpdatedAndUnchangedRows() {
+        assertEquals(new SuperStoreBatchWriter.DeltaWrite(2, 0, 0),
+                batchWriter.writeDelta(List.of(row(1, "South", 100.5, 10.25, 2), row(2, "South", 50.25, 5.5, 1))));
+
+        SuperStoreBatchWriter.DeltaWrite second = batchWriter.writeDelta(List.of(
+                row(1, "South", 100.5, 10.25, 2),
+                row(2, "South", 80.0, 5.5, 1),
+                row(3, "South", 20.0, -2.0, 4)));
+
+        assertEquals(new SuperStoreBatchWriter.DeltaWrite(1, 1, 1), second);
+        assertEquals(2, second.written());
+        assertEquals(80.0, stored(2).getSales(), 0.0);
+        assertEquals(3, mongoTemplate.count(new Query(), SuperStore.class));
+        assertEquals(3, hashes());
+
+        assertEquals(new SuperStoreBatchWriter.DeltaWrite(0, 0, 3), batchWriter.writeDelta(List.of(
+                row(1, "South", 100.5, 10.25, 2),
+                row(2, "South", 80.0, 5.5, 1),
+                row(3, "South", 20.0, -2.0, 4))));
+    }
+
+    @Test
+    void countsARepeatedRowIdOnce() {
+        batchWriter.writeDelta(List.of(row(1, "South", 100.5, 10.25, 2), row(2, "South", 50.25, 5.5, 1)));
+
+        // the last row of a repeated rowId wins, the earlier one is neither written nor unchanged
+        assertEquals(new SuperStoreBatchWriter.DeltaWrite(0, 0, 2), batchWriter.writeDelta(List.of(
+                row(1, "South", 100.5, 10.25, 2),
+                row(2, "South", 80.0, 5.5, 1),
+                row(2, "South", 50.25, 5.5, 1))));
+        assertEquals(new SuperStoreBatchWriter.DeltaWrite(1, 1, 0), batchWriter.writeDelta(List.of(
+                row(2, "South", 70.0, 5.5, 1),
+                row(3, "South", 20.0, -2.0, 4),
+                row(3, "South", 20.0, -2.0, 4))));
+        assertEquals(70.0, stored(2).getSales(), 0.0);
+    }
+
+    @Test
+    void correctsTheRollupsByTheDifference() {
+        batchWriter.writeDelta(List.of(row(1, "West", 100.5, 10.25, 2), row(2, "West", 50.25, 5.5, 1)));
+        assertRollup("West", 2, 150.75, 15.75, 3);
+
+        // row 2 moves to another region, row 1 changes in place
+        batchWriter.writeDelta(List.of(row(1, "West", 120.0, 12.0, 3), row(2, "East", 70.0, 7.5, 5)));
+
+        assertRollup("West", 1, 120.0, 12.0, 3);
+        assertRollup("East", 1, 70.0, 7.5, 5);
+
+        // unchanged rows are not added again
+        batchWriter.writeDelta(List.of(row(1, "West", 120.0, 12.0, 3), row(2, "East", 70.0, 7.5, 5)));
+        assertRollup("West", 1, 120.0, 12.0, 3);
+        assertRollup("East", 1, 70.0, 7.5, 5);
+    }
+
+    @Test
+    void comparesRowsLoadedWithoutHashesByContent() {
+        batchWriter.write(List.of(row(1, "South", 100.5, 10.25, 2), row(2, "South", 50.25, 5.5, 1)));
+        assertEquals(0, hashes());
+
+        assertEquals(new SuperStoreBatchWriter.DeltaWrite(0, 1, 1),
+                batchWriter.writeDelta(List.of(row(1, "South", 100.5, 10.25, 2), row(2, "South", 60.25, 5.5, 1))));
+
+        assertEquals(2, hashes());
+        assertRollup("South", 2, 160.75, 15.75, 3);
+    }
+
+    @Test
+    void reinsertsRowsDeletedBehindTheirHashes() {
+        batchWriter.writeDelta(List.of(row(1, "South", 100.5, 10.25, 2)));
+        mongoTemplate.remove(new Query(Criteria.where("_id").is(1)), SuperStore.class);
+
+        assertEquals(new SuperStoreBatchWriter.DeltaWrite(1, 0, 0),
+                batchWriter.writeDelta(List.of(row(1, "South", 100.5, 10.25, 2))));
+        assertEquals(100.5, stored(1).getSales(), 0.0);
+    }
+
+    @Test
+    void syncDeletesRowsMissingFromTheFile() {
+        batchWriter.writeDelta(List.of(
+                row(1, "South", 100.5, 10.25, 2),
+                row(2, "Central", 50.25, 5.5, 1),
+                row(3, "South", 20.0, -2.0, 4),
+                row(4, "South", 8.0, 1.0, 1),
+                row(5, "Central", 4.0, 0.5, 1)));
+        BitSet kept = new BitSet();
+        kept.set(1);
+        kept.set(3);
+
+        assertEquals(3, batchWriter.deleteMissing(kept));
+
+        assertEquals(2, mongoTemplate.count(new Query(), SuperStore.class));
+        assertNull(stored(2));
+        assertNull(stored(4));
+        assertEquals(2, hashes());
+        assertRollup("South", 2, 120.5, 8.25, 6);
+        assertNoRollup("Central");
+
+        // a deleted row that comes back is new again
+        assertEquals(new SuperStoreBatchWriter.DeltaWrite(1, 0, 2), batchWriter.writeDelta(List.of(
+                row(1, "South", 100.5, 10.25, 2),
+                row(2, "Central", 50.25, 5.5, 1),
+                row(3, "South", 20.0, -2.0, 4))));
+        assertRollup("Central", 1, 50.25, 5.5, 1);
+    }
+}
@@ -0,0 +1,205 @@
+package com.ai.data.analyst.storage;
+
+import com.ai.data.analyst.cache.DatasetGeneration;
+import com.ai.data.analyst.entity.SuperStore;
+import com.ai.data.analyst.service.DataAnalystService;
+import com.ai.data.analyst.service.RollupService;
+import com.ai.data.analyst.service.SuperStoreBatchWriter;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Writes the same rows in the expanded and the compact layout and checks that the superStore view
+ * gives back the rows and the pipeline results of the expanded collection, also after migrating.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class CompactStorageTest {
+
+    @Container
+    private static final MongoDBContainer MONGO = new MongoDBContainer("mongo:7.0");
+
+    private static final List<String> PIPELINES = List.of(
+            """
+            [{"$group": {"_id": "$region", "sales": {"$sum": "$sales"}, "profit": {"$avg": "$profit"},
+                         "lowest": {"$min": "$discount"}, "lines": {"$sum": 1}}},
+             {"$sort": {"_id": 1}}]""",
+            """
+            [{"$match": {"category": "Technology", "state": {"$in": ["Texas", "Ohio"]}}},
+             {"$project": {"_id": 1, "customerName": 1, "productName": 1, "quantity": 1}},
+             {"$sort": {"_id": 1}}]""",
+            """
+            [{"$match": {"profit": null}}, {"$project": {"_id": 1}}, {"$sort": {"_id": 1}}]""",
+            """
+            [{"$group": {"_id": {"year": {"$year": "$orderDate"}, "segment": "$segment"}, "quantity": {"$sum": "$quantity"}}},
+             {"$sort": {"_id.year": 1, "_id.segment": 1}}]""");
+
+    private static MongoClient client;
+
+    private MongoTemplate expandedTemplate;
+    private MongoTemplate compactTemplate;
+
+    @BeforeAll
+    static void connect() {
+        client = MongoClients.create(MONGO.getConnectionString());
+    }
+
+    @AfterAll
+    static void close() {
+        client.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        client.getDatabase("expanded").drop();
+        client.getDatabase("compact").drop();
+        expandedTemplate = new MongoTemplate(client, "expanded");
+        compactTemplate = new MongoTemplate(client, "compact");
+    }
+
+    private static CompactStorage storage(MongoTemplate mongoTemplate, boolean enabled) {
+        CompactStorage storage = new CompactStorage(mongoTemplate, new DimensionDictionary(mongoTemplate), new DatasetGeneration());
+        ReflectionTestUtils.setField(storage, "enabled", enabled);
+        return storage;
+    }
+
+    private static SuperStoreBatchWriter writer(MongoTemplate mongoTemplate, CompactStorage storage) {
+        RollupService rollupService = new RollupService(mongoTemplate, new DatasetGeneration());
+        ReflectionTestUtils.setField(rollupService, "enabled", false);
+        return new SuperStoreBatchWriter(mongoTemplate, rollupService, storage);
+    }
+
+    private static List<SuperStore> rows(int from, int to, String... regions) {
+        String[] categories = {"Furniture", "Office Supplies", "Technology"};
+        String[] states = {"Texas", "Ohio", "Kentucky", "California"};
+        List<SuperStore> rows = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            rows.add(SuperStore.builder()
+                    .rowId(i)
+                    .orderId("CA-2016-" + (100000 + i / 3))
+                    .orderDate(LocalDate.of(2014 + i % 4, 1 + i % 12, 1 + i % 28))
+                    .shipDate(i % 17 == 0 ? null : LocalDate.of(2014 + i % 4, 1 + i % 12, 1 + i % 28).plusDays(3))
+                    .shipMode(i % 2 == 0 ? "Standard Class" : "Second Class")
+                    .customerId("CG-" + (12520 + i % 40))
+                    .customerName("Customer " + i % 40)
+                    .segment(i % 3 == 0 ? "Consumer" : "Corporate")
+                    .country("United States")
+                    .city(i % 5 == 0 ? null : "City " + i % 7)
+                    .state(states[i % states.length])
+                    .postalCode(String.valueOf(42420 + i % 9))
+                    .region(regions[i % regions.length])
+                    .productId("FUR-BO-" + (10001798 + i % 25))
+                    .category(categories[i % categories.length])
+                    .subCategory("Sub " + i % 6)
+                    .productName("Product " + i % 25)
+                    // every eleventh row lacks its measures, as rows of a sparse CSV do
+                    .sales(i % 11 == 0 ? null : 10.25 * i)
+                    .quantity(i % 11 == 0 ? null : 1 + i % 9)
+                    .discount(i % 11 == 0 ? null : (i % 4) * 0.1)
+                    .profit(i % 11 == 0 ? null : 1.5 * i - 40)
+                    .build());
+        }
+        return rows;
+    }
+
+    private static List<SuperStore> stored(MongoTemplate mongoTemplate) {
+        return mongoTemplate.find(new Query().with(Sort.by("_id")), SuperStore.class, DataAnalystService.SUPER_STORE);
+    }
+
+    private static List<Document> aggregate(MongoTemplate mongoTemplate, String collection, String pipeline) {
+        List<Document> stages = Document.parse("{\"pipeline\": " + pipeline + "}").getList("pipeline", Document.class);
+        return mongoTemplate.getCollection(collection).aggregate(stages).into(new ArrayList<>());
+    }
+
+    private static String collectionType(MongoTemplate mongoTemplate, String name) {
+        Document info = mongoTemplate.getDb().listCollections().filter(new Document("name", name)).first();
+        return info == null ? null : info.getString("type");
+    }
+
+    @Test
+    void readsTheRowsBackThroughTheView() {
+        CompactStorage storage = storage(compactTemplate, true);
+        storage.initialise();
+        SuperStoreBatchWriter writer = writer(compactTemplate, storage);
+        List<SuperStore> rows = rows(1, 120, "Central", "East", "South");
+        // the second batch brings a region the view does not know yet
+        List<SuperStore> later = rows(120, 160, "West", "Central");
+
+        assertEquals(119, writer.write(rows));
+        assertEquals(40, writer.write(later));
+
+        List<SuperStore> expected = new ArrayList<>(rows);
+        expected.addAll(later);
+        assertEquals("view", collectionType(compactTemplate, DataAnalystService.SUPER_STORE));
+        assertEquals(expected, stored(compactTemplate));
+        assertEquals(expected.subList(10, 13), storage.find(List.of(11, 12, 13)));
+
+        SuperStore sparse = stored(compactTemplate).get(10);
+        assertEquals(11, (int) sparse.getRowId());
+        assertNull(sparse.getSales());
+        assertNull(sparse.getQuantity());
+        assertNull(sparse.getProfit());
+        Document compact = compactTemplate.getCollection(CompactStorage.COMPACT).find(new Document("_id", 11)).first();
+        assertFalse(compact.containsKey("s") || compact.containsKey("q") || compact.containsKey("d") || compact.containsKey("pf"),
+                compact.toJson());
+    }
+
+    @Test
+    void answersPipelinesLikeTheExpandedLayout() {
+        List<SuperStore> rows = rows(1, 300, "Central", "East", "South", "West");
+        writer(expandedTemplate, storage(expandedTemplate, false)).write(rows);
+        CompactStorage compact = storage(compactTemplate, true);
+        compact.initialise();
+        writer(compactTemplate, compact).write(rows);
+
+        for (String pipeline : PIPELINES) {
+            assertEquals(aggregate(expandedTemplate, DataAnalystService.SUPER_STORE, pipeline),
+                    aggregate(compactTemplate, DataAnalystService.SUPER_STORE, pipeline), pipeline);
+        }
+    }
+
+    @Test
+    void migratesAnExpandedCollection() {
+        List<SuperStore> rows = rows(1, 250, "Central", "East", "South", "West");
+        writer(compactTemplate, storage(compactTemplate, false)).write(rows);
+        List<List<Document>> before = PIPELINES.stream()
+                .map(pipeline -> aggregate(compactTemplate, DataAnalystService.SUPER_STORE, pipeline))
+                .toList();
+
+        CompactStorage storage = storage(compactTemplate, true);
+        ReflectionTestUtils.setField(storage, "migrationBatchSize", 100);
+        assertEquals(249, storage.migrate());
+
+        assertEquals("view", collectionType(compactTemplate, DataAnalystService.SUPER_STORE));
+        assertEquals(249, compactTemplate.getCollection(CompactStorage.EXPANDED).countDocuments());
+        assertEquals(rows, stored(compactTemplate));
+        for (int i = 0; i < PIPELINES.size(); i++) {
+            assertEquals(before.get(i), aggregate(compactTemplate, DataAnalystService.SUPER_STORE, PIPELINES.get(i)), PIPELINES.get(i));
+        }
+        assertEquals(0, storage.migrate());
+
+        // rows written after the migration go to the compact collection and show in the view
+        List<SuperStore> later = rows(250, 260, "North");
+        assertEquals(10, writer(compactTemplate, storage).write(later));
+        assertEquals(later, stored(compactTemplate).subList(249, 259));
+    }
+}